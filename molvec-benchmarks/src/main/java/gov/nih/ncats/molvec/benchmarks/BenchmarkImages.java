@@ -0,0 +1,56 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
+
+/**
+ * Locates the images bundled with molvec ({@code test/} and
+ * {@code src/test/resources/}) that the benchmarks run on.
+ */
+final class BenchmarkImages {
+
+	static final String ROOT_PROPERTY = "molvec.root";
+
+	private BenchmarkImages(){
+		//can not instantiate
+	}
+
+	/**
+	 * The molvec root directory: the {@value #ROOT_PROPERTY} system property if set,
+	 * otherwise the working directory or its parent, whichever has the test images.
+	 */
+	static File root() throws FileNotFoundException{
+		String prop = System.getProperty(ROOT_PROPERTY);
+		if(prop !=null){
+			return new File(prop);
+		}
+		File cwd = new File(".").getAbsoluteFile();
+		for(File dir : new File[]{cwd, cwd.getParentFile()}){
+			if(dir !=null && new File(dir, "test").isDirectory() && new File(dir, "src/test/resources").isDirectory()){
+				return dir;
+			}
+		}
+		throw new FileNotFoundException("could not find the molvec test images, run from the molvec root directory or set -D" + ROOT_PROPERTY);
+	}
+
+	static File file(String path) throws IOException{
+		File f = new File(root(), path);
+		if(!f.isFile()){
+			throw new FileNotFoundException(f.getAbsolutePath());
+		}
+		return f;
+	}
+
+	static byte[] bytes(String path) throws IOException{
+		return Files.readAllBytes(file(path).toPath());
+	}
+
+	static Raster grayscale(String path) throws IOException{
+		return ImageUtil.grayscale(file(path)).getRaster();
+	}
+}
@@ -0,0 +1,38 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the usual JMH command line options, but
+ * always with the GC profiler attached, so every run reports allocation
+ * rate (gc.alloc.rate.norm is bytes per operation) next to the throughput.
+ *
+ * Run from the molvec root directory, or set {@code -Dmolvec.root=...},
+ * so the benchmark images can be found.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception{
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if(cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers()
+				|| cmd.shouldListResultFormats() || cmd.shouldListWithParams()){
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		ChainedOptionsBuilder opts = new OptionsBuilder().parent(cmd);
+		boolean hasGc = cmd.getProfilers().stream()
+							.anyMatch(p->p.getKlass().equals("gc") || p.getKlass().equals(GCProfiler.class.getName()));
+		if(!hasGc){
+			opts.addProfiler(GCProfiler.class);
+		}
+		String root = System.getProperty(BenchmarkImages.ROOT_PROPERTY);
+		if(root !=null){
+			opts.jvmArgsAppend("-D" + BenchmarkImages.ROOT_PROPERTY + "=" + root);
+		}
+		new Runner(opts.build()).run();
+	}
+}
@@ -0,0 +1,92 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.binarization.AdaptiveThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
+import gov.nih.ncats.molvec.internal.image.binarization.LeastPopulatedThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.SauvolaThreshold;
+import gov.nih.ncats.molvec.internal.image.binarization.SigmaThreshold;
+
+/**
+ * Each {@link Binarization} on its own, from a grayscale raster to a {@link Bitmap}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinarizationBenchmark {
+
+	public enum Method{
+		DEFAULT{
+			@Override
+			Binarization create(){
+				return StructureImageExtractor.DEF_BINARIZATION;
+			}
+		},
+		SIGMA{
+			@Override
+			Binarization create(){
+				return new SigmaThreshold();
+			}
+		},
+		LEAST_POPULATED{
+			@Override
+			Binarization create(){
+				return new LeastPopulatedThreshold();
+			}
+		},
+		ADAPTIVE{
+			@Override
+			Binarization create(){
+				return new AdaptiveThreshold();
+			}
+		},
+		SAUVOLA{
+			@Override
+			Binarization create(){
+				return new SauvolaThreshold();
+			}
+		};
+
+		abstract Binarization create();
+	}
+
+	@Param({"test/jmex1.png", "test/cas-50-42-0.tif"})
+	public String image;
+
+	@Param
+	public Method method;
+
+	private Raster raster;
+	private Binarization binarization;
+
+	@Setup
+	public void setup() throws IOException{
+		raster = BenchmarkImages.grayscale(image);
+		binarization = method.create();
+	}
+
+	@Benchmark
+	public Bitmap binarize(){
+		return binarization.binarize(raster, null, s->{});
+	}
+}
@@ -0,0 +1,64 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.Shape;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+/**
+ * Thinning and connected component labelling of an already binarized image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitmapBenchmark {
+
+	@Param({"test/jmex1.png", "test/cas-50-42-0.tif"})
+	public String image;
+
+	@Param({"Rectangular", "Polygon", "DoublePolygon"})
+	public Bitmap.Bbox bbox;
+
+	private Bitmap bitmap;
+	private Bitmap copy;
+
+	@Setup
+	public void setup() throws IOException{
+		bitmap = Bitmap.createBitmap(BenchmarkImages.grayscale(image), StructureImageExtractor.DEF_BINARIZATION).clean();
+	}
+
+	@Setup(Level.Invocation)
+	public void copy(){
+		//a Bitmap caches its connected components, so label a fresh copy each time
+		copy = new Bitmap(bitmap);
+	}
+
+	@Benchmark
+	public Bitmap thin(){
+		return bitmap.thin();
+	}
+
+	@Benchmark
+	public List<Shape> connectedComponents(){
+		return copy.connectedComponents(bbox);
+	}
+}
@@ -0,0 +1,68 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable.Ring;
+
+/**
+ * Ring perception on the connection tables of caged structures, where the rings
+ * through each atom overlap the most: the smallest set of smallest rings, and the
+ * smallest rings through every atom which are picked out of the relevant rings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CageRingBenchmark {
+
+	@Param({"src/test/resources/moleculeTest/cagedStructure.png",
+			"src/test/resources/moleculeTest/cagedStructure2.png",
+			"src/test/resources/moleculeTest/cagedStructure3.png",
+			"src/test/resources/moleculeTest/cagedStructure4.png",
+			"src/test/resources/moleculeTest/cagedStructure5.png",
+			"src/test/resources/moleculeTest/cagedStructure6.png"})
+	public String image;
+
+	private ConnectionTable recognized;
+	private ConnectionTable ctab;
+
+	@Setup
+	public void setup() throws IOException{
+		recognized = new StructureImageExtractor(BenchmarkImages.file(image)).getCtab();
+	}
+
+	@Setup(Level.Invocation)
+	public void freshTable(){
+		//the rings, and the rings of each component, are cached on the table
+		ctab = recognized.cloneTab();
+	}
+
+	@Benchmark
+	public List<Ring> getSmallestSetOfSmallestRings(){
+		return ctab.getSmallestSetOfSmallestRings();
+	}
+
+	@Benchmark
+	public List<Ring> getRings(){
+		return ctab.getRings();
+	}
+}
@@ -0,0 +1,56 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable.Ring;
+
+/**
+ * Ring perception on the connection table of a recognized structure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionTableBenchmark {
+
+	@Param({"test/cas-50-42-0.tif", "src/test/resources/regressionTest/uspto/US07314511-20080101-C00002.TIF"})
+	public String image;
+
+	private ConnectionTable recognized;
+	private ConnectionTable ctab;
+
+	@Setup
+	public void setup() throws IOException{
+		recognized = new StructureImageExtractor(BenchmarkImages.file(image)).getCtab();
+	}
+
+	@Setup(Level.Invocation)
+	public void freshTable(){
+		//the rings, and the rings of each component, are cached on the table
+		ctab = recognized.cloneTab();
+	}
+
+	@Benchmark
+	public List<Ring> getRings(){
+		return ctab.getRings();
+	}
+}
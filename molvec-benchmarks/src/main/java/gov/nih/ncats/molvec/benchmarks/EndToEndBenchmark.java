@@ -0,0 +1,53 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.Molvec;
+
+/**
+ * Full recognition of a single image, encoded bytes in, molfile out.
+ * Override the images with {@code -p image=path1,path2} (relative to the molvec root).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+
+	@Param({
+		"test/cas-50-42-0.tif",
+		"test/hand-drawn.png",
+		"src/test/resources/moleculeTest/azt.png",
+		"src/test/resources/moleculeTest/cagedStructure.png",
+		"src/test/resources/regressionTest/testSet1/2008001630_20_chem.tif",
+		"src/test/resources/regressionTest/uspto/US07314511-20080101-C00002.TIF",
+	})
+	public String image;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() throws IOException{
+		data = BenchmarkImages.bytes(image);
+	}
+
+	@Benchmark
+	public String ocr() throws IOException{
+		return Molvec.ocr(data);
+	}
+}
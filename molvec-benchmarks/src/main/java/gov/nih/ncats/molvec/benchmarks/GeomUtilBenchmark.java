@@ -0,0 +1,56 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import gov.nih.ncats.molvec.internal.util.GeomUtil;
+
+/**
+ * {@link GeomUtil#groupThings(java.util.Collection, java.util.function.Predicate)}
+ * clustering points scattered over a page by distance, the way nodes and shapes
+ * are grouped during recognition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeomUtilBenchmark {
+
+	@Param({"100", "1000", "4000"})
+	public int size;
+
+	private List<Point2D> points;
+
+	@Setup
+	public void setup(){
+		Random r = new Random(12345);
+		points = new ArrayList<>(size);
+		//keep the density of points roughly constant as the count grows
+		double side = 30 * Math.sqrt(size);
+		for(int i=0; i<size; i++){
+			points.add(new Point2D.Double(r.nextDouble() * side, r.nextDouble() * side));
+		}
+	}
+
+	@Benchmark
+	public List<List<Point2D>> groupThings(){
+		return GeomUtil.groupThings(points, t->t.k().distance(t.v()) < 10);
+	}
+}
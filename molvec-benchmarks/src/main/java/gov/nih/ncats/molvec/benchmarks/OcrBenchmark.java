@@ -0,0 +1,76 @@
+package gov.nih.ncats.molvec.benchmarks;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR;
+import gov.nih.ncats.molvec.ui.SCOCR;
+import gov.nih.ncats.molvec.ui.StupidestPossibleSCOCRSansSerif;
+
+/**
+ * Scoring glyph-sized shapes from a real image against the whole
+ * OCR template alphabet with {@link RasterBasedCosineSCOCR#getRanking(Bitmap)}.
+ * Scores are per glyph.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OcrBenchmark {
+
+	private static final int GLYPHS = 32;
+
+	private RasterBasedCosineSCOCR ocr;
+	private List<Bitmap> glyphs;
+
+	@Setup
+	public void setup() throws IOException{
+		ocr = new StupidestPossibleSCOCRSansSerif();
+		ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+
+		Bitmap bitmap = Bitmap.createBitmap(BenchmarkImages.grayscale("test/jmex1.png"), StructureImageExtractor.DEF_BINARIZATION).clean();
+		List<Bitmap> all = new ArrayList<>();
+		for(Shape s : bitmap.connectedComponents(Bitmap.Bbox.Rectangular)){
+			Rectangle r = s.getBounds();
+			if(r.height >= 6 && r.height <= 40 && r.width <= 40){
+				all.add(bitmap.crop(s));
+			}
+		}
+		if(all.isEmpty()){
+			throw new IllegalStateException("no glyph sized shapes found");
+		}
+		glyphs = new ArrayList<>(GLYPHS);
+		for(int i=0; i<GLYPHS; i++){
+			glyphs.add(all.get(i % all.size()));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GLYPHS)
+	public void getRanking(Blackhole bh){
+		for(Bitmap glyph : glyphs){
+			bh.consume(ocr.getRanking(glyph));
+		}
+	}
+}
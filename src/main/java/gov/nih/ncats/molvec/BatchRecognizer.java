@@ -0,0 +1,455 @@
+package gov.nih.ncats.molvec;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+
+/**
+ * Recognizes a stream of image files, such as a recursive walk of a directory
+ * or a list of paths read from STDIN, writing one record per image to a single
+ * SDF or JSONL stream as each image finishes.
+ *
+ * Only a bounded number of images are in flight at a time, and the inputs are
+ * only read as fast as the workers finish them, so the images and their records
+ * never pile up however many there are.  Records are written in the order the
+ * images finish, not the order they were given in.
+ *
+ * A {@link Checkpoint} remembers which images have been written, so a batch that was
+ * stopped can be restarted and skip them.  Each record is flushed before its image
+ * is added to the checkpoint, so a record is never lost, but the few that were
+ * being written when the batch was stopped may be written again.  A restarted batch
+ * holds the paths of every image done before it in memory, so that does grow
+ * with the size of the batch.
+ */
+final class BatchRecognizer {
+
+	/**
+	 * The format of the output stream.
+	 */
+	enum Format {
+		/**
+		 * Each record is the molfile followed by SOURCE, ELAPSED_MS, TIMED_OUT and,
+		 * if the image failed, ERROR data items.
+		 */
+		SDF,
+		/**
+		 * Each record is a JSON object on its own line with source, elapsedMs,
+		 * timedOut, molfile and error fields.
+		 */
+		JSONL;
+
+		static Format parse(String name){
+			try{
+				return valueOf(name.toUpperCase(Locale.ROOT));
+			}catch(IllegalArgumentException e){
+				throw new IllegalArgumentException("unknown format '" + name + "', must be sdf or jsonl");
+			}
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(BatchRecognizer.class.getName());
+
+	private static final String EMPTY_MOLFILE = new ConnectionTable().toMol();
+
+	private final MolvecEngine engine;
+	private final int workers;
+	private final int maxInFlight;
+	private final Format format;
+
+	/**
+	 * @param engine the engine to recognize each image with.
+	 * @param workers the number of images to recognize at once.
+	 * @param format the format of the output.
+	 */
+	BatchRecognizer(MolvecEngine engine, int workers, Format format){
+		if(workers < 1){
+			throw new IllegalArgumentException("workers must be >= 1");
+		}
+		this.engine = engine;
+		this.workers = workers;
+		//enough queued up that no worker waits on the next input
+		this.maxInFlight = 2 * workers;
+		this.format = format;
+	}
+
+	/**
+	 * Is this the name of an image file molvec can read.
+	 */
+	static boolean isImageFile(String name){
+		int extOffset = name.lastIndexOf('.');
+		if(extOffset < 0){
+			return false;
+		}
+		String ext = name.substring(extOffset + 1).toLowerCase(Locale.ROOT);
+		return ext.equals("png") || ext.equals("jpg") || ext.equals("jpeg")
+				|| ext.equals("tif") || ext.equals("tiff") || ext.equals("gif") || ext.equals("bmp");
+	}
+
+	/**
+	 * Every image file in the given directory and its subdirectories,
+	 * found lazily as the stream is read.  A subdirectory that can't be read
+	 * is logged and skipped rather than ending the batch.  The stream has to be closed.
+	 *
+	 * @throws IOException if the directory itself can't be read.
+	 */
+	static Stream<Path> walk(Path dir) throws IOException{
+		Walk walk = new Walk(dir);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walk, Spliterator.NONNULL), false)
+				.onClose(walk::close)
+				.filter(p->isImageFile(p.getFileName().toString()))
+				.filter(Files::isRegularFile);
+	}
+
+	/**
+	 * A depth first walk of a directory tree, like {@link Files#walk(Path, java.nio.file.FileVisitOption...)}
+	 * without following links, except that a subdirectory which can't be read is skipped
+	 * instead of throwing from {@link #hasNext()}.
+	 */
+	private static final class Walk implements Iterator<Path> {
+		private final Deque<DirectoryStream<Path>> open = new ArrayDeque<>();
+		private final Deque<Iterator<Path>> entries = new ArrayDeque<>();
+		private final Deque<Path> dirs = new ArrayDeque<>();
+		private Path next;
+
+		Walk(Path dir) throws IOException{
+			enter(dir);
+		}
+
+		private void enter(Path dir) throws IOException{
+			DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+			open.push(stream);
+			entries.push(stream.iterator());
+			dirs.push(dir);
+		}
+
+		private void leave(){
+			entries.pop();
+			dirs.pop();
+			try{
+				open.pop().close();
+			}catch(IOException ignored){
+			}
+		}
+
+		@Override
+		public boolean hasNext(){
+			while(next == null && !entries.isEmpty()){
+				Path entry;
+				try{
+					Iterator<Path> it = entries.peek();
+					if(!it.hasNext()){
+						leave();
+						continue;
+					}
+					entry = it.next();
+				}catch(DirectoryIteratorException e){
+					logger.warning("skipping the rest of " + dirs.peek() + ": " + e.getCause());
+					leave();
+					continue;
+				}
+				if(Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)){
+					try{
+						enter(entry);
+					}catch(IOException e){
+						logger.warning("skipping " + entry + ": " + e);
+					}
+				}
+				next = entry;
+			}
+			return next != null;
+		}
+
+		@Override
+		public Path next(){
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			Path p = next;
+			next = null;
+			return p;
+		}
+
+		void close(){
+			while(!entries.isEmpty()){
+				leave();
+			}
+		}
+	}
+
+	/**
+	 * The paths listed one per line, ignoring blank lines, read lazily.
+	 */
+	static Stream<Path> list(BufferedReader reader){
+		return reader.lines()
+				.map(String::trim)
+				.filter(s->!s.isEmpty())
+				.map(Paths::get);
+	}
+
+	/**
+	 * The counts of a finished batch.
+	 */
+	static final class Summary {
+		final int recognized;
+		final int failed;
+		final int skipped;
+
+		Summary(int recognized, int failed, int skipped){
+			this.recognized = recognized;
+			this.failed = failed;
+			this.skipped = skipped;
+		}
+
+		@Override
+		public String toString(){
+			return recognized + " recognized, " + failed + " failed, " + skipped + " skipped as already done";
+		}
+	}
+
+	/**
+	 * Recognize every input not already in the checkpoint, and write a record for each.
+	 * @param inputs the image files, only read as fast as they're processed.
+	 * @param out where to write the records.
+	 * @param checkpoint the images already done, updated as each record is written.
+	 * @return the counts of the batch.
+	 * @throws IOException if the records or the checkpoint can't be written;
+	 * exceptions recognizing an image only fail its record.
+	 * @throws InterruptedException if interrupted while waiting for the workers.
+	 * @throws Error if recognizing an image threw one, such as running out of memory;
+	 * no more images are started, and it's thrown once those in flight are done.
+	 */
+	Summary run(Iterator<Path> inputs, Writer out, Checkpoint checkpoint) throws IOException, InterruptedException{
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		Semaphore inFlight = new Semaphore(maxInFlight);
+		AtomicReference<Throwable> stopped = new AtomicReference<>();
+		AtomicInteger recognized = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		int skipped = 0;
+		try{
+			while(inputs.hasNext() && stopped.get() == null){
+				String source = inputs.next().toAbsolutePath().normalize().toString();
+				if(checkpoint.isDone(source)){
+					skipped++;
+					continue;
+				}
+				//back-pressure: don't read the next input until there's room for it
+				inFlight.acquire();
+				pool.execute(()->{
+					try{
+						String record = recognize(source, recognized, failed);
+						synchronized(out){
+							out.write(record);
+							out.flush();
+							checkpoint.done(source);
+						}
+					}catch(IOException | Error e){
+						stopped.compareAndSet(null, e);
+					}finally{
+						inFlight.release();
+					}
+				});
+			}
+		}finally{
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		Throwable t = stopped.get();
+		if(t instanceof IOException){
+			throw (IOException) t;
+		}
+		if(t instanceof Error){
+			throw (Error) t;
+		}
+		return new Summary(recognized.get(), failed.get(), skipped);
+	}
+
+	private String recognize(String source, AtomicInteger recognized, AtomicInteger failed){
+		long start = System.nanoTime();
+		String molfile = null;
+		boolean timedOut = false;
+		String error = null;
+		try{
+			MolvecResult result = engine.recognize(new File(source));
+			molfile = result.getMolfile();
+			timedOut = result.isTimedOut();
+			recognized.incrementAndGet();
+		}catch(Exception e){
+			error = e.getMessage() == null ? e.toString() : e.getMessage();
+			failed.incrementAndGet();
+		}
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if(format == Format.SDF){
+			return toSdf(source, molfile, elapsedMs, timedOut, error);
+		}
+		return toJson(source, molfile, elapsedMs, timedOut, error);
+	}
+
+	static String toSdf(String source, String molfile, long elapsedMs, boolean timedOut, String error){
+		StringBuilder sb = new StringBuilder();
+		String mol = molfile == null ? EMPTY_MOLFILE : molfile;
+		sb.append(mol);
+		if(!mol.endsWith("\n")){
+			sb.append('\n');
+		}
+		appendItem(sb, "SOURCE", source);
+		appendItem(sb, "ELAPSED_MS", Long.toString(elapsedMs));
+		appendItem(sb, "TIMED_OUT", Boolean.toString(timedOut));
+		if(error != null){
+			//data items end at the first blank line
+			appendItem(sb, "ERROR", error.replaceAll("\\R+", " "));
+		}
+		return sb.append("$$$$\n").toString();
+	}
+
+	private static void appendItem(StringBuilder sb, String name, String value){
+		sb.append("> <").append(name).append(">\n").append(value).append("\n\n");
+	}
+
+	static String toJson(String source, String molfile, long elapsedMs, boolean timedOut, String error){
+		StringBuilder sb = new StringBuilder("{\"source\":");
+		appendJsonString(sb, source);
+		sb.append(",\"elapsedMs\":").append(elapsedMs);
+		sb.append(",\"timedOut\":").append(timedOut);
+		sb.append(",\"molfile\":");
+		appendJsonString(sb, molfile);
+		sb.append(",\"error\":");
+		appendJsonString(sb, error);
+		return sb.append("}\n").toString();
+	}
+
+	private static void appendJsonString(StringBuilder sb, String s){
+		if(s == null){
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for(int i=0; i<s.length(); i++){
+			char c = s.charAt(i);
+			switch(c){
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if(c < 0x20){
+						sb.append(String.format("\\u%04x", (int) c));
+					}else{
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * The set of images already written, kept in a file with one path per line
+	 * that is appended to as each record is written.  The paths already in the
+	 * file when it's opened are all held in memory; those added after aren't.
+	 */
+	static final class Checkpoint {
+
+		/**
+		 * A checkpoint that remembers nothing.
+		 */
+		static final Checkpoint NONE = new Checkpoint(null, new HashSet<>());
+
+		private final Writer writer;
+		private final Set<String> done;
+
+		private Checkpoint(Writer writer, Set<String> done){
+			this.writer = writer;
+			this.done = done;
+		}
+
+		/**
+		 * Open the checkpoint file, reading the images already done if it exists.
+		 * A last line without a newline was cut short, so it's dropped from the file.
+		 */
+		static Checkpoint open(Path file) throws IOException{
+			Set<String> done = new HashSet<>();
+			if(Files.exists(file)){
+				byte[] bytes = Files.readAllBytes(file);
+				int end = bytes.length;
+				while(end > 0 && bytes[end - 1] != '\n'){
+					end--;
+				}
+				if(end < bytes.length){
+					//a path cut short by a crash: its image wasn't done, and the next
+					//path appended mustn't be joined on to it
+					try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+						channel.truncate(end);
+					}
+				}
+				for(String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")){
+					if(!line.isEmpty()){
+						done.add(line);
+					}
+				}
+			}
+			BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			return new Checkpoint(writer, done);
+		}
+
+		/**
+		 * Have any images been done already.
+		 */
+		boolean isResumed(){
+			return !done.isEmpty();
+		}
+
+		boolean isDone(String source){
+			return done.contains(source);
+		}
+
+		/**
+		 * Record the image as done.  Only called from one thread at a time.
+		 */
+		void done(String source) throws IOException{
+			if(writer == null){
+				return;
+			}
+			//the path and its newline together, so a crash can only cut the last line short
+			writer.write(source + '\n');
+			writer.flush();
+		}
+
+		void close() throws IOException{
+			if(writer != null){
+				writer.close();
+			}
+		}
+	}
+}
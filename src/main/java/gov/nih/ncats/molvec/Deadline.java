@@ -0,0 +1,104 @@
+package gov.nih.ncats.molvec;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A time budget for a single recognition.  The recognition checks it
+ * cooperatively at the end of each stage and inside its longest loops;
+ * once the budget {@link #isLow() runs low} the optional, expensive
+ * heuristics (rescue OCR, cage detection, repeated OCR passes) are skipped,
+ * and once it {@link #isExpired() expires} the best structure found so far is returned.
+ *
+ * A Deadline starts counting when it is created, and is immutable,
+ * so it can be shared between threads.
+ */
+public final class Deadline {
+
+	/**
+	 * A Deadline that never expires.
+	 */
+	public static final Deadline NONE = new Deadline(System::nanoTime, 0, Long.MAX_VALUE);
+
+	/**
+	 * The fraction of the budget that must remain for the budget not to be considered low.
+	 */
+	private static final int LOW_DIVISOR = 4;
+
+	private final LongSupplier clock;
+	private final long start;
+	private final long budgetNanos;
+
+	private Deadline(LongSupplier clock, long start, long budgetNanos){
+		this.clock = clock;
+		this.start = start;
+		this.budgetNanos = budgetNanos;
+	}
+
+	/**
+	 * Create a new Deadline that expires after the given amount of time from now.
+	 * @param amount the amount of time, must not be negative.
+	 * @param unit the unit of the amount, can not be null.
+	 * @return a new Deadline, never null.
+	 * @throws IllegalArgumentException if amount is negative.
+	 * @throws NullPointerException if unit is null.
+	 */
+	public static Deadline after(long amount, TimeUnit unit){
+		return after(amount, unit, System::nanoTime);
+	}
+
+	/**
+	 * Create a new Deadline timed by the given clock instead of {@link System#nanoTime()},
+	 * so tests can move time forward without waiting.
+	 */
+	static Deadline after(long amount, TimeUnit unit, LongSupplier nanoClock){
+		Objects.requireNonNull(unit);
+		if(amount < 0){
+			throw new IllegalArgumentException("amount can not be negative: " + amount);
+		}
+		return new Deadline(nanoClock, nanoClock.getAsLong(), unit.toNanos(amount));
+	}
+
+	/**
+	 * Has all of the budget been used.
+	 * @return {@code true} if the deadline has passed.
+	 */
+	public boolean isExpired(){
+		return remainingNanos() <= 0;
+	}
+
+	/**
+	 * Is less than a quarter of the budget left.  An expired
+	 * Deadline is also low.
+	 * @return {@code true} if the budget is running low.
+	 */
+	public boolean isLow(){
+		return remainingNanos() < budgetNanos / LOW_DIVISOR;
+	}
+
+	/**
+	 * How much of the budget is left.
+	 * @param unit the unit to report the time in.
+	 * @return the remaining time in the given unit, 0 if the deadline has passed,
+	 * or {@link Long#MAX_VALUE} nanoseconds converted to the unit for {@link #NONE}.
+	 */
+	public long remaining(TimeUnit unit){
+		return unit.convert(Math.max(0, remainingNanos()), TimeUnit.NANOSECONDS);
+	}
+
+	private long remainingNanos(){
+		if(this == NONE){
+			return Long.MAX_VALUE;
+		}
+		return budgetNanos - (clock.getAsLong() - start);
+	}
+
+	@Override
+	public String toString(){
+		if(this == NONE){
+			return "Deadline{none}";
+		}
+		return "Deadline{remaining=" + remaining(TimeUnit.MILLISECONDS) + "ms}";
+	}
+}
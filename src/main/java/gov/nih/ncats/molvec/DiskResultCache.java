@@ -0,0 +1,144 @@
+package gov.nih.ncats.molvec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ResultCache} that keeps each molfile in its own file, named after
+ * its key, in a single directory.
+ *
+ * The sizes of the files are kept in memory in the order they were last used, so
+ * the files to delete when the cache is over its size can be found without listing
+ * the directory.  The modification time of a file is updated when it's used, so a cache
+ * reopened later starts with the same order.  Only one cache should use a directory at a time,
+ * and any temporary files left in it by a cache that crashed mid-write are deleted when it's opened.
+ */
+final class DiskResultCache implements ResultCache {
+
+	private static final String SUFFIX = ".mol";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private final Path dir;
+	private final long maxBytes;
+	private final Map<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+
+	DiskResultCache(Path dir, long maxBytes) throws IOException{
+		if(maxBytes < 1){
+			throw new IllegalArgumentException("maxBytes must be >= 1");
+		}
+		this.dir = Files.createDirectories(dir);
+		this.maxBytes = maxBytes;
+		List<Path> all;
+		try(Stream<Path> list = Files.list(dir)){
+			all = list.collect(Collectors.toList());
+		}
+		List<Path> files = new ArrayList<>();
+		for(Path f : all){
+			String name = f.getFileName().toString();
+			if(name.endsWith(SUFFIX)){
+				files.add(f);
+			}else if(name.endsWith(TMP_SUFFIX)){
+				//left by a put that never finished, such as one cut short by a crash
+				Files.deleteIfExists(f);
+			}
+		}
+		Map<Path, FileTime> times = new HashMap<>();
+		for(Path f : files){
+			times.put(f, Files.getLastModifiedTime(f));
+		}
+		files.sort(Comparator.comparing(times::get));
+		for(Path f : files){
+			String name = f.getFileName().toString();
+			long size = Files.size(f);
+			sizes.put(name.substring(0, name.length() - SUFFIX.length()), size);
+			totalBytes += size;
+		}
+		evict();
+	}
+
+	private Path file(String key){
+		return dir.resolve(key + SUFFIX);
+	}
+
+	@Override
+	public String get(String key){
+		synchronized(this){
+			if(sizes.get(key) == null){
+				return null;
+			}
+		}
+		Path file = file(key);
+		try{
+			String molfile = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			return molfile;
+		}catch(IOException e){
+			//deleted or unreadable, so forget it
+			synchronized(this){
+				Long size = sizes.remove(key);
+				if(size != null){
+					totalBytes -= size;
+				}
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public void put(String key, String molfile){
+		byte[] bytes = molfile.getBytes(StandardCharsets.UTF_8);
+		try{
+			//written to the side and moved into place, so no one ever reads half a file
+			Path tmp = Files.createTempFile(dir, key, TMP_SUFFIX);
+			try{
+				Files.write(tmp, bytes);
+				Files.move(tmp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}finally{
+				Files.deleteIfExists(tmp);
+			}
+		}catch(IOException e){
+			//the result just isn't cached
+			return;
+		}
+		synchronized(this){
+			Long old = sizes.put(key, (long) bytes.length);
+			totalBytes += bytes.length - (old == null ? 0 : old);
+			evict();
+		}
+	}
+
+	/**
+	 * Delete the least recently used files until the cache is within its size.
+	 */
+	private synchronized void evict(){
+		Iterator<Map.Entry<String, Long>> it = sizes.entrySet().iterator();
+		while(totalBytes > maxBytes && it.hasNext()){
+			Map.Entry<String, Long> eldest = it.next();
+			try{
+				Files.deleteIfExists(file(eldest.getKey()));
+			}catch(IOException e){
+				//leave it, it's forgotten either way
+			}
+			totalBytes -= eldest.getValue();
+			it.remove();
+		}
+	}
+
+	synchronized long size(){
+		return totalBytes;
+	}
+}
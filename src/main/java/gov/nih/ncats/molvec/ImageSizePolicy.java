@@ -0,0 +1,192 @@
+package gov.nih.ncats.molvec;
+
+/**
+ * What a {@link MolvecEngine} does with images too big to be recognized
+ * quickly, decided from a cheap look at the decoded image (its size, the fraction of it
+ * covered by ink and the typical width of its strokes) before any binarization
+ * or shape finding starts.
+ *
+ * A policy is immutable; the methods that change a setting return a new policy.
+ * @see MolvecEngine.Builder#imageSizePolicy(ImageSizePolicy)
+ */
+public final class ImageSizePolicy {
+
+	/**
+	 * What to do with an image that has more pixels than allowed.
+	 */
+	public enum Action {
+		/**
+		 * Fail with an {@link ImageTooLargeException}.  When the image is
+		 * given encoded, its size is checked before it's even decoded.
+		 */
+		REJECT,
+		/**
+		 * Shrink the image, averaging the pixels it covers, until it has
+		 * no more pixels than allowed.
+		 */
+		DOWNSCALE,
+		/**
+		 * Cut the image into pieces along the blank rows and columns between
+		 * drawings until every piece has no more pixels than allowed, shrinking any
+		 * piece that can't be cut, and recognize each piece on its own.
+		 * Only {@link MolvecEngine#recognizePage(java.awt.image.Raster) recognizePage}
+		 * cuts images, and returns the structure of every piece; the methods that return a
+		 * single structure shrink the whole image instead, as for {@link #DOWNSCALE}.
+		 */
+		TILE
+	}
+
+	/**
+	 * A policy that takes every image as it is.  This is the default.
+	 */
+	public static final ImageSizePolicy NONE = new ImageSizePolicy(Action.REJECT, Long.MAX_VALUE, 1, 0, 0);
+
+	private final Action action;
+	private final long maxPixels;
+	private final double maxInkFraction;
+	private final double minStrokeWidth;
+	private final double targetStrokeWidth;
+
+	private ImageSizePolicy(Action action, long maxPixels, double maxInkFraction, double minStrokeWidth, double targetStrokeWidth){
+		this.action = action;
+		this.maxPixels = maxPixels;
+		this.maxInkFraction = maxInkFraction;
+		this.minStrokeWidth = minStrokeWidth;
+		this.targetStrokeWidth = targetStrokeWidth;
+	}
+
+	/**
+	 * Reject images with more than the given number of pixels.
+	 * @param maxPixels the largest number of pixels allowed, must be positive.
+	 * @return a new policy, never null.
+	 * @throws IllegalArgumentException if maxPixels is not positive.
+	 */
+	public static ImageSizePolicy reject(long maxPixels){
+		return of(Action.REJECT, maxPixels);
+	}
+
+	/**
+	 * Shrink images with more than the given number of pixels until they fit.
+	 * @param maxPixels the largest number of pixels allowed, must be positive.
+	 * @return a new policy, never null.
+	 * @throws IllegalArgumentException if maxPixels is not positive.
+	 */
+	public static ImageSizePolicy downscale(long maxPixels){
+		return of(Action.DOWNSCALE, maxPixels);
+	}
+
+	/**
+	 * Cut images with more than the given number of pixels into pieces that fit,
+	 * when recognizing a page.
+	 * @param maxPixels the largest number of pixels allowed in each piece, must be positive.
+	 * @return a new policy, never null.
+	 * @throws IllegalArgumentException if maxPixels is not positive.
+	 */
+	public static ImageSizePolicy tile(long maxPixels){
+		return of(Action.TILE, maxPixels);
+	}
+
+	private static ImageSizePolicy of(Action action, long maxPixels){
+		if(maxPixels <= 0){
+			throw new IllegalArgumentException("max pixels must be positive: " + maxPixels);
+		}
+		return new ImageSizePolicy(action, maxPixels, 1, 0, 0);
+	}
+
+	/**
+	 * Also reject images where more than the given fraction of the pixels is ink,
+	 * such as photographs or pages of dense text, whatever their size.
+	 * @param maxInkFraction the largest fraction allowed, from 0 to 1; 1 allows any image.
+	 * @return a new policy, never null.
+	 * @throws IllegalArgumentException if the fraction isn't between 0 and 1.
+	 */
+	public ImageSizePolicy maxInkFraction(double maxInkFraction){
+		if(!(maxInkFraction >= 0 && maxInkFraction <= 1)){
+			throw new IllegalArgumentException("ink fraction must be from 0 to 1: " + maxInkFraction);
+		}
+		return new ImageSizePolicy(action, maxPixels, maxInkFraction, minStrokeWidth, targetStrokeWidth);
+	}
+
+	/**
+	 * Reject images instead of shrinking them if their strokes would end up thinner
+	 * than the given number of pixels, since the bonds of such drawings tend to
+	 * fall apart.  Defaults to 0, meaning images can be shrunk as far as needed.
+	 * @param minStrokeWidth the thinnest stroke allowed after shrinking, in pixels, can not be negative.
+	 * @return a new policy, never null.
+	 * @throws IllegalArgumentException if the width is negative.
+	 */
+	public ImageSizePolicy minStrokeWidth(double minStrokeWidth){
+		if(!(minStrokeWidth >= 0)){
+			throw new IllegalArgumentException("stroke width can not be negative: " + minStrokeWidth);
+		}
+		return new ImageSizePolicy(action, maxPixels, maxInkFraction, minStrokeWidth, targetStrokeWidth);
+	}
+
+	/**
+	 * When downscaling or tiling, also shrink images (or pieces) whose strokes are
+	 * thicker than the given number of pixels until they aren't, even if they
+	 * have few enough pixels.  High resolution scans get recognized at about the same
+	 * scale as a typical screen drawing this way, which is much faster.
+	 * Images are never enlarged.  Defaults to 0, meaning only the number of pixels matters.
+	 * @param targetStrokeWidth the stroke width to aim for, in pixels, can not be negative.
+	 * @return a new policy, never null.
+	 * @throws IllegalArgumentException if the width is negative.
+	 */
+	public ImageSizePolicy targetStrokeWidth(double targetStrokeWidth){
+		if(!(targetStrokeWidth >= 0)){
+			throw new IllegalArgumentException("stroke width can not be negative: " + targetStrokeWidth);
+		}
+		return new ImageSizePolicy(action, maxPixels, maxInkFraction, minStrokeWidth, targetStrokeWidth);
+	}
+
+	/**
+	 * What to do with images with too many pixels.
+	 * @return the Action, never null.
+	 */
+	public Action getAction(){
+		return action;
+	}
+
+	/**
+	 * The largest number of pixels an image, or piece of one, may have.
+	 * @return the number of pixels; {@link Long#MAX_VALUE} for no limit.
+	 */
+	public long getMaxPixels(){
+		return maxPixels;
+	}
+
+	/**
+	 * The largest fraction of an image that may be ink.
+	 * @return the fraction, from 0 to 1.
+	 */
+	public double getMaxInkFraction(){
+		return maxInkFraction;
+	}
+
+	/**
+	 * The thinnest strokes may get from shrinking an image.
+	 * @return the width in pixels, 0 for no limit.
+	 */
+	public double getMinStrokeWidth(){
+		return minStrokeWidth;
+	}
+
+	/**
+	 * The stroke width images are shrunk to.
+	 * @return the width in pixels, 0 if images are only shrunk to fit.
+	 */
+	public double getTargetStrokeWidth(){
+		return targetStrokeWidth;
+	}
+
+	@Override
+	public String toString(){
+		if(this == NONE){
+			return "ImageSizePolicy{none}";
+		}
+		return "ImageSizePolicy{" + action + " over " + maxPixels + " pixels"
+				+ ", maxInkFraction=" + maxInkFraction
+				+ ", minStrokeWidth=" + minStrokeWidth
+				+ ", targetStrokeWidth=" + targetStrokeWidth + "}";
+	}
+}
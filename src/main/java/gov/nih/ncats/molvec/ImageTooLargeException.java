@@ -0,0 +1,16 @@
+package gov.nih.ncats.molvec;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an image is turned away by the {@link ImageSizePolicy}
+ * of a {@link MolvecEngine}, before any real work was done on it.
+ */
+public class ImageTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ImageTooLargeException(String message){
+		super(message);
+	}
+}
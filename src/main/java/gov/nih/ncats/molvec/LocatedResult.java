@@ -0,0 +1,61 @@
+package gov.nih.ncats.molvec;
+
+import java.awt.Rectangle;
+import java.util.Objects;
+
+/**
+ * The result of recognizing one of the structures found on a page by
+ * {@link MolvecEngine#recognizePage(byte[])}, along with where on the page it was.
+ * If the region couldn't be recognized, it holds the error instead of a result.
+ */
+public final class LocatedResult {
+
+	private final Rectangle bounds;
+	private final MolvecResult result;
+	private final Exception error;
+
+	LocatedResult(Rectangle bounds, MolvecResult result){
+		this.bounds = new Rectangle(bounds);
+		this.result = Objects.requireNonNull(result);
+		this.error = null;
+	}
+
+	LocatedResult(Rectangle bounds, Exception error){
+		this.bounds = new Rectangle(bounds);
+		this.result = null;
+		this.error = Objects.requireNonNull(error);
+	}
+
+	/**
+	 * The region of the page the structure was recognized from,
+	 * in the pixels of the page.
+	 * @return a new Rectangle, never null.
+	 */
+	public Rectangle getBounds(){
+		return new Rectangle(bounds);
+	}
+
+	/**
+	 * The result of recognizing the region.  Its coordinates are
+	 * relative to the region, not the page.
+	 * @return the result, or null if the region failed (see {@link #getError()}).
+	 */
+	public MolvecResult getResult(){
+		return result;
+	}
+
+	/**
+	 * Why the region couldn't be recognized, such as being turned away
+	 * by the {@link ImageSizePolicy} or having too many shapes to be a structure.
+	 * @return the error, or null if the region was recognized.
+	 */
+	public Exception getError(){
+		return error;
+	}
+
+	@Override
+	public String toString(){
+		return "LocatedResult{x=" + bounds.x + ", y=" + bounds.y + ", width=" + bounds.width
+				+ ", height=" + bounds.height + ", " + (error == null ? result : "error=" + error) + "}";
+	}
+}
@@ -6,11 +6,17 @@ import gov.nih.ncats.common.cli.CliValidationException;
 import gov.nih.ncats.molvec.ui.Viewer;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static gov.nih.ncats.common.cli.CliSpecification.*;
 /**
@@ -18,6 +24,10 @@ import static gov.nih.ncats.common.cli.CliSpecification.*;
  */
 public class Main {
 
+    private static final int CACHE_ENTRIES = 1000;
+    private static final long CACHE_BYTES = 1L << 30;
+    private static final int SERVER_MAX_BYTES = 64 << 20;
+
     private static class DirectoryProcessor{
         private int numThreads =1;
 
@@ -95,7 +105,56 @@ public class Main {
 
 
 
+                        ),
+                        group(
+                                option("batch")
+                                        .argName("path")
+                                        .description("path to a directory whose image files, including those in all of its subdirectories, " +
+                                                "are processed as a stream, or - to read the paths of the image files to process from STDIN, one per line. " +
+                                                "One record per image is written to a single SDF or JSONL stream, with its source, time taken and any error")
+                                        .setRequired(true),
+                                option("records")
+                                        .argName("path")
+                                        .description("path of the file to write the batch records to. If not specified records are sent to STDOUT"),
+                                option("checkpoint")
+                                        .argName("path")
+                                        .description("path of a file listing the images already processed by the batch, which are skipped. " +
+                                                "Each image is added once its record is written, so a stopped batch can be resumed with the same options; " +
+                                                "the records file is then appended to")
+                        ),
+                        group(
+                                option("server")
+                                        .argName("port")
+                                        .description("run as a server listening on the given port of localhost, or 0 for any free port, " +
+                                                "that recognizes the images POSTed to /recognize and responds with their records. " +
+                                                "The queue depth and latencies are reported by GET /metrics. The server runs until the process is stopped")
+                                        .setRequired(true),
+                                option("queue")
+                                        .argName("count")
+                                        .description("Number of images the server holds waiting for a worker, past which requests are turned away. " +
+                                                "If not specified defaults to 4 per worker"),
+                                option("maxBytes")
+                                        .argName("count")
+                                        .description("Largest image, in bytes, the server accepts; larger ones are turned away with 413. " +
+                                                "If not specified defaults to 64 MB")
                         )),
+                option("format")
+                        .argName("sdf|jsonl")
+                        .addValidation(cli->cli.hasOption("batch") || cli.hasOption("server"), "-format option only valid with -batch or -server")
+                        .description("format of the records of the batch or server, if not specified defaults to sdf for a batch and jsonl for the server"),
+                option("workers")
+                        .argName("count")
+                        .addValidation(cli->cli.hasOption("batch") || cli.hasOption("server"), "-workers option only valid with -batch or -server")
+                        .description("Number of images to process simultaneously in a batch or server, if not specified defaults to the number of processors"),
+                option("timeout")
+                        .argName("seconds")
+                        .addValidation(cli->cli.hasOption("batch") || cli.hasOption("server"), "-timeout option only valid with -batch or -server")
+                        .description("longest time to spend on each image of a batch or server, after which the structure found so far is written"),
+                option("cache")
+                        .argName("path")
+                        .addValidation(cli->cli.hasOption("batch") || cli.hasOption("server"), "-cache option only valid with -batch or -server")
+                        .description("path to a directory to keep the structures recognized by a batch or server in, so images seen before, " +
+                                "by this or an earlier run, aren't recognized again. The least recently used are deleted past 1GB"),
                  option("scale")
                          .argName("value")
                          .addValidation(cli->cli.hasOption("gui") && cli.hasOption("f"), "scale only valid if specifying file in gui mode")
@@ -105,8 +164,8 @@ public class Main {
                 )
         .programName("molvec")
         .description("Image to Chemical Structure Extractor Analyzes the given image and tries to find the chemical structure drawn and convert it into a Mol format.")
-        .addValidation(cli->cli.hasOption("gui") || cli.hasOption("f") || cli.hasOption("dir"),
-                "-f or -dir option is required if not using -gui mode")
+        .addValidation(cli->cli.hasOption("gui") || cli.hasOption("f") || cli.hasOption("dir") || cli.hasOption("batch") || cli.hasOption("server"),
+                "-f, -dir, -batch or -server option is required if not using -gui mode")
 
         .example("-f /path/to/image.file", "parse the given image file and print out the structure mol to STDOUT")
         .example("-dir /path/to/directory", "serially parse all the image files inside the given directory and write out " +
@@ -116,6 +175,14 @@ public class Main {
         .example("-dir /path/to/directory -parallel 4", "parse in 4 concurrent parallel threads all the image files inside the given directory and write out " +
                         "a new mol file for each image named $image.file.mol the new files will be put in the directory specified by outDir")
 
+        .example("-batch /path/to/directory -format jsonl -records out.jsonl -checkpoint done.txt", "parse all the image files inside the given directory " +
+                        "and its subdirectories, writing a JSON record for each to out.jsonl.  If stopped, running the same command again " +
+                        "skips the images listed in done.txt and appends the rest to out.jsonl")
+        .example("-batch - -workers 8 < paths.txt > out.sdf", "parse the image files listed in paths.txt, 8 at a time, and write an SDF of the results to STDOUT")
+
+        .example("-server 8090 -workers 4", "keep a warmed up recognizer running on port 8090 of localhost; " +
+                        "curl --data-binary @image.png http://localhost:8090/recognize responds with a JSON record of the structure")
+
         .example("-gui", "open the Molvec Graphical User interface without any image preloaded")
         .example("-gui -f /path/to/image.file", "open the Molvec Graphical User interface  with the given image file preloaded")
 
@@ -170,16 +237,7 @@ public class Main {
                     outputDir = dir;
                 }
                 ExecutorService executorService = Executors.newFixedThreadPool(directoryProcessor.getNumThreads());
-                File files[] =dir.listFiles( f->{
-                    String name = f.getName();
-                    int extOffset = name.lastIndexOf('.');
-                    if(extOffset <0){
-                        return false;
-                    }
-                    String ext = name.substring(extOffset+1);
-                    return "png".equalsIgnoreCase(ext) || "jpg".equalsIgnoreCase(ext) || "jpeg".equalsIgnoreCase(ext)
-                            || "tiff".equalsIgnoreCase(ext);
-                });
+                File files[] =dir.listFiles( f-> BatchRecognizer.isImageFile(f.getName()));
                 if(files ==null || files.length ==0){
                     System.out.println("No image files found");
                     return;
@@ -190,6 +248,10 @@ public class Main {
                 }
                 executorService.shutdown();
                 latch.await();
+            }else if(cli.hasOption("batch")){
+                runBatch(cli);
+            }else if(cli.hasOption("server")){
+                runServer(cli);
             }else{
                 //invalid
                 throw new CliValidationException("gui mode or file not specified");
@@ -202,6 +264,115 @@ public class Main {
 
     }
 
+    private static BatchRecognizer.Format format(Cli cli, BatchRecognizer.Format defaultFormat) throws CliValidationException{
+        if(!cli.hasOption("format")){
+            return defaultFormat;
+        }
+        try{
+            return BatchRecognizer.Format.parse(cli.getOptionValue("format"));
+        }catch(IllegalArgumentException e){
+            throw new CliValidationException(e.getMessage());
+        }
+    }
+
+    private static int intOption(Cli cli, String name, int defaultValue, int min) throws CliValidationException{
+        if(!cli.hasOption(name)){
+            return defaultValue;
+        }
+        int value;
+        try{
+            value = Integer.parseInt(cli.getOptionValue(name));
+        }catch(NumberFormatException e){
+            throw new CliValidationException("num of " + name + " must be a number");
+        }
+        if(value < min){
+            throw new CliValidationException("num of " + name + " must be >=" + min);
+        }
+        return value;
+    }
+
+    /**
+     * An engine for the batch or server, where every worker is
+     * already kept busy with its own image.
+     */
+    private static MolvecEngine perImageEngine(Cli cli) throws IOException{
+        MolvecEngine.Builder builder = MolvecEngine.builder()
+                .parallelism(Parallelism.PER_IMAGE);
+        if(cli.hasOption("timeout")){
+            try{
+                builder.timeout(Long.parseLong(cli.getOptionValue("timeout")), TimeUnit.SECONDS);
+            }catch(IllegalArgumentException e){
+                throw new CliValidationException(e.getMessage());
+            }
+        }
+        if(cli.hasOption("cache")){
+            builder.resultCache(ResultCache.tiered(ResultCache.inMemory(CACHE_ENTRIES),
+                    ResultCache.onDisk(Paths.get(cli.getOptionValue("cache")), CACHE_BYTES)));
+        }
+        return builder.build();
+    }
+
+    private static void runServer(Cli cli) throws IOException, InterruptedException{
+        int port = intOption(cli, "server", 0, 0);
+        int workers = intOption(cli, "workers", Runtime.getRuntime().availableProcessors(), 1);
+        int queue = intOption(cli, "queue", 4 * workers, 0);
+        int maxBytes = intOption(cli, "maxBytes", SERVER_MAX_BYTES, 1);
+        BatchRecognizer.Format format = format(cli, BatchRecognizer.Format.JSONL);
+
+        RecognitionServer server = new RecognitionServer(perImageEngine(cli), port, workers, queue, maxBytes, format);
+        System.err.println("warming up...");
+        server.warmUp();
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(()->{
+            try{
+                server.stop();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }));
+        System.err.println("listening on http://localhost:" + server.getPort() + "/recognize with " + workers + " workers");
+    }
+
+    private static void runBatch(Cli cli) throws IOException, InterruptedException{
+        BatchRecognizer.Format format = format(cli, BatchRecognizer.Format.SDF);
+        int workers = intOption(cli, "workers", Runtime.getRuntime().availableProcessors(), 1);
+
+        BatchRecognizer.Checkpoint checkpoint = BatchRecognizer.Checkpoint.NONE;
+        if(cli.hasOption("checkpoint")){
+            checkpoint = BatchRecognizer.Checkpoint.open(Paths.get(cli.getOptionValue("checkpoint")));
+        }
+        Writer out;
+        if(cli.hasOption("records")){
+            Path records = Paths.get(cli.getOptionValue("records"));
+            Path parent = records.toAbsolutePath().getParent();
+            if(parent !=null){
+                Files.createDirectories(parent);
+            }
+            //a resumed batch adds to the records it already wrote
+            out = checkpoint.isResumed()
+                    ? Files.newBufferedWriter(records, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                    : Files.newBufferedWriter(records, StandardCharsets.UTF_8);
+        }else{
+            out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        }
+
+        String batch = cli.getOptionValue("batch");
+        BatchRecognizer recognizer = new BatchRecognizer(perImageEngine(cli), workers, format);
+        try(Stream<Path> inputs = "-".equals(batch)
+                ? BatchRecognizer.list(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)))
+                : BatchRecognizer.walk(Paths.get(batch))){
+            BatchRecognizer.Summary summary = recognizer.run(inputs.iterator(), out, checkpoint);
+            System.err.println(summary);
+        }finally{
+            checkpoint.close();
+            if(cli.hasOption("records")){
+                out.close();
+            }else{
+                out.flush();
+            }
+        }
+    }
+
     private static class MolVecRunnable implements Callable<Void>{
         File f;
         File outDir;
@@ -0,0 +1,40 @@
+package gov.nih.ncats.molvec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link ResultCache} in memory that drops the least recently used
+ * molfile when it's full.
+ */
+final class MemoryResultCache implements ResultCache {
+
+	private final Map<String, String> molfiles;
+
+	MemoryResultCache(int maxEntries){
+		if(maxEntries < 1){
+			throw new IllegalArgumentException("maxEntries must be >= 1");
+		}
+		//access order, so the eldest entry is the least recently used
+		this.molfiles = new LinkedHashMap<String, String>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest){
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	@Override
+	public synchronized String get(String key){
+		return molfiles.get(key);
+	}
+
+	@Override
+	public synchronized void put(String key, String molfile){
+		molfiles.put(key, molfile);
+	}
+
+	synchronized int size(){
+		return molfiles.size();
+	}
+}
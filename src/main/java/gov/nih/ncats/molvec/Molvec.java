@@ -3,14 +3,12 @@ package gov.nih.ncats.molvec;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
-import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
-
 /**
- *
+ * Static convenience methods for recognizing structures, backed by the
+ * shared {@link MolvecEngine#getDefault()} engine.
  */
 public final class Molvec {
 
@@ -22,16 +20,10 @@ public final class Molvec {
 	 * @throws NullPointerException if image is null.
 	 */
 	public static String ocr(File image) throws IOException{
-		checkNotNull(image);
-		StructureImageExtractor sie = new StructureImageExtractor(image);
-		String mol = sie.getCtab().toMol();
-		return mol;
+		return MolvecEngine.getDefault().recognize(image).getMolfile();
 		
 	}
 
-	private static void checkNotNull(Object obj){
-		Objects.requireNonNull(obj, "image can not be null");
-	}
 	/**
 	 * Analyze the given image encoded data as a bytre array and try to recognize a molecular structure.
 	 * @param image the image to analyze, can not be null.
@@ -40,9 +32,7 @@ public final class Molvec {
 	 * @throws NullPointerException if image is null.
 	 */
 	public static String ocr(byte[] image) throws IOException{
-		checkNotNull(image);
-		StructureImageExtractor sie = new StructureImageExtractor(image);
-			return sie.getCtab().toMol();
+		return MolvecEngine.getDefault().recognize(image).getMolfile();
 
 	}
 	/**
@@ -53,9 +43,7 @@ public final class Molvec {
 	 * @throws NullPointerException if image is null.
 	 */
 	public static String ocr(BufferedImage image) throws IOException{
-		checkNotNull(image);
-		StructureImageExtractor sie = StructureImageExtractor.createFromImage(image);
-		return sie.getCtab().toMol();
+		return MolvecEngine.getDefault().recognize(image).getMolfile();
 		
 	}
 	public static CompletableFuture<String> ocrAsync(byte[] image){
@@ -0,0 +1,479 @@
+package gov.nih.ncats.molvec;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.ImageSizing;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
+import gov.nih.ncats.molvec.internal.image.RasterHash;
+import gov.nih.ncats.molvec.internal.segmentation.StructureSegmentation;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+
+/**
+ * A reusable structure recognition engine.  An engine is meant to be built once
+ * and shared: the OCR templates are loaded when the engine is created, and every call to
+ * one of the {@code recognize} methods works on its own state, so a single instance
+ * can safely be used by many threads at once without any locking.
+ *
+ * Each thread also keeps its own scratch buffer for copying encoded images
+ * out of direct {@link ByteBuffer}s, so steady state use doesn't allocate a new
+ * input array per image.
+ *
+ * By default the OCR of the glyphs in an image is split across the common
+ * {@link java.util.concurrent.ForkJoinPool}; use {@link #builder()} to choose a different
+ * {@link Parallelism} or to supply your own {@link Executor}.
+ *
+ * There is no limit on how long a recognition may take unless a
+ * {@link Builder#timeout(long, TimeUnit) timeout} is set, and no limit on the
+ * size of the images unless an {@link Builder#imageSizePolicy(ImageSizePolicy) ImageSizePolicy} is set.
+ * Every image is recognized from scratch unless a {@link Builder#resultCache(ResultCache) ResultCache} is set.
+ */
+public final class MolvecEngine {
+
+	private static final MolvecEngine DEFAULT = new MolvecEngine();
+
+	private final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(()->new byte[0]);
+
+	private final ExecutionPolicy policy;
+	private final StageListener listener;
+	private final long timeoutNanos;
+	private final ImageSizePolicy sizePolicy;
+	private final ResultCache cache;
+	private final String cacheKeySuffix;
+
+	public MolvecEngine(){
+		this(ExecutionPolicy.DEFAULT, null, 0, ImageSizePolicy.NONE, null);
+	}
+
+	private MolvecEngine(ExecutionPolicy policy, StageListener listener, long timeoutNanos, ImageSizePolicy sizePolicy, ResultCache cache){
+		this.policy = policy;
+		this.listener = listener;
+		this.timeoutNanos = timeoutNanos;
+		this.sizePolicy = sizePolicy;
+		this.cache = cache;
+		this.cacheKeySuffix = cacheKeySuffix(sizePolicy);
+		StructureImageExtractor.preload();
+	}
+
+	/**
+	 * The part of the cache keys that tells apart the results of different
+	 * versions of molvec and of engines whose settings change the result.
+	 * The parallelism doesn't change the result, and timed out results aren't
+	 * cached, so only the size policy counts.  The settings are written out in full,
+	 * rather than hashed, so no two of them can share a key.
+	 */
+	private static String cacheKeySuffix(ImageSizePolicy sizePolicy){
+		String version = MolvecEngine.class.getPackage().getImplementationVersion();
+		String settings = (version == null ? "dev" : version) + "|";
+		if(sizePolicy == ImageSizePolicy.NONE){
+			settings += "none";
+		}else{
+			settings += sizePolicy.getAction() + "|" + sizePolicy.getMaxPixels() + "|" + sizePolicy.getMaxInkFraction()
+					+ "|" + sizePolicy.getMinStrokeWidth() + "|" + sizePolicy.getTargetStrokeWidth();
+		}
+		//keys can only have letters, digits and dashes; anything else is a dash and its 4 hex digits
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<settings.length(); i++){
+			char c = settings.charAt(i);
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')){
+				sb.append(c);
+			}else{
+				sb.append('-').append(String.format("%04x", (int) c));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Create a new {@link Builder} to configure a new engine.
+	 * @return a new Builder, never null.
+	 */
+	public static Builder builder(){
+		return new Builder();
+	}
+
+	/**
+	 * Which level of the recognition of a single image this engine
+	 * runs in parallel.
+	 * @return the Parallelism, never null.
+	 */
+	public Parallelism getParallelism(){
+		return policy.getParallelism();
+	}
+
+	/**
+	 * The shared engine used by the static methods in {@link Molvec}.
+	 * @return the default engine, never null.
+	 */
+	public static MolvecEngine getDefault(){
+		return DEFAULT;
+	}
+
+	/**
+	 * Recognize the structure in the given encoded image.
+	 * @param image the encoded image data (png, tiff, etc), can not be null.
+	 * @return the result of the recognition, never null.
+	 * @throws IOException if there are any problems parsing the image.
+	 * @throws NullPointerException if image is null.
+	 */
+	public MolvecResult recognize(byte[] image) throws IOException{
+		checkNotNull(image);
+		return recognize(image, 0, image.length);
+	}
+
+	/**
+	 * Recognize the structure in the encoded image held in the remaining bytes
+	 * of the given buffer.  The position of the buffer is not changed.
+	 * @param image the encoded image data (png, tiff, etc), can not be null.
+	 * @return the result of the recognition, never null.
+	 * @throws IOException if there are any problems parsing the image.
+	 * @throws NullPointerException if image is null.
+	 */
+	public MolvecResult recognize(ByteBuffer image) throws IOException{
+		checkNotNull(image);
+		int length = image.remaining();
+		if(image.hasArray()){
+			return recognize(image.array(), image.arrayOffset() + image.position(), length);
+		}
+		byte[] buf = scratch.get();
+		if(buf.length < length){
+			buf = new byte[length];
+			scratch.set(buf);
+		}
+		image.duplicate().get(buf, 0, length);
+		return recognize(buf, 0, length);
+	}
+
+	/**
+	 * Recognize the structure in the given image file.
+	 * @param image the image file, can not be null.
+	 * @return the result of the recognition, never null.
+	 * @throws IOException if there are any problems reading or parsing the image.
+	 * @throws ImageTooLargeException if the image is turned away by the {@link ImageSizePolicy}.
+	 * @throws NullPointerException if image is null.
+	 */
+	public MolvecResult recognize(File image) throws IOException{
+		checkNotNull(image);
+		long start = System.nanoTime();
+		Deadline deadline = newDeadline();
+		if(checksEncodedSize()){
+			ImageSizing.checkSize(ImageUtil.readSize(image), sizePolicy);
+		}
+		return recognizeGrayscale(ImageUtil.grayscale(image).getRaster(), start, deadline);
+	}
+
+	/**
+	 * Recognize the structure in the given image.
+	 * @param image the image to analyze, can not be null.
+	 * @return the result of the recognition, never null.
+	 * @throws IOException if there are any problems processing the image.
+	 * @throws NullPointerException if image is null.
+	 */
+	public MolvecResult recognize(BufferedImage image) throws IOException{
+		checkNotNull(image);
+		long start = System.nanoTime();
+		return recognizeGrayscale(StructureImageExtractor.toGrayscaleRaster(image), start, newDeadline());
+	}
+
+	/**
+	 * Recognize the structure in the given single band grayscale raster.
+	 * The raster is not modified.
+	 * @param image the raster to analyze, can not be null.
+	 * @return the result of the recognition, never null.
+	 * @throws IOException if there are any problems processing the image.
+	 * @throws NullPointerException if image is null.
+	 */
+	public MolvecResult recognize(Raster image) throws IOException{
+		checkNotNull(image);
+		return recognizeGrayscale(image, System.nanoTime(), newDeadline());
+	}
+
+	/**
+	 * Find every structure drawn on a page, such as a full page of a patent,
+	 * and recognize each of them separately.
+	 * @param image the encoded image of the page (png, tiff, etc), can not be null.
+	 * @return the structures found, top to bottom and then left to right; never null, may be empty.
+	 * @throws IOException if there are any problems parsing the image.
+	 * @throws NullPointerException if image is null.
+	 * @see #recognizePage(Raster)
+	 */
+	public List<LocatedResult> recognizePage(byte[] image) throws IOException{
+		checkNotNull(image);
+		Deadline deadline = newDeadline();
+		return recognizeRegions(ImageUtil.grayscale(image).getRaster(), deadline);
+	}
+
+	/**
+	 * Find every structure drawn on a page and recognize each of them separately.
+	 * @param image the image file of the page, can not be null.
+	 * @return the structures found, top to bottom and then left to right; never null, may be empty.
+	 * @throws IOException if there are any problems reading or parsing the image.
+	 * @throws NullPointerException if image is null.
+	 * @see #recognizePage(Raster)
+	 */
+	public List<LocatedResult> recognizePage(File image) throws IOException{
+		checkNotNull(image);
+		Deadline deadline = newDeadline();
+		return recognizeRegions(ImageUtil.grayscale(image).getRaster(), deadline);
+	}
+
+	/**
+	 * Find every structure drawn on a page, given as a single band grayscale raster,
+	 * and recognize each of them separately.  The page is binarized once to
+	 * find the regions that each hold a drawing, and each region is then
+	 * recognized from the pixels of the page, without copying them, as if it were an
+	 * image of its own.  With {@link Parallelism#PER_REGION} the regions are
+	 * recognized at the same time.
+	 *
+	 * Regions where nothing is recognized are left out.  Those that can't be recognized
+	 * at all, such as plots with thousands of shapes, are returned with the
+	 * {@link LocatedResult#getError() error} instead of a result.  The {@link ImageSizePolicy}
+	 * and the {@link ResultCache} apply to each region, and the timeout to the whole page.
+	 * With {@link ImageSizePolicy.Action#TILE} a region too big for the policy is cut
+	 * into pieces, and each piece is found separately in the results.
+	 * @param image the raster of the page, can not be null.  It is not modified.
+	 * @return the structures found, top to bottom and then left to right; never null, may be empty.
+	 * @throws IOException if there are any problems processing the image.
+	 * @throws NullPointerException if image is null.
+	 */
+	public List<LocatedResult> recognizePage(Raster image) throws IOException{
+		checkNotNull(image);
+		return recognizeRegions(image, newDeadline());
+	}
+
+	private List<LocatedResult> recognizeRegions(Raster page, Deadline deadline) throws IOException{
+		Bitmap bitmap = Bitmap.createBitmap(page, StructureImageExtractor.DEF_BINARIZATION, policy).clean();
+		List<Rectangle> regions = new ArrayList<>();
+		for(Shape zone : new StructureSegmentation(bitmap.connectedComponents(Bitmap.Bbox.Rectangular, policy),
+				bitmap.width(), bitmap.height()).getZones()){
+			regions.add(zone.getBounds());
+		}
+		//each region sets only its own slot, so no structural change is ever made
+		List<List<LocatedResult>> results = new ArrayList<>(Collections.nCopies(regions.size(), null));
+		policy.forEachIndex(Parallelism.PER_REGION, regions.size(), i->{
+			Rectangle r = regions.get(i);
+			List<LocatedResult> inRegion = new ArrayList<>();
+			List<ImageSizing.Piece> pieces;
+			try{
+				pieces = ImageSizing.tile(ImageUtil.view(page, r.x, r.y, r.width, r.height), sizePolicy);
+			}catch(IOException | RuntimeException e){
+				inRegion.add(new LocatedResult(r, e));
+				results.set(i, inRegion);
+				return;
+			}
+			for(ImageSizing.Piece piece : pieces){
+				Rectangle bounds = piece.getBounds();
+				bounds.translate(r.x, r.y);
+				try{
+					MolvecResult result = recognizeCached(piece.getRaster(), false, System.nanoTime(), deadline);
+					if(!result.isEmpty()){
+						inRegion.add(new LocatedResult(bounds, result));
+					}
+				}catch(IOException | RuntimeException e){
+					//one region failing doesn't lose the rest of the page
+					inRegion.add(new LocatedResult(bounds, e));
+				}
+			}
+			results.set(i, inRegion);
+		});
+		List<LocatedResult> found = new ArrayList<>();
+		for(List<LocatedResult> r : results){
+			if(r != null){
+				found.addAll(r);
+			}
+		}
+		return found;
+	}
+
+	private MolvecResult recognize(byte[] image, int offset, int length) throws IOException{
+		long start = System.nanoTime();
+		Deadline deadline = newDeadline();
+		if(checksEncodedSize()){
+			ImageSizing.checkSize(ImageUtil.readSize(image, offset, length), sizePolicy);
+		}
+		return recognizeGrayscale(ImageUtil.grayscale(image, offset, length).getRaster(), start, deadline);
+	}
+
+	private MolvecResult recognizeGrayscale(Raster raster, long start, Deadline deadline) throws IOException{
+		return recognizeCached(raster, true, start, deadline);
+	}
+
+	/**
+	 * Recognize a raster, answering from the cache if possible.
+	 * @param fit whether the raster still has to be made to fit the size policy;
+	 * false for the pieces of a tiled page, which already do.
+	 */
+	private MolvecResult recognizeCached(Raster raster, boolean fit, long start, Deadline deadline) throws IOException{
+		String key = null;
+		if(cache != null){
+			key = RasterHash.of(raster) + "-" + cacheKeySuffix;
+			String molfile = cache.get(key);
+			if(molfile != null){
+				//only results with atoms are cached
+				return new MolvecResult(molfile, System.nanoTime() - start, false, false);
+			}
+		}
+		MolvecResult result = recognizeUncached(fit ? ImageSizing.fit(raster, sizePolicy) : raster, start, deadline);
+		if(key != null && !result.isTimedOut() && !result.isEmpty()){
+			cache.put(key, result.getMolfile());
+		}
+		return result;
+	}
+
+	private MolvecResult recognizeUncached(Raster raster, long start, Deadline deadline) throws IOException{
+		StructureImageExtractor sie = new StructureImageExtractor(raster, false, policy, listener, deadline);
+		ConnectionTable ctab = sie.getCtab();
+		return new MolvecResult(ctab.toMol(), System.nanoTime() - start, sie.isTimedOut(), ctab.getNodes().isEmpty());
+	}
+
+	/**
+	 * Can images be turned away from the size in their header, before they're decoded.
+	 */
+	private boolean checksEncodedSize(){
+		return sizePolicy.getAction() == ImageSizePolicy.Action.REJECT && sizePolicy.getMaxPixels() < Long.MAX_VALUE;
+	}
+
+	private Deadline newDeadline(){
+		if(timeoutNanos <= 0){
+			return Deadline.NONE;
+		}
+		return Deadline.after(timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private static void checkNotNull(Object obj){
+		Objects.requireNonNull(obj, "image can not be null");
+	}
+
+	/**
+	 * Builder for a {@link MolvecEngine}.
+	 */
+	public static final class Builder {
+		private Parallelism parallelism = Parallelism.PER_GLYPH;
+		private Executor executor;
+		private StageListener listener;
+		private long timeoutNanos;
+		private boolean speculative;
+		private ImageSizePolicy sizePolicy = ImageSizePolicy.NONE;
+		private ResultCache cache;
+
+		private Builder(){}
+
+		/**
+		 * Set which level of the recognition of a single image may run in parallel.
+		 * Defaults to {@link Parallelism#PER_GLYPH}.
+		 * @param parallelism the Parallelism to use, can not be null.
+		 * @return this
+		 */
+		public Builder parallelism(Parallelism parallelism){
+			this.parallelism = Objects.requireNonNull(parallelism);
+			return this;
+		}
+
+		/**
+		 * Set the executor that parallel work is submitted to.  If not set, or set to null,
+		 * the common {@link java.util.concurrent.ForkJoinPool} is used.
+		 * The calling thread always takes part in the work, so a small or busy
+		 * executor only slows things down, it can't deadlock.
+		 * @param executor the Executor to use, may be null.
+		 * @return this
+		 */
+		public Builder executor(Executor executor){
+			this.executor = executor;
+			return this;
+		}
+
+		/**
+		 * Set a listener to be told how long each stage of every recognition took.
+		 * If not set, or set to null, nothing is measured.
+		 * @param listener the StageListener to use, may be null.
+		 * @return this
+		 */
+		public Builder listener(StageListener listener){
+			this.listener = listener;
+			return this;
+		}
+
+		/**
+		 * Set how long a single recognition may take, from receiving the image
+		 * to producing the molfile.  When the time is running low the optional heuristics
+		 * are skipped, and once it is up the best structure found so far is returned
+		 * and marked as {@link MolvecResult#isTimedOut() timed out}.
+		 * The limit is checked cooperatively, so a recognition may overrun it slightly.
+		 * Defaults to 0, meaning no limit.
+		 * @param timeout the time limit; 0 means no limit.
+		 * @param unit the unit of the timeout, can not be null.
+		 * @return this
+		 * @throws IllegalArgumentException if timeout is negative.
+		 */
+		public Builder timeout(long timeout, TimeUnit unit){
+			Objects.requireNonNull(unit);
+			if(timeout < 0){
+				throw new IllegalArgumentException("timeout can not be negative: " + timeout);
+			}
+			this.timeoutNanos = unit.toNanos(timeout);
+			return this;
+		}
+
+		/**
+		 * Set whether the fallback binarizations, which are only used if the
+		 * first one gives a poor image, should be started on the executor at the
+		 * same time as the first one instead of one after another.  The result is the same
+		 * either way, but on machines with idle cores it cuts the time taken by hard images,
+		 * at the cost of extra work that is thrown away for most images.
+		 * Defaults to false.
+		 * @param speculative whether to binarize speculatively.
+		 * @return this
+		 */
+		public Builder speculativeBinarization(boolean speculative){
+			this.speculative = speculative;
+			return this;
+		}
+
+		/**
+		 * Set what to do with images too big to be recognized quickly,
+		 * such as full page high resolution scans.  The image is checked before any
+		 * binarization starts, and when it's given encoded and is to be rejected
+		 * for its size, before it's even decoded.
+		 * Defaults to {@link ImageSizePolicy#NONE}, meaning every image is taken as it is.
+		 * @param sizePolicy the ImageSizePolicy to use, can not be null.
+		 * @return this
+		 */
+		public Builder imageSizePolicy(ImageSizePolicy sizePolicy){
+			this.sizePolicy = Objects.requireNonNull(sizePolicy);
+			return this;
+		}
+
+		/**
+		 * Set a cache of the molfiles already recognized, so that an image
+		 * that decodes to the same pixels as one seen before is answered from the
+		 * cache instead of being recognized again.  Results that
+		 * {@link MolvecResult#isTimedOut() timed out}, and those where nothing was recognized,
+		 * aren't cached.
+		 * If not set, or set to null, nothing is cached.
+		 * @param cache the ResultCache to use, may be null.
+		 * @return this
+		 */
+		public Builder resultCache(ResultCache cache){
+			this.cache = cache;
+			return this;
+		}
+
+		public MolvecEngine build(){
+			return new MolvecEngine(ExecutionPolicy.of(parallelism, executor).speculative(speculative), listener, timeoutNanos, sizePolicy, cache);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package gov.nih.ncats.molvec;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The immutable result of a single recognition by a {@link MolvecEngine}.
+ */
+public final class MolvecResult {
+
+	private final String molfile;
+	private final long elapsedNanos;
+	private final boolean timedOut;
+	private final boolean empty;
+
+	MolvecResult(String molfile, long elapsedNanos, boolean timedOut, boolean empty){
+		this.molfile = Objects.requireNonNull(molfile);
+		this.elapsedNanos = elapsedNanos;
+		this.timedOut = timedOut;
+		this.empty = empty;
+	}
+
+	/**
+	 * The recognized structure encoded in mol format.
+	 * @return the mol formatted String, never null.
+	 */
+	public String getMolfile(){
+		return molfile;
+	}
+
+	/**
+	 * How long the recognition took, from receiving the encoded image
+	 * to producing the molfile.
+	 * @param unit the unit to report the time in.
+	 * @return the elapsed time in the given unit.
+	 */
+	public long getElapsedTime(TimeUnit unit){
+		return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Was the recognition cut short because it ran out of time
+	 * (see {@link MolvecEngine.Builder#timeout(long, TimeUnit)}).
+	 * If so, the molfile is the best structure found before time ran out,
+	 * and may be incomplete or empty.
+	 * @return {@code true} if the recognition timed out.
+	 */
+	public boolean isTimedOut(){
+		return timedOut;
+	}
+
+	/**
+	 * Was nothing recognized, so the molfile has no atoms.
+	 */
+	boolean isEmpty(){
+		return empty;
+	}
+
+	@Override
+	public String toString(){
+		return "MolvecResult{elapsed=" + getElapsedTime(TimeUnit.MILLISECONDS) + "ms, timedOut=" + timedOut + "}";
+	}
+}
@@ -0,0 +1,33 @@
+package gov.nih.ncats.molvec;
+
+/**
+ * Where a {@link MolvecEngine} is allowed to use more than one thread while
+ * recognizing a single image.  Only the chosen level fans out, every loop nested
+ * inside of it runs sequentially on whichever thread picked up the work, so
+ * there are never nested parallel tasks competing for the same pool.
+ */
+public enum Parallelism {
+	/**
+	 * Each image is processed entirely on the calling thread.  Use this when
+	 * the caller already runs many images at once (batch jobs, server worker pools).
+	 */
+	PER_IMAGE,
+	/**
+	 * The OCR of the shapes (glyphs) in an image is split across threads,
+	 * once there are enough shapes to be worth it.  Finding the shapes of a large
+	 * image is also split into horizontal strips.  This is the default.
+	 */
+	PER_GLYPH,
+	/**
+	 * Each glyph is processed in turn, but scoring it against the
+	 * OCR templates is split across threads, by character: the templates
+	 * of one character are always scored together.
+	 */
+	PER_TEMPLATE,
+	/**
+	 * The structures found on a page by {@link MolvecEngine#recognizePage(byte[])}
+	 * are recognized on separate threads, each of them entirely on its own thread.
+	 * Single images are processed as with {@link #PER_IMAGE}.
+	 */
+	PER_REGION
+}
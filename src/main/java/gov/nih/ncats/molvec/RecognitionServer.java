@@ -0,0 +1,380 @@
+package gov.nih.ncats.molvec;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long running local HTTP server that recognizes the images posted to it,
+ * so that a pipeline recognizing one image at a time only pays for starting the
+ * JVM, loading the fonts and parsing the OCR templates once.
+ *
+ * <ul>
+ * <li>{@code POST /recognize} with the encoded image as the body responds with
+ * the same record the batch mode writes for an image, as JSONL unless the
+ * query has {@code format=sdf}.  A {@code name} query parameter is used as the source
+ * of the record.  The status is 200 if the image was recognized, 422 if it wasn't,
+ * 413 if the body is over the size limit, and 503 if the queue is full.</li>
+ * <li>{@code GET /metrics} responds with a JSON object of the queue depth, the
+ * request counts, and the percentiles of the time recent requests spent queued
+ * and being recognized.</li>
+ * </ul>
+ *
+ * The server only listens on the loopback address.  Images are recognized by a fixed
+ * number of workers, with a bounded queue in front of them; requests that arrive
+ * when the queue is full are turned away straight away rather than piling up.
+ */
+final class RecognitionServer {
+
+	/**
+	 * The number of the most recent requests the latency percentiles are taken over.
+	 */
+	private static final int LATENCY_WINDOW = 1024;
+
+	private final MolvecEngine engine;
+	private final BatchRecognizer.Format format;
+	private final int workers;
+	private final int queueSize;
+	private final int maxBodyBytes;
+	private final ThreadPoolExecutor pool;
+	private final HttpServer server;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong recognized = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong tooLarge = new AtomicLong();
+	private final Latencies queued = new Latencies(LATENCY_WINDOW);
+	private final Latencies recognizing = new Latencies(LATENCY_WINDOW);
+
+	/**
+	 * @param engine the engine to recognize each image with.
+	 * @param port the port to listen on, or 0 for any free port.
+	 * @param workers the number of images to recognize at once.
+	 * @param queueSize the number of images that can wait for a worker.
+	 * @param maxBodyBytes the largest encoded image accepted, in bytes.
+	 * @param format the format of the records, unless a request asks for another.
+	 * @throws IOException if the port can't be listened on.
+	 */
+	RecognitionServer(MolvecEngine engine, int port, int workers, int queueSize, int maxBodyBytes, BatchRecognizer.Format format) throws IOException{
+		if(workers < 1){
+			throw new IllegalArgumentException("workers must be >= 1");
+		}
+		if(queueSize < 0){
+			throw new IllegalArgumentException("queue size must be >= 0");
+		}
+		if(maxBodyBytes < 1){
+			throw new IllegalArgumentException("max body bytes must be >= 1");
+		}
+		this.engine = engine;
+		this.format = format;
+		this.workers = workers;
+		this.queueSize = queueSize;
+		this.maxBodyBytes = maxBodyBytes;
+		BlockingQueue<Runnable> queue = queueSize == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(queueSize);
+		this.pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, queue, r->{
+			Thread t = new Thread(r, "molvec-server-worker");
+			t.setDaemon(true);
+			return t;
+		});
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		//the handlers only hand the work to the pool, so the dispatcher thread is enough
+		server.createContext("/recognize", this::handleRecognize);
+		server.createContext("/metrics", this::handleMetrics);
+	}
+
+	/**
+	 * The port the server listens on.
+	 */
+	int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	void start(){
+		server.start();
+	}
+
+	/**
+	 * Stop accepting requests, and wait for the ones already accepted to finish.
+	 */
+	void stop() throws InterruptedException{
+		server.stop(0);
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Recognize a drawing of a small structure on every worker, so the first real
+	 * requests don't pay for loading the OCR and compiling the hot code.
+	 * Failures are ignored, the requests will just be slower.
+	 */
+	void warmUp() throws InterruptedException{
+		BufferedImage image = drawWarmUpImage();
+		ThreadPoolExecutor warm = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(workers));
+		for(int i=0; i<workers; i++){
+			warm.execute(()->{
+				try{
+					engine.recognize(image);
+				}catch(Exception ignored){
+				}
+			});
+		}
+		warm.shutdown();
+		warm.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	private static BufferedImage drawWarmUpImage(){
+		BufferedImage image = new BufferedImage(300, 260, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = image.createGraphics();
+		try{
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, image.getWidth(), image.getHeight());
+			g.setColor(Color.BLACK);
+			g.setStroke(new BasicStroke(3));
+			int[] x = new int[6];
+			int[] y = new int[6];
+			for(int i=0; i<6; i++){
+				x[i] = (int) Math.round(130 + 60 * Math.cos(Math.PI / 3 * i + Math.PI / 6));
+				y[i] = (int) Math.round(130 + 60 * Math.sin(Math.PI / 3 * i + Math.PI / 6));
+			}
+			g.drawPolygon(x, y, 6);
+			g.drawLine(x[0], y[0], x[0] + 52, y[0] - 30);
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 28));
+			g.drawString("OH", x[0] + 56, y[0] - 22);
+		}finally{
+			g.dispose();
+		}
+		return image;
+	}
+
+	private void handleRecognize(HttpExchange exchange) throws IOException{
+		if(!"POST".equals(exchange.getRequestMethod())){
+			respond(exchange, 405, "text/plain", "POST the image to recognize\n");
+			return;
+		}
+		long id = received.incrementAndGet();
+		String name = queryParameter(exchange, "name");
+		String source = name == null ? "request-" + id : name;
+		BatchRecognizer.Format requested = format;
+		String formatName = queryParameter(exchange, "format");
+		if(formatName != null){
+			try{
+				requested = BatchRecognizer.Format.parse(formatName);
+			}catch(IllegalArgumentException e){
+				respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+				return;
+			}
+		}
+		BatchRecognizer.Format recordFormat = requested;
+		//turned away before it's queued if it says how long it is, otherwise once it's read
+		String length = exchange.getRequestHeaders().getFirst("Content-Length");
+		if(length != null && length.matches("\\d+") && Long.parseLong(length) > maxBodyBytes){
+			tooLarge.incrementAndGet();
+			respond(exchange, 413, "text/plain", new BodyTooLargeException(maxBodyBytes).getMessage() + "\n");
+			return;
+		}
+		long submitted = System.nanoTime();
+		try{
+			pool.execute(()->{
+				queued.add(System.nanoTime() - submitted);
+				recognize(exchange, source, recordFormat);
+			});
+		}catch(RejectedExecutionException e){
+			rejected.incrementAndGet();
+			respond(exchange, 503, "text/plain", "queue is full\n");
+		}
+	}
+
+	private void recognize(HttpExchange exchange, String source, BatchRecognizer.Format recordFormat){
+		try{
+			long start = System.nanoTime();
+			String molfile = null;
+			boolean timedOut = false;
+			String error = null;
+			try{
+				MolvecResult result = engine.recognize(readBody(exchange, maxBodyBytes));
+				molfile = result.getMolfile();
+				timedOut = result.isTimedOut();
+				recognized.incrementAndGet();
+			}catch(BodyTooLargeException e){
+				tooLarge.incrementAndGet();
+				respond(exchange, 413, "text/plain", e.getMessage() + "\n");
+				return;
+			}catch(Exception e){
+				error = e.getMessage() == null ? e.toString() : e.getMessage();
+				failed.incrementAndGet();
+			}
+			long elapsed = System.nanoTime() - start;
+			recognizing.add(elapsed);
+			long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsed);
+			int status = error == null ? 200 : 422;
+			if(recordFormat == BatchRecognizer.Format.SDF){
+				respond(exchange, status, "chemical/x-mdl-sdfile", BatchRecognizer.toSdf(source, molfile, elapsedMs, timedOut, error));
+			}else{
+				respond(exchange, status, "application/json", BatchRecognizer.toJson(source, molfile, elapsedMs, timedOut, error));
+			}
+		}catch(IOException e){
+			//the client went away
+			exchange.close();
+		}catch(Error e){
+			//not answered as a failed image: the server may not be fit to go on
+			exchange.close();
+			throw e;
+		}
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException{
+		if(!"GET".equals(exchange.getRequestMethod())){
+			respond(exchange, 405, "text/plain", "GET the metrics\n");
+			return;
+		}
+		respond(exchange, 200, "application/json", metrics());
+	}
+
+	/**
+	 * The current metrics as a JSON object on one line.
+	 */
+	String metrics(){
+		StringBuilder sb = new StringBuilder("{");
+		sb.append("\"workers\":").append(workers);
+		sb.append(",\"active\":").append(pool.getActiveCount());
+		sb.append(",\"queueDepth\":").append(pool.getQueue().size());
+		sb.append(",\"queueCapacity\":").append(queueSize);
+		sb.append(",\"received\":").append(received.get());
+		sb.append(",\"recognized\":").append(recognized.get());
+		sb.append(",\"failed\":").append(failed.get());
+		sb.append(",\"rejected\":").append(rejected.get());
+		sb.append(",\"tooLarge\":").append(tooLarge.get());
+		sb.append(",\"queuedMs\":");
+		queued.appendJson(sb);
+		sb.append(",\"recognizingMs\":");
+		recognizing.appendJson(sb);
+		return sb.append("}\n").toString();
+	}
+
+	private static String queryParameter(HttpExchange exchange, String name) throws IOException{
+		String query = exchange.getRequestURI().getRawQuery();
+		if(query == null){
+			return null;
+		}
+		for(String pair : query.split("&")){
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			if(name.equals(URLDecoder.decode(key, "UTF-8"))){
+				return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static byte[] readBody(HttpExchange exchange, int maxBytes) throws IOException{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		try(InputStream in = exchange.getRequestBody()){
+			int n;
+			while((n = in.read(buf)) > 0){
+				if(n > maxBytes - body.size()){
+					throw new BodyTooLargeException(maxBytes);
+				}
+				body.write(buf, 0, n);
+			}
+		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Thrown when a request body is over the size limit.
+	 */
+	private static final class BodyTooLargeException extends IOException{
+		private static final long serialVersionUID = 1L;
+
+		BodyTooLargeException(int maxBytes){
+			super("image is over the limit of " + maxBytes + " bytes");
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException{
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * The durations of the most recent events, to take percentiles of.
+	 */
+	static final class Latencies {
+		private final long[] nanos;
+		private long count;
+
+		Latencies(int window){
+			this.nanos = new long[window];
+		}
+
+		synchronized void add(long elapsedNanos){
+			nanos[(int) (count % nanos.length)] = elapsedNanos;
+			count++;
+		}
+
+		/**
+		 * The given percentile of the recent durations, in milliseconds.
+		 * @param p the percentile, from 0 to 100.
+		 * @return the duration, or 0 if there haven't been any.
+		 */
+		double percentile(double p){
+			long[] sorted = sorted();
+			return percentile(sorted, p);
+		}
+
+		private synchronized long[] sorted(){
+			long[] sorted = Arrays.copyOf(nanos, (int) Math.min(count, nanos.length));
+			Arrays.sort(sorted);
+			return sorted;
+		}
+
+		private static double percentile(long[] sorted, double p){
+			if(sorted.length == 0){
+				return 0;
+			}
+			//nearest rank
+			int rank = (int) Math.ceil(p / 100 * sorted.length);
+			return sorted[Math.max(0, rank - 1)] / 1e6;
+		}
+
+		void appendJson(StringBuilder sb){
+			long[] sorted = sorted();
+			sb.append("{\"count\":").append(sorted.length);
+			sb.append(",\"p50\":").append(String.format(Locale.ROOT, "%.1f", percentile(sorted, 50)));
+			sb.append(",\"p90\":").append(String.format(Locale.ROOT, "%.1f", percentile(sorted, 90)));
+			sb.append(",\"p99\":").append(String.format(Locale.ROOT, "%.1f", percentile(sorted, 99)));
+			sb.append(",\"max\":").append(String.format(Locale.ROOT, "%.1f", percentile(sorted, 100)));
+			sb.append('}');
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package gov.nih.ncats.molvec;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * A store of the molfiles already recognized, so that an image seen before
+ * is answered without running the recognition again.  Set one with
+ * {@link MolvecEngine.Builder#resultCache(ResultCache)}.
+ *
+ * The keys are made by the engine from a hash of the decoded image and the
+ * version and settings of the engine, so images that are encoded differently but
+ * decode to the same pixels share an entry, and engines with different settings don't.
+ * Keys are made of letters, digits and dashes, so they can be used as file names.
+ *
+ * Caches are shared by every thread recognizing with the engine, so implementations
+ * must be thread safe.  A cache is only an optimization: one that can't answer
+ * should just return null, and one that can't store should just drop the result.
+ */
+public interface ResultCache {
+
+	/**
+	 * Look up a molfile.
+	 * @param key the key made by the engine, never null.
+	 * @return the molfile stored with the key, or null if there isn't one.
+	 */
+	String get(String key);
+
+	/**
+	 * Store a molfile.
+	 * @param key the key made by the engine, never null.
+	 * @param molfile the molfile recognized, never null.
+	 */
+	void put(String key, String molfile);
+
+	/**
+	 * A cache in memory that keeps the most recently used molfiles.
+	 * @param maxEntries the most molfiles to keep.
+	 * @return a new cache, never null.
+	 * @throws IllegalArgumentException if maxEntries is less than 1.
+	 */
+	static ResultCache inMemory(int maxEntries){
+		return new MemoryResultCache(maxEntries);
+	}
+
+	/**
+	 * A cache in a directory, with a file per molfile, that outlives the JVM.
+	 * When the files add up to more than the given size, the least recently used
+	 * are deleted.  Files already in the directory from an earlier run are used.
+	 * @param dir the directory to keep the molfiles in, created if it doesn't exist.
+	 * @param maxBytes the most bytes of molfiles to keep.
+	 * @return a new cache, never null.
+	 * @throws IOException if the directory can't be created or read.
+	 * @throws IllegalArgumentException if maxBytes is less than 1.
+	 */
+	static ResultCache onDisk(Path dir, long maxBytes) throws IOException{
+		return new DiskResultCache(dir, maxBytes);
+	}
+
+	/**
+	 * A cache that looks in a fast cache first and a slow one second,
+	 * such as one {@link #inMemory(int) in memory} in front of one {@link #onDisk(Path, long) on disk}.
+	 * Molfiles found in the slow cache are copied into the fast one, and
+	 * new molfiles are stored in both.
+	 * @param fast the cache to look in first, can not be null.
+	 * @param slow the cache to look in if the fast one doesn't have the molfile, can not be null.
+	 * @return a new cache, never null.
+	 */
+	static ResultCache tiered(ResultCache fast, ResultCache slow){
+		Objects.requireNonNull(fast);
+		Objects.requireNonNull(slow);
+		return new ResultCache(){
+			@Override
+			public String get(String key){
+				String molfile = fast.get(key);
+				if(molfile == null){
+					molfile = slow.get(key);
+					if(molfile != null){
+						fast.put(key, molfile);
+					}
+				}
+				return molfile;
+			}
+
+			@Override
+			public void put(String key, String molfile){
+				fast.put(key, molfile);
+				slow.put(key, molfile);
+			}
+		};
+	}
+}
@@ -0,0 +1,30 @@
+package gov.nih.ncats.molvec;
+
+/**
+ * Receives timing and counts for each stage of the recognition of an image,
+ * as the stages complete.  Set one with {@link MolvecEngine.Builder#listener(StageListener)}.
+ *
+ * Stages are reported in the order they run, on the thread doing the
+ * recognition.  An engine shared by several threads calls the same
+ * listener from all of them, so implementations must be thread safe.
+ * Nothing is measured at all unless a listener is set.
+ */
+public interface StageListener {
+
+	/**
+	 * Called when a stage completes.
+	 * @param stage the metrics of the stage, never null.
+	 */
+	void onStage(StageMetrics stage);
+
+	/**
+	 * Called when the current attempt at recognizing the image is abandoned
+	 * and is about to be retried with a different binarization or an
+	 * upscaled copy of the image.  The stages of the next attempt are reported with
+	 * the next attempt number.
+	 * @param attempt the number of the attempt that was abandoned, starting at 0.
+	 * @param reason a short description of why the attempt was abandoned.
+	 */
+	default void onRetry(int attempt, String reason){
+	}
+}
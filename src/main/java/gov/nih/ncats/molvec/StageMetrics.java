@@ -0,0 +1,91 @@
+package gov.nih.ncats.molvec;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The immutable measurements of a single completed stage of recognition,
+ * reported to a {@link StageListener}.
+ */
+public final class StageMetrics {
+
+	private final int attempt;
+	private final int step;
+	private final String name;
+	private final long elapsedNanos;
+	private final long allocatedBytes;
+	private final Map<String, Integer> counts;
+
+	public StageMetrics(int attempt, int step, String name, long elapsedNanos, long allocatedBytes, Map<String, Integer> counts){
+		this.attempt = attempt;
+		this.step = step;
+		this.name = Objects.requireNonNull(name);
+		this.elapsedNanos = elapsedNanos;
+		this.allocatedBytes = allocatedBytes;
+		this.counts = Collections.unmodifiableMap(new LinkedHashMap<>(counts));
+	}
+
+	/**
+	 * Which attempt at recognizing the image this stage was part of;
+	 * 0 for the first, higher if the image had to be binarized again.
+	 * @return the attempt number.
+	 */
+	public int getAttempt(){
+		return attempt;
+	}
+
+	/**
+	 * The number of the connection table step, matching the step
+	 * numbers printed in debug mode.
+	 * @return the step number, or -1 for stages before the connection
+	 * table exists (binarization, thinning, OCR, etc).
+	 */
+	public int getStep(){
+		return step;
+	}
+
+	/**
+	 * A short description of the stage.
+	 * @return the name, never null.
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * The wall time of the stage.
+	 * @param unit the unit to report the time in.
+	 * @return the elapsed time in the given unit.
+	 */
+	public long getElapsedTime(TimeUnit unit){
+		return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The number of bytes allocated by the recognizing thread during this stage.
+	 * Work handed off to other threads (see {@link Parallelism}) is not included.
+	 * @return the number of bytes, or -1 if the JVM can't measure it.
+	 */
+	public long getAllocatedBytes(){
+		return allocatedBytes;
+	}
+
+	/**
+	 * Item counts at the end of this stage, such as the number of
+	 * shapes found or the number of nodes and edges in the connection table.
+	 * @return an unmodifiable map of count name to count, never null, may be empty.
+	 */
+	public Map<String, Integer> getCounts(){
+		return counts;
+	}
+
+	@Override
+	public String toString(){
+		return "StageMetrics{attempt=" + attempt + ", step=" + step + ", name='" + name
+				+ "', elapsed=" + getElapsedTime(TimeUnit.MICROSECONDS) + "us, allocated=" + allocatedBytes
+				+ ", counts=" + counts + "}";
+	}
+}
@@ -0,0 +1,203 @@
+package gov.nih.ncats.molvec.internal.algo;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+import gov.nih.ncats.molvec.Parallelism;
+
+/**
+ * Decides which level of the recognition of one image may run in parallel, and
+ * on which {@link Executor}.
+ *
+ * Work is fanned out by having helper tasks and the calling thread all claim
+ * items from a shared counter.  The calling thread never waits on a task that
+ * hasn't started, so using a bounded pool that the caller is itself running on
+ * can't deadlock, it just means less help.
+ *
+ * A speculative policy also starts work that may turn out not to be needed,
+ * like the fallback binarizations, on the executor ahead of time.
+ */
+public final class ExecutionPolicy {
+
+	/**
+	 * Fans out over glyphs on the common {@link ForkJoinPool}, which is what
+	 * molvec has always done.
+	 */
+	public static final ExecutionPolicy DEFAULT = new ExecutionPolicy(Parallelism.PER_GLYPH, null);
+
+	/**
+	 * Never uses another thread.
+	 */
+	public static final ExecutionPolicy SEQUENTIAL = new ExecutionPolicy(Parallelism.PER_IMAGE, null);
+
+	private final Parallelism parallelism;
+	private final Executor executor;
+	private final boolean speculative;
+
+	private ExecutionPolicy(Parallelism parallelism, Executor executor){
+		this(parallelism, executor, false);
+	}
+
+	private ExecutionPolicy(Parallelism parallelism, Executor executor, boolean speculative){
+		this.parallelism=Objects.requireNonNull(parallelism);
+		this.executor=executor;
+		this.speculative=speculative;
+	}
+
+	/**
+	 * Create a new policy.
+	 * @param parallelism the level that is allowed to run in parallel, can not be null.
+	 * @param executor the executor to run parallel work on; if null,
+	 * the common {@link ForkJoinPool} is used.
+	 * @return a new ExecutionPolicy.
+	 */
+	public static ExecutionPolicy of(Parallelism parallelism, Executor executor){
+		return new ExecutionPolicy(parallelism,executor);
+	}
+
+	/**
+	 * Create a copy of this policy that does or doesn't {@link #speculate(Supplier) speculate}.
+	 * @param speculative whether to start work that might not be needed on other threads.
+	 * @return a new ExecutionPolicy.
+	 */
+	public ExecutionPolicy speculative(boolean speculative){
+		return new ExecutionPolicy(parallelism, executor, speculative);
+	}
+
+	public Parallelism getParallelism(){
+		return parallelism;
+	}
+
+	public boolean isSpeculative(){
+		return speculative;
+	}
+
+	/**
+	 * Prepare a value that may or may not turn out to be needed.  If this policy
+	 * is speculative, the value starts being computed on the executor right away,
+	 * so it's ready (or nearly) by the time it's needed; otherwise it's only computed
+	 * on the calling thread if it's asked for, which is exactly the same as not
+	 * preparing it at all.
+	 * @param task computes the value, it must be safe to run on another thread.
+	 * @return a new Speculation; cancel it once it's known not to be needed.
+	 */
+	public <T> Speculation<T> speculate(Supplier<T> task){
+		if(!speculative){
+			return Speculation.deferred(task);
+		}
+		return Speculation.start(task, executor());
+	}
+
+	public boolean isParallel(Parallelism level){
+		return parallelism==level;
+	}
+
+	/**
+	 * The executor to fan out on at the given level, for code that only
+	 * takes an {@link Executor}.
+	 * @return the executor, or null if the given level isn't the one
+	 * this policy allows to run in parallel.
+	 */
+	public Executor executorFor(Parallelism level){
+		return isParallel(level)?executor():null;
+	}
+
+	private Executor executor(){
+		return executor==null?ForkJoinPool.commonPool():executor;
+	}
+
+	private int helpers(){
+		Executor ex=executor();
+		if(ex instanceof ForkJoinPool){
+			return ((ForkJoinPool)ex).getParallelism();
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Run the given consumer on every item of the list, in parallel if
+	 * the given level is the one this policy allows to run in parallel, otherwise
+	 * in order on the calling thread.
+	 */
+	public <T> void forEach(Parallelism level, List<T> items, Consumer<T> cons){
+		forEachIndex(level, items.size(), i->cons.accept(items.get(i)));
+	}
+
+	/**
+	 * Run the given consumer on every index from 0 (inclusive) to n (exclusive), in parallel if
+	 * the given level is the one this policy allows to run in parallel, otherwise
+	 * in order on the calling thread.
+	 */
+	public void forEachIndex(Parallelism level, int n, IntConsumer cons){
+		int nhelpers = Math.min(helpers(), n) - 1;
+		if(!isParallel(level) || nhelpers<=0){
+			for(int i=0;i<n;i++){
+				cons.accept(i);
+			}
+			return;
+		}
+
+		AtomicInteger next = new AtomicInteger(0);
+		CountDownLatch done = new CountDownLatch(n);
+		AtomicReference<Throwable> error = new AtomicReference<>();
+
+		Runnable worker = ()->{
+			int i;
+			while((i=next.getAndIncrement())<n){
+				try{
+					if(error.get()==null){
+						cons.accept(i);
+					}
+				}catch(Throwable t){
+					error.compareAndSet(null, t);
+				}finally{
+					done.countDown();
+				}
+			}
+		};
+
+		Executor ex=executor();
+		try{
+			for(int h=0;h<nhelpers;h++){
+				ex.execute(worker);
+			}
+		}catch(RejectedExecutionException e){
+			//less help, the calling thread does the rest
+		}finally{
+			//even if the executor failed, helpers it already took may be running;
+			//the items may touch shared state, so always finish and wait for all of them
+			//before returning, even if interrupted
+			worker.run();
+			boolean interrupted=false;
+			while(true){
+				try{
+					done.await();
+					break;
+				}catch(InterruptedException e){
+					interrupted=true;
+				}
+			}
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Throwable t=error.get();
+		if(t instanceof RuntimeException){
+			throw (RuntimeException)t;
+		}else if(t instanceof Error){
+			throw (Error)t;
+		}else if(t!=null){
+			throw new IllegalStateException(t);
+		}
+	}
+}
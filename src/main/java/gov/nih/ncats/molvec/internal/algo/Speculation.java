@@ -0,0 +1,91 @@
+package gov.nih.ncats.molvec.internal.algo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A value that may be needed later, which is either already being computed
+ * on another thread or will be computed by whoever first asks for it.
+ * See {@link ExecutionPolicy#speculate(Supplier)}.
+ *
+ * The task runs at most once.  Like the rest of {@link ExecutionPolicy}, asking for a
+ * value that no other thread has started computing yet computes it on the asking thread
+ * rather than waiting for the executor to get around to it.
+ * @param <T> the type of value.
+ */
+public final class Speculation<T> {
+
+	private final Supplier<T> task;
+	private final AtomicBoolean claimed = new AtomicBoolean();
+	private final CompletableFuture<T> result = new CompletableFuture<>();
+
+	private Speculation(Supplier<T> task){
+		this.task = task;
+	}
+
+	/**
+	 * Start computing the value on the given executor.
+	 */
+	static <T> Speculation<T> start(Supplier<T> task, Executor executor){
+		Speculation<T> s = new Speculation<>(task);
+		try{
+			executor.execute(s::run);
+		}catch(RejectedExecutionException e){
+			//no room, it will be computed if and when it's needed
+		}
+		return s;
+	}
+
+	/**
+	 * Don't compute the value until it's asked for.
+	 */
+	static <T> Speculation<T> deferred(Supplier<T> task){
+		return new Speculation<>(task);
+	}
+
+	private void run(){
+		if(!claimed.compareAndSet(false, true)){
+			return;
+		}
+		try{
+			result.complete(task.get());
+		}catch(Throwable t){
+			result.completeExceptionally(t);
+		}
+	}
+
+	/**
+	 * Get the value, computing it on this thread if nothing has started on it yet,
+	 * or waiting for it to finish if something has.
+	 * @return the value.
+	 * @throws java.util.concurrent.CancellationException if this was cancelled before it started.
+	 */
+	public T get(){
+		run();
+		try{
+			return result.join();
+		}catch(CompletionException e){
+			Throwable t = e.getCause();
+			if(t instanceof RuntimeException){
+				throw (RuntimeException) t;
+			}else if(t instanceof Error){
+				throw (Error) t;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * The value isn't needed after all: if it hasn't started being computed it never will be.
+	 * A computation that is already running is left to finish, and its value is thrown away.
+	 */
+	public void cancel(){
+		if(claimed.compareAndSet(false, true)){
+			result.cancel(false);
+		}
+	}
+}
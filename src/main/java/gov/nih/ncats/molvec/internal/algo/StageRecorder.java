@@ -0,0 +1,125 @@
+package gov.nih.ncats.molvec.internal.algo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import gov.nih.ncats.molvec.StageListener;
+import gov.nih.ncats.molvec.StageMetrics;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable;
+
+/**
+ * Measures the time between successive stage marks of one
+ * {@link StructureImageExtractor} and reports them to a {@link StageListener}.
+ * When there is no listener every method returns immediately.
+ */
+final class StageRecorder {
+
+	static final StageRecorder NONE = new StageRecorder(null);
+
+	private static final LongSupplier ALLOCATED_BYTES = allocationCounter();
+
+	private final StageListener listener;
+	private int attempt;
+	private long lastNanos;
+	private long lastAllocated;
+
+	StageRecorder(StageListener listener){
+		this.listener = listener;
+	}
+
+	private static LongSupplier allocationCounter(){
+		try{
+			java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+			if(mx instanceof com.sun.management.ThreadMXBean){
+				com.sun.management.ThreadMXBean smx = (com.sun.management.ThreadMXBean) mx;
+				if(smx.isThreadAllocatedMemorySupported() && smx.isThreadAllocatedMemoryEnabled()){
+					return ()->smx.getThreadAllocatedBytes(Thread.currentThread().getId());
+				}
+			}
+		}catch(Throwable t){
+			//not a HotSpot-like JVM, allocation just won't be reported
+		}
+		return null;
+	}
+
+	/**
+	 * Start timing the first stage.
+	 */
+	void start(){
+		if(listener ==null){
+			return;
+		}
+		lastNanos = System.nanoTime();
+		lastAllocated = ALLOCATED_BYTES==null? 0 : ALLOCATED_BYTES.getAsLong();
+	}
+
+	/**
+	 * Report the stage that just completed, counting the nodes and edges
+	 * of the given connection table, if any.
+	 */
+	void stage(int step, String name, ConnectionTable ctab){
+		if(listener ==null){
+			return;
+		}
+		Map<String, Integer> counts = Collections.emptyMap();
+		if(ctab !=null){
+			counts = new LinkedHashMap<>();
+			counts.put("nodes", ctab.getNodes().size());
+			counts.put("edges", ctab.getEdges().size());
+		}
+		report(step, name, counts);
+	}
+
+	/**
+	 * Report the stage that just completed, with a single item count.
+	 */
+	void stage(String name, String countName, int count){
+		if(listener ==null){
+			return;
+		}
+		report(-1, name, Collections.singletonMap(countName, count));
+	}
+
+	/**
+	 * Report the stage that just completed, with no item counts.
+	 */
+	void stage(String name){
+		if(listener ==null){
+			return;
+		}
+		report(-1, name, Collections.emptyMap());
+	}
+
+	/**
+	 * Report the work done since the last stage as abandoned, and
+	 * start the next attempt.
+	 */
+	void retry(String reason){
+		if(listener ==null){
+			return;
+		}
+		report(-1, "abandoned: " + reason, Collections.emptyMap());
+		listener.onRetry(attempt, reason);
+		attempt++;
+	}
+
+	private void report(int step, String name, Map<String, Integer> counts){
+		long now = System.nanoTime();
+		long allocated = -1;
+		if(ALLOCATED_BYTES !=null){
+			long a = ALLOCATED_BYTES.getAsLong();
+			allocated = a - lastAllocated;
+			lastAllocated = a;
+		}
+		StageMetrics metrics = new StageMetrics(attempt, step, name, now - lastNanos, allocated, counts);
+		listener.onStage(metrics);
+		//don't charge the listener's own time to the next stage
+		lastNanos = System.nanoTime();
+		if(ALLOCATED_BYTES !=null){
+			lastAllocated = ALLOCATED_BYTES.getAsLong();
+		}
+	}
+}
@@ -1,8 +1,5 @@
 package gov.nih.ncats.molvec.internal.algo;
 
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
@@ -32,15 +29,19 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import javax.imageio.ImageIO;
-
+import gov.nih.ncats.molvec.Deadline;
+import gov.nih.ncats.molvec.Parallelism;
+import gov.nih.ncats.molvec.StageListener;
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 import gov.nih.ncats.molvec.internal.image.Bitmap.WedgeInfo;
+import gov.nih.ncats.molvec.internal.image.GrayscaleRaster;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
 import gov.nih.ncats.molvec.internal.util.CachedSupplier;
 import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
 import gov.nih.ncats.molvec.internal.image.binarization.LeastPopulatedThreshold;
@@ -108,7 +109,20 @@ public class StructureImageExtractor {
 
 		//((FontBasedRasterCosineSCOCR)OCR_BACKUP).debug();
 	}
+
+	/**
+	 * Force the shared OCR templates to be loaded now, rather than
+	 * on the first image processed. The templates are built once per JVM
+	 * and are only read afterwards, so they are safe to share between threads.
+	 */
+	public static void preload(){
+		//the work is all done in the static initializer
+	}
 	private boolean DEBUG=false;
+	private ExecutionPolicy policy=ExecutionPolicy.DEFAULT;
+	private StageRecorder stages=StageRecorder.NONE;
+	private Deadline deadline=Deadline.NONE;
+	private boolean timedOut=false;
 
 	public static int SKIP_STEP_AT = -1;
 	private Bitmap bitmap; // original bitmap
@@ -264,6 +278,12 @@ public class StructureImageExtractor {
         return false;
 	});
 	
+	/**
+	 * Only upscale images ahead of time, in case they turn out to be too small,
+	 * if they have at most this many pixels; bigger ones rarely are.
+	 */
+	private static final long MAX_SPECULATIVE_RESIZE_PIXELS = 1 << 20;
+	
 	public static Binarization RESIZE_BINARIZATION = new SigmaThreshold(THRESH_STDEV_RESIZE);
 	public static Binarization TOO_WASHED_BINARIZATION = new SigmaThreshold(TOO_WASHED_STDEV, 0.2,0.8);
 	
@@ -278,16 +298,63 @@ public class StructureImageExtractor {
 	 * @throws IOException
 	 */
 	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage)throws IOException{
+		return createFromImage(bufferedImage, ExecutionPolicy.DEFAULT);
+	}
+	
+	/**
+	 * Create a new extractor from the given bufferedImage, running any parallel
+	 * work as allowed by the given {@link ExecutionPolicy}.
+	 * @param bufferedImage
+	 * @param policy
+	 * @return
+	 * @throws IOException
+	 */
+	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage, ExecutionPolicy policy)throws IOException{
+		return createFromImage(bufferedImage, policy, null);
+	}
+	
+	/**
+	 * Create a new extractor from the given bufferedImage, running any parallel
+	 * work as allowed by the given {@link ExecutionPolicy}, and reporting
+	 * the time spent in each stage to the given listener.
+	 * @param bufferedImage
+	 * @param policy
+	 * @param listener the listener to report stages to; if null, nothing is measured
+	 * @return
+	 * @throws IOException
+	 */
+	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage, ExecutionPolicy policy, StageListener listener)throws IOException{
+		return createFromImage(bufferedImage, policy, listener, Deadline.NONE);
+	}
+	
+	/**
+	 * Create a new extractor from the given bufferedImage, running any parallel
+	 * work as allowed by the given {@link ExecutionPolicy}, reporting
+	 * the time spent in each stage to the given listener, and giving up
+	 * with the best structure found so far once the given deadline expires.
+	 * @param bufferedImage
+	 * @param policy
+	 * @param listener the listener to report stages to; if null, nothing is measured
+	 * @param deadline the time budget, can not be null
+	 * @return
+	 * @throws IOException
+	 */
+	public static StructureImageExtractor createFromImage(BufferedImage bufferedImage, ExecutionPolicy policy, StageListener listener, Deadline deadline)throws IOException{
+		return new StructureImageExtractor(toGrayscaleRaster(bufferedImage), false, policy, listener, deadline);
+	}
+	
+	/**
+	 * The single band raster that {@link #createFromImage(BufferedImage)} would
+	 * recognize the given image from.
+	 * @param bufferedImage the image, it is not modified.
+	 * @return the raster of the image if it's already grayscale, otherwise of a grayscale copy.
+	 */
+	public static Raster toGrayscaleRaster(BufferedImage bufferedImage){
 		BufferedImage img = bufferedImage;
-		if(BufferedImage.TYPE_BYTE_GRAY != bufferedImage.getType()){
+		if(BufferedImage.TYPE_BYTE_GRAY != bufferedImage.getType() && !(bufferedImage.getRaster() instanceof GrayscaleRaster)){
 			img = toGrayScale(bufferedImage);
 		}
-		try {
-			return new StructureImageExtractor(img.getRaster());
-		}catch(InterruptedException e){
-			throw new IOException("interrupted", e);
-		}
-
+		return img.getRaster();
 	}
 
 
@@ -329,21 +396,57 @@ public class StructureImageExtractor {
 	 * @throws Exception
 	 */
 	public StructureImageExtractor(Raster raster, boolean debug )throws IOException{
+		this(raster, debug, ExecutionPolicy.DEFAULT);
+	}
+	
+	/**
+	 * Create a new {@link StructureImageExtractor}, using a given {@link Raster}, running
+	 * any parallel work as allowed by the given {@link ExecutionPolicy}.
+	 * @param raster the raster to be processed
+	 * @param debug if true, print debug information to standard out
+	 * @param policy the policy deciding which steps may run in parallel, can not be null
+	 * @throws IOException
+	 */
+	public StructureImageExtractor(Raster raster, boolean debug, ExecutionPolicy policy)throws IOException{
+		this(raster, debug, policy, null);
+	}
+	
+	/**
+	 * Create a new {@link StructureImageExtractor}, using a given {@link Raster}, running
+	 * any parallel work as allowed by the given {@link ExecutionPolicy}, and reporting
+	 * the time spent in each stage to the given listener.
+	 * @param raster the raster to be processed
+	 * @param debug if true, print debug information to standard out
+	 * @param policy the policy deciding which steps may run in parallel, can not be null
+	 * @param listener the listener to report stages to; if null, nothing is measured
+	 * @throws IOException
+	 */
+	public StructureImageExtractor(Raster raster, boolean debug, ExecutionPolicy policy, StageListener listener)throws IOException{
+		this(raster, debug, policy, listener, Deadline.NONE);
+	}
+	
+	/**
+	 * Create a new {@link StructureImageExtractor}, using a given {@link Raster}, running
+	 * any parallel work as allowed by the given {@link ExecutionPolicy}, reporting
+	 * the time spent in each stage to the given listener, and keeping to the given time budget.
+	 * When the budget runs low the optional heuristics are skipped, and if it expires
+	 * the connection table found so far is kept, see {@link #isTimedOut()}.
+	 * @param raster the raster to be processed
+	 * @param debug if true, print debug information to standard out
+	 * @param policy the policy deciding which steps may run in parallel, can not be null
+	 * @param listener the listener to report stages to; if null, nothing is measured
+	 * @param deadline the time budget, can not be null
+	 * @throws IOException
+	 */
+	public StructureImageExtractor(Raster raster, boolean debug, ExecutionPolicy policy, StageListener listener, Deadline deadline)throws IOException{
 		this.DEBUG = debug;
+		this.policy = Objects.requireNonNull(policy);
+		this.deadline = Objects.requireNonNull(deadline);
+		if(listener!=null){
+			this.stages = new StageRecorder(listener);
+		}
 		try {
-			try {
-				load(Bitmap.createBitmap(raster, DEF_BINARIZATION).clean(), true);
-			} catch (ImageTooSmallException e) {
-				File bi = stdResize(raster, 3);
-				load(bitmap = Bitmap.read(bi, RESIZE_BINARIZATION).clean(), false);
-			} catch (ImageTooSpottyException e) {
-				try {
-					load(Bitmap.createBitmap(raster, TOO_WASHED_BINARIZATION).clean(), false);
-				} catch (ImageTooSmallException ex) {
-					File bi = stdResize(raster, 3);
-					load(bitmap = Bitmap.read(bi, RESIZE_BINARIZATION).clean(), false);
-				}
-			}
+			load(raster);
 		}catch(InterruptedException e){
 			throw new IOException("interrupted", e);
 		}
@@ -456,19 +559,10 @@ public class StructureImageExtractor {
 		List<ShapeWrapper> toAddShapes = Collections.synchronizedList(new ArrayList<>());
 		List<ShapeWrapper> toRemoveShapes = Collections.synchronizedList(new ArrayList<>());
 
-		Stream<ShapeWrapper> stream;
-		
-		if(polygons.size()>20){
-			stream = polygons.parallelStream();
-		}else{
-			stream = polygons.stream();
-		}
-		
-		stream
-		.forEach(s->{
+		Consumer<ShapeWrapper> ocrShape = s->{
 			if (Thread.interrupted())  // Clears interrupted status!
 				interupt[0]=true;
-			if(interupt[0]){
+			if(interupt[0] || deadline.isExpired()){
 				return;
 			}
 			
@@ -631,7 +725,13 @@ public class StructureImageExtractor {
 						onFind.accept(s, ll);
 					}				
 			}
-		});
+		};
+		
+		if(polygons.size()>20){
+			policy.forEach(Parallelism.PER_GLYPH, polygons, ocrShape);
+		}else{
+			polygons.forEach(ocrShape);
+		}
 		
 		if(interupt[0]){
 			throw new InterruptedException();
@@ -686,7 +786,7 @@ public class StructureImageExtractor {
 				
 			}
 			
-			List<Tuple<Character,Number>> potential = socr.getNBestMatches(4,
+			List<Tuple<Character,Number>> potential = socr.getNBestMatches(4, policy.executorFor(Parallelism.PER_TEMPLATE),
 					cropped
 					,thin.getLazyCrop(sTest.getShape())
 					
@@ -841,90 +941,107 @@ public class StructureImageExtractor {
 	 */
 	private class ImageTooSpottyException extends IOException{}
 	
+	/**
+	 * Thrown to stop processing once the deadline has expired. It is
+	 * only used for control flow, so it has no stack trace.
+	 */
+	private static class DeadlineExpiredException extends RuntimeException{
+		DeadlineExpiredException(){
+			super("deadline expired", null, false, false);
+		}
+	}
+	
+	private void checkDeadline(){
+		if(deadline.isExpired()){
+			throw new DeadlineExpiredException();
+		}
+	}
+	
 	
 
 	
 	private void load(byte[] file) throws IOException, InterruptedException{
+		load(ImageUtil.grayscale(file).getRaster());
+	}
+	private void load(File file) throws IOException, InterruptedException{
+		load(ImageUtil.grayscale(file).getRaster());
+	}
+	
+	/**
+	 * Load the given grayscale raster, retrying with the fallback binarizations
+	 * or an upscaled copy of the same raster if the first attempt looks
+	 * too spotty or too small. The raster is decoded only once and is never modified,
+	 * so every retry works off of the same pixels in memory.
+	 */
+	private void load(Raster raster) throws IOException, InterruptedException{
+		stages.start();
 		try{
-			load(bitmap = Bitmap.read(file,DEF_BINARIZATION).clean(), true);
-		}catch(ImageTooSmallException e){
-			File bi= stdResize(file,3);
-			load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(), false);
-		}catch( ImageTooSpottyException e){
-			try{
-				load(Bitmap.read(file,TOO_WASHED_BINARIZATION).clean(), false);
-			}catch(ImageTooSmallException ex){
-				File bi= stdResize(file,3);
-				load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
+			loadWithRetries(raster);
+		}catch(DeadlineExpiredException e){
+			//keep whatever was found so far
+			timedOut=true;
+			if(ctab==null){
+				ctab=new ConnectionTable();
 			}
+			stages.stage("deadline expired");
 		}
-
 	}
-	private void load(File file) throws IOException, InterruptedException{
+	
+	private void loadWithRetries(Raster raster) throws IOException, InterruptedException{
+		//with a speculative policy, the bitmaps the retries would need are made
+		//while the first attempt runs; otherwise they're only made when needed
+		Speculation<Bitmap> washed = policy.speculate(()->binarizeAhead(raster, TOO_WASHED_BINARIZATION));
+		ExecutionPolicy resizePolicy = (long)raster.getWidth()*raster.getHeight() <= MAX_SPECULATIVE_RESIZE_PIXELS? policy : policy.speculative(false);
+		Speculation<Bitmap> resized = resizePolicy.speculate(()->binarizeAhead(stdResize(raster,3), RESIZE_BINARIZATION));
 		try{
-			load(bitmap = Bitmap.read(file,DEF_BINARIZATION).clean(),true);
-		}catch(ImageTooSmallException e){
-			File bi= stdResize(file,3);
-			load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
-		}catch( ImageTooSpottyException e){
 			try{
-				load(Bitmap.read(file,TOO_WASHED_BINARIZATION).clean(), false);
-			}catch(ImageTooSmallException ex){
-				File bi= stdResize(file,3);
-				load(bitmap = Bitmap.read(bi,RESIZE_BINARIZATION).clean(),false);
+				load(binarize(raster,DEF_BINARIZATION,"default"), true);
+			}catch(ImageTooSmallException e){
+				stages.retry("image too small");
+				load(binarized(resized,"resized"), false);
+			}catch( ImageTooSpottyException e){
+				stages.retry("image too spotty");
+				try{
+					load(binarized(washed,"too washed"), false);
+				}catch(ImageTooSmallException ex){
+					stages.retry("image too small");
+					load(binarized(resized,"resized"), false);
+				}
 			}
+		}finally{
+			washed.cancel();
+			resized.cancel();
 		}
-
-	}
-	private static File stdResize(Raster r, double scale) throws IOException{
-		 BufferedImage image = new BufferedImage
-		            (r.getWidth(), r.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-		 image.setData (r);
-		 return stdResize(image,scale);
-	}
-	private static File stdResize(File f , double scale) throws IOException{
-		return stdResize(Bitmap.readToImage(f),scale);
 	}
-	private static File stdResize(byte[] f , double scale) throws IOException{
-		return stdResize(Bitmap.readToImage(f),scale);
+	
+	private Bitmap binarize(Raster raster, Binarization binarization, String name){
+		Bitmap bm = Bitmap.createBitmap(raster,binarization,policy).clean();
+		stages.stage("binarize (" + name + ")");
+		checkDeadline();
+		return bm;
 	}
-	private static File stdResize(RenderedImage ri , double scale) throws IOException{
-		
-		
-		int nwidth=(int) (ri.getWidth() *scale);
-		int nheight=(int) (ri.getHeight() *scale);
-		
-        // creates output image
-        BufferedImage outputImage = new BufferedImage(nwidth,
-                nheight,ColorModel.BITMASK);
- 
-        // scales the input image to the output image
-        Graphics2D g2d = outputImage.createGraphics();
-        
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-        	       RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g2d.scale(scale, scale);
-        g2d.drawImage(convertRenderedImage(ri), 0, 0,null);
-        g2d.dispose();
-        
-        for (int x = 0; x < outputImage.getWidth(); x++) {
-            for (int y = 0; y < outputImage.getHeight(); y++) {
-                int rgba = outputImage.getRGB(x, y);
-                Color col = new Color(rgba, true);
-                col = new Color(255 - col.getRed(),
-                                255 - col.getGreen(),
-                                255 - col.getBlue());
-                outputImage.setRGB(x, y, col.getRGB());
-            }
-        }
-        
 
-		File tfile = File.createTempFile("tmp", ".png");
-		ImageIO.write(outputImage, "png", tfile);
+	/**
+	 * Binarize a raster for a retry that may or may not happen, finding its shapes
+	 * too, so they're ready if it's used.  This may run on another thread,
+	 * so it doesn't report stages.
+	 */
+	private Bitmap binarizeAhead(Raster raster, Binarization binarization){
+		Bitmap bm = Bitmap.createBitmap(raster,binarization,policy).clean();
+		if(policy.isSpeculative()){
+			bm.connectedComponents(Bitmap.Bbox.DoublePolygon, ExecutionPolicy.SEQUENTIAL);
+		}
+		return bm;
+	}
 
-		return tfile;
+	private Bitmap binarized(Speculation<Bitmap> bitmap, String name){
+		Bitmap bm = bitmap.get();
+		stages.stage("binarize (" + name + ")");
+		checkDeadline();
+		return bm;
+	}
+	private static Raster stdResize(Raster r, double scale){
+		return ImageUtil.resample(r, scale);
 	}
 	
 	public static BufferedImage convertRenderedImage(RenderedImage img) {
@@ -1034,8 +1151,8 @@ public class StructureImageExtractor {
 			        	
 			        	
 			        	
-			        	return GeomUtil.groupThings(mlist, t1->{
-					        		return t1.k().v().distance(t1.v().v())<averageHeightOCRFinal*1.2;
+			        	return GeomUtil.groupNearbyThings(mlist, t1->GeomUtil.pointBounds(t1.v()), averageHeightOCRFinal*1.2, (t1,t2)->{
+					        		return t1.v().distance(t2.v())<averageHeightOCRFinal*1.2;
 					        	}).stream();    	
 			        })
 			        //Step 3. Filter out all segment collections with less than 3 members
@@ -1150,11 +1267,13 @@ public class StructureImageExtractor {
 			thin=bitmap.thin();
 			blurred=true;
 		}
+		stages.stage("thin");
+		checkDeadline();
 			
 			
 
 //		Bitmap bitmap2=new Bitmap.BitmapBuilder(bitmap).boxBlur(1).threshold(1).build();
-		polygons = bitmap.connectedComponents(Bitmap.Bbox.DoublePolygon)
+		polygons = bitmap.connectedComponents(Bitmap.Bbox.DoublePolygon, policy)
 				.stream()
 				.map(s->ShapeWrapper.of(s))
 				.collect(Collectors.toList());
@@ -1170,7 +1289,7 @@ public class StructureImageExtractor {
 		if(noise> polygons.size()*0.8){
 			bitmap=new Bitmap.BitmapBuilder(bitmap).boxBlur(2).threshold(7).build();
 			thin=bitmap.thin();
-			polygons = bitmap.connectedComponents(Bitmap.Bbox.DoublePolygon)
+			polygons = bitmap.connectedComponents(Bitmap.Bbox.DoublePolygon, policy)
 					.stream()
 					.map(s->ShapeWrapper.of(s))
 					.collect(Collectors.toList());;
@@ -1185,8 +1304,8 @@ public class StructureImageExtractor {
 			 .map(Tuple.vmap(p->p.getArea()))
 			 .filter(t->t.v()<100)
 			 .map(t->t.k())
-			 .collect(GeomUtil.groupThings(t->{
-				 return GeomUtil.distance(t.k(), t.v()) < 3;
+			 .collect(GeomUtil.groupNearbyThings(s->s.getBounds(), 3, (s1,s2)->{
+				 return GeomUtil.distance(s1, s2) < 3;
 			 }))
 			 .stream()
 			 .filter(sl->sl.size()>1)
@@ -1242,6 +1361,9 @@ public class StructureImageExtractor {
 		
 		
 
+		stages.stage("connected components", "shapes", polygons.size());
+		checkDeadline();
+
 		boolean isLarge = false;
 		if (!polygons.isEmpty()) {
 			isLarge = polygons.size() > 4000;			
@@ -1347,6 +1469,8 @@ public class StructureImageExtractor {
 		            	  likelyOCRNumbers.remove(s);
 		            	  likelyOCRAll.remove(s);
 		              });
+		stages.stage("ocr", "likely ocr shapes", likelyOCRAll.size());
+		checkDeadline();
 		
 		
 
@@ -1369,6 +1493,8 @@ public class StructureImageExtractor {
 								           .isPresent())
 					   .map(l->GeomUtil.LineWrapper.of(l))
 					   .collect(Collectors.toList());
+		stages.stage("line segments", "lines", lines.size());
+		checkDeadline();
 		
 		
 		
@@ -1390,7 +1516,8 @@ public class StructureImageExtractor {
 
 		
 		
-		if(PRE_RESCUE_OCR){
+		//rescue OCR and repeated passes are optional, skip them if time is short
+		if(PRE_RESCUE_OCR && !deadline.isLow()){
 			rescueOCR(lines,polygons,likelyOCR,socr[0],(s,potential)->{
 				if(potential==null){
 					realRescueOCRCandidates.add(s.getShape());
@@ -1423,13 +1550,15 @@ public class StructureImageExtractor {
 				
 				//realRescueOCRCandidates.add(s);
 			});
+			stages.stage("rescue ocr", "likely ocr shapes", likelyOCRAll.size());
+			checkDeadline();
 		}
 
 		double[] ignoreTooSmall=new double[]{0.0};
 		
 		
 		
-		while(foundNewOCR[0] && repeats<MAX_OCR_FULL_REPEATS){
+		while(foundNewOCR[0] && repeats<MAX_OCR_FULL_REPEATS && (repeats==0 || !deadline.isLow())){
 			
 			if (Thread.currentThread().isInterrupted()){
 			      throw new InterruptedException();
@@ -1549,7 +1678,7 @@ public class StructureImageExtractor {
 					.collect(Collectors.toList());
 
 
-			smallLines= bitmap.combineLines(smallLines, MAX_DISTANCE_FOR_STITCHING_SMALL_SEGMENTS, MAX_TOLERANCE_FOR_STITCHING_SMALL_SEGMENTS_FULL, MAX_POINT_DISTANCE_TO_BE_PART_OF_MULTI_NODE,MAX_ANGLE_FOR_JOINING_SEGMENTS,MIN_SIZE_FOR_ANGLE_COMPARE_JOINING_SEGMENTS);
+			smallLines= bitmap.combineLines(smallLines, MAX_DISTANCE_FOR_STITCHING_SMALL_SEGMENTS, MAX_TOLERANCE_FOR_STITCHING_SMALL_SEGMENTS_FULL, MAX_POINT_DISTANCE_TO_BE_PART_OF_MULTI_NODE,MAX_ANGLE_FOR_JOINING_SEGMENTS,MIN_SIZE_FOR_ANGLE_COMPARE_JOINING_SEGMENTS, deadline);
 
 			List<Line2D> removedTinyLines =smallLines.stream()
 					.map(l->l.getLine())
@@ -1692,9 +1821,10 @@ public class StructureImageExtractor {
 						minPerLineDistanceRatioForIntersection,
 						maxCandidateRatioForIntersectionWithNeighbor,
 						GeomUtil.longerThan(maxBondLength[0]).negate())
+						.setDeadline(deadline)
 						.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 
-				if(DEBUG)logState(1,"initial connection table, and merging of extremely close nodes");
+				stage(1,"initial connection table, and merging of extremely close nodes");
 				
 				ctab.getEdgesWhichMightBeWiggleLines()
 					.forEach(t->{
@@ -1737,11 +1867,11 @@ public class StructureImageExtractor {
 				    		foundNewOCR[0]=true;
 				    	}
 					});
-				if(DEBUG)logState(2,"add edges where wiggle bonds appear to be");
+				stage(2,"add edges where wiggle bonds appear to be");
 				
 				ctab.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 				ctab.standardCleanEdges();			
-				if(DEBUG)logState(3,"second pass:merge nodes that are extremely close together");
+				stage(3,"second pass:merge nodes that are extremely close together");
 
 				RunningAverage allDashLengths = new RunningAverage(2);
 				
@@ -1775,11 +1905,11 @@ public class StructureImageExtractor {
 				    	}
 				    	
 				    });
-				if(DEBUG)logState(4,"add dashed bonds for found dotted line areas, mark for recomputing ABL when found");
+				stage(4,"add dashed bonds for found dotted line areas, mark for recomputing ABL when found");
 				ctab.standardCleanEdges();
 				ctab.mergeNodesCloserThan(MAX_DISTANCE_BEFORE_MERGING_NODES);
 				
-				if(DEBUG)logState(5,"third pass:merge nodes that are extremely close together");
+				stage(5,"third pass:merge nodes that are extremely close together");
 				
 				double avgDot=allDashLengths.computeAvg();
 				
@@ -1794,14 +1924,14 @@ public class StructureImageExtractor {
 					ctab.mergeAllNodesInsideCenter(s, OCR_TO_BOND_MAX_DISTANCE);
 				}
 
-				if(DEBUG)logState(6,"merge nodes inside of OCR shapes");
+				stage(6,"merge nodes inside of OCR shapes");
 				
 				
 				
 				
 				//ctab.mergeNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_INITIAL_1);
 				
-				if(DEBUG)logState(59,"fourth pass:merge nodes that are extremely close together");
+				stage(59,"fourth pass:merge nodes that are extremely close together");
 
 				List<List<Node>> newNodesForMerge = new ArrayList<>();
 
@@ -1926,7 +2056,7 @@ public class StructureImageExtractor {
 
 				});
 
-				if(DEBUG)logState(58,"initial merging of close nodes, ignoring those nodes that are quite far apart");
+				stage(58,"initial merging of close nodes, ignoring those nodes that are quite far apart");
 				
 				
 				newNodesForMerge.forEach(ln->{
@@ -1940,7 +2070,7 @@ public class StructureImageExtractor {
 				ctab.removeOrphanNodes();
 				ctab.standardCleanEdges();
 				
-				if(DEBUG)logState(7,"initial merging of close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
+				stage(7,"initial merging of close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
 				
 				
 
@@ -1974,10 +2104,8 @@ public class StructureImageExtractor {
 				});
 
 
-				GeomUtil.groupThings(mergedPoints, (tp)->{
+				GeomUtil.groupNearbyThings(mergedPoints, GeomUtil::pointBounds, ctab.getAverageBondLength()*0.6, (p1,p2)->{
 		
-							Point2D p1=tp.k();
-							Point2D p2=tp.v();
 							if(p1.distanceSq(p2)<ctab.getAverageBondLengthSquared()*0.6*0.6){
 								return connectedComponents.stream()
 										.filter(s->s.contains(p1) && s.contains(p2))
@@ -2002,7 +2130,7 @@ public class StructureImageExtractor {
 				ctab.removeOrphanNodes();
 				ctab.standardCleanEdges();
 
-				if(DEBUG)logState(8,"merge close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
+				stage(8,"merge close nodes, finding the best line-supported intersection to merge into, keeping track of the shape of the merged nodes for later OCR rescue");
 				
 				
 				Set<Edge> splitEdges = new HashSet<Edge>();
@@ -2030,13 +2158,13 @@ public class StructureImageExtractor {
 				    	
 				    });
 
-				if(DEBUG)logState(9,"create nodes on intersecting edges, removing edges that do not have line-segment support");
+				stage(9,"create nodes on intersecting edges, removing edges that do not have line-segment support");
 
 				ctab.mergeFilteredNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_AFTER_SPLIT, n->true);
 				ctab.standardCleanEdges();
 				
 
-				if(DEBUG)logState(10,"merge very close nodes");
+				stage(10,"merge very close nodes");
 
 				
 
@@ -2063,7 +2191,7 @@ public class StructureImageExtractor {
 				ctab.mergeNodesExtendingTo(likelyOCR,maxRatio,maxTotalRatio);
 				ctab.removeOrphanNodes();
 				
-				if(DEBUG)logState(11,"merge nodes extending to OCR shapes");
+				stage(11,"merge nodes extending to OCR shapes");
 				
 				ctab.mergeFilteredNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE_AFTER_SPLIT, n->true);
 				ctab.standardCleanEdges();
@@ -2074,16 +2202,16 @@ public class StructureImageExtractor {
 					}
 					return true;
 				});
-				if(DEBUG)logState(12,"merge nodes that are sufficiently close and are not likely intersection points for cages");
+				stage(12,"merge nodes that are sufficiently close and are not likely intersection points for cages");
 				
 				for(ShapeWrapper s: likelyOCR){
 					ctab.mergeAllNodesInsideCenter(s, OCR_TO_BOND_MAX_DISTANCE);
 				}				
-				if(DEBUG)logState(13,"merge and center all existing nodes inside of OCR shapes");
+				stage(13,"merge and center all existing nodes inside of OCR shapes");
 
 				ctab.makeMissingNodesForShapes(likelyOCR,MAX_BOND_TO_AVG_BOND_RATIO_FOR_NOVEL,MIN_BOND_TO_AVG_BOND_RATIO_FOR_NOVEL);
 				
-				if(DEBUG)logState(14,"add nodes for OCR shapes which were not captured as nodes yet");
+				stage(14,"add nodes for OCR shapes which were not captured as nodes yet");
 				
 				
 				Set<Node> toRemove = new LinkedHashSet<Node>();
@@ -2171,7 +2299,7 @@ public class StructureImageExtractor {
 				toRemoveEdgesImmediately.forEach(e->ctab.removeEdge(e));
 				
 				
-				if(DEBUG)logState(15,"make missing bonds to neighbors that are close enough with enough pixel support, and are not seen as redundant");
+				stage(15,"make missing bonds to neighbors that are close enough with enough pixel support, and are not seen as redundant");
 				
 				List<Tuple<Edge, Tuple<Node,Node>>> removeMe = new ArrayList<>();
 				
@@ -2319,7 +2447,7 @@ public class StructureImageExtractor {
 					
 				});
 				
-				if(DEBUG)logState(16,"remove edges which appear to have been noise / generated from proximity around a ring");
+				stage(16,"remove edges which appear to have been noise / generated from proximity around a ring");
 
 				double avgBondLength=ctab.getAverageBondLength();
 				maxBondLength[0]=avgBondLength*MAX_BOND_TO_AVG_BOND_RATIO_TO_KEEP;
@@ -2355,13 +2483,13 @@ public class StructureImageExtractor {
 			}, (nn)->{
 				intersectionNodes.add(nn.getPoint());
 			});
-			if(DEBUG)logState(17,"create nodes on intersecting lines if there are 3 or more lines that would be long enough compared to ABL");
+			stage(17,"create nodes on intersecting lines if there are 3 or more lines that would be long enough compared to ABL");
 
 			if(anyOtherIntersections.get()){
 				ctab.mergeNodesCloserThan(ctab.getAverageBondLength()*MIN_BOND_TO_AVG_BOND_RATIO_FOR_MERGE);
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(18,"merge very close nodes if there were more intersections computed");
+			stage(18,"merge very close nodes if there were more intersections computed");
 
 			//This is probably where we try to add some missed OCR based on the nodes
 
@@ -2609,7 +2737,7 @@ public class StructureImageExtractor {
 
 			
 			ctab.mergeNodesExtendingTo(likelyOCR,maxRatio,maxTotalRatio);
-			if(DEBUG)logState(20,"merge nodes extending to likely OCR shapes");
+			stage(20,"merge nodes extending to likely OCR shapes");
 
 			double cosThetaOCRShape =Math.cos(MAX_THETA_FOR_OCR_SEPERATION);
 			
@@ -2642,9 +2770,9 @@ public class StructureImageExtractor {
 
 			        
 			List<ShapeWrapper> maybeDashCollection = 
-					GeomUtil.groupThings(maybeDash, t->{						
-											Point2D p1=t.k().centerOfBounds();
-											Point2D p2=t.v().centerOfBounds();
+					GeomUtil.groupNearbyThings(maybeDash, s->GeomUtil.pointBounds(s.centerOfBounds()), ctab.getAverageBondLength()/3, (s1,s2)->{						
+											Point2D p1=s1.centerOfBounds();
+											Point2D p2=s2.centerOfBounds();
 											return p1.distanceSq(p2)<ctab.getAverageBondLengthSquared()/9;
 										})
 										.stream()
@@ -2697,7 +2825,7 @@ public class StructureImageExtractor {
 			
 			double wid=averageWidthOCR;
 
-			List<List<ShapeWrapper>> ocrGroupList=GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCRAll, t->{
+			List<List<ShapeWrapper>> ocrGroupList=GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCRAll, Math.max(ctab.getAverageBondLength()*MAX_BOND_RATIO_FOR_OCR_CHAR_SPACING,wid), t->{
 				Point2D[] pts=t.v();
 				ShapeWrapper[] shapes =t.k();
 
@@ -3325,7 +3453,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 
 			
-			if(DEBUG)logState(21,"merge nodes that are roughly in OCR shapes to be in the center of the shape, or at the area of maximal intersection");
+			stage(21,"merge nodes that are roughly in OCR shapes to be in the center of the shape, or at the area of maximal intersection");
 
 			
 
@@ -3340,7 +3468,7 @@ public class StructureImageExtractor {
 			Set<Line2D> taken = new HashSet<Line2D>();
 			List<Tuple<List<Line2D>,Tuple<Node,Node>>> edgesToMake = new ArrayList<>();
 
-			GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCR, (t)->{
+			GeomUtil.groupShapesIfClosestPointsMatchCriteriaSW(likelyOCR, ctab.getAverageBondLength()*.9, (t)->{
 				Point2D[] pts=t.v();
 				if(pts[0].distanceSq(pts[1])<ctab.getAverageBondLengthSquared()*.9*.9){
 					return true;
@@ -3507,7 +3635,7 @@ public class StructureImageExtractor {
 						});
 
 			ctab.standardCleanEdges();
-			if(DEBUG)logState(22,"add missing non-crossing bonds if there is line support, assign order based on number of reasonable lines between nodes. Also remove/update bonds with little line support");
+			stage(22,"add missing non-crossing bonds if there is line support, assign order based on number of reasonable lines between nodes. Also remove/update bonds with little line support");
 			
 			
 			
@@ -3522,7 +3650,7 @@ public class StructureImageExtractor {
 					}
 					addedCloseEdges.add(t.v());
 				});
-				if(DEBUG)logState(23,"add missing bonds to close neighbors if there is pixel-support");
+				stage(23,"add missing bonds to close neighbors if there is pixel-support");
 				addedCloseEdges.stream()
 				 .forEach(ne->{
 					 LineWrapper lwe = LineWrapper.of(ne.getLine());
@@ -3533,7 +3661,7 @@ public class StructureImageExtractor {
 						 ne.setOrder(2);
 					 }  				  	 
 				 });
-				if(DEBUG)logState(58,"adjusted bond order of found edges");
+				stage(58,"adjusted bond order of found edges");
 			}
 			
 			
@@ -3643,7 +3771,7 @@ public class StructureImageExtractor {
 			}
 			ctab.removeOrphanNodes();
 
-			if(DEBUG)logState(24,"remove bonds that form triangles if the triangle isn't roughly equilateral and nothing is expected to be a cage");
+			stage(24,"remove bonds that form triangles if the triangle isn't roughly equilateral and nothing is expected to be a cage");
 			
 		
 			double fbondlength=ctab.getAverageBondLength();
@@ -3712,7 +3840,7 @@ public class StructureImageExtractor {
 						}
 					});
 			
-			if(DEBUG)logState(26,"split long triple bonds into single-triple composites");
+			stage(26,"split long triple bonds into single-triple composites");
 			
 			List<ShapeWrapper> appliedOCR = new ArrayList<>();
 			AtomicInteger groupNumber = new AtomicInteger(0);
@@ -3880,7 +4008,7 @@ public class StructureImageExtractor {
 					}
 				}
 			}			
-			if(DEBUG)logState(27,"add atom labels and computable groups");
+			stage(27,"add atom labels and computable groups");
 			
 			
 			ctab.getNodes()
@@ -3973,7 +4101,7 @@ public class StructureImageExtractor {
 				
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(28,"look for 5-membered ring-like structures where the nodes are not actually in a ring yet. If they're found, add edges to complete the ring.");
+			stage(28,"look for 5-membered ring-like structures where the nodes are not actually in a ring yet. If they're found, add edges to complete the ring.");
 			
 			
 
@@ -4049,10 +4177,10 @@ public class StructureImageExtractor {
 				}
 				//realRescueOCRCandidates.add(crop);
 			}
-			if(DEBUG)logState(29,"crop out sections of the image which make disconnected connection tables that have incompatible ABLs, if any are found, restart from beginning");
+			stage(29,"crop out sections of the image which make disconnected connection tables that have incompatible ABLs, if any are found, restart from beginning");
 			
 			
-			if(foundNewOCR[0] && repeats<MAX_OCR_FULL_REPEATS){
+			if(foundNewOCR[0] && repeats<MAX_OCR_FULL_REPEATS && !deadline.isLow()){
 				continue;
 			}
 			
@@ -4112,7 +4240,7 @@ public class StructureImageExtractor {
 			}while(!toRemove.isEmpty());
 
 
-			if(DEBUG)logState(30,"remove nodes which have very short edges where their 2 neighbors seem better suited for a bond");
+			stage(30,"remove nodes which have very short edges where their 2 neighbors seem better suited for a bond");
 
 
 			//Cleanup "duplicate" lines that are probably problems. 
@@ -4159,7 +4287,7 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 
 
-			if(DEBUG)logState(31,"remove duplicate long edges which appear to be meant for neighbor");
+			stage(31,"remove duplicate long edges which appear to be meant for neighbor");
 
 			
 			CachedSupplier<List<Tuple<LineWrapper,Shape>>> linesJoinedInfluence = CachedSupplier.of(()->linesJoined
@@ -4292,187 +4420,193 @@ public class StructureImageExtractor {
 			ctab.standardCleanEdges();
 			
 			
-			if(DEBUG)logState(32,"very short non-intersection-derived edges are either removed, or their neighbors are merged based on the resulting fidelity to ABL");
+			stage(32,"very short non-intersection-derived edges are either removed, or their neighbors are merged based on the resulting fidelity to ABL");
 			
 			
 			
 			List<Node> toRemoveNodesCage = new ArrayList<>();
 			
-			ctab.getNodes()
-			    .stream()
-			    .filter(n->n.getEdgeCount()==4)
-			    .filter(n->n.getSymbol().equals("C")) 
-			    .filter(n->!n.isInvented())
-			    .filter(n->intersectionNodes.stream().filter(p->p.distance(n.getPoint())<ctab.getAverageBondLength()*0.1).findAny().isPresent())
-			    .forEach(n->{
+			//the cage heuristics are optional, skip them if time is short.
+			//This is decided once, so each runs over all of its nodes or none of them
+			if(!deadline.isLow()){
+				ctab.getNodes()
+				    .stream()
+				    .filter(n->n.getEdgeCount()==4)
+				    .filter(n->n.getSymbol().equals("C")) 
+				    .filter(n->!n.isInvented())
+				    .filter(n->intersectionNodes.stream().filter(p->p.distance(n.getPoint())<ctab.getAverageBondLength()*0.1).findAny().isPresent())
+				    .forEach(n->{
     				
-			    	//might be cage node / cross bond. To resolve this, you should see if
-			    	//1. If node is in a ring
-			    	//2. The variability in bond length will decrease if you split them
-			    	//3. Removing the node wouldn't stop ALL neighbors from being in a ring
-			    	//4. There is a pretty big gap somewhere (sufficient) 
-			    	//5. The node is in a 4-membered ring, a 3-membered ring, and a 5 membered ring
-			    	if(n.isInRing(7)){
+				    	//might be cage node / cross bond. To resolve this, you should see if
+				    	//1. If node is in a ring
+				    	//2. The variability in bond length will decrease if you split them
+				    	//3. Removing the node wouldn't stop ALL neighbors from being in a ring
+				    	//4. There is a pretty big gap somewhere (sufficient) 
+				    	//5. The node is in a 4-membered ring, a 3-membered ring, and a 5 membered ring
+				    	if(n.isInRing(7)){
 			    		
-			    		//probably cage then
-			    		List<Node> neigh =n.getNeighborNodes().stream().map(t->t.k()).collect(Collectors.toList());
+				    		//probably cage then
+				    		List<Node> neigh =n.getNeighborNodes().stream().map(t->t.k()).collect(Collectors.toList());
 			    		
-//			    		neigh.stream().map(n1->n1.getPoint()).map(p->GeomUtil.makeShapeAround(p, 10))
-//			    		.forEach(s->{
-//			    			realRescueOCRCandidates.add(s);
-//			    		});
+	//			    		neigh.stream().map(n1->n1.getPoint()).map(p->GeomUtil.makeShapeAround(p, 10))
+	//			    		.forEach(s->{
+	//			    			realRescueOCRCandidates.add(s);
+	//			    		});
 			    		
-			    		//realRescueOCRCandidates
+				    		//realRescueOCRCandidates
 			    		
-			    		if(neigh.stream().filter(nn->toRemoveNodesCage.contains(nn)).findAny().isPresent()){
-			    			return;
-			    		}
-			    		List<List<Node>> pairs=GeomUtil.groupThings(neigh, (t1)->{
-			    			Line2D nline = new Line2D.Double(t1.k().getPoint(),t1.v().getPoint());
-			    			Point2D pp=GeomUtil.projectPointOntoLine(nline,n.getPoint());
-			    			if(pp.distance(n.getPoint())< ctab.getAverageBondLength()*0.06){
-			    				return true;
-			    			}
-			    			return false;
-			    		});
-
-			    		if(pairs.size()==2){
-			    			List<Node> npair1=pairs.get(0);
-			    			List<Node> npair2=pairs.get(1);
-			    			if(npair1.size()==2 && npair2.size()==2){
-			    				Line2D l1p = new Line2D.Double(npair1.get(0).getPoint(),npair1.get(1).getPoint());
-			    				Line2D l2p = new Line2D.Double(npair2.get(0).getPoint(),npair2.get(1).getPoint());
-			    				Shape l1s=GeomUtil.growLine(l1p, ctab.getAverageBondLength()*0.2);
-			    				Shape l2s=GeomUtil.growLine(l2p, ctab.getAverageBondLength()*0.2);
+				    		if(neigh.stream().filter(nn->toRemoveNodesCage.contains(nn)).findAny().isPresent()){
+				    			return;
+				    		}
+				    		List<List<Node>> pairs=GeomUtil.groupThings(neigh, (t1)->{
+				    			Line2D nline = new Line2D.Double(t1.k().getPoint(),t1.v().getPoint());
+				    			Point2D pp=GeomUtil.projectPointOntoLine(nline,n.getPoint());
+				    			if(pp.distance(n.getPoint())< ctab.getAverageBondLength()*0.06){
+				    				return true;
+				    			}
+				    			return false;
+				    		});
+
+				    		if(pairs.size()==2){
+				    			List<Node> npair1=pairs.get(0);
+				    			List<Node> npair2=pairs.get(1);
+				    			if(npair1.size()==2 && npair2.size()==2){
+				    				Line2D l1p = new Line2D.Double(npair1.get(0).getPoint(),npair1.get(1).getPoint());
+				    				Line2D l2p = new Line2D.Double(npair2.get(0).getPoint(),npair2.get(1).getPoint());
+				    				Shape l1s=GeomUtil.growLine(l1p, ctab.getAverageBondLength()*0.2);
+				    				Shape l2s=GeomUtil.growLine(l2p, ctab.getAverageBondLength()*0.2);
 			    				
-			    				boolean l1Has=lj.stream()
-			    				  .filter(t->l1s.contains(t.v()))
-			    				  .filter(t->GeomUtil.cosTheta(t.k(), l1p)>0.6)
-			    				  .map(l->l.k())
-			    				  .map(l->GeomUtil.growLine(l, ctab.getAverageBondLength()*0.2))
-			    				  .filter(ls->ls.contains(n.getPoint()))
-			    				  .findFirst()
-			    				  .isPresent();
+				    				boolean l1Has=lj.stream()
+				    				  .filter(t->l1s.contains(t.v()))
+				    				  .filter(t->GeomUtil.cosTheta(t.k(), l1p)>0.6)
+				    				  .map(l->l.k())
+				    				  .map(l->GeomUtil.growLine(l, ctab.getAverageBondLength()*0.2))
+				    				  .filter(ls->ls.contains(n.getPoint()))
+				    				  .findFirst()
+				    				  .isPresent();
 			    				
-			    				boolean l2Has=lj.stream()
-					    				  .filter(t->l2s.contains(t.v()))
-					    				  .filter(t->GeomUtil.cosTheta(t.k(), l2p)>0.6)
-					    				  .map(l->l.k())
-					    				  .map(l->GeomUtil.growLine(l, ctab.getAverageBondLength()*0.2))
-					    				  .filter(ls->ls.contains(n.getPoint()))
-					    				  .findFirst()
-					    				  .isPresent();
+				    				boolean l2Has=lj.stream()
+						    				  .filter(t->l2s.contains(t.v()))
+						    				  .filter(t->GeomUtil.cosTheta(t.k(), l2p)>0.6)
+						    				  .map(l->l.k())
+						    				  .map(l->GeomUtil.growLine(l, ctab.getAverageBondLength()*0.2))
+						    				  .filter(ls->ls.contains(n.getPoint()))
+						    				  .findFirst()
+						    				  .isPresent();
 			    				
 			    				
-			    				boolean doit=false;
+				    				boolean doit=false;
 			    				
-			    				if((l1Has && !l2Has) || (l2Has && !l1Has)){
-			    					doit=true;
-			    				}else{		    				
-				    				//Really do it, but first make sure that the average bond length makes sense
-			    					//OR that it meets special ring criteria
+				    				if((l1Has && !l2Has) || (l2Has && !l1Has)){
+				    					doit=true;
+				    				}else{		    				
+					    				//Really do it, but first make sure that the average bond length makes sense
+				    					//OR that it meets special ring criteria
 			    					
-			    					int[] rings = new int[7];
+				    					int[] rings = new int[7];
 			    					
-			    					n.getAllRings()
-			    					 .forEach(r->{
-			    						 if(r.size()<=6){
-			    							 rings[r.size()]++;
-			    						 }
-			    					 });
+				    					n.getAllRings()
+				    					 .forEach(r->{
+				    						 if(r.size()<=6){
+				    							 rings[r.size()]++;
+				    						 }
+				    					 });
 			    					
-			    					if(rings[3]>0 && rings[4]>0 && rings[5]>0){
-			    						doit=true;
-			    					}else{
+				    					if(rings[3]>0 && rings[4]>0 && rings[5]>0){
+				    						doit=true;
+				    					}else{
 				    					
 					    				
-					    				double averageOtherBondLength=ctab.getEdges().stream()
-					    				               .filter(e2->!e2.hasNode(n))
-					    				               .mapToDouble(e2->e2.getEdgeLength())
-					    				               .average()
-					    				               .orElse(ctab.getAverageBondLength());
+						    				double averageOtherBondLength=ctab.getEdges().stream()
+						    				               .filter(e2->!e2.hasNode(n))
+						    				               .mapToDouble(e2->e2.getEdgeLength())
+						    				               .average()
+						    				               .orElse(ctab.getAverageBondLength());
 					    				
-					    				double averageCurrentBondLength=n.getEdges().stream().mapToDouble(e->e.getEdgeLength()).average().orElse(0);
+						    				double averageCurrentBondLength=n.getEdges().stream().mapToDouble(e->e.getEdgeLength()).average().orElse(0);
 					    				
-					    				double averageNewBondLength=0.5*(npair1.get(0).distanceTo(npair1.get(1)) +
-					    											npair2.get(0).distanceTo(npair2.get(1)));
+						    				double averageNewBondLength=0.5*(npair1.get(0).distanceTo(npair1.get(1)) +
+						    											npair2.get(0).distanceTo(npair2.get(1)));
 					    				
-					    				if(Math.abs(averageNewBondLength-averageOtherBondLength)<Math.abs(averageCurrentBondLength-averageOtherBondLength)){
-					    						doit=true;
-					    				}
-			    					}
-			    				}
+						    				if(Math.abs(averageNewBondLength-averageOtherBondLength)<Math.abs(averageCurrentBondLength-averageOtherBondLength)){
+						    						doit=true;
+						    				}
+				    					}
+				    				}
 			    				
-			    				if(doit){
-			    					List<Edge> redges=n.getEdges();
-			    					List<Node> nn = n.getNeighborNodes().stream().map(t->t.k()).collect(Collectors.toList());
-			    					Edge nedge1=ctab.addEdge(npair1.get(0).getIndex(), npair1.get(1).getIndex(),1);
-			    					Edge nedge2=ctab.addEdge(npair2.get(0).getIndex(), npair2.get(1).getIndex(),1);
+				    				if(doit){
+				    					List<Edge> redges=n.getEdges();
+				    					List<Node> nn = n.getNeighborNodes().stream().map(t->t.k()).collect(Collectors.toList());
+				    					Edge nedge1=ctab.addEdge(npair1.get(0).getIndex(), npair1.get(1).getIndex(),1);
+				    					Edge nedge2=ctab.addEdge(npair2.get(0).getIndex(), npair2.get(1).getIndex(),1);
 				    				
-				    				redges.forEach(e->ctab.removeEdge(e));
-				    				//ctab.removeNode(n.getIndex());
+					    				redges.forEach(e->ctab.removeEdge(e));
+					    				//ctab.removeNode(n.getIndex());
 				    				
-				    				boolean cancel=false;
-				    				if(!nn.stream().filter(nn1->nn1.isInRing(7)).findAny().isPresent()){
-				    					cancel=true;
-				    				}
+					    				boolean cancel=false;
+					    				if(!nn.stream().filter(nn1->nn1.isInRing(7)).findAny().isPresent()){
+					    					cancel=true;
+					    				}
 				    				
-				    				if(cancel){
-				    					ctab.removeEdge(nedge1);
-				    					ctab.removeEdge(nedge2);
-				    				}else{
-				    					toRemoveNodesCage.add(n);	
-				    				}
-				    				redges.forEach(e->ctab.addEdge(e.getRealNode1().getIndex(),e.getRealNode2().getIndex(),e.getOrder())
-				    						.setDashed(e.getDashed())
-				    						.setWedge(e.getWedge())
-				    						);
+					    				if(cancel){
+					    					ctab.removeEdge(nedge1);
+					    					ctab.removeEdge(nedge2);
+					    				}else{
+					    					toRemoveNodesCage.add(n);	
+					    				}
+					    				redges.forEach(e->ctab.addEdge(e.getRealNode1().getIndex(),e.getRealNode2().getIndex(),e.getOrder())
+					    						.setDashed(e.getDashed())
+					    						.setWedge(e.getWedge())
+					    						);
 				    				
 				    				
 				    				
-			    				}
-			    			}
-			    		}
-			    	}
-			    });
+				    				}
+				    			}
+				    		}
+				    	}
+				    });
+			}
 			    
 			for(Node r:toRemoveNodesCage){
 				ctab.removeNodeAndEdges(r);
 			}
-			if(DEBUG)logState(33,"Cage: C nodes with 4 single bonds that are in several rings are evaluated, possibly removed with the cross-neighbors getting new bonds");
+			stage(33,"Cage: C nodes with 4 single bonds that are in several rings are evaluated, possibly removed with the cross-neighbors getting new bonds");
 			
 			
 			toRemoveNodesCage.clear();
 			
-			ctab.getNodes()
-			    .stream()
-			    .filter(n->n.getEdgeCount()==2)
-			    .filter(n->n.getSymbol().equals("C"))
-			    .filter(n->!n.isInvented())
-			    .filter(n->n.getEdges().stream().filter(e->e.getOrder()==1).count()==2)
-			    .filter(n->GeomUtil.findClosestShapeWTo(likelyOCR, n.getPoint()).map(t->t.v()).orElse(100.0)>ctab.getAverageBondLength()*0.2)
-			    //.filter(n->n.isInRing(8))
-			    .forEach(n->{
-			    	List<Tuple<Node,Node>> tn=GeomUtil.eachCombination(n.getNeighborNodes())
-			    	        .filter(t->{
-			    	        	Node n1=t.k().k();
-			    	        	Node n2=t.v().k();
+			if(!deadline.isLow()){
+				ctab.getNodes()
+				    .stream()
+				    .filter(n->n.getEdgeCount()==2)
+				    .filter(n->n.getSymbol().equals("C"))
+				    .filter(n->!n.isInvented())
+				    .filter(n->n.getEdges().stream().filter(e->e.getOrder()==1).count()==2)
+				    .filter(n->GeomUtil.findClosestShapeWTo(likelyOCR, n.getPoint()).map(t->t.v()).orElse(100.0)>ctab.getAverageBondLength()*0.2)
+				    //.filter(n->n.isInRing(8))
+				    .forEach(n->{
+				    	List<Tuple<Node,Node>> tn=GeomUtil.eachCombination(n.getNeighborNodes())
+				    	        .filter(t->{
+				    	        	Node n1=t.k().k();
+				    	        	Node n2=t.v().k();
 			    	        	
-			    	        	Line2D l = new Line2D.Double(n1.getPoint(), n2.getPoint());
-			    	        	Point2D pp=GeomUtil.projectPointOntoLine(l, n.getPoint());
-			    	        	if(pp.distance(n.getPoint())<ctab.getAverageBondLength()*0.1){
-			    	        		return true;
-			    	        	}
-			    	        	return false;
-			    	        })
-			    	        .map(t->Tuple.of(t.k().k(),t.v().k()))
-			    	        .collect(Collectors.toList());
-			    	if(tn.size()==1){
-			    		toRemoveNodesCage.add(n);
-			    		ctab.addEdge(tn.get(0).k().getIndex(), tn.get(0).v().getIndex(), 1);
-			    	}
+				    	        	Line2D l = new Line2D.Double(n1.getPoint(), n2.getPoint());
+				    	        	Point2D pp=GeomUtil.projectPointOntoLine(l, n.getPoint());
+				    	        	if(pp.distance(n.getPoint())<ctab.getAverageBondLength()*0.1){
+				    	        		return true;
+				    	        	}
+				    	        	return false;
+				    	        })
+				    	        .map(t->Tuple.of(t.k().k(),t.v().k()))
+				    	        .collect(Collectors.toList());
+				    	if(tn.size()==1){
+				    		toRemoveNodesCage.add(n);
+				    		ctab.addEdge(tn.get(0).k().getIndex(), tn.get(0).v().getIndex(), 1);
+				    	}
 			    	        
-			    });
+				    });
+			}
 			if(DEBUG)ctabRaw.add(ctab.cloneTab());
 			toRemoveNodesCage.forEach(n->{
 				ctab.removeNodeAndEdges(n);	
@@ -4482,7 +4616,7 @@ public class StructureImageExtractor {
 			
 			
 			ctab.removeOrphanNodes();
-			if(DEBUG)logState(34,"Cage: Nodes that have 2 single-bond neighbors which are sufficiently collinear are removed, a new bond is added between the old neighbors");
+			stage(34,"Cage: Nodes that have 2 single-bond neighbors which are sufficiently collinear are removed, a new bond is added between the old neighbors");
 			
 			
 			List<Shape> singleBondInfluenceAreas = ctab.getEdges()
@@ -4536,7 +4670,7 @@ public class StructureImageExtractor {
 						}
 						//ctab.removeEdge(e);
 				});
-			if(DEBUG)logState(35,"C-C double bonds are diminished to single if the second part of the double bond was based on a close single bond");
+			stage(35,"C-C double bonds are diminished to single if the second part of the double bond was based on a close single bond");
 			
 			//clean bad triple bonds
 			ctab.getEdges().stream()
@@ -4598,7 +4732,7 @@ public class StructureImageExtractor {
 						
 						//ctab.removeEdge(e);
 				});
-			if(DEBUG)logState(36,"C-C triple bonds are diminished to double/single if there is not enough support for them being triple bonds");
+			stage(36,"C-C triple bonds are diminished to double/single if there is not enough support for them being triple bonds");
 			
 			
 			//look for pentavalent Carbons
@@ -4672,32 +4806,34 @@ public class StructureImageExtractor {
 				 		}
 			    	}
 			    });
-			if(DEBUG)logState(37,"pentavalent and hexavalent carbons have dashed bonds removed, or high-order bonds moved to lower order");
+			stage(37,"pentavalent and hexavalent carbons have dashed bonds removed, or high-order bonds moved to lower order");
 			
 			
 			//Here, we should remove some bad cage bonds			
 			//In this case, it's all very short bonds in 2 4-membered ring 
 			//and all other edges in that ring are more than 30% longer than 
 			//the edge in question
-			ctab.getEdges()
-			    .stream()
-			    .filter(e->!e.isInventedBond())
-			    .filter(e->e.getOrder()==1)
-			    .filter(e->e.getEdgeLength()<ctab.getAverageBondLength()*0.5)
-			    .collect(Collectors.toList())
-			    .forEach(e->{
-			    	List<Ring> rings = e.getAllRings().stream().filter(r->r.size() ==4).collect(Collectors.toList());
+			if(!deadline.isLow()){
+				ctab.getEdges()
+				    .stream()
+				    .filter(e->!e.isInventedBond())
+				    .filter(e->e.getOrder()==1)
+				    .filter(e->e.getEdgeLength()<ctab.getAverageBondLength()*0.5)
+				    .collect(Collectors.toList())
+				    .forEach(e->{
+				    	List<Ring> rings = e.getAllRings().stream().filter(r->r.size() ==4).collect(Collectors.toList());
 			    	
-			    	if(rings.size()==2){
-			    		boolean smallestEdge=rings.stream()
-			    		     .allMatch(r->r.getEdges().stream().filter(e2->e2!=e).allMatch(e2->e2.getEdgeLength()>1.3*e.getEdgeLength()));
-			    		if(smallestEdge){
-			    			ctab.removeEdge(e);
-			    		}
-			    	}
-			    });
+				    	if(rings.size()==2){
+				    		boolean smallestEdge=rings.stream()
+				    		     .allMatch(r->r.getEdges().stream().filter(e2->e2!=e).allMatch(e2->e2.getEdgeLength()>1.3*e.getEdgeLength()));
+				    		if(smallestEdge){
+				    			ctab.removeEdge(e);
+				    		}
+				    	}
+				    });
+			}
 			
-			if(DEBUG)logState(38,"Cage: all bonds less than 0.5 ABL that are in 2 4-membered rings where it is the smalest bond in both rings are removed");
+			stage(38,"Cage: all bonds less than 0.5 ABL that are in 2 4-membered rings where it is the smalest bond in both rings are removed");
 			
 			
 			//Find floating methyls
@@ -4856,16 +4992,14 @@ public class StructureImageExtractor {
 				}
 				ctab.standardCleanEdges();
 			}
-			if(DEBUG)logState(39,"find and add floating dashed methyl groups, and tweak/assign dashed bonds that are well-behaved");
+			stage(39,"find and add floating dashed methyl groups, and tweak/assign dashed bonds that are well-behaved");
 			
 			
 			//Not sure about this, sometimes want to do a final merge
 			ctab.getNodes()
 			    .stream()
 			    .filter(n->!n.isInvented())
-			    .collect(GeomUtil.groupThings(t->{
-			    	Node n1=t.k();
-			    	Node n2=t.v();
+			    .collect(GeomUtil.groupNearbyThings(n->GeomUtil.pointBounds(n.getPoint()), ctab.getAverageBondLength()*0.2, (n1,n2)->{
 			    	if(n1.distanceTo(n2)<ctab.getAverageBondLength()*0.2){
 			    		if(n1.connectsTo(n2)){
 			    			return true;
@@ -4881,7 +5015,7 @@ public class StructureImageExtractor {
 			    	ctab.standardCleanEdges();
 			    });
 			
-			if(DEBUG)logState(40,"merge all node pairs that are isolated and are < 0.2 ABL away from each other");
+			stage(40,"merge all node pairs that are isolated and are < 0.2 ABL away from each other");
 			
 			@SuppressWarnings("unchecked")
 			List<Tuple<Edge,WedgeInfo>> winfo=(List<Tuple<Edge, WedgeInfo>>) ctab.getEdges()
@@ -4983,7 +5117,7 @@ public class StructureImageExtractor {
 					.filter(t->t.isPresent())
 					.map(o->o.get())
 					.collect(Collectors.toList());
-			if(DEBUG)logState(41,"calculate wedge statistics and assign dashed bonds when there is a dotted/dashed line that would make sense there, otherwise make the edge non-dashed");
+			stage(41,"calculate wedge statistics and assign dashed bonds when there is a dotted/dashed line that would make sense there, otherwise make the edge non-dashed");
 			
 			
 			Predicate<Node> couldBeStereoCenter = (n1)->n1.getEdgeCount()>=3 && n1.getSymbol().equals("C") && !n1.getEdges().stream().filter(e1->e1.getOrder()>1).findAny().isPresent();
@@ -5046,7 +5180,7 @@ public class StructureImageExtractor {
 					}
 				}
 			});
-			if(DEBUG)logState(42,"assign wedges based on relative thickness and/or wedgeness");
+			stage(42,"assign wedges based on relative thickness and/or wedgeness");
 			
 			
 			if(thickEdges.size()>0 && wedgeEdges.size()>0){
@@ -5062,7 +5196,7 @@ public class StructureImageExtractor {
 						  })
 				          .forEach(w->w.setWedge(false));
 			}
-			if(DEBUG)logState(43,"if there are both thick edges and wedge edges, turn off all thick-edge wedge assignments which are attached to real wedge edges");
+			stage(43,"if there are both thick edges and wedge edges, turn off all thick-edge wedge assignments which are attached to real wedge edges");
 			
 			
 
@@ -5104,7 +5238,7 @@ public class StructureImageExtractor {
 							centerOfExplicitDashes.add(e.getCenterPoint());
 						}
 					});
-			if(DEBUG)logState(44,"add dashed bond to nodes that are close enough and have 2 or more small shapes along the line between them");
+			stage(44,"add dashed bond to nodes that are close enough and have 2 or more small shapes along the line between them");
 			
 			ctab.getEdges()
 			    .stream()
@@ -5127,7 +5261,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(45,"remove dashed edges which don't have strong support from line segments");
+			stage(45,"remove dashed edges which don't have strong support from line segments");
 
 			ctab.getEdges()
 				.stream()
@@ -5138,7 +5272,7 @@ public class StructureImageExtractor {
 					}
 				});
 			
-			if(DEBUG)logState(46,"reorient the stereo bonds if they don't make sense where they're pointing");
+			stage(46,"reorient the stereo bonds if they don't make sense where they're pointing");
 
 			
 	
@@ -5191,7 +5325,7 @@ public class StructureImageExtractor {
 			    	}
 			    });
 			
-			if(DEBUG)logState(47,"look for possible missing double bond on 6-membered rings");
+			stage(47,"look for possible missing double bond on 6-membered rings");
 			
 			
 			ctab.getRings()
@@ -5252,7 +5386,7 @@ public class StructureImageExtractor {
 			    	
 			    });
 
-			if(DEBUG)logState(48,"resize/stretch aromatic rings to be planar");
+			stage(48,"resize/stretch aromatic rings to be planar");
 
 			//fix dashes which might not have had support
 			//but only if they're over-specified
@@ -5270,7 +5404,7 @@ public class StructureImageExtractor {
 			    	e.setDashed(false);
 			    	
 			    });
-			if(DEBUG)logState(49,"remove dashed bonds that had little support and that are over-specified");
+			stage(49,"remove dashed bonds that had little support and that are over-specified");
 
 		}
 		if(Thread.currentThread().isInterrupted()){
@@ -5314,7 +5448,7 @@ public class StructureImageExtractor {
 		    		//probably a C
 		    		n.setSymbol("C");
 		    });
-		if(DEBUG)logState(50,"change symbols for H and F to C if there are more bonds than there should be");		
+		stage(50,"change symbols for H and F to C if there are more bonds than there should be");		
 
 
 		
@@ -5336,7 +5470,7 @@ public class StructureImageExtractor {
 			    			 ctab.removeEdge(t.v());
 			    		 });
 			    });
-		if(DEBUG)logState(51,"remove erroneous bonds to halogens if there are more bonds than there should be");
+		stage(51,"remove erroneous bonds to halogens if there are more bonds than there should be");
 		
 
 		//fix bad Sulfurs
@@ -5415,7 +5549,7 @@ public class StructureImageExtractor {
 		    		}
 		    });
 		
-		if(DEBUG)logState(52,"charge nitrogens and sulfurs with large number of bonds");
+		stage(52,"charge nitrogens and sulfurs with large number of bonds");
 		
 		List<ShapeWrapper> mightBeNegative=polygons.stream()
 										    .filter(s->s.getHeight()<ctab.getAverageBondLength()/10)
@@ -5511,7 +5645,7 @@ public class StructureImageExtractor {
 			}
 		}
 		
-		if(DEBUG)logState(53,"negative charge detection");
+		stage(53,"negative charge detection");
 		
 		ctab.getNodes()
 			.stream()
@@ -5546,7 +5680,7 @@ public class StructureImageExtractor {
 			});
 		
 		
-		if(DEBUG)logState(54,"change bond order for high valance N and S");
+		stage(54,"change bond order for high valance N and S");
 		
 
 
@@ -5563,7 +5697,7 @@ public class StructureImageExtractor {
 		    	ctab.removeOrphanNodes();
 		    });
 		
-		if(DEBUG)logState(55,"removed bad dashed isolated bonds");
+		stage(55,"removed bad dashed isolated bonds");
 		
 		
 		// clean up 5-membered rings
@@ -5823,8 +5957,8 @@ public class StructureImageExtractor {
 					.stream()
 					.filter(n->!n.isInvented())
 					.map(n->n.getPoint().getX())
-					.collect(GeomUtil.groupThings(t->{
-						double dd=t.k()-t.v();
+					.collect(GeomUtil.groupNearbyThings(d->new Rectangle2D.Double(d, 0, 0, 0), ctab.getAverageBondLength()*0.03, (d1,d2)->{
+						double dd=d1-d2;
 						if(Math.abs(dd)<ctab.getAverageBondLength()*0.03){
 							return true;
 						}
@@ -5845,8 +5979,8 @@ public class StructureImageExtractor {
 					.stream()
 					.filter(n->!n.isInvented())
 					.map(n->n.getPoint().getY())
-					.collect(GeomUtil.groupThings(t->{
-						double dd=t.k()-t.v();
+					.collect(GeomUtil.groupNearbyThings(d->new Rectangle2D.Double(d, 0, 0, 0), ctab.getAverageBondLength()*0.03, (d1,d2)->{
+						double dd=d1-d2;
 						if(Math.abs(dd)<ctab.getAverageBondLength()*0.03){
 							return true;
 						}
@@ -5867,7 +6001,7 @@ public class StructureImageExtractor {
 					n.setInvented(false);
 				});
 			
-			if(DEBUG)logState(56,"minor adjustments to layout for rings and terminal groups");
+			stage(56,"minor adjustments to layout for rings and terminal groups");
 		}
 		
 //		ctab.mergeNodesCloserThan(1);
@@ -5880,51 +6014,53 @@ public class StructureImageExtractor {
 				.orElse((ctab.getAverageBondLength()*0.3)*(ctab.getAverageBondLength()*0.3));
 		double radOCR = Math.min(Math.sqrt(expectedOCRarea*2),ctab.getAverageBondLength()*0.5);
 		
-		ctab.getNodes()
-		    .stream()
-		    .filter(n->!n.isInvented())
-		    .filter(n->n.getSymbol().equals("C"))
-		    .filter(n->!n.getEdges().stream().anyMatch(d->d.getOrder()==1 && d.getDashed()))
-		    .forEach(n->{
-		    	ShapeWrapper s= ShapeWrapper.of(GeomUtil.shapeFromVertices(GeomUtil.makeNPolyCenteredAt(n.getPoint(), 16, radOCR)));
-//		    	realRescueOCRCandidates.add(s);
-		    	ShapeWrapper mm = ShapeWrapper.of(polygons.stream()
-						    	        .filter(p->s.contains(p))
-						    	        .flatMap(p->Arrays.stream(p.getVerts()))
-						    	        .collect(GeomUtil.convexHull()));
-		    	if(GeomUtil.area(mm.getBounds())>expectedOCRarea*0.7 && mm.contains(n.getPoint()) && GeomUtil.area(mm.getBounds())<expectedOCRarea*2){
-		    		double mmarea = 1/mm.getArea();
+		if(!deadline.isLow()){
+			ctab.getNodes()
+			    .stream()
+			    .filter(n->!n.isInvented())
+			    .filter(n->n.getSymbol().equals("C"))
+			    .filter(n->!n.getEdges().stream().anyMatch(d->d.getOrder()==1 && d.getDashed()))
+			    .forEach(n->{
+			    	ShapeWrapper s= ShapeWrapper.of(GeomUtil.shapeFromVertices(GeomUtil.makeNPolyCenteredAt(n.getPoint(), 16, radOCR)));
+	//		    	realRescueOCRCandidates.add(s);
+			    	ShapeWrapper mm = ShapeWrapper.of(polygons.stream()
+							    	        .filter(p->s.contains(p))
+							    	        .flatMap(p->Arrays.stream(p.getVerts()))
+							    	        .collect(GeomUtil.convexHull()));
+			    	if(GeomUtil.area(mm.getBounds())>expectedOCRarea*0.7 && mm.contains(n.getPoint()) && GeomUtil.area(mm.getBounds())<expectedOCRarea*2){
+			    		double mmarea = 1/mm.getArea();
 		    		
-		    		boolean already =
-		    				likelyOCRNonBond.stream()
-		    						.map(ss->GeomUtil.getIntersectionShape(mm, ss))
-		    						.filter(ss->ss.isPresent())
-		    						.map(ss->ss.get())
-		    						.anyMatch(ss->{
-		    							double areaRatio = ss.getArea()*mmarea;
-		    							return areaRatio > 0.7 && areaRatio < 1/0.7;
-		    						});
+			    		boolean already =
+			    				likelyOCRNonBond.stream()
+			    						.map(ss->GeomUtil.getIntersectionShape(mm, ss))
+			    						.filter(ss->ss.isPresent())
+			    						.map(ss->ss.get())
+			    						.anyMatch(ss->{
+			    							double areaRatio = ss.getArea()*mmarea;
+			    							return areaRatio > 0.7 && areaRatio < 1/0.7;
+			    						});
 		    		
 		    		
-		    		if(!already){
+			    		if(!already){
 
-				    	realRescueOCRCandidates.add(mm.getShape());
-		    			processOCRShape(socr[0],mm,bitmap,(sn,potential)->{
-		    				String st=potential.get(0).k().toString();
-//		    				System.out.println("Maybe it's:" + st);
-							if(potential.get(0).v().doubleValue()>OCRcutoffCosineRescue){
+					    	realRescueOCRCandidates.add(mm.getShape());
+			    			processOCRShape(socr[0],mm,bitmap,(sn,potential)->{
+			    				String st=potential.get(0).k().toString();
+	//		    				System.out.println("Maybe it's:" + st);
+								if(potential.get(0).v().doubleValue()>OCRcutoffCosineRescue){
 								
-								BranchNode bn1= BranchNode.interpretOCRStringAsAtom2(st);
-								if(bn1!=null && !bn1.hasChildren() && bn1.isRealNode()){
-									n.setSymbol(bn1.getSymbol());
-								}
-							}	
-						});
-		    		}
-		    	}
-		    });
+									BranchNode bn1= BranchNode.interpretOCRStringAsAtom2(st);
+									if(bn1!=null && !bn1.hasChildren() && bn1.isRealNode()){
+										n.setSymbol(bn1.getSymbol());
+									}
+								}	
+							});
+			    		}
+			    	}
+			    });
+		}
 		
-		if(DEBUG)logState(59,"attempt to rescue ocr shapes which are around a node but may have been disconnected due to internal or external thresholding");
+		stage(59,"attempt to rescue ocr shapes which are around a node but may have been disconnected due to internal or external thresholding");
 		
 		
 		//Make aromatic bonds
@@ -5937,11 +6073,20 @@ public class StructureImageExtractor {
 				       .forEach(Edge::setToAromatic);
 		       });
 		
-		if(DEBUG)logState(57,"set aromatic bonds");		
+		stage(57,"set aromatic bonds");		
 	}
 	
 	
 	
+	/**
+	 * Mark the end of a numbered step of building the connection table.
+	 */
+	private void stage(int stepNum, String msg){
+		stages.stage(stepNum, msg, ctab);
+		if(DEBUG)logState(stepNum,msg);
+		checkDeadline();
+	}
+	
 	private void logState(int stepNum, String msg){
 		int stateNum = ctabRaw.size();		
 		System.out.println("STATE[" + stepNum + "," + stateNum + "]" + msg);
@@ -6038,6 +6183,16 @@ public class StructureImageExtractor {
 	public ConnectionTable getCtab() {
 		return ctab;
 	}
+	
+	/**
+	 * Was processing cut short because the deadline expired.  If so,
+	 * {@link #getCtab()} is the connection table as it was when time ran out,
+	 * which may be empty.
+	 * @return
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
 
 
 	/**
@@ -49,9 +49,11 @@ public class UnionFind {
 	Map<Integer, List<Integer>> eqmap = 
 	    new TreeMap<Integer, List<Integer>>();
 	for (int i = 0; i < nodes.length; ++i) {
-	    List<Integer> v = eqmap.get(nodes[i]);
+	    // a node's parent isn't always the root of its class
+	    int root = getRoot (i);
+	    List<Integer> v = eqmap.get(root);
 	    if (v == null) {
-		eqmap.put(nodes[i], v = new ArrayList<Integer>());
+		eqmap.put(root, v = new ArrayList<Integer>());
 	    }
 	    v.add(i);
 	}
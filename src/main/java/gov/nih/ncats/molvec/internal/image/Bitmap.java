@@ -33,13 +33,11 @@ import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.BiFunction;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -47,8 +45,11 @@ import java.util.stream.Stream;
 
 import javax.imageio.ImageIO;
 
+import gov.nih.ncats.molvec.Deadline;
 import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
 import gov.nih.ncats.molvec.internal.util.CachedSupplier;
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
+import gov.nih.ncats.molvec.internal.algo.Speculation;
 import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
 import gov.nih.ncats.molvec.internal.algo.Tuple;
 import gov.nih.ncats.molvec.internal.image.binarization.AdaptiveThreshold;
@@ -203,12 +204,20 @@ public class Bitmap implements Serializable {
     
     
     private static final boolean DEBUG;
+    /**
+     * Make polygon components from every pixel, with the original Graham scan,
+     * rather than from the ends of each row.
+     */
+    private static final boolean LEGACY_HULLS;
     static {
         boolean debug = false;
+        boolean legacyHulls = false;
         try {
             debug = Boolean.getBoolean ("bitmap.debug");
+            legacyHulls = Boolean.getBoolean ("bitmap.legacyHulls");
         } catch (Exception ex) { }
         DEBUG = debug;
+        LEGACY_HULLS = legacyHulls;
     }
     
     public static class BitmapScaled{
@@ -217,44 +226,64 @@ public class Bitmap implements Serializable {
     	public int[][] ccount;
     	public List<int[]> xys;
     	public int tcount;
+    	/**
+    	 * Number of on pixels falling in each scaled cell, flattened
+    	 * so that cell (x,y) is at index x*height+y.
+    	 */
+    	public int[] onCount;
+    	/**
+    	 * Number of pixels (on or off) falling in each scaled cell, flattened
+    	 * the same way as {@link #onCount}.
+    	 */
+    	public int[] cellCount;
 
     	public static BitmapScaled of(Bitmap r, int DEF_WIDTH, int DEF_HEIGHT){
 	    	int twidth = r.width();
 			int theight = r.height();
 			
-			int[][] ccount = new int[DEF_WIDTH][DEF_HEIGHT];
-			
-			List<int[]> xys=r.getXYOnPoints()
-							    .map(xy->{
-							    	int cx = (xy[0] * DEF_WIDTH) / twidth;
-							    	int cy = (xy[1] * DEF_HEIGHT) / theight;
-							    	return new int[]{cx,cy,1};
-							    })
-							    .collect(Collectors.groupingBy(i->i[0]+","+i[1]))
-							    .values()
-							    .stream()
-							    .map(il->{
-							    	int[] r1=il.get(0);
-							    	r1[2]=il.size();
-							    	return r1;
-							    })
-							    .collect(Collectors.toList());
-			
-			int tcount= xys.stream().mapToInt(r1->r1[2]).sum();
+			int[] onCount = new int[DEF_WIDTH*DEF_HEIGHT];
+			int[] tcount = new int[]{0};
+			r.getXYOnPoints()
+			 .forEach(xy->{
+				 int cx = (xy[0] * DEF_WIDTH) / twidth;
+				 int cy = (xy[1] * DEF_HEIGHT) / theight;
+				 onCount[cx*DEF_HEIGHT+cy]++;
+				 tcount[0]++;
+			 });
 			
+			//the number of source columns (rows) that land in each scaled column (row)
+			//so the pixel count for a cell is just their product
+			int[] colCount = new int[DEF_WIDTH];
+			int[] rowCount = new int[DEF_HEIGHT];
 			for(int i=0;i<twidth;i++){
-				for(int j=0;j<theight;j++){
-				   	int cx = (i * DEF_WIDTH) / twidth;
-			    	int cy = (j * DEF_HEIGHT) / theight;
-			    	ccount[cx][cy]++;
+				colCount[(i * DEF_WIDTH) / twidth]++;
+			}
+			for(int j=0;j<theight;j++){
+				rowCount[(j * DEF_HEIGHT) / theight]++;
+			}
+			
+			int[] cellCount = new int[DEF_WIDTH*DEF_HEIGHT];
+			int[][] ccount = new int[DEF_WIDTH][DEF_HEIGHT];
+			List<int[]> xys = new ArrayList<>();
+			for(int cx=0;cx<DEF_WIDTH;cx++){
+				for(int cy=0;cy<DEF_HEIGHT;cy++){
+					int k=cx*DEF_HEIGHT+cy;
+					cellCount[k]=colCount[cx]*rowCount[cy];
+					ccount[cx][cy]=cellCount[k];
+					if(onCount[k]>0){
+						xys.add(new int[]{cx,cy,onCount[k]});
+					}
 				}
 			}
+			
 			BitmapScaled bms=new BitmapScaled();
 			bms.ccount=ccount;
 			bms.twidth=twidth;
 			bms.theight=theight;
 			bms.xys=xys;
-			bms.tcount=tcount;
+			bms.tcount=tcount[0];
+			bms.onCount=onCount;
+			bms.cellCount=cellCount;
 			return bms;
     	}
     }
@@ -504,29 +533,23 @@ public class Bitmap implements Serializable {
     public enum Bbox {
         Rectangular{
             @Override
-            List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                Map<Short, Rectangle> ltab = new LinkedHashMap<Short, Rectangle> ();
-                List<Shape> comps = new ArrayList<Shape> ();
-//labels = new short[height][width + 1];
-                int height = labels.length;
-                int width = labels[0].length -1;
+            List<Shape> computeConnectedComponentShapes(ComponentLabels labels) {
+                Rectangle[] rects = new Rectangle[labels.count + 1];
+                List<Shape> comps = new ArrayList<Shape> (labels.count);
+                int height = labels.height;
+                int width = labels.width;
+                int[] plane = labels.labels;
                 for (int y = 0; y < height; ++y) {
-                    //TODO is this an off by 1 error since label array goes +1 ?
+                    int row = y * width;
                     for (int x = 0; x < width; ++x) {
-                        short label = labels[y][x];
-                        if (label != 0) {
-                            short l = label;
-                            /* find equivalence class */
-                            while (eqvtab[l] > 0)
-                                l = eqvtab[l];
-
-                            labels[y][x] = l;
+                        int l = plane[row + x];
+                        if (l != 0) {
                     /* create bounding box for each class and make
                        sure that it does not go outside of the image
                        boundary */
-                            Rectangle r = ltab.get(l);
+                            Rectangle r = rects[l];
                             if (r == null) {
-                                ltab.put(l, r = new Rectangle(x, y, 1, 1));
+                                rects[l] = r = new Rectangle(x, y, 1, 1);
                                 comps.add(r);
                             }
                             int x0 = Math.min(r.x, x);
@@ -542,37 +565,11 @@ public class Bitmap implements Serializable {
         },
             Polygon{
                 @Override
-                List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                    Map<Short, List<Point>> coords = new LinkedHashMap<Short, List<Point>> ();
-                    //labels = new short[height][width + 1];
-                    int height = labels.length;
-                    int width = labels[0].length -1;
-                    for (int y = 0; y < height; ++y)
-                        for (int x = 0; x < width; ++x) {
-                            short label = labels[y][x];
-                            if (label != 0) {
-                                short l = label;
-                                /* find equivalence class */
-                                while (eqvtab[l] > 0)
-                                    l = eqvtab[l];
-
-                                labels[y][x] = l;
-
-                                List<Point> pts = coords.get (l);
-                                if (pts == null) {
-                                    coords.put (l, pts = new ArrayList<Point> ());
-                                }
-                                pts.add (new Point (x, y));
-                            }
-                        }
-
-                    List<Shape> comps = new ArrayList<Shape> ();
-                    for (List<Point> pts : coords.values ()) {
-                        Polygon hull = GeomUtil.convexHullOldIntPrecision (pts.toArray (new Point[0]));
-                        comps.add (hull);
+                List<Shape> computeConnectedComponentShapes(ComponentLabels labels) {
+                    if (LEGACY_HULLS) {
+                        return legacyPolygons (labels);
                     }
-
-                    return comps;
+                    return new ArrayList<Shape> (labels.convexHulls ());
                 }
             },
         /**
@@ -580,54 +577,80 @@ public class Bitmap implements Serializable {
          */
             DoublePolygon{
                 @Override
-                List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels) {
-                    Map<Short, List<Point>> coords = new LinkedHashMap<Short, List<Point>> ();
-                    //labels = new short[height][width + 1];
-                    int height = labels.length;
-                    int width = labels[0].length -1;
-                    for (int y = 0; y < height; ++y)
-                        for (int x = 0; x < width; ++x) {
-                            short label = labels[y][x];
-                            if (label != 0) {
-                                short l = label;
-                                /* find equivalence class */
-                                while (eqvtab[l] > 0)
-                                    l = eqvtab[l];
-
-                                labels[y][x] = l;
-
-                                List<Point> pts = coords.get (l);
-                                if (pts == null) {
-                                    coords.put (l, pts = new ArrayList<Point> ());
-                                }
-                                pts.add (new Point (x, y));
-                            }
-                        }
+                List<Shape> computeConnectedComponentShapes(ComponentLabels labels) {
+                    if (LEGACY_HULLS) {
+                        return legacyDoublePolygons (labels);
+                    }
+                    //the pixels are whole numbers, so the hull needs no extra precision
+                    List<Shape> comps = new ArrayList<Shape> (labels.count);
+                    for (Polygon hull : labels.convexHulls ()) {
+                        comps.add (new Path2D.Double (hull));
+                    }
+                    return comps;
+                }
+            }
+        ;
 
-                    List<Shape> comps = new ArrayList<Shape> ();
-                    for (List<Point> pts : coords.values ()) {
-                        Point2D[] ptsadjusted=pts.stream()
-                                .flatMap(pt->{
-                                    return Stream.of(new Point2D.Double(pt.getX(),pt.getY()));
+        /*
+         * The hulls of every pixel by the Graham scan, as they were made before
+         * convexHullOfRows, for when bitmap.legacyHulls is set.
+         */
+        static List<Shape> legacyPolygons (ComponentLabels labels) {
+            List<Shape> comps = new ArrayList<Shape> (labels.count);
+            for (List<Point> pts : pointsOf(labels)) {
+                Polygon hull = GeomUtil.convexHullOldIntPrecision (pts.toArray (new Point[0]));
+                comps.add (hull);
+            }
+
+            return comps;
+        }
+
+        static List<Shape> legacyDoublePolygons (ComponentLabels labels) {
+            List<Shape> comps = new ArrayList<Shape> (labels.count);
+            for (List<Point> pts : pointsOf(labels)) {
+                Point2D[] ptsadjusted=pts.stream()
+                        .flatMap(pt->{
+                            return Stream.of(new Point2D.Double(pt.getX(),pt.getY()));
 
 //	    	    	return Stream.of(new Point2D.Double(pt.getX()-0.5,pt.getY()-0.5)
 //	    	    					 ,new Point2D.Double(pt.getX()-0.5,pt.getY()+0.5)
 //	    	    					 ,new Point2D.Double(pt.getX()+0.5,pt.getY()-0.5)
 //	    	    					 ,new Point2D.Double(pt.getX()+0.5,pt.getY()+0.5)
 //	    	    			);
-                                })
-                                .toArray(i->new Point2D[i]);
-                        Shape hull = GeomUtil.convexHull2 (ptsadjusted);
+                        })
+                        .toArray(i->new Point2D[i]);
+                Shape hull = GeomUtil.convexHull2 (ptsadjusted);
 
-                        comps.add (hull);
-                    }
+                comps.add (hull);
+            }
 
-                    return comps;
+            return comps;
+        }
+
+        /*
+         * the points of each component, in raster order
+         */
+        private static List<List<Point>> pointsOf (ComponentLabels labels) {
+            List<List<Point>> coords = new ArrayList<List<Point>> (labels.count);
+            for (int i = 0; i < labels.count; ++i) {
+                coords.add (new ArrayList<Point> ());
+            }
+            int height = labels.height;
+            int width = labels.width;
+            int[] plane = labels.labels;
+            for (int y = 0; y < height; ++y) {
+                int row = y * width;
+                for (int x = 0; x < width; ++x) {
+                    int l = plane[row + x];
+                    if (l != 0) {
+                        coords.get (l - 1).add (new Point (x, y));
+                    }
                 }
             }
-        ;
+            return coords;
+        }
 
-        abstract List<Shape> computeConnectedComponentShapes(short[] eqvtab, short[][] labels);
+        abstract List<Shape> computeConnectedComponentShapes(ComponentLabels labels);
 
 
             }
@@ -1035,6 +1058,10 @@ public class Bitmap implements Serializable {
     private SampleModel sampleModel;
     
 
+    /**
+     * The on pixels in raster order, found again after any pixel changes, so
+     * pixels pasted in after the components were found are still seen by crops.
+     */
     private CachedSupplier<List<int[]>> onInts = CachedSupplier.of(()->{
     	List<int[]> on = new ArrayList<>(onGrid.count);
         
@@ -1439,6 +1466,17 @@ public class Bitmap implements Serializable {
    }
     
     public static Bitmap createBitmap (Raster raster, Binarization bb) {
+        return createBitmap (raster, bb, ExecutionPolicy.SEQUENTIAL);
+    }
+
+    /**
+     * Binarize the given single band raster, switching to an adaptive threshold
+     * if the given binarization's threshold is uncertain and the adaptive one finds
+     * noticeably more shapes inside of other shapes.  If the policy is speculative,
+     * the adaptive threshold and its shapes are computed on another thread at the
+     * same time as the given binarization, and dropped if they aren't needed.
+     */
+    public static Bitmap createBitmap (Raster raster, Binarization bb, ExecutionPolicy policy) {
         SampleModel model = raster.getSampleModel();
         int band = model.getNumBands ();
         if (band > 1) {
@@ -1449,10 +1487,24 @@ public class Bitmap implements Serializable {
 
         ImageStats[] is = new ImageStats[]{null};
         
-        
-        
-        
-        
+        //the adaptive threshold only uses the range of the raster, which doesn't
+        //depend on the other binarization, so it can start before that's done
+        ImageStats range = policy.isSpeculative()? Binarization.computeImageStats(raster) : null;
+        Speculation<Tuple<Bitmap,Long>> adaptive = policy.speculate(()->{
+        	Bitmap bm1= new AdaptiveThreshold().withPolicy(policy).binarize(raster, range==null? is[0] : range,(ist)->{});
+        	List<Shape> polys1= bm1.connectedComponents(Bitmap.Bbox.DoublePolygon);
+        	//null when there are too many shapes to compare
+        	Long sum1 = polys1.size()<4000? GeomUtil.countContainedPairs(polys1) : null;
+        	return Tuple.of(bm1, sum1);
+        });
+        try{
+        	return chooseBitmap(raster, bb, is, adaptive);
+        }finally{
+        	adaptive.cancel();
+        }
+    }
+
+    private static Bitmap chooseBitmap (Raster raster, Binarization bb, ImageStats[] is, Speculation<Tuple<Bitmap,Long>> adaptive) {
     	Bitmap bm= bb.binarize(raster, null, stat->{
         	is[0]=stat;
         });
@@ -1483,16 +1535,12 @@ public class Bitmap implements Serializable {
 	
 	            if(polys2.size()<4000){
 	
-	    	        Bitmap bm1= new AdaptiveThreshold().binarize(raster, is[0],(ist)->{});
-	    	        List<Shape> polys1= bm1.connectedComponents(Bitmap.Bbox.DoublePolygon);
+	    	        Tuple<Bitmap,Long> adapted = adaptive.get();
+	    	        Bitmap bm1= adapted.k();
 	
-	    	        if(polys1.size()<4000){
-	    	            long sum1=polys1.stream()
-	    		              .mapToLong(s->polys1.stream().filter(s2->GeomUtil.contains(s, s2)).count())
-	    		              .sum();
-	    		        long sum2=polys2.stream()
-	    		                .mapToLong(s->polys2.stream().filter(s2->GeomUtil.contains(s, s2)).count())
-	    		                .sum();
+	    	        if(adapted.v()!=null){
+	    	            long sum1=adapted.v();
+	    		        long sum2=GeomUtil.countContainedPairs(polys2);
 	//    		        //if there are at least 3 more shapes inside other shapes, it's
 	//    		        //probably a thresholding issue that should use the one with more shapes
 	//    		        //The logic here is that aromatic double bonds are quite common, and if
@@ -1572,7 +1620,7 @@ public class Bitmap implements Serializable {
 
     public static Bitmap read (byte[] file, Binarization bin) throws IOException {
 
-               return createBitmap (ImageUtil.grayscale(file).getData(),bin);
+               return createBitmap (ImageUtil.grayscale(file).getRaster(),bin);
 
     }
     public static Bitmap read (byte[] file) throws IOException {
@@ -1583,7 +1631,7 @@ public class Bitmap implements Serializable {
     }
     public static Bitmap read (File file, Binarization bin) throws IOException {
     	
-            return createBitmap (ImageUtil.grayscale(file).getData(), bin);
+            return createBitmap (ImageUtil.grayscale(file).getRaster(), bin);
 
     }
     
@@ -1645,7 +1693,7 @@ public class Bitmap implements Serializable {
         return (data[getScanlineFor(y) + x / 8] & MASK[x % 8]) != 0;
     }
 
-    public void set (int x, int y, boolean on) {
+    private void ensureGrid () {
     	if(onGrid==null){
     		int pow2wid=Integer.highestOneBit(width);
     		int pow2hit=Integer.highestOneBit(height);
@@ -1656,8 +1704,10 @@ public class Bitmap implements Serializable {
     		
     		onGrid = new Grid(0,0,twid);
     	}
-    	
-    	
+    }
+
+    public void set (int x, int y, boolean on) {
+    	ensureGrid();
     	
         int loc = getScanlineFor(y) + x / 8;
         boolean wasOn = ((data[loc] & MASK[x % 8]) !=0);
@@ -1667,6 +1717,7 @@ public class Bitmap implements Serializable {
 	    	}else{
 	    		onGrid.add(x, y,-1);
 	    	}
+	        onInts.resetCache();
         }
         
         if (on) {
@@ -1677,6 +1728,58 @@ public class Bitmap implements Serializable {
     }
 
 
+    /**
+     * Turn on the pixels of row y whose sample is at or above the threshold,
+     * and turn off the rest; the same as calling {@link #set(int, int, boolean)}
+     * for each pixel, but a whole byte at a time.
+     * @param y the row to set.
+     * @param samples the sample of each pixel in the row.
+     * @param threshold the lowest sample of an on pixel.
+     */
+    public void setRow (int y, double[] samples, double threshold) {
+    	ensureGrid();
+        int band = getScanlineFor(y);
+        for (int i = 0; i < scanline; ++i) {
+            int b = 0;
+            int xmax = Math.min(width, (i + 1) << 3);
+            for (int x = i << 3; x < xmax; ++x) {
+                if (samples[x] >= threshold) {
+                    b |= MASK[x & 7];
+                }
+            }
+            setByte(band, i, y, b);
+        }
+    }
+
+    /**
+     * Set row y to the given packed pixels, 8 to a byte with the leftmost
+     * pixel in the high bit, the same layout as this bitmap's own rows.
+     * Bits past the width of the bitmap are ignored.
+     * @param y the row to set.
+     * @param bits the packed pixels.
+     * @param offset the index in bits of the first byte of the row.
+     */
+    public void setRow (int y, byte[] bits, int offset) {
+    	ensureGrid();
+        int band = getScanlineFor(y);
+        for (int i = 0; i < scanline; ++i) {
+            int b = bits[offset + i] & 0xff;
+            if (i == scanline - 1 && (width & 7) != 0) {
+                b &= 0xff << (8 - (width & 7));
+            }
+            setByte(band, i, y, b);
+        }
+    }
+
+    private void setByte (int band, int i, int y, int b) {
+        int old = data[band + i] & 0xff;
+        if (b != old) {
+            onGrid.add(i << 3, y, Integer.bitCount(b) - Integer.bitCount(old));
+            onInts.resetCache();
+            data[band + i] = (byte) b;
+        }
+    }
+
     /*
      * 8-neighbor of p
      *   p(7)  p(0)  p(1)
@@ -1995,84 +2098,205 @@ public class Bitmap implements Serializable {
      * It's based on the following paper:
      * R. Carrsco, M. Forcada, A note on the Nagendraprasad-Wang-Gupta
      * thinning algorithm, Pattern Recognition Letters, 16, 539-541, 1995.
+     * 
+     * The bitmap is copied into rows of 64-bit words (most significant bit first,
+     * just like the bytes of the scanline), and each pass decides
+     * 64 pixels at a time with {@link #thinMask(long, long, long, long, long, long, long, long, int)}.
+     * A pixel can only become removable if something in its neighborhood changed
+     * since the last pass with the same parity, so after the first two passes only the
+     * rows next to a row changed in one of the previous two passes are looked at.
      */
     public Bitmap thin () {
         Bitmap thin = new Bitmap (this);
-        byte[] copy = new byte[this.data.length];
-        System.arraycopy (thin.data, 0, copy, 0, copy.length);
-
+        Grid gg = thin.onGrid;
+        
+        int words = (width + 63) >> 6;
+        long[] rows = thin.toWords(words);
+        
+        //original (pass start) value of the row above the current one
+        long[] above = new long[words];
+        long[] removed = new long[words];
+        
+        boolean[] changedLast = new boolean[height];
+        boolean[] changedBefore = new boolean[height];
+        boolean[] changedNow = new boolean[height];
+        
         int parity = 1;
+        int pass = 0;
         boolean changed;
-        
-        Grid gg = thin.onGrid;
-        List<Rectangle> lookGrids = gg.getLeafBoundsInside(0,width,height);
         do {
         	changed = false;
             parity = 1 - parity;
+            Arrays.fill(above, 0);
             
-            
-            for(int i=0;i<lookGrids.size();i++){
-            	Rectangle tgrid = lookGrids.get(i);
-            	for (int y = tgrid.y; y < tgrid.height; ++y){
-	                for (int x = tgrid.x; x < tgrid.width; ++x) {
-	                    if (thin.isOn(x, y)) {
-	                    	int ni = thin.neighbor8Index(x, y);
-	                    	
-	                    	boolean should = thin.shouldThin(ni, parity);
-	                        if(should){
-	                        	copy[getScanlineFor(y) + x / 8] &= ~MASK[x % 8];
-                                gg.remove(x, y);
-                                changed = true;
-	                        }
-	                        
-	                        
-	                        
-	                    } // if pixel is on
-	                } // endfor each pixel
-	            }
-        	}
-            // update the image
-            if (changed) {
-                System.arraycopy (copy, 0, thin.data, 0, copy.length);
+            for (int y = 0; y < height; ++y) {
+            	int row = y * words;
+            	boolean look = pass < 2 || isNear(changedLast, y) || isNear(changedBefore, y);
+            	boolean rowChanged = false;
+            	if (look) {
+            		int below = y + 1 < height ? row + words : -1;
+            		for (int w = 0; w < words; ++w) {
+            			long cur = rows[row + w];
+            			removed[w] = 0;
+            			if (cur == 0) {
+            				continue;
+            			}
+            			long up = above[w];
+            			long dn = below < 0 ? 0 : rows[below + w];
+            			long upW = w > 0 ? above[w - 1] : 0;
+            			long upE = w + 1 < words ? above[w + 1] : 0;
+            			long curW = w > 0 ? rows[row + w - 1] : 0;
+            			long curE = w + 1 < words ? rows[row + w + 1] : 0;
+            			long dnW = below < 0 || w == 0 ? 0 : rows[below + w - 1];
+            			long dnE = below < 0 || w + 1 == words ? 0 : rows[below + w + 1];
+            			
+            			long rm = cur & thinMask(
+            					up,
+            					east(up, upE),
+            					east(cur, curE),
+            					east(dn, dnE),
+            					dn,
+            					west(dn, dnW),
+            					west(cur, curW),
+            					west(up, upW),
+            					parity);
+            			removed[w] = rm;
+            			if (rm != 0) {
+            				rowChanged = true;
+            			}
+            		}
+            	}
+            	System.arraycopy(rows, row, above, 0, words);
+            	if (rowChanged) {
+            		for (int w = 0; w < words; ++w) {
+            			long rm = removed[w];
+            			if (rm == 0) {
+            				continue;
+            			}
+            			rows[row + w] &= ~rm;
+            			int band = thin.getScanlineFor(y) + (w << 3);
+            			for (int i = 0; i < 8; ++i) {
+            				int b = (int) (rm >>> (56 - (i << 3))) & 0xff;
+            				if (b != 0) {
+            					thin.data[band + i] &= ~b;
+            				}
+            			}
+            			//the smallest grid cells are 16 pixels wide and aligned,
+            			//so each 16 bits of the word belongs to a single cell
+            			for (int i = 0; i < 4; ++i) {
+            				int c = Long.bitCount((rm >>> (48 - (i << 4))) & 0xffff);
+            				if (c != 0) {
+            					gg.add((w << 6) + (i << 4), y, -c);
+            				}
+            			}
+            		}
+            		changed = true;
+            	}
+            	changedNow[y] = rowChanged;
             }
+            
+            boolean[] t = changedBefore;
+            changedBefore = changedLast;
+            changedLast = changedNow;
+            changedNow = t;
+            pass++;
         }
         while (changed);
-        copy = null;
 
         return thin;
     }
     
+    private static boolean isNear(boolean[] rowFlags, int y){
+    	return rowFlags[y] || (y > 0 && rowFlags[y - 1]) || (y + 1 < rowFlags.length && rowFlags[y + 1]);
+    }
     
-    void union (short[] eqvtab, short cls1, short cls2) {
-        short i = cls1, j = cls2, k;
-        //logger.info("union "+cls1+" "+cls2);
-
-        while (eqvtab[i] > 0) i = eqvtab[i];
-        while (eqvtab[j] > 0) j = eqvtab[j];
-
-        while (eqvtab[cls1] > 0) {
-            k = cls1;
-            cls1 = eqvtab[cls1];
-            eqvtab[k] = i;
-        }
-
-        while (eqvtab[cls2] > 0) {
-            k = cls2;
-            cls2 = eqvtab[cls2];
-            eqvtab[k] = j;
-        }
-
-        if (i != j) {
-            if (eqvtab[j] < eqvtab[i]) {
-                eqvtab[j] += eqvtab[i] - 1;
-                eqvtab[i] = j;
-            } else {
-                eqvtab[i] += eqvtab[j] - 1;
-                eqvtab[j] = i;
-            }
-        }
+    /*
+     * Each pixel's left hand neighbor, moved into the pixel's bit position.
+     * prev is the word holding the 64 pixels before word.
+     */
+    private static long west(long word, long prev){
+    	return (word >>> 1) | (prev << 63);
     }
-
+    
+    /*
+     * Each pixel's right hand neighbor, moved into the pixel's bit position.
+     * next is the word holding the 64 pixels after word.
+     */
+    private static long east(long word, long next){
+    	return (word << 1) | (next >>> 63);
+    }
+    
+    /**
+     * Copy the pixels into rows of words, most significant bit first. Any bits
+     * past the width of the bitmap are left off.
+     */
+    private long[] toWords(int words){
+    	long[] rows = new long[words * height];
+    	int lastBits = width - ((words - 1) << 6);
+    	long lastMask = lastBits <= 0 ? 0 : -1L << (64 - lastBits);
+    	for (int y = 0; y < height; ++y) {
+    		int band = getScanlineFor(y);
+    		for (int i = 0; i < scanline; ++i) {
+    			int b = data[band + i] & 0xff;
+    			if (b != 0) {
+    				rows[y * words + (i >> 3)] |= ((long) b) << (56 - ((i & 7) << 3));
+    			}
+    		}
+    		if (words > 0) {
+    			rows[y * words + words - 1] &= lastMask;
+    		}
+    	}
+    	return rows;
+    }
+    
+    /**
+     * Evaluate {@link #shouldThin(int, int)} for 64 pixels at once. Each argument
+     * holds one neighbor of each of the pixels, in the order of {@link #neighbor8Index(int, int)}.
+     * @return the pixels that should be thinned, if they are on.
+     */
+    static long thinMask(long n0, long n1, long n2, long n3, long n4, long n5, long n6, long n7, int parity){
+    	//between 2 and 6 neighbors on means at least 2 on and at least 2 off
+    	long count = atLeastTwo(n0, n1, n2, n3, n4, n5, n6, n7)
+    			   & atLeastTwo(~n0, ~n1, ~n2, ~n3, ~n4, ~n5, ~n6, ~n7);
+    	if (count == 0) {
+    		return 0;
+    	}
+    	//exactly one off to on transition going around the pixel
+    	long t0 = ~n0 & n1, t1 = ~n1 & n2, t2 = ~n2 & n3, t3 = ~n3 & n4;
+    	long t4 = ~n4 & n5, t5 = ~n5 & n6, t6 = ~n6 & n7, t7 = ~n7 & n0;
+    	long oneTransition = (t0 | t1 | t2 | t3 | t4 | t5 | t6 | t7)
+    					   & ~atLeastTwo(t0, t1, t2, t3, t4, t5, t6, t7);
+    	if (parity == 0) {
+    		long ex1 = ~n0 & ~n1 & ~n2 & ~n5 & n4 & n6;
+    		long ex2 = ~n2 & ~n3 & ~n4 & ~n7 & n6 & n0;
+    		return count & (oneTransition | ex1 | ex2)
+    				& ~(n2 & n0 & n6) & ~(n4 & n0 & n6);
+    	}
+    	long ex1 = ~n1 & ~n4 & ~n5 & ~n6 & n0 & n2;
+    	long ex2 = ~n0 & ~n3 & ~n6 & ~n7 & n2 & n4;
+    	return count & (oneTransition | ex1 | ex2)
+    			& ~(n2 & n4 & n6) & ~(n4 & n0 & n2);
+    }
+    
+    private static long atLeastTwo(long a, long b, long c, long d, long e, long f, long g, long h){
+    	long one = a;
+    	long two = one & b;
+    	one |= b;
+    	two |= one & c;
+    	one |= c;
+    	two |= one & d;
+    	one |= d;
+    	two |= one & e;
+    	one |= e;
+    	two |= one & f;
+    	one |= f;
+    	two |= one & g;
+    	one |= g;
+    	two |= one & h;
+    	return two;
+    }
+    
+    
     /*
      * return connected components as rectangular bounding boxes
      */
@@ -2096,125 +2320,43 @@ public class Bitmap implements Serializable {
 
 
     public List<Shape> connectedComponents (Bbox shape) {
-    	return _cacheShapes.computeIfAbsent(shape, (ss)->{
-    		short[] label = new short[]{0}; // current label
-            final short[][] labels = new short[height][width + 1];
-
-            // equivalence class
-            short[][] eqvtab = new short[1][]; 
-            short[] L = new short[4];
-            
-            eqvtab[0] = new short[500]; //some initial default
-
-            List<int[]> xys = onInts.get();
-            
-            for(int p=0;p<xys.size();p++){
-            	int[] xy = xys.get(p);
-            	int x = xy[0];
-            	int y = xy[1];
-            	if (y == 0 && x == 0) {
-                    labels[y][x] = ++label[0];
-                } else if (y == 0) {
-                    short label1 = labels[y][x - 1];
-                    if (label1 == 0) {
-                        label1 = ++label[0];
-                    }
-                    labels[y][x] = label1;
-                } else if (x == 0) {
-                    int label1 = labels[y - 1][x];
-                    int label2 = labels[y - 1][x + 1];
-                    if (label1 != 0 && label2 != 0)
-                        label1 = Math.min (label1, label2);
-                    else if (label1 == 0 && label2 == 0) {
-                        label1 = ++label[0];
-                    } else
-                        label1 = Math.max (label1, label2);
-                    labels[y][x] = (short) label1;
-                }
-                /* assign new label */
-                else if (labels[y][x - 1] == 0
-                         && labels[y - 1][x] == 0
-                         && labels[y - 1][x - 1] == 0
-                         && labels[y - 1][x + 1] == 0) {
-                    labels[y][x] = ++label[0];
-                } else {
-                    L[0] = labels[y - 1][x - 1];
-                    L[1] = labels[y - 1][x];
-                    L[2] = labels[y - 1][x + 1];
-                    L[3] = labels[y][x - 1];
-
-                    Arrays.sort (L);
-
-                    /* skip all non-labeled pixels */
-                    int n;
-                    for (n = 0; n < 4 && L[n] == 0; ++n)
-                        ;
-                    /* n should not be 4 */
-                    if (n == 4) {
-                        throw new IllegalStateException ("n == 4");
-                    }
-
-                    labels[y][x] = L[n];
-                    /* now enumerate from n to 4 - 1 */
-                    for (int i = n; i < 4; ++i)
-                        for (int j = i + 1; j < 4; ++j)
-                            /* update equivalence table */
-                            union (eqvtab[0], L[i], L[j]);
-                }
+    	return connectedComponents (shape, ExecutionPolicy.SEQUENTIAL);
+    }
 
-                if (label[0] == Short.MAX_VALUE) {
-                    logger.log (Level.SEVERE, "Max number of labels reached: "
-                                + label + "; truncating search!");
-                    break;
-                }
-                // ensure there's enough space in the eqvtab
-                else if (label[0] >= eqvtab[0].length) {
-                    short[] newtab = new short[label[0] + 100];
-                    System.arraycopy (eqvtab[0], 0, newtab, 0, eqvtab[0].length);
-                    eqvtab[0] = newtab;
-                }
-            }
-            
+    /**
+     * The 8-connected components of the on pixels, as shapes of the given kind,
+     * in the raster order of the first pixel of each component.  If the policy allows
+     * the work on a single image to run in parallel, large bitmaps are labelled in strips.
+     * The result is cached, so asking again for the same shape is free.
+     */
+    public List<Shape> connectedComponents (Bbox shape, ExecutionPolicy policy) {
+    	return _cacheShapes.computeIfAbsent(shape, (ss)->{
+            ComponentLabels labels = labelComponents(policy);
 
             if (DEBUG) {
-                System.err.print ("eqvtab:");
-                for (int i = 1; i <= label[0]; ++i) {
-                    System.err.print (" " + i + ":" + eqvtab[0][i]);
-                }
-                System.err.println ();
-                System.err.println ("label: " + label);
-
-                System.err.println ("eqv class labels...");
+                System.err.println ("components: " + labels.count);
                 for (int y = 0; y < height; ++y) {
                     for (int x = 0; x < width; ++x) {
                         System.err.print
-                            (get (x, y) ? String.valueOf (labels[y][x]) : '.');
+                            (get (x, y) ? String.valueOf (labels.labels[y * width + x]) : ".");
                     }
                     System.err.println ();
                 }
             }
 
+            return ss.computeConnectedComponentShapes(labels);
+    	});
 
-            List<Shape> comps = ss.computeConnectedComponentShapes(eqvtab[0], labels);
-
-            if (DEBUG) {
-                System.err.println ("merged labels...");
-                for (int y = 0; y < height; ++y) {
-                    for (int x = 0; x < width; ++x) {
-                        System.err.print
-                            (get (x, y) ? String.valueOf (labels[y][x]) : '.');
-                    }
-                    System.err.println ();
-                }
-            }
-//            eqvtab = null;
-//            labels = null;
+    }
 
-            return comps;
-    	});
 
+    ComponentLabels labelComponents (ExecutionPolicy policy) {
+        return ComponentLabels.of(data, scanline, width, height, policy);
     }
 
+    ComponentLabels labelComponents (int strips, ExecutionPolicy policy) {
+        return ComponentLabels.of(data, scanline, width, height, strips, policy);
+    }
 
     static EnumSet<ChainCode> getNeighbors (Bitmap b, int x, int y) {
         EnumSet<ChainCode> Nb = EnumSet.noneOf (ChainCode.class);
@@ -2594,23 +2736,31 @@ public class Bitmap implements Serializable {
     
     
     public List<LineWrapper> combineLines(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint, double maxAngle, double minLengthForAngleCompare){
+    	return combineLines(ilines, maxMinDistance, maxAvgDeviation, maxDistanceToConsiderSamePoint, maxAngle, minLengthForAngleCompare, Deadline.NONE);
+    }
+    
+    /**
+     * Same as {@link #combineLines(List, double, double, double, double, double)}, but
+     * stops combining, and returns the lines combined so far, once the given deadline expires.
+     */
+    public List<LineWrapper> combineLines(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint, double maxAngle, double minLengthForAngleCompare, Deadline deadline){
     	List<LineWrapper> lines = ilines;
     	int[] reps1=new int[]{0};
     	
     	boolean gotOne=true;
     	while(gotOne){
     		gotOne=false;
-    		List<LineWrapper> nlines=combineLines2(lines, maxMinDistance, maxAvgDeviation, maxDistanceToConsiderSamePoint,maxAngle,minLengthForAngleCompare,reps1);
+    		List<LineWrapper> nlines=combineLines2(lines, maxMinDistance, maxAvgDeviation, maxDistanceToConsiderSamePoint,maxAngle,minLengthForAngleCompare,reps1, deadline);
     		if(nlines.size()!=lines.size()){
     			gotOne=true;
     			lines=nlines;
     		}
-    		if(reps1[0]>MAX_REPS)break;
+    		if(reps1[0]>MAX_REPS || deadline.isExpired())break;
     	}
     	return lines;
     }
     
-    private List<LineWrapper> combineLines2(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint,double maxAngle, double minLengthForAngleCompare, int[] reps){
+    private List<LineWrapper> combineLines2(List<LineWrapper> ilines, double maxMinDistance, double maxAvgDeviation, double maxDistanceToConsiderSamePoint,double maxAngle, double minLengthForAngleCompare, int[] reps, Deadline deadline){
     	byte[] distMet=distanceData.get();
     	
     	List<LineWrapper> lines=ilines.stream()
@@ -2648,7 +2798,7 @@ public class Bitmap implements Serializable {
     	int[] ii = new int[]{0};
     	
 		for (int i = 0; i < lines.size(); i++) {
-			if (reps[0] >= MAX_REPS)
+			if (reps[0] >= MAX_REPS || deadline.isExpired())
 				break;    
 			LineWrapper line1 = lines.get(i);
 			ii[0]=i;			
@@ -0,0 +1,257 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.nih.ncats.molvec.Parallelism;
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
+import gov.nih.ncats.molvec.internal.util.GeomUtil;
+
+/**
+ * The 8-connected components of a packed bitmap, as a single plane of
+ * int labels.  Components are numbered from 1 in the raster order of their
+ * first pixel; off pixels are labelled 0.
+ *
+ * Labelling is done with union-find where every on pixel is its own node,
+ * so the only memory needed is the label plane itself: while labelling, each
+ * pixel holds the index (+1) of its parent pixel, and parents always come before their
+ * children in raster order.  That means a final forward pass can replace every parent
+ * pointer with the number of the component, with no separate equivalence table and
+ * no limit on the number of labels.
+ *
+ * Large bitmaps can be labelled in horizontal strips in parallel, since each strip
+ * only ever touches its own pixels; the strips are then joined along their borders.
+ */
+final class ComponentLabels {
+
+    /**
+     * Don't bother splitting bitmaps smaller than this into strips.
+     */
+    private static final int MIN_PIXELS_FOR_STRIPS = 1 << 20;
+    private static final int MIN_ROWS_PER_STRIP = 128;
+
+    final int width;
+    final int height;
+    /**
+     * The component number of each pixel, row by row.
+     */
+    final int[] labels;
+    /**
+     * The number of components.
+     */
+    final int count;
+
+    private ComponentLabels (int width, int height, int[] labels, int count) {
+        this.width = width;
+        this.height = height;
+        this.labels = labels;
+        this.count = count;
+    }
+
+    /**
+     * Label the given packed bitmap, splitting it into strips if the policy
+     * allows work on a single image to run in parallel and the bitmap is big enough.
+     */
+    static ComponentLabels of (byte[] data, int scanline, int width, int height, ExecutionPolicy policy) {
+        int strips = 1;
+        if (policy.isParallel(Parallelism.PER_GLYPH) && (long) width * height >= MIN_PIXELS_FOR_STRIPS) {
+            strips = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_ROWS_PER_STRIP));
+        }
+        return of(data, scanline, width, height, strips, policy);
+    }
+
+    /**
+     * Label the given packed bitmap using the given number of strips.
+     */
+    static ComponentLabels of (byte[] data, int scanline, int width, int height, int strips, ExecutionPolicy policy) {
+        int[] plane = new int[width * height];
+        int n = Math.max(1, Math.min(strips, height));
+        int[] starts = new int[n + 1];
+        for (int s = 0; s <= n; s++) {
+            starts[s] = (int) ((long) height * s / n);
+        }
+
+        if (n == 1) {
+            labelStrip(data, scanline, width, plane, 0, height);
+        } else {
+            policy.forEachIndex(Parallelism.PER_GLYPH, n, s -> labelStrip(data, scanline, width, plane, starts[s], starts[s + 1]));
+            for (int s = 1; s < n; s++) {
+                joinRows(width, plane, starts[s]);
+            }
+        }
+
+        int count = 0;
+        for (int p = 0; p < plane.length; p++) {
+            int parent = plane[p] - 1;
+            if (parent < 0) {
+                continue;
+            }
+            if (parent == p) {
+                plane[p] = ++count;
+            } else {
+                //the parent came earlier, so it already holds its component number
+                plane[p] = plane[parent];
+            }
+        }
+        return new ComponentLabels(width, height, plane, count);
+    }
+
+    /**
+     * The convex hull of each component, in label order.  Only the leftmost and
+     * rightmost pixel of each row can be on the hull, so those are all that is kept,
+     * and no object is made per pixel.
+     */
+    List<Polygon> convexHulls () {
+        int[] top = new int[count + 1];
+        int[] bottom = new int[count + 1];
+        Arrays.fill(top, -1);
+        for (int y = 0; y < height; ++y) {
+            int row = y * width;
+            for (int x = 0; x < width; ++x) {
+                int l = labels[row + x];
+                if (l != 0) {
+                    if (top[l] < 0) {
+                        top[l] = y;
+                    }
+                    bottom[l] = y;
+                }
+            }
+        }
+
+        int[][] minXs = new int[count + 1][];
+        int[][] maxXs = new int[count + 1][];
+        for (int l = 1; l <= count; l++) {
+            minXs[l] = new int[bottom[l] - top[l] + 1];
+            maxXs[l] = new int[bottom[l] - top[l] + 1];
+            Arrays.fill(minXs[l], Integer.MAX_VALUE);
+            Arrays.fill(maxXs[l], -1);
+        }
+        for (int y = 0; y < height; ++y) {
+            int row = y * width;
+            for (int x = 0; x < width; ++x) {
+                int l = labels[row + x];
+                if (l != 0) {
+                    int r = y - top[l];
+                    if (x < minXs[l][r]) {
+                        minXs[l][r] = x;
+                    }
+                    maxXs[l][r] = x;
+                }
+            }
+        }
+
+        List<Polygon> hulls = new ArrayList<>(count);
+        int[] ys = new int[height];
+        for (int l = 1; l <= count; l++) {
+            //a component has pixels on every row it spans, but don't count on it
+            int n = 0;
+            for (int r = 0; r < minXs[l].length; r++) {
+                if (maxXs[l][r] >= 0) {
+                    ys[n] = top[l] + r;
+                    minXs[l][n] = minXs[l][r];
+                    maxXs[l][n] = maxXs[l][r];
+                    n++;
+                }
+            }
+            hulls.add(GeomUtil.convexHullOfRows(ys, minXs[l], maxXs[l], n));
+        }
+        return hulls;
+    }
+
+    /*
+     * Decision tree scan of the rows [y0, y1): only looks at neighbors inside the strip.
+     * If the pixel above is on, it touches every other labelled neighbor, so it's
+     * the only one that needs to be checked.
+     */
+    private static void labelStrip (byte[] data, int scanline, int width, int[] plane, int y0, int y1) {
+        for (int y = y0; y < y1; ++y) {
+            int band = y * scanline;
+            int row = y * width;
+            boolean hasUp = y > y0;
+            for (int i = 0; i < scanline; ++i) {
+                int b = data[band + i] & 0xff;
+                if (b == 0) {
+                    continue;
+                }
+                int xmax = Math.min(width, (i + 1) << 3);
+                for (int x = i << 3; x < xmax; ++x) {
+                    if ((b & Bitmap.MASK[x & 7]) == 0) {
+                        continue;
+                    }
+                    int p = row + x;
+                    int n = hasUp ? plane[p - width] : 0;
+                    if (n != 0) {
+                        plane[p] = n;
+                        continue;
+                    }
+                    int ne = hasUp && x + 1 < width ? plane[p - width + 1] : 0;
+                    int w = x > 0 ? plane[p - 1] : 0;
+                    if (w != 0) {
+                        plane[p] = w;
+                        if (ne != 0) {
+                            union(plane, p - 1, p - width + 1);
+                        }
+                        continue;
+                    }
+                    int nw = hasUp && x > 0 ? plane[p - width - 1] : 0;
+                    if (nw != 0) {
+                        plane[p] = nw;
+                        if (ne != 0) {
+                            union(plane, p - width - 1, p - width + 1);
+                        }
+                    } else if (ne != 0) {
+                        plane[p] = ne;
+                    } else {
+                        plane[p] = p + 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Join the first row of a strip to the last row of the strip above it.
+     */
+    private static void joinRows (int width, int[] plane, int y) {
+        int row = y * width;
+        for (int x = 0; x < width; ++x) {
+            int p = row + x;
+            if (plane[p] == 0) {
+                continue;
+            }
+            for (int dx = -1; dx <= 1; ++dx) {
+                int nx = x + dx;
+                if (nx >= 0 && nx < width && plane[p - width + dx] != 0) {
+                    union(plane, p, p - width + dx);
+                }
+            }
+        }
+    }
+
+    /*
+     * Root of the given pixel, with path halving.
+     */
+    private static int root (int[] plane, int p) {
+        while (plane[p] != p + 1) {
+            plane[p] = plane[plane[p] - 1];
+            p = plane[p] - 1;
+        }
+        return p;
+    }
+
+    /*
+     * Always link the later root to the earlier one, so parents stay
+     * before their children.
+     */
+    private static void union (int[] plane, int p, int q) {
+        int rp = root(plane, p);
+        int rq = root(plane, q);
+        if (rp < rq) {
+            plane[rq] = rp + 1;
+        } else if (rq < rp) {
+            plane[rp] = rq + 1;
+        }
+    }
+}
@@ -7,7 +7,6 @@ import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
 import java.util.Optional;
 import java.util.logging.Logger;
 
@@ -192,12 +191,13 @@ public class Grayscale {
         
         double[] sampleRow = new double[width*raster.getNumBands()];
         double[] resultRow = new double[width];
+        double[] pp = new double[nband];
         for (int y = 0; y < height; ++y) {
         	raster.getPixels(0, y, width, 1, sampleRow);
         	//System.out.println(ff.length + "  vs " + width);
         	for (int x = 0; x < width; x++) {
         		
-        		double[] pp=Arrays.copyOfRange(sampleRow,x*nband,x*nband+nband);
+        		System.arraycopy(sampleRow, x*nband, pp, 0, nband);
         		grayscaler.adjustAlpha(pp, alphaInfo);
 
         		int s = grayscaler.grayscaleValue (pp) & 0xff;
@@ -240,6 +240,48 @@ public class Grayscale {
         return raster;
     }
 
+    /**
+     * Grayscale the given raster after mapping every sample of band b through
+     * lut[b].  This gives the same result as writing the mapped samples into a new
+     * raster and grayscaling that, but each row is read once and
+     * the gray values go straight into the returned raster, whose histogram is
+     * counted along the way.
+     * @param raster the raster to grayscale, it is not modified.
+     * @param lut the lookup table of each band, indexed by sample value,
+     * or null to use the samples as they are.
+     * @return a new GrayscaleRaster.
+     */
+    static GrayscaleRaster createRaster (Raster raster, int[][] lut) {
+        int height = raster.getHeight();
+        int width = raster.getWidth();
+        int nband = raster.getNumBands();
+
+        Grayscaler grayscaler = Grayscaler.getFor(raster);
+        Optional<AlphaInfo> alphaInfo = grayscaler.computeAlphaInfo(raster, lut);
+
+        GrayscaleRaster outRaster = new GrayscaleRaster(width, height);
+        byte[] data = outRaster.data();
+        int[] histogram = outRaster.histogram();
+
+        double[] sampleRow = new double[width*nband];
+        double[] pp = new double[nband];
+        for (int y = 0; y < height; ++y) {
+            raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, sampleRow);
+            int row = y * width;
+            for (int x = 0, i = 0; x < width; x++) {
+                for (int b = 0; b < nband; b++, i++) {
+                    pp[b] = lut==null? sampleRow[i] : lut[b][(int) sampleRow[i]];
+                }
+                grayscaler.adjustAlpha(pp, alphaInfo);
+
+                int s = grayscaler.grayscaleValue (pp) & 0xff;
+                data[row + x] = (byte) s;
+                histogram[s]++;
+            }
+        }
+        return outRaster;
+    }
+
     public BufferedImage getImage () {
         if (grayscale == null) {
             throw new IllegalStateException ("No buffer available");
@@ -319,6 +361,14 @@ public class Grayscale {
         }
 
         protected Optional<AlphaInfo> computeAlphaInfo(Raster raster){
+            return computeAlphaInfo(raster, null);
+        }
+
+        /**
+         * Compute the alpha info from the alpha samples mapped through
+         * the given lookup tables, or used as is if the tables are null.
+         */
+        protected Optional<AlphaInfo> computeAlphaInfo(Raster raster, int[][] lut){
             if(alphaBand == -1){
                 return Optional.empty();
             }
@@ -327,9 +377,9 @@ public class Grayscale {
             int[] row = new int[width];
             AlphaInfo info = new AlphaInfo();
             for (int j = 0; j < height; ++j) {
-                raster.getSamples(0, j, width, 1, getAlphaBand(), row);
+                raster.getSamples(raster.getMinX(), raster.getMinY() + j, width, 1, getAlphaBand(), row);
                 for (int i = 0; i < width; ++i) {
-                    info.accept(row[i]);
+                    info.accept(lut==null? row[i] : lut[alphaBand][row[i]]);
                 }
             }
             return Optional.of(info);
@@ -0,0 +1,60 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A single band 8-bit raster that also remembers the histogram of
+ * its samples, counted while the raster was being written.  This lets
+ * the binarizations skip their own pass over the image to compute
+ * {@link gov.nih.ncats.molvec.internal.image.binarization.ImageStats}.
+ *
+ * The histogram is only kept up to date by the code that fills the raster
+ * in this package, so nothing else should write to it.
+ */
+public final class GrayscaleRaster extends WritableRaster {
+
+    private final int[] histogram = new int[256];
+
+    GrayscaleRaster (int width, int height) {
+        super (new PixelInterleavedSampleModel
+               (DataBuffer.TYPE_BYTE, width, height, 1, width, new int[]{0}),
+               new DataBufferByte (width * height), new Point ());
+    }
+
+    /**
+     * The samples, row by row with no padding.
+     */
+    byte[] data () {
+        return ((DataBufferByte) getDataBuffer ()).getData();
+    }
+
+    int[] histogram () {
+        return histogram;
+    }
+
+    /**
+     * The number of pixels with each gray value.
+     * @return a new array of length 256.
+     */
+    public int[] getHistogram () {
+        return histogram.clone();
+    }
+
+    /**
+     * Wrap this raster in a gray BufferedImage without copying it.
+     */
+    public BufferedImage toImage () {
+        ComponentColorModel cm = new ComponentColorModel
+            (ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[]{8},
+             false, true, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImage (cm, this, false, null);
+    }
+}
@@ -0,0 +1,287 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import gov.nih.ncats.molvec.ImageSizePolicy;
+import gov.nih.ncats.molvec.ImageTooLargeException;
+
+/**
+ * Applies an {@link ImageSizePolicy} to a decoded image, before any of the
+ * expensive steps of the recognition.  Images that fit the policy are passed
+ * through untouched, and the {@link InkEstimate} is only taken when the policy
+ * needs it.
+ */
+public final class ImageSizing {
+
+    /**
+     * How many times wider than a stroke a blank gap has to be to tile at it.
+     */
+    private static final double GAP_TO_STROKE_RATIO = 8;
+
+    private ImageSizing () {
+    }
+
+    /**
+     * Check the size of an image read from its header, before it's decoded.
+     * Only images the policy would {@link ImageSizePolicy.Action#REJECT reject} for
+     * their size can be turned away this early.
+     * @throws ImageTooLargeException if the image has too many pixels.
+     */
+    public static void checkSize (Dimension size, ImageSizePolicy policy) throws ImageTooLargeException {
+        if (policy.getAction() == ImageSizePolicy.Action.REJECT) {
+            checkPixels (size.width, size.height, policy);
+        }
+    }
+
+    private static void checkPixels (int width, int height, ImageSizePolicy policy) throws ImageTooLargeException {
+        if ((long) width * height > policy.getMaxPixels()) {
+            throw new ImageTooLargeException
+                ("Image of " + width + "x" + height + " is over the limit of "
+                 + policy.getMaxPixels() + " pixels");
+        }
+    }
+
+    /**
+     * A part of an image to be recognized on its own.
+     */
+    public static final class Piece {
+        private final Rectangle bounds;
+        private final Raster raster;
+
+        Piece (Rectangle bounds, Raster raster) {
+            this.bounds = bounds;
+            this.raster = raster;
+        }
+
+        /**
+         * Where the piece is in the image it was cut from, in the pixels of that image.
+         */
+        public Rectangle getBounds () {
+            return new Rectangle(bounds);
+        }
+
+        /**
+         * The pixels of the piece, shrunk if the policy asks for it.
+         */
+        public Raster getRaster () {
+            return raster;
+        }
+    }
+
+    /**
+     * Make the decoded image fit the policy as a single image.  An image too
+     * big for a {@link ImageSizePolicy.Action#TILE} policy is shrunk as a whole, as
+     * for {@link ImageSizePolicy.Action#DOWNSCALE}, since there's only one result to give.
+     * @param raster the single band raster of the decoded image, it is not modified.
+     * @param policy the policy to apply.
+     * @return the raster to recognize: the given one if it fits, otherwise a shrunk copy.
+     * @throws ImageTooLargeException if the policy rejects the image.
+     */
+    public static Raster fit (Raster raster, ImageSizePolicy policy) throws ImageTooLargeException {
+        InkEstimate ink = check (raster, policy);
+        return ink == null ? raster : scale (raster, ink, policy);
+    }
+
+    /**
+     * Make the decoded image fit the policy, cutting it into pieces
+     * for {@link ImageSizePolicy.Action#TILE}.
+     * @param raster the single band raster of the decoded image, it is not modified.
+     * @param policy the policy to apply.
+     * @return the pieces to recognize: for {@link ImageSizePolicy.Action#TILE} the pieces of
+     * an image that's too big, otherwise just the one from {@link #fit(Raster, ImageSizePolicy)}.
+     * @throws ImageTooLargeException if the policy rejects the image.
+     */
+    public static List<Piece> tile (Raster raster, ImageSizePolicy policy) throws ImageTooLargeException {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        InkEstimate ink = check (raster, policy);
+        if (ink == null) {
+            return Collections.singletonList(new Piece(new Rectangle(0, 0, width, height), raster));
+        }
+        if ((long) width * height > policy.getMaxPixels() && policy.getAction() == ImageSizePolicy.Action.TILE) {
+            List<Rectangle> bounds = new ArrayList<>();
+            split (raster, ink, new Rectangle(0, 0, width, height), policy.getMaxPixels(), bounds);
+            List<Piece> pieces = new ArrayList<>(bounds.size());
+            for (Rectangle r : bounds) {
+                pieces.add(new Piece(r, scale (ImageUtil.crop(raster, r.x, r.y, r.width, r.height), ink, policy)));
+            }
+            if (!pieces.isEmpty()) {
+                return pieces;
+            }
+            //no ink at all
+        }
+        return Collections.singletonList(new Piece(new Rectangle(0, 0, width, height), scale (raster, ink, policy)));
+    }
+
+    /**
+     * Reject the image if the policy says to.
+     * @return the ink of the image, or null if it can be taken as it is.
+     */
+    private static InkEstimate check (Raster raster, ImageSizePolicy policy) throws ImageTooLargeException {
+        if (policy == ImageSizePolicy.NONE) {
+            return null;
+        }
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        if (policy.getAction() == ImageSizePolicy.Action.REJECT) {
+            //never shrunk, not even to the target stroke width
+            checkPixels (width, height, policy);
+            if (policy.getMaxInkFraction() < 1) {
+                checkInk (InkEstimate.of(raster), policy);
+            }
+            return null;
+        }
+        boolean tooBig = (long) width * height > policy.getMaxPixels();
+        if (!tooBig && policy.getMaxInkFraction() >= 1 && policy.getTargetStrokeWidth() <= 0) {
+            return null;
+        }
+
+        InkEstimate ink = InkEstimate.of(raster);
+        checkInk (ink, policy);
+        return ink;
+    }
+
+    private static void checkInk (InkEstimate ink, ImageSizePolicy policy) throws ImageTooLargeException {
+        if (ink.getInkFraction() > policy.getMaxInkFraction()) {
+            throw new ImageTooLargeException
+                (String.format("Image is %.1f%% ink, over the limit of %.1f%%",
+                               100 * ink.getInkFraction(), 100 * policy.getMaxInkFraction()));
+        }
+    }
+
+    /**
+     * Shrink a raster to fit the policy, unless that would make
+     * its strokes thinner than the policy allows.
+     */
+    private static Raster scale (Raster raster, InkEstimate ink, ImageSizePolicy policy) throws ImageTooLargeException {
+        long pixels = (long) raster.getWidth() * raster.getHeight();
+        double scale = 1;
+        if (pixels > policy.getMaxPixels()) {
+            scale = Math.sqrt(policy.getMaxPixels() / (double) pixels);
+        }
+        double stroke = ink.getStrokeWidth();
+        if (policy.getTargetStrokeWidth() > 0 && stroke > policy.getTargetStrokeWidth()) {
+            scale = Math.min(scale, policy.getTargetStrokeWidth() / stroke);
+        }
+        if (scale >= 1) {
+            return raster;
+        }
+        if (stroke * scale < policy.getMinStrokeWidth()) {
+            throw new ImageTooLargeException
+                (String.format("Image of %dx%d would have to shrink to %.0f%%, making its strokes"
+                               + " %.1f pixels wide, under the limit of %.1f",
+                               raster.getWidth(), raster.getHeight(), 100 * scale,
+                               stroke * scale, policy.getMinStrokeWidth()));
+        }
+        return ImageUtil.shrink(raster, scale);
+    }
+
+    /**
+     * Trim the blank margins off of the given part of the image, and if it's
+     * still too big cut it in two at its widest blank gap, and so on, so that
+     * nothing drawn is ever cut through.  Pieces that can't be cut are kept as they are.
+     */
+    private static void split (Raster raster, InkEstimate ink, Rectangle r, long maxPixels, List<Rectangle> pieces) {
+        int[] rowInk = new int[r.height];
+        int[] colInk = new int[r.width];
+        int[] row = new int[r.width];
+        double threshold = ink.getInkThreshold();
+        for (int y = 0; y < r.height; ++y) {
+            raster.getSamples(raster.getMinX() + r.x, raster.getMinY() + r.y + y, r.width, 1, 0, row);
+            for (int x = 0; x < r.width; ++x) {
+                if (row[x] > threshold) {
+                    rowInk[y]++;
+                    colInk[x]++;
+                }
+            }
+        }
+        int top = first (rowInk);
+        if (top < 0) {
+            return;
+        }
+        int bottom = last (rowInk);
+        int left = first (colInk);
+        int right = last (colInk);
+        Rectangle trimmed = new Rectangle(r.x + left, r.y + top, right - left + 1, bottom - top + 1);
+        //the gap has to be wide enough to be between drawings, rather than
+        //between a bond and its atom's label
+        int minGap = (int) Math.max(2, Math.ceil(GAP_TO_STROKE_RATIO * ink.getStrokeWidth()));
+        Rectangle piece = withMargin (trimmed, r, minGap / 2);
+        if ((long) piece.width * piece.height <= maxPixels) {
+            pieces.add(piece);
+            return;
+        }
+
+        int[] rowGap = widestGap (rowInk, top, bottom);
+        int[] colGap = widestGap (colInk, left, right);
+        if (Math.max(rowGap[1], colGap[1]) < minGap) {
+            pieces.add(piece);
+            return;
+        }
+        //each side keeps half of the gap as its margin
+        if (rowGap[1] >= colGap[1]) {
+            int cut = r.y + rowGap[0] + rowGap[1] / 2;
+            split (raster, ink, new Rectangle(r.x, r.y, r.width, cut - r.y), maxPixels, pieces);
+            split (raster, ink, new Rectangle(r.x, cut, r.width, r.y + r.height - cut), maxPixels, pieces);
+        } else {
+            int cut = r.x + colGap[0] + colGap[1] / 2;
+            split (raster, ink, new Rectangle(r.x, r.y, cut - r.x, r.height), maxPixels, pieces);
+            split (raster, ink, new Rectangle(cut, r.y, r.x + r.width - cut, r.height), maxPixels, pieces);
+        }
+    }
+
+    /**
+     * Grow the trimmed piece by a blank margin, since the recognition doesn't
+     * expect drawings to touch the edges, without leaving the part it came from.
+     */
+    private static Rectangle withMargin (Rectangle trimmed, Rectangle r, int margin) {
+        Rectangle grown = new Rectangle(trimmed);
+        grown.grow(margin, margin);
+        return grown.intersection(r);
+    }
+
+    private static int first (int[] counts) {
+        for (int i = 0; i < counts.length; ++i) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int last (int[] counts) {
+        for (int i = counts.length - 1; i >= 0; --i) {
+            if (counts[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The start and length of the longest run of blank lines between from and to.
+     */
+    private static int[] widestGap (int[] counts, int from, int to) {
+        int[] best = {from, 0};
+        int start = -1;
+        for (int i = from; i <= to; ++i) {
+            if (counts[i] == 0) {
+                if (start < 0) {
+                    start = i;
+                }
+                if (i - start + 1 > best[1]) {
+                    best[0] = start;
+                    best[1] = i - start + 1;
+                }
+            } else {
+                start = -1;
+            }
+        }
+        return best;
+    }
+}
@@ -2,17 +2,21 @@ package gov.nih.ncats.molvec.internal.image;
 
 import com.twelvemonkeys.imageio.stream.ByteArrayImageInputStream;
 
-import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BandedSampleModel;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.awt.image.IndexColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RescaleOp;
+import java.awt.image.WritableRaster;
 import java.io.*;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
@@ -38,76 +42,182 @@ public class ImageUtil {
         
         g2d.drawImage(bi2, 0, 0, nwidth, nheight, null);
         g2d.dispose();
-        Map<Integer, Integer> rgbConverterMap = new HashMap<>();
-        for (int x = 0; x < outputImage.getWidth(); x++) {
-            for (int y = 0; y < outputImage.getHeight(); y++) {
-                int rgba = outputImage.getRGB(x, y);
-                int newValue = rgbConverterMap.computeIfAbsent(rgba, k->{
-                    Color col = new Color(rgba, true);
-                    col = new Color(255 - col.getRed(),
-                            255 - col.getGreen(),
-                            255 - col.getBlue());
-                    return col.getRGB();
-                });
-
-                outputImage.setRGB(x, y, newValue);
-            }
+        //invert the colors and make every pixel opaque, straight on the pixel array
+        int[] argb = ((DataBufferInt) outputImage.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xff000000 | (~argb[i] & 0x00ffffff);
         }
         
 
-		
 		return outputImage;
 	}
 
     public static BufferedImage decode (BufferedImage bi) {
+        return decodeRaster(bi).toImage();
+    }
+
+    /**
+     * Stretch the given image to the full 8-bit range, invert it and grayscale it,
+     * the same way {@link #decode(BufferedImage)} does, returning the raster
+     * with the histogram that was counted while it was written.
+     * <p>
+     * The stretch and inversion are per sample, so instead of running them over
+     * copies of the whole image they're run once over every possible sample value
+     * to build a lookup table, and the image's own raster is then read one row at a time
+     * straight into the grayscale raster.
+     * @param bi the image to decode, it is not modified.
+     * @return a new GrayscaleRaster.
+     */
+    public static GrayscaleRaster decodeRaster (BufferedImage bi) {
     	
     	if(bi.getColorModel() instanceof IndexColorModel){
     		bi=toRGBColorModel(bi);
     	}
-        Raster raster = bi.getData();
+        Raster raster = bi.getRaster();
 
         int bands=raster.getNumBands();
     	int max = 0;
     	int min = Integer.MAX_VALUE;
     	int[] pix = new int[raster.getWidth()];
     	for (int j = 0; j < raster.getHeight(); ++j) {
-//    		for (int i = 0; i < raster.getWidth(); ++i) {
     		for(int k=0;k<bands;k++){
-    			raster.getSamples(0, j, raster.getWidth(), 1, k, pix);
+    			raster.getSamples(raster.getMinX(), raster.getMinY() + j, raster.getWidth(), 1, k, pix);
     	    	for(int i=0;i<pix.length;i++){
 	                int pixel = pix[i];
-	                //System.out.print(pixel%10);
 	                if (pixel > max) max = pixel;
 	                if (pixel < min) min = pixel;
     	    	}
-    	    	
     	    }
-    	    //System.out.println();
     	}
 
 //        logger.info("## dynamic range: "+(max-min)+" color model: "+bi.getColorModel());
         
         // rescale to 8-bit
         double scale = Math.max(256./(max-min+1),1);
-        RescaleOp rescale = new RescaleOp 
+        RescaleOp stretch = new RescaleOp 
             ((float)scale, -(float)scale*min, null);
-        Raster scaled = rescale.filter(raster, null);
-        rescale = new RescaleOp (-1, 255, null);
-        raster = rescale.filter(scaled, null);
+        RescaleOp invert = new RescaleOp (-1, 255, null);
 
-        Grayscale grayscale = new Grayscale (raster);
-    	return grayscale.getImage();
+        int[][] lut = rescaleTable(raster, stretch, invert);
+        if (lut == null) {
+            //samples that can't be enumerated, rescale the whole raster
+            Raster scaled = invert.filter(stretch.filter(raster, null), null);
+            return Grayscale.createRaster(scaled, null);
+        }
+        return Grayscale.createRaster(raster, lut);
     }
-    private static boolean isTiff(byte[] f) throws IOException{
+
+    /**
+     * Run the given ops over every sample value the raster can hold, giving the
+     * value each one maps to in each band.
+     * @return the lookup table of each band, or null if the samples aren't
+     * integers of at most 16 bits.
+     */
+    private static int[][] rescaleTable (Raster raster, RescaleOp... ops) {
+        int transferType = raster.getTransferType();
+        if (transferType != DataBuffer.TYPE_BYTE
+            && transferType != DataBuffer.TYPE_USHORT
+            && transferType != DataBuffer.TYPE_INT) {
+            return null;
+        }
+        int[] sizes = raster.getSampleModel().getSampleSize();
+        int bits = 0;
+        for (int size : sizes) {
+            bits = Math.max(bits, size);
+        }
+        if (bits > 16) {
+            return null;
+        }
+        int n = 1 << bits;
+        //same kind of raster as the image, so the ops take the same path
+        WritableRaster ramp = raster.createCompatibleWritableRaster(n, 1);
+        for (int b = 0; b < sizes.length; ++b) {
+            int bandMax = (1 << sizes[b]) - 1;
+            for (int i = 0; i < n; ++i) {
+                ramp.setSample(i, 0, b, Math.min(i, bandMax));
+            }
+        }
+        Raster mapped = ramp;
+        for (RescaleOp op : ops) {
+            mapped = op.filter(mapped, null);
+        }
+        int[][] lut = new int[sizes.length][];
+        for (int b = 0; b < sizes.length; ++b) {
+            lut[b] = mapped.getSamples(0, 0, n, 1, b, new int[n]);
+        }
+        return lut;
+    }
+    private static boolean isTiff(byte[] f, int o) throws IOException{
 
         //0x4949 or 0x4d4d
-        return ((f[0] == 0x49 && f[1] == 0x49) || (f[0] == 0x4d && f[1] == 0x4d));
+        return ((f[o] == 0x49 && f[o+1] == 0x49) || (f[o] == 0x4d && f[o+1] == 0x4d));
     }
-    private static boolean isPng(byte[] f) throws IOException{
+    private static boolean isPng(byte[] f, int o) throws IOException{
 
         //0x89PNG
-        return f[0] == 0x89 && f[1] == 0x50 && f[1] == 0x4E && f[1] == 0x47;
+        return f[o] == 0x89 && f[o+1] == 0x50 && f[o+1] == 0x4E && f[o+1] == 0x47;
+    }
+    /**
+     * Resample a single band grayscale raster by the given scale using bicubic
+     * interpolation, and stretch the result to the full 8-bit range, giving the
+     * same pixels as drawing it scaled into an image, writing that out as a PNG
+     * and reading it back in with {@link #grayscale(File)} used to.  This is done
+     * entirely in memory, so it can be handed straight to
+     * {@link Bitmap#createBitmap(Raster, gov.nih.ncats.molvec.internal.image.binarization.Binarization)}
+     * without writing and re-reading an intermediate image file.
+     * @param raster the single band raster to resample, it is not modified.
+     * @param scale the scale factor to use in both dimensions.
+     * @return a new single band raster of the scaled size.
+     */
+    public static Raster resample (Raster raster, double scale) {
+        if (raster.getNumBands() != 1) {
+            throw new IllegalArgumentException
+                ("Can't handle sample with multiple channels");
+        }
+        int nwidth = (int) (raster.getWidth() * scale);
+        int nheight = (int) (raster.getHeight() * scale);
+
+        //drawn from the same kind of image the PNG was, so the gray to sRGB
+        //conversion and the interpolation are the same
+        BufferedImage src = new BufferedImage
+            (raster.getWidth(), raster.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        src.getRaster().setRect(-raster.getMinX(), -raster.getMinY(), raster);
+        BufferedImage drawn = new BufferedImage(nwidth, nheight, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = drawn.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                             RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2d.scale(scale, scale);
+        g2d.drawImage(src, 0, 0, null);
+        g2d.dispose();
+
+        int[] argb = ((DataBufferInt) drawn.getRaster().getDataBuffer()).getData();
+        int max = 0;
+        for (int i = 0; i < argb.length; ++i) {
+            int v = (argb[i] >> 16) & 0xff;
+            if (v > max) max = v;
+        }
+
+        //the stretch decode gave the inverted PNG: its opaque alpha band
+        //kept the top of the range at 255, so only the brightest pixel is
+        //stretched out, to 255, and the darkest isn't pulled down to 0
+        float s = (float) Math.max(256. / (max + 1), 1);
+        float offset = -s * (255 - max);
+        WritableRaster out = Raster.createWritableRaster
+            (new BandedSampleModel(DataBuffer.TYPE_BYTE, nwidth, nheight, 1), null);
+        int[] row = new int[nwidth];
+        for (int y = 0; y < nheight; ++y) {
+            for (int x = 0; x < nwidth; ++x) {
+                int inverted = 255 - ((argb[y * nwidth + x] >> 16) & 0xff);
+                int v = (int) (inverted * s + offset);
+                row[x] = 255 - Math.min(255, Math.max(0, v));
+            }
+            out.setSamples(0, y, nwidth, 1, 0, row);
+        }
+        return out;
     }
+
     public static BufferedImage grayscale (BufferedImage bi) {
         Grayscale grayscale = new Grayscale (bi.getData());
     	return grayscale.asNewBufferedImage();
@@ -115,6 +225,20 @@ public class ImageUtil {
 
 
     public static BufferedImage grayscale (byte[] file) throws IOException {
+        return grayscale(file, 0, file.length);
+    }
+
+    /**
+     * Decode and grayscale the image encoded in the given region of a byte array.
+     * This lets callers hand over a slice of a larger (possibly reused) buffer
+     * without copying it first.
+     * @param file the array holding the encoded image.
+     * @param offset the index of the first byte of the encoded image.
+     * @param length the number of bytes of the encoded image.
+     * @return a new grayscale BufferedImage.
+     * @throws IOException if the image could not be decoded.
+     */
+    public static BufferedImage grayscale (byte[] file, int offset, int length) throws IOException {
         // Create input stream
 
         //this whole thing is to avoid using ImageIO.read(byte[])
@@ -123,22 +247,8 @@ public class ImageUtil {
         //this avoids that and eliminates the need for temp files
         //for a little it of a speed improvement and less hassle managing files
         //or worrying if the caller wants to use the ImageIO cache and has set it properly.
-        try(ImageInputStream input = new ByteArrayImageInputStream(file)) {
-            // Get the reader
-            Iterator<ImageReader> readers;
-            if(isPng(file)){
-                readers = ImageIO.getImageReadersByFormatName("png");
-            }else if(isTiff(file)){
-                readers = ImageIO.getImageReadersByFormatName("tiff");
-            }else{
-                readers = ImageIO.getImageReaders(input);
-            }
-
-            if (!readers.hasNext()) {
-                throw new IOException("No reader found for format provided in byte array");
-            }
-
-            ImageReader reader = readers.next();
+        try(ImageInputStream input = new ByteArrayImageInputStream(file, offset, length)) {
+            ImageReader reader = readerFor(file, offset, input);
 
             try {
                 reader.setInput(input);
@@ -155,9 +265,158 @@ public class ImageUtil {
         }
 //        return decode(ImageIO.read(new ByteArrayImageInputStream(file)));
     }
-    public static BufferedImage grayscale (File file) throws IOException {
 
-        return decode(ImageIO.read(file));
+    private static ImageReader readerFor (byte[] file, int offset, ImageInputStream input) throws IOException {
+        Iterator<ImageReader> readers;
+        if(isPng(file, offset)){
+            readers = ImageIO.getImageReadersByFormatName("png");
+        }else if(isTiff(file, offset)){
+            readers = ImageIO.getImageReadersByFormatName("tiff");
+        }else{
+            readers = ImageIO.getImageReaders(input);
+        }
+
+        if (!readers.hasNext()) {
+            throw new IOException("No reader found for format provided in byte array");
+        }
+        return readers.next();
+    }
+
+    /**
+     * Read the width and height of the first image encoded in the given region
+     * of a byte array from its header, without decoding its pixels.
+     * @return the size of the image.
+     * @throws IOException if the format isn't known or the header can't be read.
+     */
+    public static Dimension readSize (byte[] file, int offset, int length) throws IOException {
+        try(ImageInputStream input = new ByteArrayImageInputStream(file, offset, length)) {
+            return readSize(readerFor(file, offset, input), input);
+        }
+    }
+
+    /**
+     * Read the width and height of the first image in the given file from its
+     * header, without decoding its pixels.
+     * @return the size of the image.
+     * @throws IOException if the format isn't known or the header can't be read.
+     */
+    public static Dimension readSize (File file) throws IOException {
+        try(ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Can't read " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader found for " + file);
+            }
+            return readSize(readers.next(), input);
+        }
+    }
+
+    private static Dimension readSize (ImageReader reader, ImageInputStream input) throws IOException {
+        try {
+            reader.setInput(input, true, true);
+            return new Dimension(reader.getWidth(0), reader.getHeight(0));
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Copy a rectangle out of a single band raster.
+     * @return a new raster of the given size.
+     */
+    public static GrayscaleRaster crop (Raster raster, int x, int y, int width, int height) {
+        GrayscaleRaster out = new GrayscaleRaster(width, height);
+        byte[] data = out.data();
+        int[] histogram = out.histogram();
+        int[] row = new int[width];
+        for (int j = 0; j < height; ++j) {
+            raster.getSamples(raster.getMinX() + x, raster.getMinY() + y + j, width, 1, 0, row);
+            for (int i = 0, k = j * width; i < width; ++i, ++k) {
+                int v = Math.min(255, Math.max(0, row[i]));
+                data[k] = (byte) v;
+                histogram[v]++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * A rectangle of a raster that shares its pixels rather than copying
+     * them, with its own origin at 0,0.
+     * @return a new raster over the same data buffer.
+     */
+    public static Raster view (Raster raster, int x, int y, int width, int height) {
+        if (raster instanceof GrayscaleRaster) {
+            //a child of our own raster class would only be a plain WritableRaster,
+            //which the native transforms don't know
+            raster = Raster.createRaster
+                (raster.getSampleModel(), raster.getDataBuffer(), null);
+        }
+        return raster.createChild(raster.getMinX() + x, raster.getMinY() + y,
+                                  width, height, 0, 0, null);
+    }
+
+    /**
+     * Shrink a single band raster by the given scale.  Whole multiples are done
+     * by averaging each block of pixels, so thin lines fade rather than drop out,
+     * and whatever is left over by {@link #resample(Raster, double)}.
+     * @param raster the raster to shrink, it is not modified.
+     * @param scale the scale, at most 1.
+     * @return the shrunk raster, or the same raster if the scale is 1 or more.
+     */
+    public static Raster shrink (Raster raster, double scale) {
+        if (!(scale < 1)) {
+            return raster;
+        }
+        int block = (int) Math.floor(1 / scale);
+        Raster out = raster;
+        if (block >= 2) {
+            out = averageBlocks(raster, block);
+        }
+        double rest = scale * block;
+        if (rest < 0.99) {
+            out = resample(out, rest);
+        }
+        return out;
+    }
+
+    private static GrayscaleRaster averageBlocks (Raster raster, int block) {
+        int width = Math.max(1, raster.getWidth() / block);
+        int height = Math.max(1, raster.getHeight() / block);
+        int inWidth = Math.min(raster.getWidth(), width * block);
+        GrayscaleRaster out = new GrayscaleRaster(width, height);
+        byte[] data = out.data();
+        int[] histogram = out.histogram();
+        int[] row = new int[inWidth];
+        int[] sums = new int[width];
+        for (int y = 0; y < height; ++y) {
+            Arrays.fill(sums, 0);
+            int rows = 0;
+            for (int j = y * block; j < Math.min(raster.getHeight(), (y + 1) * block); ++j, ++rows) {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + j, inWidth, 1, 0, row);
+                for (int x = 0; x < inWidth; ++x) {
+                    sums[x / block] += row[x];
+                }
+            }
+            for (int x = 0; x < width; ++x) {
+                int n = rows * Math.min(block, inWidth - x * block);
+                int v = Math.min(255, (sums[x] + n / 2) / n);
+                data[y * width + x] = (byte) v;
+                histogram[v]++;
+            }
+        }
+        return out;
+    }
+
+    public static BufferedImage grayscale (File file) throws IOException {
+        BufferedImage bi = ImageIO.read(file);
+        if (bi == null) {
+            throw new IOException("No reader found for " + file);
+        }
+        return decode(bi);
     }
 
     public static BufferedImage decode (File file) throws IOException {
@@ -0,0 +1,143 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.image.Raster;
+
+import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
+import gov.nih.ncats.molvec.internal.image.binarization.ImageStats;
+
+/**
+ * A rough idea of how much ink a decoded grayscale image has and how
+ * thick its strokes are, cheap enough to decide what to do with an image before
+ * binarizing it.
+ *
+ * Ink is anything darker than halfway between the lightest and darkest
+ * pixels (decoded images have ink as the high values).  The fraction of ink comes
+ * straight from the {@link ImageStats} histogram, which decoding already counted.
+ * The stroke width is the median length of the runs of ink along a few hundred
+ * evenly spaced rows and columns: a run across a stroke is about as long as the stroke
+ * is wide, and runs along a stroke are rare enough not to move the median.
+ */
+public final class InkEstimate {
+
+    private static final int SAMPLED_LINES = 256;
+    private static final int MAX_RUN = 1024;
+
+    private final int width;
+    private final int height;
+    private final double threshold;
+    private final double inkFraction;
+    private final double strokeWidth;
+
+    private InkEstimate (int width, int height, double threshold, double inkFraction, double strokeWidth) {
+        this.width = width;
+        this.height = height;
+        this.threshold = threshold;
+        this.inkFraction = inkFraction;
+        this.strokeWidth = strokeWidth;
+    }
+
+    /**
+     * Estimate the ink of a single band raster.
+     */
+    public static InkEstimate of (Raster raster) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        ImageStats stats = Binarization.computeImageStats(raster);
+        double threshold = (stats.min + stats.max) / 2;
+        if (!(stats.max > stats.min)) {
+            //a blank image
+            return new InkEstimate (width, height, threshold, 0, 0);
+        }
+        double ink = 0;
+        for (int i = (int) Math.floor(threshold) + 1; i < stats.histogramRaw.length; ++i) {
+            ink += stats.histogramRaw[i];
+        }
+
+        int[] runs = new int[MAX_RUN + 1];
+        int[] line = new int[Math.max(width, height)];
+        int dy = Math.max(1, height / SAMPLED_LINES);
+        for (int y = dy / 2; y < height; y += dy) {
+            raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, line);
+            countRuns(line, width, threshold, runs);
+        }
+        int dx = Math.max(1, width / SAMPLED_LINES);
+        for (int x = dx / 2; x < width; x += dx) {
+            raster.getSamples(raster.getMinX() + x, raster.getMinY(), 1, height, 0, line);
+            countRuns(line, height, threshold, runs);
+        }
+        return new InkEstimate (width, height, threshold, ink / stats.count, median(runs));
+    }
+
+    private static void countRuns (int[] line, int n, double threshold, int[] runs) {
+        int run = 0;
+        for (int i = 0; i < n; ++i) {
+            if (line[i] > threshold) {
+                run++;
+            } else if (run > 0) {
+                runs[Math.min(run, MAX_RUN)]++;
+                run = 0;
+            }
+        }
+        if (run > 0) {
+            runs[Math.min(run, MAX_RUN)]++;
+        }
+    }
+
+    private static double median (int[] counts) {
+        long total = 0;
+        for (int c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (2 * seen >= total) {
+                return i;
+            }
+        }
+        return counts.length - 1;
+    }
+
+    public int getWidth () {
+        return width;
+    }
+
+    public int getHeight () {
+        return height;
+    }
+
+    public long getPixels () {
+        return (long) width * height;
+    }
+
+    /**
+     * Samples above this value are ink.
+     */
+    public double getInkThreshold () {
+        return threshold;
+    }
+
+    /**
+     * The fraction of the pixels that are ink, from 0 to 1.
+     */
+    public double getInkFraction () {
+        return inkFraction;
+    }
+
+    /**
+     * The typical width of a stroke in pixels, 0 if there is no ink.
+     */
+    public double getStrokeWidth () {
+        return strokeWidth;
+    }
+
+    @Override
+    public String toString () {
+        return "InkEstimate{" + width + "x" + height
+            + ", inkFraction=" + inkFraction
+            + ", strokeWidth=" + strokeWidth + "}";
+    }
+}
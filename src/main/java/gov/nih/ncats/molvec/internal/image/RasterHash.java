@@ -0,0 +1,115 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import java.awt.image.Raster;
+
+/**
+ * A fast 128-bit hash of the samples of a single band raster, to tell
+ * whether two decoded images are the same picture without comparing them.
+ * Two images that decode to the same samples hash the same however they were
+ * encoded.  It's not a cryptographic hash: it's only meant to find repeats of
+ * images, not to stand up to someone making collisions on purpose.
+ *
+ * The samples of each row are mixed eight at a time into two independent
+ * 64-bit lanes using the multiply and rotate steps of MurmurHash3, then the lanes
+ * are finalized with its avalanche step.
+ */
+public final class RasterHash {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private RasterHash () {
+    }
+
+    /**
+     * Hash the samples of the raster, along with its size.
+     * @return the hash as 32 lowercase hex digits.
+     */
+    public static String of (Raster raster) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        long[] h = {0x9e3779b97f4a7c15L ^ width, 0xc2b2ae3d27d4eb4fL ^ height};
+        if (raster instanceof GrayscaleRaster && raster.getMinX() == 0 && raster.getMinY() == 0) {
+            byte[] data = ((GrayscaleRaster) raster).data();
+            for (int y = 0; y < height; ++y) {
+                mix (h, data, y * width, width);
+            }
+        } else {
+            int[] row = new int[width];
+            byte[] bytes = new byte[width];
+            for (int y = 0; y < height; ++y) {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, row);
+                for (int x = 0; x < width; ++x) {
+                    bytes[x] = (byte) row[x];
+                }
+                mix (h, bytes, 0, width);
+            }
+        }
+        long h1 = h[0] ^ ((long) width * height);
+        long h2 = h[1] ^ ((long) width * height);
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix (h1);
+        h2 = fmix (h2);
+        h1 += h2;
+        h2 += h1;
+        return String.format("%016x%016x", h1, h2);
+    }
+
+    /**
+     * Mix a row of bytes into the two lanes, alternating eight bytes to each.
+     */
+    private static void mix (long[] h, byte[] data, int offset, int length) {
+        long h1 = h[0];
+        long h2 = h[1];
+        int i = offset;
+        int end = offset + length;
+        for (; i + 16 <= end; i += 16) {
+            h1 ^= mixLane (getLong (data, i));
+            h1 = Long.rotateLeft(h1, 27) * 5 + 0x52dce729;
+            h2 ^= mixLane (getLong (data, i + 8));
+            h2 = Long.rotateLeft(h2, 31) * 5 + 0x38495ab5;
+        }
+        if (i + 8 <= end) {
+            h1 ^= mixLane (getLong (data, i));
+            h1 = Long.rotateLeft(h1, 27) * 5 + 0x52dce729;
+            i += 8;
+        }
+        if (i < end) {
+            long tail = 0;
+            for (int shift = 0; i < end; ++i, shift += 8) {
+                tail |= (data[i] & 0xffL) << shift;
+            }
+            h2 ^= mixLane (tail);
+            h2 = Long.rotateLeft(h2, 31) * 5 + 0x38495ab5;
+        }
+        h[0] = h1;
+        h[1] = h2;
+    }
+
+    private static long mixLane (long k) {
+        k *= C1;
+        k = Long.rotateLeft(k, 31);
+        return k * C2;
+    }
+
+    private static long getLong (byte[] data, int i) {
+        return (data[i] & 0xffL)
+            | (data[i + 1] & 0xffL) << 8
+            | (data[i + 2] & 0xffL) << 16
+            | (data[i + 3] & 0xffL) << 24
+            | (data[i + 4] & 0xffL) << 32
+            | (data[i + 5] & 0xffL) << 40
+            | (data[i + 6] & 0xffL) << 48
+            | (data[i + 7] & 0xffL) << 56;
+    }
+
+    private static long fmix (long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb93fe53d85a3L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
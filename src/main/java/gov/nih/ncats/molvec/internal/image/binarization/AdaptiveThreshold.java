@@ -3,6 +3,7 @@ package gov.nih.ncats.molvec.internal.image.binarization;
 import java.awt.image.Raster;
 import java.util.function.Consumer;
 
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 
 /*
@@ -21,6 +22,8 @@ import gov.nih.ncats.molvec.internal.image.Bitmap;
  * 		d)set threshold for given pixel at mean+stDEV*SIGMA 
  * 		  (where sigma is a provided constant)
  * UPDATE: Integral images calculated only for rows needed, on the fly
+ * UPDATE: the sums are exact longs kept by {@link WindowSums}, which reads
+ * 		whole rows at a time
  */
 public class AdaptiveThreshold implements Binarization {
     public static final double DEFAULT_SIGMA_THRESHOLD = 3;
@@ -35,6 +38,8 @@ public class AdaptiveThreshold implements Binarization {
     
     private double absMin, sigma, minSigma;
 
+    private ExecutionPolicy policy = ExecutionPolicy.SEQUENTIAL;
+
     public AdaptiveThreshold () {
         this (DEFAULT_ADAPTIVE_BOX_RADIUS);
     }
@@ -57,35 +62,14 @@ public class AdaptiveThreshold implements Binarization {
 
    
 
-    private static void addIntLines (Raster inRaster, int[] yMap,
-                                     double[][] intLines,
-                                     double[][] intSquareLines,
-                                     int width, int y) {
-        double sum = 0;
-        double sumSquare = 0;
-        double[] intLine = intLines[yMap[y]];
-        double[] intSquareLine = intSquareLines[yMap[y]];
-        
-        double[] intPrevLine = null;
-        double[] intSquarePrevLine = null;
-        if (y > 0) {
-            intPrevLine = intLines[yMap[y - 1]];
-            intSquarePrevLine = intSquareLines[yMap[y - 1]];
-        }
-
-        for (int x = 0; x < width; ++x) {
-            double sampleDouble = inRaster.getSampleDouble(x, y, 0);
-            sum += sampleDouble;
-            sumSquare += sampleDouble * sampleDouble;
-            if (y == 0) {
-                intLine[x] = sum;
-                intSquareLine[x] = sumSquare;
-            } else {
-                intLine[x] = sum + intPrevLine[x];
-                intSquareLine[x] = sumSquare + intSquarePrevLine[x];
-            }
-        }
-    }
+	/**
+	 * Split the rows of big images across threads as allowed by the given policy.
+	 * @return this
+	 */
+	public AdaptiveThreshold withPolicy (ExecutionPolicy policy) {
+		this.policy = policy;
+		return this;
+	}
 
 	@Override
 	public Bitmap binarize(Raster inRaster, ImageStats stats, Consumer<ImageStats> cons) {
@@ -94,81 +78,39 @@ public class AdaptiveThreshold implements Binarization {
 		    stats = Binarization.computeImageStats(inRaster);
         }
 		
-		
-        Bitmap bm = new Bitmap (inRaster.getWidth (), inRaster.getHeight ());
-        wsize = (Math.min(wsize * 2 + 2,bm.height())-2)/2;
-        wsize = (Math.min(wsize * 2 + 2,bm.width())-2)/2;
-        
-        int[] yMap = new int[bm.height()];
-        double[][] intLines = new double[wsize * 2 + 2][bm.width()];
-        double[][] intSquareLines = new double[wsize * 2 + 2][bm.width()];
-        
-
-        // make Integral-Image for quick averaging
-        for (int y = 0; y < wsize * 2 + 2; ++y) {
-            yMap[y] = y;
-            addIntLines (inRaster, yMap, intLines, 
-                         intSquareLines, bm.width(), y);
-        }
+        int height = inRaster.getHeight ();
+        int width = inRaster.getWidth ();
+        int w = (Math.min(wsize * 2 + 2,height)-2)/2;
+        w = (Math.min(w * 2 + 2,width)-2)/2;
 
-        
         double range = stats.max-stats.min;
-        
-        
-        double[] dl = new double[bm.width()];
-        for (int y = 0; y < bm.height(); ++y) {
-            int y1 = Math.max (y - wsize, 0);
-            int y2 = Math.min (y + wsize, bm.height() - 1);
-            int boxHeight = (y2 - y1 + 1);
-            double[] topIntLine = null;
-            double[] topSquareIntLine = null;
-            double[] bottomIntLine;
-            double[] bottomSquareIntLine;
-
-            if (y1 >= 2) {
-                if (boxHeight >= wsize * 2 + 1) {
-                    yMap[y2] = yMap[y1 - 2];
-                    addIntLines (inRaster, yMap, intLines, intSquareLines,
-                                 bm.width(), y2);
-                }
-            }
-            if (y1 > 0) {
-                topIntLine = intLines[yMap[y1 - 1]];
-                topSquareIntLine = intSquareLines[yMap[y1 - 1]];
-            }
-            bottomIntLine = intLines[yMap[y2]];
-            bottomSquareIntLine = intSquareLines[yMap[y2]];
-            inRaster.getSamples(0, y, bm.width(), 1, 0, dl);
-            for (int x = 0; x < bm.width(); ++x) {
-                // box to average over:
-                int x1 = Math.max (x - wsize, 0);
-                int x2 = Math.min (x + wsize, bm.width() - 1);
-                int count = (x2 - x1 + 1) * boxHeight;
-                double sum = bottomIntLine[x2];
-                double sumSquare = bottomSquareIntLine[x2];
-                if (y1 > 0) {
-                    sum += -topIntLine[x2];
-                    sumSquare += -topSquareIntLine[x2];
-                }
-                if (x1 > 0) {
-                    sum += -bottomIntLine[x1 - 1];
-                    sumSquare += -bottomSquareIntLine[x1 - 1];
+        double low = stats.min+range*absMin;
+        double high = stats.min + range*absMax;
+
+        // sums over the box around each pixel, from the integral image of the rows in the box
+        WindowSums windows = new WindowSums (inRaster, w, w, w, w);
+        return windows.threshold ((y, row, sums, squares, counts, bits, offset)->{
+            for (int x = 0; x < row.length; ++x) {
+                int pel = row[x];
+                // the threshold is clamped to [low, high], so most pixels
+                // are decided without working out the window's deviation
+                if (pel <= low) {
+                    continue;
                 }
-                if (y1 > 0 && x1 > 0) {
-                    sum += topIntLine[x1 - 1];
-                    sumSquare += topSquareIntLine[x1 - 1];
+                if (pel > high) {
+                    bits[offset + (x >> 3)] |= 0x80 >>> (x & 7);
+                    continue;
                 }
-
-                double mean = sum / count;
+                int count = counts[x];
+                double mean = (double) sums[x] / count;
                 double stdDEV = Math.sqrt 
-                    (Math.abs (sumSquare / count- mean * mean));
-                double threshold = Math.min (mean + stdDEV * sigma, stats.min + range*absMax);
-                threshold = Math.max(threshold, stats.min+range*absMin);
-                double pel = dl[x];
-                bm.set (x, y, pel > threshold);
+                    (Math.abs ((double) squares[x] / count- mean * mean));
+                double threshold = Math.min (mean + stdDEV * sigma, high);
+                threshold = Math.max(threshold, low);
+                if (pel > threshold) {
+                    bits[offset + (x >> 3)] |= 0x80 >>> (x & 7);
+                }
             }
-        }
-
-        return bm;
+        }, policy);
 	}
 }
@@ -5,6 +5,7 @@ import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import gov.nih.ncats.molvec.internal.image.Bitmap;
+import gov.nih.ncats.molvec.internal.image.GrayscaleRaster;
 
 public interface Binarization {
     Bitmap binarize (Raster raster, ImageStats stats, Consumer<ImageStats> cons);
@@ -30,6 +31,10 @@ public interface Binarization {
     
     
     static ImageStats computeImageStats(Raster inRaster){
+	    	if(inRaster instanceof GrayscaleRaster){
+	    		//already counted while it was decoded
+	    		return ImageStats.fromHistogram(((GrayscaleRaster)inRaster).getHistogram(), inRaster.getWidth(), inRaster.getHeight());
+	    	}
 	    	int width = inRaster.getWidth();
 	    	int height = inRaster.getHeight();
 	    	ImageStats stats = new ImageStats();
@@ -92,9 +97,7 @@ public interface Binarization {
          
          for (int y = 0; y < bm.height(); ++y) {
       	   inRaster.getSamples(0, y, bm.width(), 1, 0, nd);
-             for (int x = 0; x < bm.width(); ++x) {
-                 bm.set (x, y, nd[x] >= threshold);
-             }
+      	   bm.setRow(y, nd, threshold);
          }
     }
 }
@@ -10,6 +10,50 @@ public class ImageStats {
 	public int[] histogramRaw;
 	public double count;
 
+	/**
+	 * Compute the stats of an image from the number of pixels with each integer value,
+	 * giving exactly what a pass over the pixels themselves would.
+	 * @param counts the number of pixels with each value.
+	 * @param width the width of the image.
+	 * @param height the height of the image.
+	 * @return new stats, with the threshold set to the mean.
+	 */
+	public static ImageStats fromHistogram(int[] counts, int width, int height){
+		ImageStats stats = new ImageStats();
+		double max = -1, min = Double.MAX_VALUE;
+		//sums of integers this small are exact in a double,
+		//so adding them up by value instead of by pixel doesn't change them
+		double sum = 0;
+		double sumSquare = 0;
+		for(int i=0;i<counts.length;i++){
+			if(counts[i]==0){
+				continue;
+			}
+			if(i < min) min = i;
+			max = i;
+			sum += (double)i * counts[i];
+			sumSquare += (double)i * i * counts[i];
+		}
+		long tot = width * height;
+		double mean = sum / tot;
+
+		stats.histogram = new int[101];
+		stats.histogramRaw = new int[(int)max+1];
+		for(int i=(int)min;i<=(int)max;i++){
+			int ni = (int)((100*(i-min))/(max-min));
+			stats.histogram[ni] +=counts[i];
+			stats.histogramRaw[i] = counts[i];
+		}
+
+		stats.min=min;
+		stats.max=max;
+		stats.mean=mean;
+		stats.stdev=Math.sqrt (sumSquare / tot - mean * mean);
+		stats.count=width*height;
+		stats.threshold=stats.mean;
+		return stats;
+	}
+
 	public double getPercentageThreshold(){
 		return 100*(threshold-min)/(max-min);
 	}
@@ -3,10 +3,12 @@ package gov.nih.ncats.molvec.internal.image.binarization;
 import java.awt.image.Raster;
 import java.util.function.Consumer;
 
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 
 /**
- * Implementation of Sauvola threshold. 
+ * Implementation of Sauvola threshold. The mean and variance of
+ * the window around each pixel come from {@link WindowSums}.
  * @author tyler
  *
  */
@@ -17,6 +19,7 @@ public class SauvolaThreshold implements Binarization{
 	int rad = 10;
 	double k=-0.9;
 	double r=128;
+	private ExecutionPolicy policy = ExecutionPolicy.SEQUENTIAL;
 	
 	public SauvolaThreshold(int rad, double k, double r){
 		this.rad=rad;
@@ -30,61 +33,51 @@ public class SauvolaThreshold implements Binarization{
 	}
 	
 
+	/**
+	 * Split the rows of big images across threads as allowed by the given policy.
+	 * @return this
+	 */
+	public SauvolaThreshold withPolicy(ExecutionPolicy policy){
+		this.policy=policy;
+		return this;
+	}
+
 	@Override
 	public Bitmap binarize(Raster inRaster, ImageStats stats, Consumer<ImageStats> cons) {
 
-		Bitmap bm = new Bitmap (inRaster.getWidth (), inRaster.getHeight ());
 		if(stats==null)stats = Binarization.computeImageStats(inRaster);
         		
-		double ek = k;
+		double ek0 = k;
         if(stats.mean-stats.min > stats.max-stats.mean){
-        	ek=ek*-1;
+        	ek0=ek0*-1;
         }
+        double ek = ek0;
         
         double t1=stats.min+(stats.max-stats.min)*DEFAULT_MIN_THRESHOLD_RATIO;
         double t2=stats.min+(stats.max-stats.min)*DEFAULT_MAX_THRESHOLD_RATIO;
         
-		double[] vals = new double[rad*rad*4];
-		
-        for (int y = 0; y < bm.height(); ++y) {
-            for (int x = 0; x < bm.width(); ++x) {
-            	double pix = inRaster.getSampleDouble (x, y, 0);
+        //the window is the 2rad x 2rad box with the pixel just past its center
+        WindowSums windows = new WindowSums(inRaster, rad, rad-1, rad, rad-1);
+        Bitmap bm = windows.threshold((y, row, sums, squares, counts, bits, offset)->{
+            for (int x = 0; x < row.length; ++x) {
+            	double pix = row[x];
             	boolean isOn = false;
             	if(pix>t2){
             		isOn=true;
             	}else if(pix<t1){
             		isOn=false;
             	}else{
-	            	int minx = Math.max(x-rad, 0);
-	            	int miny = Math.max(y-rad, 0);
-	            	int maxx = Math.min(x+rad, bm.width()-1);
-	            	int maxy = Math.min(y+rad, bm.height()-1);
-	            	
-	            	int tot = (maxx-minx)*(maxy-miny);
-	            	
-	            	inRaster.getSamples(minx, miny, maxx-minx, maxy-miny, 0, vals);
-
-	            	double mean=0;
-	            	int seen=0;
-	            	for(int i=0; i< tot && i <vals.length; i++){
-	            		seen++;
-	            		mean+=vals[i];
-					}
-					mean /= seen;
-					double var = 0;
-					for(int i=0; i< tot && i <vals.length; i++){
-						var += Math.pow(mean - vals[i], 2);
-					}
-					var /= seen;
-//	            	double mean = Arrays.stream(vals).limit(tot).average().orElse(0);
-//	            	double var = Arrays.stream(vals).limit(tot).map(d->mean-d).map(d->d*d).average().orElse(0);
-	            	
+            		long n = counts[x];
+            		double mean = (double)sums[x] / n;
+            		//n^2 * variance is an exact integer, so only round once
+            		double var = (double)(n*squares[x] - sums[x]*sums[x]) / ((double)n*n);
 	            	isOn = pix > mean * (1 + ek * (Math.sqrt(var)/r-1.0));
             	}
-            	
-            	bm.set (x, y, isOn);
+            	if(isOn){
+            		bits[offset + (x >> 3)] |= 0x80 >>> (x & 7);
+            	}
             }
-        }
+        }, policy);
         cons.accept(stats);
         return bm;
 	}
@@ -0,0 +1,195 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+
+import gov.nih.ncats.molvec.Parallelism;
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+/**
+ * Sums and sums of squares of the samples in a rectangular window around every
+ * pixel of a single band raster, for the local thresholds.
+ *
+ * Rather than keeping a full integral image, this keeps the column sums of the rows
+ * currently inside the window, adding the row that enters and subtracting the row
+ * that leaves as the window slides down, and takes a running sum along each row
+ * of those.  So every window sum costs O(1), only a few rows of memory are needed,
+ * and since everything is in longs the sums are exact.
+ *
+ * Rows of byte rasters are read straight out of the data buffer.  Tall images can be
+ * cut into strips of rows that are thresholded in parallel; each strip has its own
+ * window, and writes its own rows of the packed result.
+ */
+final class WindowSums {
+
+    /**
+     * Computes the packed bits of one row from its window sums.
+     */
+    interface RowThreshold {
+        /**
+         * @param y the row.
+         * @param samples the samples of the row.
+         * @param sums the window sum at each x.
+         * @param squares the window sum of squares at each x.
+         * @param counts the number of pixels in the window at each x.
+         * @param bits where to write the packed row, MSB first, starting at offset.
+         * @param offset the index of the first byte of the row in bits.
+         */
+        void threshold (int y, int[] samples, long[] sums, long[] squares, int[] counts, byte[] bits, int offset);
+    }
+
+    private static final int MIN_PIXELS_FOR_STRIPS = 1 << 20;
+    private static final int MIN_ROWS_PER_STRIP = 128;
+
+    private final Raster raster;
+    private final int width;
+    private final int height;
+    /*
+     * the window around (x, y) is rows [y-up, y+down] and columns [x-left, x+right],
+     * clipped to the raster
+     */
+    private final int left, right, up, down;
+
+    /**
+     * @param raster the single band raster.
+     * @param left the number of columns left of the pixel in its window.
+     * @param right the number of columns right of the pixel in its window.
+     * @param up the number of rows above the pixel in its window.
+     * @param down the number of rows below the pixel in its window.
+     */
+    WindowSums (Raster raster, int left, int right, int up, int down) {
+        this.raster = raster;
+        this.width = raster.getWidth();
+        this.height = raster.getHeight();
+        this.left = left;
+        this.right = right;
+        this.up = up;
+        this.down = down;
+    }
+
+    /**
+     * Threshold every row, splitting the rows into strips if the policy allows
+     * work on a single image to run in parallel and the image is big enough,
+     * and return the packed bitmap.
+     */
+    Bitmap threshold (RowThreshold rows, ExecutionPolicy policy) {
+        int strips = 1;
+        if (policy.isParallel(Parallelism.PER_GLYPH) && (long) width * height >= MIN_PIXELS_FOR_STRIPS) {
+            //each strip has to fill its window before it can start, so keep them
+            //a good deal taller than the window
+            int minRows = Math.max(MIN_ROWS_PER_STRIP, 2 * (up + down + 1));
+            strips = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), height / minRows));
+        }
+        return threshold(rows, strips, policy);
+    }
+
+    /**
+     * Threshold every row using the given number of strips.
+     */
+    Bitmap threshold (RowThreshold rows, int strips, ExecutionPolicy policy) {
+        int scanline = (width + 7) >> 3;
+        byte[] bits = new byte[scanline * height];
+        int n = Math.max(1, Math.min(strips, height));
+        policy.forEachIndex(Parallelism.PER_GLYPH, n, s -> {
+            int y0 = (int) ((long) height * s / n);
+            int y1 = (int) ((long) height * (s + 1) / n);
+            thresholdRows(rows, y0, y1, bits, scanline);
+        });
+
+        Bitmap bm = new Bitmap(width, height);
+        for (int y = 0; y < height; ++y) {
+            bm.setRow(y, bits, y * scanline);
+        }
+        return bm;
+    }
+
+    private void thresholdRows (RowThreshold rows, int y0, int y1, byte[] bits, int scanline) {
+        long[] colSums = new long[width];
+        long[] colSquares = new long[width];
+        int[] row = new int[width];
+
+        //fill the window of the first row
+        int top = Math.max(y0 - up, 0);
+        int bottom = Math.min(y0 + down, height - 1);
+        for (int y = top; y <= bottom; ++y) {
+            addRow(y, row, colSums, colSquares, 1);
+        }
+
+        long[] sums = new long[width];
+        long[] squares = new long[width];
+        int[] counts = new int[width];
+        long[] runSums = new long[width + 1];
+        long[] runSquares = new long[width + 1];
+        for (int y = y0; y < y1; ++y) {
+            if (y > y0) {
+                //slide the window down a row
+                int leaving = y - up - 1;
+                int entering = y + down;
+                if (leaving >= 0) {
+                    addRow(leaving, row, colSums, colSquares, -1);
+                }
+                if (entering < height) {
+                    addRow(entering, row, colSums, colSquares, 1);
+                }
+            }
+            int rowsInWindow = Math.min(y + down, height - 1) - Math.max(y - up, 0) + 1;
+
+            for (int x = 0; x < width; ++x) {
+                runSums[x + 1] = runSums[x] + colSums[x];
+                runSquares[x + 1] = runSquares[x] + colSquares[x];
+            }
+            for (int x = 0; x < width; ++x) {
+                int x1 = Math.max(x - left, 0);
+                int x2 = Math.min(x + right, width - 1);
+                if (x2 < x1) {
+                    sums[x] = 0;
+                    squares[x] = 0;
+                    counts[x] = 0;
+                    continue;
+                }
+                sums[x] = runSums[x2 + 1] - runSums[x1];
+                squares[x] = runSquares[x2 + 1] - runSquares[x1];
+                counts[x] = (x2 - x1 + 1) * Math.max(rowsInWindow, 0);
+            }
+            readRow(raster, y, row);
+            rows.threshold(y, row, sums, squares, counts, bits, y * scanline);
+        }
+    }
+
+    private void addRow (int y, int[] row, long[] colSums, long[] colSquares, int sign) {
+        readRow(raster, y, row);
+        for (int x = 0; x < width; ++x) {
+            long v = row[x];
+            colSums[x] += sign * v;
+            colSquares[x] += sign * v * v;
+        }
+    }
+
+    /**
+     * Read the samples of row y of the first band, straight out of the data
+     * buffer when it's made of bytes.
+     */
+    static void readRow (Raster raster, int y, int[] row) {
+        int width = raster.getWidth();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            byte[] data = ((DataBufferByte) db).getData(csm.getBankIndices()[0]);
+            int stride = csm.getPixelStride();
+            int offset = db.getOffsets()[csm.getBankIndices()[0]]
+                + (raster.getMinY() + y - raster.getSampleModelTranslateY()) * csm.getScanlineStride()
+                + (raster.getMinX() - raster.getSampleModelTranslateX()) * stride
+                + csm.getBandOffsets()[0];
+            for (int x = 0; x < width; ++x, offset += stride) {
+                row[x] = data[offset] & 0xff;
+            }
+            return;
+        }
+        raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, row);
+    }
+}
@@ -0,0 +1,184 @@
+package gov.nih.ncats.molvec.internal.segmentation;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import gov.nih.ncats.molvec.internal.algo.UnionFind;
+import gov.nih.ncats.molvec.internal.util.SpatialGrid;
+
+/**
+ * Splits a binarized page into the regions that each hold one drawing,
+ * such as the separate structures of a patent page.
+ *
+ * The connected components are grouped bottom up, like {@link Docstrum}
+ * groups them into lines, except that any two components closer than a gap
+ * are joined whatever the direction between them.  The gap is a multiple of the
+ * median height of the components, which on a page of drawings is about the height
+ * of the atom labels, so labels stay with their bonds while separate drawings,
+ * which are set further apart than that, end up in separate regions.
+ *
+ * A region is only kept if its biggest component is much bigger than the
+ * labels, since the bonds of a structure are drawn as one big connected piece
+ * while text is a run of components no bigger than a glyph.  Regions whose
+ * bounds overlap are merged, so that brackets and rings drawn around other parts
+ * don't split a drawing.
+ */
+public class StructureSegmentation implements Segmentation {
+
+    /**
+     * How many median component heights apart two components can be
+     * and still be part of the same drawing.
+     */
+    static final double GAP_TO_GLYPH_RATIO = 1.5;
+
+    /**
+     * How many median component heights the longer side of the biggest
+     * component of a region has to be for the region to be a drawing.
+     */
+    static final double DRAWING_TO_GLYPH_RATIO = 3;
+
+    /**
+     * Components with no side longer than this are specks of noise,
+     * left out of the median height.
+     */
+    static final int SPECK_SIZE = 2;
+
+    protected final int width;
+    protected final int height;
+    protected final List<Shape> zones = new ArrayList<Shape>();
+    protected double glyphHeight;
+
+    /**
+     * @param components the bounding boxes of the connected components of the page.
+     * @param width the width of the page.
+     * @param height the height of the page.
+     */
+    public StructureSegmentation (List<? extends Shape> components, int width, int height) {
+        this.width = width;
+        this.height = height;
+        segment (components);
+    }
+
+    protected void segment (List<? extends Shape> components) {
+        int n = components.size();
+        if (n == 0) {
+            return;
+        }
+        Rectangle[] boxes = new Rectangle[n];
+        for (int i = 0; i < n; ++i) {
+            boxes[i] = components.get(i).getBounds();
+        }
+        glyphHeight = medianHeight (boxes);
+        int gap = (int) Math.ceil(GAP_TO_GLYPH_RATIO * glyphHeight);
+
+        //every pair of components closer than the gap has grown boxes that
+        //overlap, and so share at least one cell of the grid
+        int margin = (gap + 1) / 2;
+        Rectangle[] grown = new Rectangle[n];
+        double cellSize = Math.max(gap, 1) * 4;
+        SpatialGrid<Integer> grid = new SpatialGrid<Integer>(cellSize);
+        for (int i = 0; i < n; ++i) {
+            grown[i] = new Rectangle(boxes[i]);
+            grown[i].grow(margin, margin);
+            Rectangle g = grown[i];
+            for (double y = Math.floor(g.y / cellSize) * cellSize; y < g.y + g.height; y += cellSize) {
+                for (double x = Math.floor(g.x / cellSize) * cellSize; x < g.x + g.width; x += cellSize) {
+                    grid.add(x, y, i);
+                }
+            }
+        }
+        UnionFind eqv = new UnionFind (n);
+        for (int i = 0; i < n; ++i) {
+            Rectangle g = grown[i];
+            int from = i;
+            grid.forEachNear(g.x, g.y, g.x + g.width, g.y + g.height, j -> {
+                if (j > from && grown[from].intersects(grown[j])) {
+                    eqv.union(from, j);
+                }
+            });
+        }
+
+        List<Rectangle> regions = new ArrayList<Rectangle>();
+        for (int[] comp : eqv.getComponents()) {
+            Rectangle bounds = new Rectangle(boxes[comp[0]]);
+            int biggest = 0;
+            for (int c : comp) {
+                bounds.add(boxes[c]);
+                biggest = Math.max(biggest, Math.max(boxes[c].width, boxes[c].height));
+            }
+            if (biggest >= DRAWING_TO_GLYPH_RATIO * glyphHeight) {
+                regions.add(bounds);
+            }
+        }
+        regions = mergeOverlapping (regions);
+
+        Rectangle page = new Rectangle(0, 0, width, height);
+        for (Rectangle r : regions) {
+            //the recognition doesn't expect drawings to touch the edges
+            r.grow(margin, margin);
+            zones.add(r.intersection(page));
+        }
+        //reading order
+        zones.sort(Comparator.comparingInt((Shape s) -> s.getBounds().y)
+                   .thenComparingInt(s -> s.getBounds().x));
+    }
+
+    static double medianHeight (Rectangle[] boxes) {
+        int[] heights = new int[boxes.length];
+        int k = 0;
+        for (Rectangle r : boxes) {
+            if (r.width > SPECK_SIZE || r.height > SPECK_SIZE) {
+                heights[k++] = r.height;
+            }
+        }
+        if (k == 0) {
+            return SPECK_SIZE;
+        }
+        Arrays.sort(heights, 0, k);
+        return heights[k / 2];
+    }
+
+    /**
+     * Merge regions whose bounds overlap until none do.  There are only
+     * ever a few regions on a page, so this doesn't need to be clever.
+     */
+    static List<Rectangle> mergeOverlapping (List<Rectangle> regions) {
+        List<Rectangle> merged = new ArrayList<Rectangle>(regions);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < merged.size() && !changed; ++i) {
+                for (int j = i + 1; j < merged.size(); ++j) {
+                    if (merged.get(i).intersects(merged.get(j))) {
+                        merged.get(i).add(merged.remove(j));
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * The typical height of a glyph on the page, which sets the gap
+     * between drawings.
+     */
+    public double getGlyphHeight () {
+        return glyphHeight;
+    }
+
+    /**
+     * Segmentation interface; the bounds of each drawing, top to bottom and
+     * then left to right.
+     */
+    public Collection<Shape> getZones () {
+        return Collections.unmodifiableList(zones);
+    }
+}
@@ -22,9 +22,11 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import gov.nih.ncats.molvec.Deadline;
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 import gov.nih.ncats.molvec.internal.algo.Tuple;
 import gov.nih.ncats.molvec.internal.algo.Tuple.KEqualityTuple;
+import gov.nih.ncats.molvec.internal.algo.UnionFind;
 import gov.nih.ncats.molvec.internal.util.GeomUtil.ShapeWrapper;
 
 public class ConnectionTable{
@@ -37,6 +39,11 @@ public class ConnectionTable{
 	private CachedSupplier<Map<Integer,List<Edge>>> _bondMap = CachedSupplier.of(()->_getEdgeMap());
 	private CachedSupplier<Map<Node,Integer>> _nodeMap = CachedSupplier.of(()->_getNodeMap());
 	private CachedSupplier<List<Ring>> _ring = CachedSupplier.of(()->_getRingMap());
+	private CachedSupplier<List<Ring>> _sssr = CachedSupplier.of(()->_getSmallestSetOfSmallestRings());
+	//smallest rings found in each connected component, keyed by its nodes and edges
+	private Map<List<Object>,List<List<Node>>> _componentRings = new HashMap<>();
+	
+	private Deadline deadline = Deadline.NONE;
 	
 	
 	public static class Ring{
@@ -97,8 +104,33 @@ public class ConnectionTable{
 		
 	}
 	
+	/**
+	 * A smallest set of smallest rings: the fewest rings that every other ring can be
+	 * made from, picking the smallest rings first.  Unlike {@link #getRings()}, there is
+	 * no limit on the size or number of rings, and it takes polynomial time even for
+	 * cages and large fused systems.
+	 * @return the rings, smallest first.
+	 */
 	public List<Ring> getSmallestSetOfSmallestRings(){
-		return null;
+		return _sssr.get();
+	}
+	
+	private List<Ring> _getSmallestSetOfSmallestRings(){
+		int[][] neighbors = new int[nodes.size()][];
+		Map<Integer,List<Edge>> nmap = getEdgeMap();
+		for(int i=0;i<nodes.size();i++){
+			int ni=i;
+			neighbors[i] = nmap.get(i).stream()
+					.mapToInt(e->(e.n1==ni)?e.n2:e.n1)
+					.filter(j->j!=ni)
+					.distinct()
+					.toArray();
+		}
+		return SmallestRings.find(neighbors)
+				.stream()
+				.map(r->Arrays.stream(r).mapToObj(i->nodes.get(i)).collect(Collectors.toList()))
+				.map(nl->Ring.of(nl, this))
+				.collect(Collectors.toList());
 	}
 	
 	
@@ -108,176 +140,139 @@ public class ConnectionTable{
 		return this._ring.get();
 	}
 	
+	/**
+	 * Set the time budget for the ring search.  Once it expires, only the smallest
+	 * set of smallest rings is found for components not already searched.
+	 * @param deadline the Deadline, can not be null.
+	 * @return this
+	 */
+	public ConnectionTable setDeadline(Deadline deadline){
+		this.deadline = Objects.requireNonNull(deadline);
+		return this;
+	}
+	
+	public Deadline getDeadline(){
+		return this.deadline;
+	}
+	
 	
-	private void consumePathsUntilRing(Stack<Node> soFar, Set<Edge> used,Set<Node> ignoreNodes, Consumer<Stack<Node>> found, int MAX_DEPTH) throws InterruptedException{
-		Node p=soFar.peek();
-		if(soFar.size()>MAX_DEPTH)return;
+	/**
+	 * The smallest rings through each node of a connected component, as lists of nodes,
+	 * before they are made unique.  No mix of smaller rings can make the smallest ring
+	 * through a node, so these are picked out of the relevant rings, leaving out nodes
+	 * with more than 7 edges and rings of more than 10 nodes.  If there are too many
+	 * relevant rings to list, or the deadline has expired, the smallest set of smallest
+	 * rings of the component is given instead, still without rings of more than 10 nodes.
+	 */
+	private List<List<Node>> findSmallestRings(List<Node> nl1){
+		int MAX_RING_TOTAL = 10;
+		int MAX_EDGES = 7;
+		int MAX_RELEVANT_RINGS = 1000;
 		
-		if(Thread.interrupted()){
-			throw new InterruptedException();
-			
+		List<Node> kept = nl1.stream()
+				.filter(n->n.getEdgeCount()<=MAX_EDGES)
+				.collect(Collectors.toList());
+		Map<Node,Integer> local = new HashMap<>();
+		for(int i=0;i<kept.size();i++){
+			local.put(kept.get(i), i);
+		}
+		int[][] neighbors = new int[kept.size()][];
+		for(int i=0;i<kept.size();i++){
+			int ni=i;
+			neighbors[i] = kept.get(i).getNeighborNodes().stream()
+					.map(t->local.get(t.k()))
+					.filter(j->j!=null && j!=ni)
+					.mapToInt(j->j)
+					.distinct()
+					.toArray();
+		}
+		
+		List<int[]> relevant = deadline.isExpired()?null:SmallestRings.relevant(neighbors, MAX_RELEVANT_RINGS);
+		if(relevant==null){
+			Set<Node> inComponent = new HashSet<>(nl1);
+			return getSmallestSetOfSmallestRings().stream()
+					.map(r->r.getNodes())
+					.filter(r->r.size()<=MAX_RING_TOTAL && inComponent.contains(r.get(0)))
+					.collect(Collectors.toList());
 		}
 		
-		for(Tuple<Node,Edge> en : p.getNeighborNodes()){
-			if(used.contains(en.v()) || ignoreNodes.contains(en.k())){
-				continue;
-			}
-			used.add(en.v());
-			
-			if(soFar.get(0).equals(en.k())){
-				soFar.push(en.k());
-				found.accept(soFar);
-				soFar.pop();
+		int[] smallest = new int[kept.size()];
+		Arrays.fill(smallest, MAX_RING_TOTAL+1);
+		for(int[] r : relevant){
+			for(int v : r){
+				smallest[v]=Math.min(smallest[v], r.length);
 			}
-			soFar.push(en.k());		
-			
-			consumePathsUntilRing(soFar,used,ignoreNodes,found, MAX_DEPTH);
-			
-			used.remove(en.v());
-			soFar.pop();
 		}
+		return relevant.stream()
+				.filter(r->r.length<=MAX_RING_TOTAL && Arrays.stream(r).anyMatch(v->smallest[v]==r.length))
+				.map(r->Arrays.stream(r).mapToObj(v->kept.get(v)).collect(Collectors.toList()))
+				.collect(Collectors.toList());
 	}
 	
+	/**
+	 * A key for each component which is equal only if the component has the very same
+	 * nodes, in the same order, joined by the very same edges.
+	 */
+	private Map<List<Node>,List<Object>> componentKeys(List<List<Node>> components){
+		int[] component = new int[nodes.size()];
+		Map<List<Node>,List<Object>> keys = new IdentityHashMap<>();
+		List<List<Object>> byComponent = new ArrayList<>();
+		for(List<Node> nl : components){
+			for(Node n : nl){
+				component[n.getIndex()]=byComponent.size();
+			}
+			List<Object> key = new ArrayList<>(nl);
+			byComponent.add(key);
+			keys.put(nl, key);
+		}
+		for(Edge e : edges){
+			List<Object> key = byComponent.get(component[e.n1]);
+			key.add(e);
+			key.add(e.getRealNode1());
+			key.add(e.getRealNode2());
+		}
+		return keys;
+	}
 	
 	private List<Ring> _getRingMap(){
-		int MAX_RING_TOTAL = 10;
-		int MAX_RING_AFTER_INITIAL = 6;
-		
-		int maxNumberRings = 100;
-		
-		List<Ring> rings= getDisconnectedNodeSets().stream()
+		//a component only needs to be searched again if its nodes or edges changed,
+		//but nothing is reused once the deadline has expired, as the search would
+		//then have settled for the smallest set of smallest rings
+		List<List<Node>> components = getDisconnectedNodeSets();
+		Map<List<Node>,List<Object>> keys = componentKeys(components);
+		Map<List<Object>,List<List<Node>>> searched = new HashMap<>();
+		
+		List<Ring> rings= components.stream()
 				.flatMap(nl1->{
-					try{
-						
-						long minSSSR= 
-								     nl1.stream()
-								        .flatMap(n->n.getEdges().stream())
-								        .distinct()
-								        .count() - nl1.size() +1;
-
-						if(minSSSR>maxNumberRings)return Stream.empty();
-												
-						Map<Node,List<List<Node>>> nrings = new HashMap<>();
-						
-						Set<Node> terms = new HashSet<Node>();
-						List<Node> check = new ArrayList<Node>(nl1);
-						int tbefore=0;
-						
-						
-						
-						while(true){
-							for(Node nn: check){
-								long keepCount = nn.getNeighborNodes().stream().filter(t->!terms.contains(t.k())).count();
-								if(keepCount==1){
-									terms.add(nn);
-								}else{
-									if(nn.getEdgeCount()>7){
-										terms.add(nn);
-									}
-								}
-								
-							}
-							check.removeAll(terms);
-							
-							if(tbefore==terms.size()){
-								break;
-							}
-							tbefore=terms.size();
+					List<Object> key = keys.get(nl1);
+					List<List<Node>> smallest = deadline.isExpired()?null:_componentRings.get(key);
+					if(smallest==null){
+						smallest = findSmallestRings(nl1);
+						if(deadline.isExpired()){
+							key=null;
 						}
-						
-						
-						
-						for(Node nn: check){
-							
-							
-							Stack<Node> st=new Stack<Node>();
-							Set<Edge> nadda=new HashSet<>();
-							
-							boolean[] foundRing = new boolean[]{false};
-							
-							st.push(nn);
-							
-							consumePathsUntilRing(st,nadda,terms,(nst)->{
-								Node term = nst.peek();
-								List<Node> mlist=new ArrayList<Node>();
-								boolean started = false;
-								for(Node n1:nst){
-									if(started){
-										mlist.add(n1);
-									}else{
-										if(n1==term){
-											started=true;
-										}
-									}
-								}
-								for(Node n:mlist){
-									nrings.computeIfAbsent(n, k->{
-										return new ArrayList<List<Node>>();
-									}).add(mlist);
-								}
-								foundRing[0]=true;
-							},MAX_RING_AFTER_INITIAL);
-							
-							if(!foundRing[0]){
-								st.clear();
-								nadda.clear();
-								st.push(nn);
-								consumePathsUntilRing(st,nadda,terms,(nst)->{
-									Node term = nst.peek();
-									List<Node> mlist=new ArrayList<Node>();
-									boolean started = false;
-									for(Node n1:nst){
-										if(started){
-											mlist.add(n1);
-										}else{
-											if(n1==term){
-												started=true;
-											}
-										}
-									}
-									for(Node n:mlist){
-										nrings.computeIfAbsent(n, k->{
-											return new ArrayList<List<Node>>();
-										}).add(mlist);
-									}
-									foundRing[0]=true;
-								},MAX_RING_TOTAL);
-							}			
-						
 					}
-					
-					return nrings.entrySet()
-					      .stream()
-					      .map(Tuple::of)
-					      .map(Tuple.vmap(nl->{
-					    	  List<Node> best = nl.stream()
-					    	    .map(nn->Tuple.of(nn,nn.size()).withVComparator())
-					    	    .min(Comparator.naturalOrder())
-					    	    .map(t->t.k())
-					    	    .orElse(null);
-					    	  return nl.stream().filter(nn->nn.size()==best.size()).collect(Collectors.toList());
-					      }))
-					      .flatMap(t->t.v().stream())
-					      .map(t->Tuple.of(t,t.stream().mapToInt(nn->nn.getIndex()).sorted().mapToObj(i->i+"").collect(Collectors.joining())))
-					      .map(t->t.swap())
-					      .map(t->t.withKEquality())
-					      .distinct()
-					      .map(t->t.swap())
-					      .map(t->t.withVComparator())
-					      .sorted(Comparator.reverseOrder())
-					      .map(t->t.swap())
-					      .map(t->t.v())
-					      .map(t->Tuple.of(t,t.size()).withVComparator())
-					      .sorted()
-					      .map(t->t.k())
-					      .map(n->Ring.of(n, this));
-					}catch(InterruptedException te){
-						te.printStackTrace();
-						throw new RuntimeException(te);
+					if(key!=null){
+						searched.put(key, smallest);
 					}
+					
+					return smallest.stream()
+				      .map(t->Tuple.of(t,t.stream().mapToInt(nn->nn.getIndex()).sorted().mapToObj(i->i+"").collect(Collectors.joining())))
+				      .map(t->t.swap())
+				      .map(t->t.withKEquality())
+				      .distinct()
+				      .map(t->t.swap())
+				      .map(t->t.withVComparator())
+				      .sorted(Comparator.reverseOrder())
+				      .map(t->t.swap())
+				      .map(t->t.v())
+				      .map(t->Tuple.of(t,t.size()).withVComparator())
+				      .sorted()
+				      .map(t->t.k())
+				      .map(n->Ring.of(n, this));
 				})
 				.collect(Collectors.toList());
-		
+		_componentRings=searched;
 
 		return rings;
 		
@@ -344,7 +339,14 @@ public class ConnectionTable{
 	public Node addNode(Point2D p){
 		Node n=new Node(p,"C");
 		nodes.add(n);
-		resetCaches();
+		n.index=nodes.size()-1;
+		if(_nodeMap.hasRun()){
+			getNodeMap().put(n, n.index);
+		}
+		if(_bondMap.hasRun()){
+			getEdgeMap().put(n.index, new ArrayList<>());
+		}
+		resetDerivedCaches();
 		return n;
 	}
 	
@@ -371,12 +373,12 @@ public class ConnectionTable{
 	
 	public List<ConnectionTable> getDisconnectedComponents(){
 		
-		//note: very inefficient
-		return GeomUtil.groupThings(this.nodes, t->t.k().connectsTo(t.v()))
+		return getDisconnectedNodeSets()
 		.stream()
 		.map(ln->{
 			int[] map = new int[this.getNodes().size()];
 			ConnectionTable ct  = new ConnectionTable();
+			ct.deadline=this.deadline;
 			for(int i=0;i<ln.size();i++){
 				Node oldNode=ln.get(i);
 				
@@ -545,10 +547,11 @@ public class ConnectionTable{
 	
 	
 	public List<List<Node>> getDisconnectedNodeSets(){
-		//note: very inefficient
-		return GeomUtil.groupThings(this.nodes, t->t.k().connectsTo(t.v()))
-		.stream()
-		.collect(Collectors.toList());
+		UnionFind groups = new UnionFind(nodes.size());
+		for(Edge e : edges){
+			groups.union(e.n1, e.n2);
+		}
+		return GeomUtil.groups(this.nodes, groups);
 	}
 	public String toMol(){
 		return toMol(1, true, true);
@@ -792,8 +795,10 @@ public class ConnectionTable{
 	private static DateTimeFormatter MOL_DATETIME_FORMATTER = DateTimeFormatter.ofPattern("MMddyyHHmm");
 
 
+	private static final BinaryOperator<Point2D> AVERAGE = (node1,node2)->new Point2D.Double((node1.getX()+node2.getX())/2,(node1.getY()+node2.getY())/2);
+
 	public ConnectionTable mergeNodesAverage(int n1, int n2){
-		return mergeNodes(n1,n2,(node1,node2)->new Point2D.Double((node1.getX()+node2.getX())/2,(node1.getY()+node2.getY())/2));
+		return mergeNodes(n1,n2,AVERAGE);
 	}
 	
 	public ConnectionTable mergeNodes(int n1, int n2, BinaryOperator<Point2D> op){
@@ -802,10 +807,30 @@ public class ConnectionTable{
 	}
 	
 	public Map<Integer,Integer> mergeNodesGetTransform(int n1, int n2, BinaryOperator<Point2D> op){
+		int oldMax=nodes.size();
+		int remNode=Math.max(n1, n2);
+		int keepNode=Math.min(n1, n2);
+		mergeNodePair(n1, n2, op);
+		
+		Map<Integer,Integer> oldToNew =new HashMap<>();
+		for(int i=0;i<oldMax;i++){
+			if(i<remNode){
+				oldToNew.put(i, i);
+			}
+			if(i==remNode){
+				oldToNew.put(i, keepNode);
+			}
+			if(i>remNode){
+				oldToNew.put(i, i-1);
+			}
+		}
+		return oldToNew;
+	}
+	
+	private void mergeNodePair(int n1, int n2, BinaryOperator<Point2D> op){
 		Point2D node1=nodes.get(n1).point;
 		Point2D node2=nodes.get(n2).point;
 		Point2D np = op.apply(node1, node2);
-		int oldMax=nodes.size();
 		
 		int remNode=Math.max(n1, n2);
 		int keepNode=Math.min(n1, n2);
@@ -826,36 +851,51 @@ public class ConnectionTable{
 				e.n2=e.n2-1;
 			}
 		}
-		Map<Integer,Integer> oldToNew =new HashMap<>();
-		for(int i=0;i<oldMax;i++){
-			if(i<remNode){
-				oldToNew.put(i, i);
-			}
-			if(i==remNode){
-				oldToNew.put(i, keepNode);
-			}
-			if(i>remNode){
-				oldToNew.put(i, i-1);
-			}
-		}
 		resetCaches();
-		return oldToNew;
 	}
 	
+	/**
+	 * Merge the given nodes into one at the point given by the operator. The merged node
+	 * takes the place of the lowest index, with the symbol of the highest, as merging each
+	 * pair in turn from the highest down would give, but the edges and nodes are only
+	 * rewritten once.
+	 */
 	public ConnectionTable mergeNodes(List<Integer> nlist, Function<List<Point2D>, Point2D> op){
 		Point2D p = op.apply(nlist.stream().map(i->nodes.get(i).point).collect(Collectors.toList()));
 		
-		nlist=nlist.stream().sorted().collect(Collectors.toList());
+		nlist=nlist.stream().sorted().distinct().collect(Collectors.toList());
 		
 		if(nlist.size()==1){
 			int ni=nlist.get(0);
 			nodes.get(ni).point=p;
-		}else{
-			for(int i=nlist.size()-1;i>=1;i--){
-				int ni1=nlist.get(i);
-				int ni2=nlist.get(i-1);
-				mergeNodes(ni1,ni2,(p1,p2)->p);
+		}else if(nlist.size()>1){
+			int keep=nlist.get(0);
+			Node merged=new Node(p,nodes.get(nlist.get(nlist.size()-1)).symbol);
+			boolean[] inList = new boolean[nodes.size()];
+			nlist.forEach(ni->inList[ni]=true);
+			
+			int[] newIndex = new int[nodes.size()];
+			List<Node> kept = new ArrayList<Node>(nodes.size()-nlist.size()+1);
+			for(int i=0;i<nodes.size();i++){
+				if(i==keep){
+					newIndex[i]=kept.size();
+					kept.add(merged);
+				}else if(inList[i]){
+					newIndex[i]=-1;
+				}else{
+					newIndex[i]=kept.size();
+					kept.add(nodes.get(i));
+				}
+			}
+			for(int ni:nlist){
+				newIndex[ni]=newIndex[keep];
 			}
+			for(Edge e: edges){
+				e.n1=newIndex[e.n1];
+				e.n2=newIndex[e.n2];
+			}
+			nodes.clear();
+			nodes.addAll(kept);
 		}
 		
 		resetCaches();
@@ -881,8 +921,10 @@ public class ConnectionTable{
 	}
 	
 	public ConnectionTable removeEdge(Edge e) {
-		this.edges.remove(e);
-		resetCaches();
+		if(this.edges.remove(e)){
+			updateEdgeMap(e, false);
+		}
+		resetDerivedCaches();
 		return this;
 	}
 	
@@ -958,36 +1000,103 @@ public class ConnectionTable{
 	public ConnectionTable mergeNodesCloserThan(double maxDistance){
 			return mergeFilteredNodesCloserThan(maxDistance,(n->true));
 	}
+	/**
+	 * Repeatedly merge the first pair of included nodes, in index order, that are closer
+	 * than the given distance into their average, until there are none.
+	 * 
+	 * A merge only moves the lower node of the pair, so every pair before it that
+	 * was already checked stays too far apart unless it involves the moved node.
+	 * The scan goes back to the first node close to the moved one, if there is
+	 * one, and otherwise carries on from the moved node instead of starting over,
+	 * and the close nodes are looked up in a grid rather than checked against
+	 * every other node.
+	 * 
+	 * The predicate may look at things a merge changes anywhere in the table, such as
+	 * edge counts or the average bond length, so a node passed over earlier in the scan
+	 * may be included by the end of it.  The scan is run again until one merges nothing.
+	 */
 	public ConnectionTable mergeFilteredNodesCloserThan(double maxDistance, Predicate<Node> includeNode){
-		
-//		return mergeNodesCloserThan(maxDistance, n->true,nl->nl.stream().map(n->n.getPoint()).collect(GeomUtil.averagePoint()));
-		
-		boolean mergedOne = true;
-		
-		while(mergedOne){
-			mergedOne=false;
-			for(int i=0;i<nodes.size();i++){
-				
-				Node node1=nodes.get(i);
-				if(!includeNode.test(node1))continue;
-				Point2D pnti=node1.point;
-				for(int j=i+1;j<nodes.size();j++){
-					Point2D pntj = nodes.get(j).point;
-					if(!includeNode.test(nodes.get(j)))continue;
-					if(pnti.distance(pntj)<maxDistance){
-						mergeNodesAverage(i,j);
-						mergedOne=true;
-						break;
-					}
-				}
-				if(mergedOne)break;
-			}
+		if(!(maxDistance>0)){
+			return this;
 		}
+		boolean merged;
+		do{
+			merged=mergeFilteredNodesCloserThanOnce(maxDistance, includeNode);
+		}while(merged);
 		resetCaches();
 
 		return this;
 	}
 	
+	/**
+	 * One scan of {@link #mergeFilteredNodesCloserThan(double, Predicate)}.
+	 * @return true if any nodes were merged.
+	 */
+	private boolean mergeFilteredNodesCloserThanOnce(double maxDistance, Predicate<Node> includeNode){
+		//nodes are tracked by their index when the merging started, which
+		//stays in the same order as their current index
+		SpatialGrid<Integer> grid = new SpatialGrid<>(maxDistance);
+		List<Integer> ids = new ArrayList<Integer>(nodes.size());
+		for(int i=0;i<nodes.size();i++){
+			Point2D pnt=nodes.get(i).point;
+			grid.add(pnt.getX(), pnt.getY(), i);
+			ids.add(i);
+		}
+		
+		boolean merged=false;
+		int i=0;
+		while(i<nodes.size()){
+			if(!includeNode.test(nodes.get(i))){
+				i++;
+				continue;
+			}
+			int j=firstCloseNode(grid, ids, i, true, maxDistance, includeNode);
+			if(j<0){
+				i++;
+				continue;
+			}
+			mergeNodesAverage(grid, ids, i, j);
+			merged=true;
+			
+			int k;
+			while(includeNode.test(nodes.get(i)) && (k=firstCloseNode(grid, ids, i, false, maxDistance, includeNode))>=0){
+				mergeNodesAverage(grid, ids, k, i);
+				i=k;
+			}
+		}
+		return merged;
+	}
+	
+	/**
+	 * The lowest index of an included node closer than the given distance to node i,
+	 * above i or below it, or -1 if there is none.
+	 */
+	private int firstCloseNode(SpatialGrid<Integer> grid, List<Integer> ids, int i, boolean after, double maxDistance, Predicate<Node> includeNode){
+		Point2D pnti=nodes.get(i).point;
+		int id=ids.get(i);
+		int[] first = new int[]{-1};
+		grid.forEachNear(pnti.getX(), pnti.getY(), maxDistance, oid->{
+			if(after?oid<=id:oid>=id)return;
+			if(first[0]>=0 && oid>=first[0])return;
+			Node n=nodes.get(Collections.binarySearch(ids, oid));
+			if(pnti.distance(n.point)<maxDistance && includeNode.test(n)){
+				first[0]=oid;
+			}
+		});
+		return first[0]<0?-1:Collections.binarySearch(ids, first[0]);
+	}
+	
+	private void mergeNodesAverage(SpatialGrid<Integer> grid, List<Integer> ids, int keep, int rem){
+		Point2D pk=nodes.get(keep).point;
+		Point2D pr=nodes.get(rem).point;
+		grid.remove(pk.getX(), pk.getY(), ids.get(keep));
+		grid.remove(pr.getX(), pr.getY(), ids.get(rem));
+		mergeNodePair(keep,rem,AVERAGE);
+		ids.remove(rem);
+		Point2D np=nodes.get(keep).point;
+		grid.add(np.getX(), np.getY(), ids.get(keep));
+	}
+	
 	
 	
 	public ConnectionTable mergeNodesCloserThan(double maxDistance, Function<List<Node>, Point2D> combiner){
@@ -996,9 +1105,7 @@ public class ConnectionTable{
 	
 	public ConnectionTable mergeNodesCloserThan(double maxDistance, Predicate<Node> incudeNode,Function<List<Node>, Point2D> combiner){
 		double maxDSq=maxDistance*maxDistance;
-		GeomUtil.groupThings(nodes.stream().filter(incudeNode).collect(Collectors.toList()), (t)->{
-								Node n1=t.k();
-								Node n2=t.v();
+		GeomUtil.groupNearbyThings(nodes.stream().filter(incudeNode).collect(Collectors.toList()), n->GeomUtil.pointBounds(n.point), maxDistance, (n1,n2)->{
 								return n1.point.distanceSq(n2.point)<maxDSq;
 							})
 							.stream()
@@ -1018,9 +1125,11 @@ public class ConnectionTable{
 	}
 	
 	public Edge addEdge(int n1, int n2, int o){
-		this.edges.add(new Edge(n1,n2,o));
-		resetCaches();
-		return this.edges.get(this.edges.size()-1);
+		Edge e = new Edge(n1,n2,o);
+		this.edges.add(e);
+		updateEdgeMap(e, true);
+		resetDerivedCaches();
+		return e;
 	}
 	
 	public List<Node> getNodesInsideShape(ShapeWrapper s, double tol){
@@ -1444,6 +1553,7 @@ public class ConnectionTable{
 							edges.set(j, nedge2);
 							edges.add(nedge3);
 							edges.add(nedge4);
+							resetCaches();
 							if(!shouldSplitEdges.test(Stream.of(nedge1,nedge2,nedge3,nedge4).collect(Collectors.toList()))){
 								edges.set(i, e1);
 								edges.set(j, e2);
@@ -1469,9 +1579,35 @@ public class ConnectionTable{
 	private void resetCaches(){
 		_bondMap.resetCache();
 		_nodeMap.resetCache();
+		resetDerivedCaches();
+	}
+	
+	/**
+	 * Reset only what has to be worked out again from the nodes and edges,
+	 * for changes that have already been applied to the node and edge maps.
+	 */
+	private void resetDerivedCaches(){
 		_ring.resetCache();
+		_sssr.resetCache();
 		_averageBondLength.resetCache();
-		
+	}
+	
+	/**
+	 * Add or remove an edge in the edge map, if it has been made.  The lists
+	 * are replaced rather than changed, as {@link Node#getEdges()} hands them out.
+	 */
+	private void updateEdgeMap(Edge e, boolean add){
+		if(!_bondMap.hasRun())return;
+		Map<Integer,List<Edge>> nmap = getEdgeMap();
+		for(int i : new int[]{e.n1, e.n2}){
+			List<Edge> nedges = new ArrayList<>(nmap.getOrDefault(i, Collections.emptyList()));
+			if(add){
+				nedges.add(e);
+			}else{
+				nedges.remove(e);
+			}
+			nmap.put(i, nedges);
+		}
 	}
 	
 	public double getAverageBondLength(){
@@ -1523,6 +1659,8 @@ public class ConnectionTable{
 		private String alias = null;
 		private boolean tooClose = false;
 		private boolean invented=false;
+		//where the node was last found in the table, checked before use
+		private int index=-1;
 		
 		
 		public List<KEqualityTuple<Node,Edge>> getNeighborNodes(){
@@ -1599,11 +1737,15 @@ public class ConnectionTable{
 		}
 		
 		public int getIndex(){
+			if(index>=0 && index<nodes.size() && nodes.get(index)==this){
+				return index;
+			}
 			Integer ind=getNodeMap().get(this);
 			if(ind==null){
 				throw new IllegalStateException("Can't find node index for node");
 				//return -1;
 			}
+			index=ind;
 			return ind;
 		}
 		
@@ -2026,9 +2168,13 @@ public class ConnectionTable{
 		return _nodeMap.get();
 	}
 	public Map<Node,Integer> _getNodeMap(){
-		return IntStream.range(0, nodes.size())
-				 .mapToObj(i->i)
-		         .collect(Collectors.toMap(i->nodes.get(i), i->i));
+		Map<Node,Integer> nmap = new HashMap<>();
+		for(int i=0;i<nodes.size();i++){
+			Node n = nodes.get(i);
+			n.index=i;
+			nmap.put(n, i);
+		}
+		return nmap;
 	}
 	
 	
@@ -2091,6 +2237,7 @@ public class ConnectionTable{
 
 	public ConnectionTable cloneTab() {
 		ConnectionTable ctab2 = new ConnectionTable();
+		ctab2.deadline=this.deadline;
 		this.nodes.forEach(n->{
 			ctab2.addNode(n.point);
 			Node nnode=ctab2.nodes.get(ctab2.nodes.size()-1);
@@ -14,7 +14,6 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -28,6 +27,7 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -40,6 +40,7 @@ import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import gov.nih.ncats.molvec.internal.algo.Tuple;
+import gov.nih.ncats.molvec.internal.algo.UnionFind;
 
 
 public class GeomUtil {
@@ -263,6 +264,70 @@ public class GeomUtil {
         return hull;
     }
     
+    /**
+     * Convex hull of a set of pixels, given only the leftmost and rightmost pixel
+     * of each row, by Andrew's monotone chain.  The rows are already in order,
+     * so this takes time proportional to the number of rows, in exact integer arithmetic.
+     * 
+     * The vertices come in the same order as {@link #convexHullOldIntPrecision(Point2D...)}:
+     * from the leftmost pixel of the top row, first along the top row, with no vertex
+     * in the middle of an edge.
+     * 
+     * @param ys the rows, in increasing order.
+     * @param minXs the leftmost pixel of each row.
+     * @param maxXs the rightmost pixel of each row.
+     * @param n the number of rows.
+     */
+    public static Polygon convexHullOfRows (int[] ys, int[] minXs, int[] maxXs, int n) {
+        //the ends of the rows, in order of y then x
+        int[] px = new int[2*n];
+        int[] py = new int[2*n];
+        int m=0;
+        for (int i = 0; i < n; i++) {
+            px[m]=minXs[i];
+            py[m++]=ys[i];
+            if(maxXs[i]!=minXs[i]){
+                px[m]=maxXs[i];
+                py[m++]=ys[i];
+            }
+        }
+        Polygon hull = new Polygon ();
+        if (m < 3) {
+            for (int i = 0; i < m; i++) {
+                hull.addPoint (px[i], py[i]);
+            }
+            return hull;
+        }
+
+        int[] hx = new int[2*m];
+        int[] hy = new int[2*m];
+        int k=0;
+        //down the right side, then back up the left side
+        for (int i = 0; i < m; i++) {
+            while (k >= 2 && turn (hx[k-2], hy[k-2], hx[k-1], hy[k-1], px[i], py[i]) <= 0) {
+                k--;
+            }
+            hx[k]=px[i];
+            hy[k++]=py[i];
+        }
+        for (int i = m - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && turn (hx[k-2], hy[k-2], hx[k-1], hy[k-1], px[i], py[i]) <= 0) {
+                k--;
+            }
+            hx[k]=px[i];
+            hy[k++]=py[i];
+        }
+        //the first point is at both ends
+        for (int i = 0; i < k - 1; i++) {
+            hull.addPoint (hx[i], hy[i]);
+        }
+        return hull;
+    }
+
+    private static long turn (int x1, int y1, int x2, int y2, int x3, int y3) {
+        return (long) (x2 - x1) * (y3 - y1) - (long) (y2 - y1) * (x3 - x1);
+    }
+    
     /**
      * Graham scan algorithm for convex hull
      */
@@ -1417,49 +1482,132 @@ public class GeomUtil {
     	});
     }
     
+    /**
+     * Same as {@link #groupShapesIfClosestPointsMatchCriteriaSW(Collection, Predicate)}, for a merge test
+     * that never accepts shapes whose closest points are more than maxDistance apart, so only
+     * shapes with bounds that close are tried.
+     */
+    public static List<List<ShapeWrapper>> groupShapesIfClosestPointsMatchCriteriaSW(Collection<ShapeWrapper> shapes, double maxDistance, Predicate<Tuple<ShapeWrapper[],Point2D[]>> merge){
+    	return groupNearbyThings(shapes, s->s.getBounds(), maxDistance, (s1,s2)->{
+    		Point2D[] far=s1.closestPointsTo(s2);
+    		ShapeWrapper[] s= new ShapeWrapper[]{s1,s2};
+    		return merge.test(Tuple.of(s,far));	
+    	});
+    }
+    
     public static List<List<Shape>> groupShapes(Collection<Shape> points, Predicate<Tuple<Shape,Shape>> merge){
     	return groupThings(points,merge);
     }
     
+    /**
+     * Group the things joined by a chain of pairs that the merge test accepts. The merge
+     * test is given each pair in the order of the collection, and isn't given pairs that
+     * are already in the same group. The groups come in the order of their first thing,
+     * each in the order of the collection.
+     */
     public static <T> List<List<T>> groupThings(Collection<T> things, Predicate<Tuple<T,T>> merge){
-    	int[] groups = IntStream.range(0, things.size())
-    							.toArray();
-    	BitSet bs = new BitSet(things.size());
-    	
     	List<T> asList = (things instanceof List)?(List<T>)things:things.stream().collect(Collectors.toList());
+    	int n = asList.size();
+    	UnionFind groups = new UnionFind(n);
     	
-    	for(int i=0;i<things.size();i++){
+    	for(int i=0;i<n;i++){
     		T p1=asList.get(i);
-    		for(int j=i+1;j<things.size();j++){
-    			T p2=asList.get(j);
-    			if(merge.test(Tuple.of(p1,p2))){
-    				int g1= groups[i];
-    				int g2= groups[j];
-    				int ng=Math.min(g1, g2);
-    				int rg=Math.max(g1, g2);
-    				groups[i]=ng;
-    				groups[j]=ng;
-    				bs.set(ng);
-    				if(bs.get(rg)){
-    					for(int k=0;k<groups.length;k++){
-    						if(groups[k]==rg){
-    							groups[k]=ng;
-    						}
-    					}
-    				}
+    		for(int j=i+1;j<n;j++){
+    			if(!groups.find(i, j) && merge.test(Tuple.of(p1,asList.get(j)))){
+    				groups.union(i, j);
     			}
     		}
     	}
+    	return groups(asList, groups);
+    }
+    
+    /**
+     * Group things like {@link #groupThings(Collection, Predicate)}, but only test the pairs
+     * whose bounds are no more than maxGap apart, which are found with a {@link SpatialGrid}
+     * instead of trying every pair. The merge test must never accept two things with
+     * bounds further apart than that.
+     */
+    public static <T> List<List<T>> groupNearbyThings(Collection<T> things, Function<? super T, ? extends Rectangle2D> bounds, double maxGap, BiPredicate<? super T, ? super T> merge){
+    	List<T> asList = (things instanceof List)?(List<T>)things:things.stream().collect(Collectors.toList());
+    	int n = asList.size();
+    	UnionFind groups = new UnionFind(n);
+    	if(n<2){
+    		return groups(asList, groups);
+    	}
+    	Rectangle2D[] r = new Rectangle2D[n];
+    	double size=0;
+    	for(int i=0;i<n;i++){
+    		r[i]=bounds.apply(asList.get(i));
+    		size+=Math.max(r[i].getWidth(), r[i].getHeight());
+    	}
+    	double cellSize=Math.max(maxGap, size/n);
+    	if(!(cellSize>0) || Double.isInfinite(cellSize)){
+    		cellSize=1;
+    	}
     	
+    	//each thing goes in every cell its bounds cover, except the few much
+    	//bigger than the rest, which are tried against everything
+    	SpatialGrid<Integer> grid = new SpatialGrid<>(cellSize);
+    	List<Integer> big = new ArrayList<>();
+    	for(int i=0;i<n;i++){
+    		long x0=(long)Math.floor(r[i].getMinX()/cellSize), x1=(long)Math.floor(r[i].getMaxX()/cellSize);
+    		long y0=(long)Math.floor(r[i].getMinY()/cellSize), y1=(long)Math.floor(r[i].getMaxY()/cellSize);
+    		if(x1-x0>=MAX_GROUPING_CELLS || y1-y0>=MAX_GROUPING_CELLS){
+    			big.add(i);
+    			continue;
+    		}
+    		for(long cx=x0;cx<=x1;cx++){
+    			for(long cy=y0;cy<=y1;cy++){
+    				grid.add((cx+0.5)*cellSize, (cy+0.5)*cellSize, i);
+    			}
+    		}
+    	}
     	
-    	return IntStream.range(0, things.size())
-    	         .mapToObj(i->Tuple.of(groups[i],i))
-    	         .map(Tuple.vmap(i->asList.get(i)))
-    	         .collect(Tuple.toLinkedGroupedMap())
-    	         .values()
-    	         .stream()
-    	         .collect(Collectors.toList());
-    	
+    	int[] seenBy = new int[n];
+    	Arrays.fill(seenBy, -1);
+    	for(int i=0;i<n;i++){
+    		int fi=i;
+    		Rectangle2D ri=r[i];
+    		T p1=asList.get(i);
+    		Consumer<Integer> tryPair = j->{
+    			if(j<=fi || seenBy[j]==fi){
+    				return;
+    			}
+    			seenBy[j]=fi;
+    			Rectangle2D rj=r[j];
+    			if(rj.getMinX()>ri.getMaxX()+maxGap || ri.getMinX()>rj.getMaxX()+maxGap
+    					|| rj.getMinY()>ri.getMaxY()+maxGap || ri.getMinY()>rj.getMaxY()+maxGap){
+    				return;
+    			}
+    			if(!groups.find(fi, j) && merge.test(p1, asList.get(j))){
+    				groups.union(fi, j);
+    			}
+    		};
+    		grid.forEachNear(ri.getMinX()-maxGap, ri.getMinY()-maxGap, ri.getMaxX()+maxGap, ri.getMaxY()+maxGap, tryPair);
+    		big.forEach(tryPair);
+    	}
+    	return groups(asList, groups);
+    }
+    
+    /**
+     * Things whose bounds cover more than this many grid cells across are
+     * left out of the grid by {@link #groupNearbyThings(Collection, Function, double, BiPredicate)}.
+     */
+    private static final int MAX_GROUPING_CELLS = 16;
+    
+    /**
+     * The empty rectangle at a point, for grouping things by a point with
+     * {@link #groupNearbyThings(Collection, Function, double, BiPredicate)}.
+     */
+    public static Rectangle2D pointBounds(Point2D p){
+    	return new Rectangle2D.Double(p.getX(), p.getY(), 0, 0);
+    }
+    
+    static <T> List<List<T>> groups(List<T> things, UnionFind groups){
+    	return Arrays.stream(groups.getComponents())
+    			.sorted(Comparator.comparingInt(c->c[0]))
+    			.map(c->Arrays.stream(c).mapToObj(things::get).collect(Collectors.toList()))
+    			.collect(Collectors.toList());
     }
     
     public static class LineDistanceCalculator{
@@ -1610,6 +1758,66 @@ public class GeomUtil {
         return k == vertices.length;
     }
 
+    /**
+     * Count the pairs (s1, s2) of the given shapes, including a shape paired with
+     * itself, where {@link #contains(Shape, Shape) s1 contains s2}.
+     * <p>
+     * A shape can only contain the vertices of another if they're inside its
+     * bounding box, so the shapes are put in a {@link SpatialGrid} by the corner of
+     * the box around their vertices, and only the ones found inside the box of s1 get
+     * the full containment test.
+     */
+    public static long countContainedPairs (List<? extends Shape> shapes) {
+        int n = shapes.size();
+        Point2D[][] verts = new Point2D[n][];
+        Rectangle2D[] bounds = new Rectangle2D[n];
+        double size = 0;
+        long noVertices = 0;
+        for (int i = 0; i < n; ++i) {
+            verts[i] = vertices (shapes.get(i));
+            if (verts[i].length == 0) {
+                //trivially inside everything
+                ++noVertices;
+                continue;
+            }
+            Rectangle2D r = new Rectangle2D.Double (verts[i][0].getX(), verts[i][0].getY(), 0, 0);
+            for (Point2D p : verts[i]) {
+                r.add (p);
+            }
+            bounds[i] = r;
+            size += Math.max (r.getWidth(), r.getHeight());
+        }
+        long count = noVertices * n;
+        if (noVertices == n) {
+            return count;
+        }
+
+        SpatialGrid<Integer> grid = new SpatialGrid<> (Math.max (1, size / (n - noVertices)));
+        for (int i = 0; i < n; ++i) {
+            if (bounds[i] != null) {
+                grid.add (bounds[i].getMinX(), bounds[i].getMinY(), i);
+            }
+        }
+        long[] contained = new long[]{0};
+        for (Shape s1 : shapes) {
+            Rectangle2D b = s1.getBounds2D();
+            grid.forEachNear (b.getMinX(), b.getMinY(), b.getMaxX(), b.getMaxY(), j -> {
+                Rectangle2D r = bounds[j];
+                if (r.getMinX() < b.getMinX() || r.getMinY() < b.getMinY()
+                    || r.getMaxX() > b.getMaxX() || r.getMaxY() > b.getMaxY()) {
+                    return;
+                }
+                for (Point2D p : verts[j]) {
+                    if (!s1.contains (p)) {
+                        return;
+                    }
+                }
+                contained[0]++;
+            });
+        }
+        return count + contained[0];
+    }
+
     /**
      * Return two closest vertices between two shapes
      */
@@ -3226,6 +3434,16 @@ public static Collector<ShapeWrapper,List<ShapeWrapper>,ShapeWrapper> joinedSW()
 	}
 	
 
+	/**
+	 * Collect into groups with {@link #groupNearbyThings(Collection, Function, double, BiPredicate)}.
+	 */
+	public static <T> Collector<T,List<T>,List<List<T>>> groupNearbyThings(Function<? super T, ? extends Rectangle2D> bounds, double maxGap, BiPredicate<? super T, ? super T> merge){
+		return Collector.of(ArrayList::new, List::add, (l1,l2)->{
+			l1.addAll(l2);
+			return l1;
+		}, l->groupNearbyThings(l, bounds, maxGap, merge));
+	}
+	
 	public static <T> Collector<T,List<T>,List<List<T>>> groupThings(Predicate<Tuple<T,T>> accept){
 		
 		
@@ -0,0 +1,507 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds a smallest set of smallest rings (a minimum cycle basis) of a simple graph,
+ * in polynomial time.
+ *
+ * The candidate rings are Horton's: for every vertex v and edge (x,y), the shortest
+ * path from v to x, the edge, and the shortest path from y back to v, if the two paths
+ * only meet at v.  A minimum cycle basis is always among these.  Candidates are tried
+ * from the smallest up, and kept if their edges can't be made from the edges of rings
+ * kept before (Gaussian elimination over GF(2)), until there are as many rings as the
+ * graph has independent cycles.
+ *
+ * The relevant rings, every ring which is in some smallest set of smallest rings, are
+ * found much the same way, see {@link #relevant(int[][], int)}.
+ */
+final class SmallestRings {
+
+	private SmallestRings(){
+		//can not instantiate
+	}
+
+	/**
+	 * Find the smallest set of smallest rings.
+	 * @param neighbors for each vertex, the vertices it shares an edge with.  Each edge must
+	 * be listed from both ends, only once, and not join a vertex to itself.
+	 * @return the rings, smallest first, each as its vertices in order around the ring.
+	 */
+	static List<int[]> find(int[][] neighbors){
+		int n = neighbors.length;
+		Edges edges = new Edges(neighbors);
+		int m = edges.count;
+		int[][] edgeIds = edges.ids;
+		int[] edgeX = edges.x;
+		int[] edgeY = edges.y;
+
+		//the shortest path tree from every vertex, and the candidates closed from it
+		int[] parent = new int[n];
+		int[] parentEdge = new int[n];
+		int[] order = new int[n];
+		int[] depth = new int[n];
+		int[] firstStep = new int[n];
+		long[] candidates = new long[16];
+		int count=0;
+		int components=0;
+		for(int root=0;root<n;root++){
+			int reached = breadthFirst(neighbors, edgeIds, root, parent, parentEdge, order, depth);
+
+			boolean firstOfComponent = true;
+			for(int i=1;i<reached;i++){
+				int u = order[i];
+				firstStep[u] = (parent[u]==root)?u:firstStep[parent[u]];
+				if(u<root){
+					firstOfComponent=false;
+				}
+			}
+			if(firstOfComponent){
+				components++;
+			}
+
+			for(int i=1;i<reached;i++){
+				int x = order[i];
+				for(int k=0;k<neighbors[x].length;k++){
+					int y = neighbors[x][k];
+					if(y<x || y==root || firstStep[x]==firstStep[y]){
+						continue;
+					}
+					long size = depth[x] + depth[y] + 1;
+					if(count==candidates.length){
+						candidates = Arrays.copyOf(candidates, count*2);
+					}
+					candidates[count++] = size<<40 | (long)root<<20 | edgeIds[x][k];
+				}
+			}
+		}
+		int cycles = m - n + components;
+		List<int[]> rings = new ArrayList<>();
+		if(cycles==0){
+			return rings;
+		}
+		candidates = Arrays.copyOf(candidates, count);
+		Arrays.sort(candidates);
+
+		int words = (m+63)/64;
+		List<long[]> basis = new ArrayList<>();
+		int[] pivots = new int[cycles];
+		//candidates of the same size and root are next to each other, so each
+		//tree is found again when it is needed rather than all of them kept
+		int treeRoot=-1;
+		for(long c : candidates){
+			int root = (int) ((c>>>20) & 0xFFFFF);
+			int edge = (int) (c & 0xFFFFF);
+			if(root!=treeRoot){
+				breadthFirst(neighbors, edgeIds, root, parent, parentEdge, order, depth);
+				treeRoot=root;
+			}
+
+			long[] vector = new long[words];
+			int[] ring = ring(parent, parentEdge, root, edgeX[edge], edgeY[edge], edge, vector);
+
+			int pivot = reduce(vector, basis, pivots);
+			if(pivot<0){
+				continue;
+			}
+			pivots[basis.size()] = pivot;
+			basis.add(vector);
+			rings.add(ring);
+			if(rings.size()==cycles){
+				break;
+			}
+		}
+		return rings;
+	}
+
+	/**
+	 * Find the relevant rings, which are the rings in any smallest set of smallest rings:
+	 * those whose edges can't be made from the edges of smaller rings.  Every smallest
+	 * ring through a vertex is one of them, as any mix of smaller rings which made it
+	 * would need a smaller ring through that vertex too.
+	 *
+	 * The candidates are Vismara's.  A ring is found from its highest vertex r, going
+	 * only through lower vertices, as two shortest paths from r which only meet at r and
+	 * are closed on the far side either by an edge (odd rings) or by a vertex (even
+	 * rings).  Each candidate stands for the family of rings made by swapping in other
+	 * shortest paths, which is relevant exactly when the candidate is, and that is tested
+	 * as in {@link #find(int[][])} but only against strictly smaller rings.
+	 *
+	 * A family can have very many rings in contrived graphs, so this gives up past a limit.
+	 * @param neighbors as for {@link #find(int[][])}.
+	 * @param maxRings the most rings to list.
+	 * @return the rings, smallest first, each as its vertices in order around the ring,
+	 * or null if there are more than maxRings of them.
+	 */
+	static List<int[]> relevant(int[][] neighbors, int maxRings){
+		int n = neighbors.length;
+		Edges edges = new Edges(neighbors);
+		int m = edges.count;
+		int cycles = m - n + components(neighbors);
+		List<int[]> rings = new ArrayList<>();
+		if(cycles==0){
+			return rings;
+		}
+
+		//each candidate is {size, r, a, middle, b}: the paths from r to a and to b,
+		//joined through the middle vertex for even rings, or directly when it is -1
+		int[] parent = new int[n];
+		int[] parentEdge = new int[n];
+		int[] order = new int[n];
+		int[] depth = new int[n];
+		int[] mark = new int[n];
+		int stamp=0;
+		List<int[]> candidates = new ArrayList<>();
+		for(int root=0;root<n;root++){
+			int reached = breadthFirstBelow(neighbors, edges.ids, root, parent, parentEdge, order, depth);
+			for(int i=1;i<reached;i++){
+				int y = order[i];
+				for(int z : neighbors[y]){
+					if(z<y && parent[z]>=0 && depth[z]==depth[y] && onlyMeetAtRoot(parent, root, y, z, mark, ++stamp)){
+						candidates.add(new int[]{2*depth[y]+1, root, y, -1, z});
+					}
+				}
+				for(int p : neighbors[y]){
+					if(parent[p]<0 || depth[p]!=depth[y]-1){
+						continue;
+					}
+					for(int q : neighbors[y]){
+						if(q>p && parent[q]>=0 && depth[q]==depth[y]-1 && onlyMeetAtRoot(parent, root, p, q, mark, ++stamp)){
+							candidates.add(new int[]{2*depth[y], root, p, y, q});
+						}
+					}
+				}
+			}
+		}
+		//smallest first, and those with the same root together so each tree is only
+		//found again when the root changes
+		candidates.sort((c1,c2)->c1[0]!=c2[0]?Integer.compare(c1[0], c2[0]):Integer.compare(c1[1], c2[1]));
+
+		int words = (m+63)/64;
+		List<long[]> basis = new ArrayList<>();
+		int[] pivots = new int[cycles];
+		List<int[]> families = new ArrayList<>();
+		int treeRoot=-1;
+		for(int i=0;i<candidates.size() && basis.size()<cycles;){
+			int size = candidates.get(i)[0];
+			List<long[]> independent = new ArrayList<>();
+			for(;i<candidates.size() && candidates.get(i)[0]==size;i++){
+				int[] c = candidates.get(i);
+				if(c[1]!=treeRoot){
+					breadthFirstBelow(neighbors, edges.ids, c[1], parent, parentEdge, order, depth);
+					treeRoot=c[1];
+				}
+				long[] vector = new long[words];
+				for(int u=c[2];u!=c[1];u=parent[u]){
+					setBit(vector, parentEdge[u]);
+				}
+				for(int u=c[4];u!=c[1];u=parent[u]){
+					setBit(vector, parentEdge[u]);
+				}
+				if(c[3]<0){
+					setBit(vector, edges.id(c[2], c[4]));
+				}else{
+					setBit(vector, edges.id(c[2], c[3]));
+					setBit(vector, edges.id(c[3], c[4]));
+				}
+				//only smaller rings are in the basis yet
+				if(reduce(vector, basis, pivots)>=0){
+					families.add(c);
+					independent.add(vector);
+				}
+			}
+			for(long[] vector : independent){
+				int pivot = reduce(vector, basis, pivots);
+				if(pivot>=0){
+					pivots[basis.size()] = pivot;
+					basis.add(vector);
+				}
+			}
+		}
+
+		//every ring of each relevant family
+		treeRoot=-1;
+		for(int[] c : families){
+			if(c[1]!=treeRoot){
+				breadthFirstBelow(neighbors, edges.ids, c[1], parent, parentEdge, order, depth);
+				treeRoot=c[1];
+			}
+			List<int[]> toA = shortestPaths(neighbors, parent, depth, c[1], c[2], maxRings);
+			List<int[]> toB = shortestPaths(neighbors, parent, depth, c[1], c[4], maxRings);
+			if(toA==null || toB==null){
+				return null;
+			}
+			for(int[] a : toA){
+				stamp++;
+				for(int u : a){
+					mark[u]=stamp;
+				}
+				for(int[] b : toB){
+					boolean meet=false;
+					for(int k=1;k<b.length && !meet;k++){
+						meet = mark[b[k]]==stamp;
+					}
+					if(meet){
+						continue;
+					}
+					if(rings.size()==maxRings){
+						return null;
+					}
+					int[] ring = new int[c[0]];
+					int k=0;
+					for(int u : a){
+						ring[k++]=u;
+					}
+					if(c[3]>=0){
+						ring[k++]=c[3];
+					}
+					for(int j=b.length-1;j>0;j--){
+						ring[k++]=b[j];
+					}
+					rings.add(ring);
+				}
+			}
+		}
+		return rings;
+	}
+
+	/**
+	 * Reduce the edges of a ring by the basis, and give the lowest edge left,
+	 * or -1 if the basis already makes it.
+	 */
+	private static int reduce(long[] vector, List<long[]> basis, int[] pivots){
+		for(int i=0;i<basis.size();i++){
+			int pv = pivots[i];
+			if((vector[pv>>>6] & (1L<<pv)) != 0){
+				long[] b = basis.get(i);
+				for(int w=0;w<vector.length;w++){
+					vector[w] ^= b[w];
+				}
+			}
+		}
+		return lowestBit(vector);
+	}
+
+	/**
+	 * The shortest path tree from a root through only the vertices below it, as for
+	 * {@link #breadthFirst}, except that vertices not reached include the higher ones.
+	 */
+	private static int breadthFirstBelow(int[][] neighbors, int[][] edgeIds, int root, int[] parent, int[] parentEdge, int[] order, int[] depth){
+		Arrays.fill(parent, -1);
+		Arrays.fill(parentEdge, -1);
+		int head=0, tail=0;
+		order[tail++] = root;
+		parent[root] = root;
+		depth[root] = 0;
+		while(head<tail){
+			int u = order[head++];
+			for(int k=0;k<neighbors[u].length;k++){
+				int w = neighbors[u][k];
+				if(w<root && parent[w]<0){
+					parent[w] = u;
+					parentEdge[w] = edgeIds[u][k];
+					depth[w] = depth[u]+1;
+					order[tail++] = w;
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * Whether the tree paths from the root to two vertices only meet at the root.
+	 */
+	private static boolean onlyMeetAtRoot(int[] parent, int root, int a, int b, int[] mark, int stamp){
+		for(int u=a;u!=root;u=parent[u]){
+			mark[u]=stamp;
+		}
+		for(int u=b;u!=root;u=parent[u]){
+			if(mark[u]==stamp){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Every shortest path from the root of a tree from {@link #breadthFirstBelow} to a
+	 * vertex, each from the root on, or null if there are more than max of them.
+	 */
+	private static List<int[]> shortestPaths(int[][] neighbors, int[] parent, int[] depth, int root, int to, int max){
+		List<int[]> paths = new ArrayList<>();
+		if(to==root){
+			paths.add(new int[]{root});
+			return paths;
+		}
+		for(int w : neighbors[to]){
+			if(parent[w]<0 || depth[w]!=depth[to]-1){
+				continue;
+			}
+			List<int[]> before = shortestPaths(neighbors, parent, depth, root, w, max);
+			if(before==null || paths.size()+before.size()>max){
+				return null;
+			}
+			for(int[] p : before){
+				int[] path = Arrays.copyOf(p, p.length+1);
+				path[p.length]=to;
+				paths.add(path);
+			}
+		}
+		return paths;
+	}
+
+	private static int components(int[][] neighbors){
+		int n = neighbors.length;
+		boolean[] seen = new boolean[n];
+		int[] stack = new int[n];
+		int components=0;
+		for(int v=0;v<n;v++){
+			if(seen[v]){
+				continue;
+			}
+			components++;
+			seen[v]=true;
+			int top=0;
+			stack[top++]=v;
+			while(top>0){
+				int u = stack[--top];
+				for(int w : neighbors[u]){
+					if(!seen[w]){
+						seen[w]=true;
+						stack[top++]=w;
+					}
+				}
+			}
+		}
+		return components;
+	}
+
+	/**
+	 * Fill in the shortest path tree from a root, and the vertices it reaches
+	 * in the order they were reached.
+	 * @return the number of vertices reached, including the root.
+	 */
+	private static int breadthFirst(int[][] neighbors, int[][] edgeIds, int root, int[] parent, int[] parentEdge, int[] order, int[] depth){
+		Arrays.fill(parent, -1);
+		Arrays.fill(parentEdge, -1);
+		int head=0, tail=0;
+		order[tail++] = root;
+		parent[root] = root;
+		depth[root] = 0;
+		while(head<tail){
+			int u = order[head++];
+			for(int k=0;k<neighbors[u].length;k++){
+				int w = neighbors[u][k];
+				if(parent[w]<0){
+					parent[w] = u;
+					parentEdge[w] = edgeIds[u][k];
+					depth[w] = depth[u]+1;
+					order[tail++] = w;
+				}
+			}
+		}
+		return tail;
+	}
+
+	/**
+	 * The vertices of a candidate ring, from the root around to the vertex before it,
+	 * marking its edges in the given vector.
+	 */
+	private static int[] ring(int[] parent, int[] parentEdge, int root, int x, int y, int edge, long[] vector){
+		setBit(vector, edge);
+		List<Integer> toX = new ArrayList<>();
+		for(int u=x;u!=root;u=parent[u]){
+			toX.add(u);
+			setBit(vector, parentEdge[u]);
+		}
+		List<Integer> toY = new ArrayList<>();
+		for(int u=y;u!=root;u=parent[u]){
+			toY.add(u);
+			setBit(vector, parentEdge[u]);
+		}
+		int[] ring = new int[toX.size()+toY.size()+1];
+		int i=0;
+		ring[i++]=root;
+		for(int j=toX.size()-1;j>=0;j--){
+			ring[i++]=toX.get(j);
+		}
+		for(int u : toY){
+			ring[i++]=u;
+		}
+		return ring;
+	}
+
+	private static void setBit(long[] vector, int bit){
+		vector[bit>>>6] |= 1L<<bit;
+	}
+
+	private static int lowestBit(long[] vector){
+		for(int w=0;w<vector.length;w++){
+			if(vector[w]!=0){
+				return w*64 + Long.numberOfTrailingZeros(vector[w]);
+			}
+		}
+		return -1;
+	}
+
+	private static int indexOf(int[] a, int v){
+		for(int i=0;i<a.length;i++){
+			if(a[i]==v){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Numbers the edges of a graph given as its neighbor lists.
+	 */
+	private static final class Edges {
+		final int count;
+		/** for each vertex, the number of the edge to each of its neighbors */
+		final int[][] ids;
+		final int[] x;
+		final int[] y;
+		private final int[][] neighbors;
+
+		Edges(int[][] neighbors){
+			this.neighbors = neighbors;
+			int n = neighbors.length;
+			ids = new int[n][];
+			for(int v=0;v<n;v++){
+				ids[v] = new int[neighbors[v].length];
+			}
+			int m=0;
+			for(int v=0;v<n;v++){
+				for(int w : neighbors[v]){
+					if(w>v)m++;
+				}
+			}
+			if(n >= 1<<20 || m >= 1<<20){
+				throw new IllegalArgumentException("graph too large: " + n + " vertices, " + m + " edges");
+			}
+			x = new int[m];
+			y = new int[m];
+			m=0;
+			for(int v=0;v<n;v++){
+				for(int k=0;k<neighbors[v].length;k++){
+					int w = neighbors[v][k];
+					if(w>v){
+						ids[v][k] = m;
+						ids[w][indexOf(neighbors[w], v)] = m;
+						x[m]=v;
+						y[m]=w;
+						m++;
+					}
+				}
+			}
+			count=m;
+		}
+
+		int id(int v, int w){
+			return ids[v][indexOf(neighbors[v], w)];
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A uniform grid of square cells, each holding the items whose
+ * point falls inside it.  Finding the items near a point or inside a
+ * rectangle only has to look at the few cells that overlap it, instead of every item.
+ *
+ * Only occupied cells are stored, so the grid can cover any range of coordinates.
+ * @param <T> the type of item.
+ */
+public final class SpatialGrid<T> {
+
+	private final double cellSize;
+	private final Map<Long, List<T>> cells = new HashMap<>();
+	private int size;
+
+	/**
+	 * Create an empty grid.
+	 * @param cellSize the width and height of each cell, must be positive.
+	 * Queries are fastest when this is about the size of the typical query.
+	 */
+	public SpatialGrid(double cellSize){
+		if(!(cellSize > 0) || Double.isInfinite(cellSize)){
+			throw new IllegalArgumentException("cell size must be positive: " + cellSize);
+		}
+		this.cellSize = cellSize;
+	}
+
+	private int cell(double v){
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, Math.floor(v / cellSize)));
+	}
+
+	private static long key(int cx, int cy){
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	/**
+	 * Add an item at the given point.  The same item can be added more than once.
+	 */
+	public void add(double x, double y, T item){
+		cells.computeIfAbsent(key(cell(x), cell(y)), k -> new ArrayList<>()).add(item);
+		size++;
+	}
+
+	/**
+	 * Remove an item that was added at the given point.
+	 * @return {@code true} if the item was found there.
+	 */
+	public boolean remove(double x, double y, T item){
+		long k = key(cell(x), cell(y));
+		List<T> items = cells.get(k);
+		if(items == null || !items.remove(item)){
+			return false;
+		}
+		if(items.isEmpty()){
+			cells.remove(k);
+		}
+		size--;
+		return true;
+	}
+
+	/**
+	 * Give every item whose cell overlaps the given rectangle to the consumer,
+	 * which includes every item whose point is inside the rectangle (edges included),
+	 * but also some that are only nearby; callers have to do their own exact test.
+	 */
+	public void forEachNear(double minX, double minY, double maxX, double maxY, Consumer<? super T> consumer){
+		int x0 = cell(minX), x1 = cell(maxX);
+		int y0 = cell(minY), y1 = cell(maxY);
+		if(((double) x1 - x0 + 1) * ((double) y1 - y0 + 1) > cells.size()){
+			//the rectangle covers more cells than are occupied
+			for(Map.Entry<Long, List<T>> e : cells.entrySet()){
+				long k = e.getKey();
+				int cx = (int) (k >> 32);
+				int cy = (int) k;
+				if(cx >= x0 && cx <= x1 && cy >= y0 && cy <= y1){
+					e.getValue().forEach(consumer);
+				}
+			}
+			return;
+		}
+		for(int cx = x0; cx <= x1; cx++){
+			for(int cy = y0; cy <= y1; cy++){
+				List<T> items = cells.get(key(cx, cy));
+				if(items != null){
+					items.forEach(consumer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Give every item whose cell is within the given distance of the given point to the consumer.
+	 * @see #forEachNear(double, double, double, double, Consumer)
+	 */
+	public void forEachNear(double x, double y, double distance, Consumer<? super T> consumer){
+		forEachNear(x - distance, y - distance, x + distance, y + distance, consumer);
+	}
+
+	/**
+	 * The number of items in the grid.
+	 */
+	public int size(){
+		return size;
+	}
+}
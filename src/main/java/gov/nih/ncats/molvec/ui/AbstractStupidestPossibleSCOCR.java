@@ -1,34 +1,71 @@
 package gov.nih.ncats.molvec.ui;
 
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import gov.nih.ncats.molvec.internal.util.CachedSupplier;
 
 /**
  * Created by katzelda on 6/13/19.
  */
 public abstract class AbstractStupidestPossibleSCOCR extends RasterBasedCosineSCOCR {
-    private final Map<String, List<RasterChar>> readAhead = new HashMap<>();
+    private static final Pattern PREPROCESS_PATTERN = Pattern.compile("\t");
+
+    private final CachedSupplier<Map<String, List<RasterChar>>> readAhead = CachedSupplier.of(()->{
+        Map<String, List<RasterChar>> map = new HashMap<>();
+        loadRasters( (k, v)-> map.computeIfAbsent(k, newKey -> new ArrayList<>()).add(v));
+        return map;
+    });
 
     AbstractStupidestPossibleSCOCR(){
-        loadRasters( (k, v)-> readAhead.computeIfAbsent(k, newKey -> new ArrayList<>()).add(v));
 
     }
     @Override
     public void getBitmapsForChar(Character c, Consumer<RasterChar> rconsumer) {
-//        if(readAhead.isEmpty()){
-//            loadRasters( (k, v)-> readAhead.computeIfAbsent(k, newKey -> new ArrayList<>()).add(v));
-//        }
-        List<RasterChar> list = readAhead.get(c.toString());
+        List<RasterChar> list = readAhead.get().get(c.toString());
         if(list !=null){
             list.forEach(rconsumer);
         }
     }
 
-    protected abstract void loadRasters(BiConsumer<String, RasterChar> consumer);
+    /**
+     * Load the templates from the binary resource generated at build time
+     * by {@link GlyphTemplates}, falling back to parsing the Base64 source
+     * if that resource isn't on the classpath (for example, when running
+     * from an IDE that skips the generation step).
+     */
+    protected void loadRasters(BiConsumer<String, RasterChar> consumer){
+        try {
+            if(GlyphTemplates.read(getClass(), consumer)){
+                return;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        loadSourceRasters(consumer);
+    }
+
+    /**
+     * Load the templates by parsing the original Base64 encoded text rasters.
+     */
+    protected abstract void loadSourceRasters(BiConsumer<String, RasterChar> consumer);
+
+    protected static void parseBase64Rasters(String[] raw, BiConsumer<String, RasterChar> consumer){
+        Charset  cs = Charset.defaultCharset();
+
+        for(String s : raw) {
+            String l[] = PREPROCESS_PATTERN.split(s);
+            consumer.accept(l[0],RasterChar.parseFromString(new String(Base64.getDecoder().decode(l[1]), cs)));
+        }
+    }
 }
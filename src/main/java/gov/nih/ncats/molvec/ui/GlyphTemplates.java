@@ -0,0 +1,192 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.function.BiConsumer;
+
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+/**
+ * Compact binary form of the OCR glyph templates, so they can be
+ * loaded with a single read instead of Base64 decoding and parsing
+ * hundreds of text rasters when the OCR classes are first used.
+ *
+ * The format is big endian:
+ * <pre>
+ * int    magic ("MVGT")
+ * short  version
+ * int    number of templates
+ * then for each template:
+ *   char   the character the template is for
+ *   short  width
+ *   short  height
+ *   double rectangle width
+ *   double rectangle height
+ *   byte[width*height] the raster values, row by row
+ * </pre>
+ *
+ * The resources are generated at build time by running {@link #main(String[])}
+ * with the class output directory, and are named after the OCR class they belong to.
+ */
+public final class GlyphTemplates {
+
+	private static final int MAGIC = 0x4D564754;
+	private static final short VERSION = 1;
+
+	private GlyphTemplates(){
+		//can not instantiate
+	}
+
+	static String resourceName(Class<?> ocrClass){
+		return ocrClass.getSimpleName() + ".glyphs";
+	}
+
+	/**
+	 * Read the template resource for the given OCR class, if there is one.
+	 * @param ocrClass the class the templates belong to.
+	 * @param consumer the consumer of each character and its template.
+	 * @return {@code true} if the resource was found and read;
+	 * {@code false} if there is no such resource.
+	 * @throws IOException if there is a problem reading the resource or it is malformed.
+	 */
+	static boolean read(Class<?> ocrClass, BiConsumer<String, RasterChar> consumer) throws IOException{
+		byte[] data;
+		try(InputStream in = ocrClass.getResourceAsStream(resourceName(ocrClass))){
+			if(in ==null){
+				return false;
+			}
+			data = readFully(in);
+		}
+		read(ByteBuffer.wrap(data), consumer);
+		return true;
+	}
+
+	/**
+	 * Parse all the templates from the given buffer, starting at
+	 * its current position.
+	 * @param buf the buffer holding the templates in the binary format.
+	 * @param consumer the consumer of each character and its template.
+	 * @throws IOException if the buffer does not hold templates in the expected format.
+	 */
+	static void read(ByteBuffer buf, BiConsumer<String, RasterChar> consumer) throws IOException{
+		if(buf.remaining() < 10 || buf.getInt() != MAGIC){
+			throw new IOException("not a glyph template file");
+		}
+		short version = buf.getShort();
+		if(version != VERSION){
+			throw new IOException("unsupported glyph template version " + version);
+		}
+		int n = buf.getInt();
+		for(int t=0; t<n; t++){
+			String c = String.valueOf(buf.getChar());
+			int width = buf.getShort();
+			int height = buf.getShort();
+			double rectWidth = buf.getDouble();
+			double rectHeight = buf.getDouble();
+
+			int[][] data = new int[width][height];
+			for(int i=0; i<width; i++){
+				int[] row = data[i];
+				for(int j=0; j<height; j++){
+					row[j] = buf.get() & 0xFF;
+				}
+			}
+			consumer.accept(c, new RasterChar(data, new Rectangle2D.Double(0, 0, rectWidth, rectHeight)));
+		}
+	}
+
+	/**
+	 * Write all the templates of the given OCR, as parsed from its Base64 source,
+	 * in the binary format.
+	 * @param ocr the OCR to get the templates from.
+	 * @param out the stream to write to; it is not closed.
+	 * @throws IOException if there is a problem writing, or a template can't be encoded.
+	 */
+	static void write(AbstractStupidestPossibleSCOCR ocr, OutputStream out) throws IOException{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(body);
+		int[] count = new int[1];
+		IOException[] error = new IOException[1];
+		ocr.loadSourceRasters((c, rc)->{
+			if(error[0] !=null){
+				return;
+			}
+			try{
+				writeTemplate(dout, c, rc);
+				count[0]++;
+			}catch(IOException e){
+				error[0] = e;
+			}
+		});
+		if(error[0] !=null){
+			throw error[0];
+		}
+		dout.flush();
+
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeShort(VERSION);
+		header.writeInt(count[0]);
+		header.flush();
+		body.writeTo(out);
+	}
+
+	private static void writeTemplate(DataOutputStream out, String c, RasterChar rc) throws IOException{
+		if(c.length() !=1){
+			throw new IOException("template key must be a single character: '" + c + "'");
+		}
+		int width = rc.data.length;
+		int height = rc.data[0].length;
+		out.writeChar(c.charAt(0));
+		out.writeShort(width);
+		out.writeShort(height);
+		out.writeDouble(rc.rect.getWidth());
+		out.writeDouble(rc.rect.getHeight());
+		for(int[] row : rc.data){
+			for(int v : row){
+				if(v < 0 || v > 0xFF){
+					throw new IOException("template value out of range for '" + c + "': " + v);
+				}
+				out.writeByte(v);
+			}
+		}
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+		byte[] buf = new byte[16 * 1024];
+		int read;
+		while((read = in.read(buf)) > 0){
+			out.write(buf, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Generate the template resources for the built in OCR classes.
+	 * @param args the class output directory to write the resources to.
+	 * @throws IOException if there is a problem writing the files.
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length !=1){
+			System.err.println("usage: GlyphTemplates <class output directory>");
+			System.exit(1);
+		}
+		File dir = new File(args[0], GlyphTemplates.class.getPackage().getName().replace('.', File.separatorChar));
+		dir.mkdirs();
+		for(AbstractStupidestPossibleSCOCR ocr : new AbstractStupidestPossibleSCOCR[]{
+				new StupidestPossibleSCOCRSansSerif(), new StupidestPossibleSCOCRSerif()}){
+			File f = new File(dir, resourceName(ocr.getClass()));
+			try(OutputStream out = Files.newOutputStream(f.toPath())){
+				write(ocr, out);
+			}
+		}
+	}
+}
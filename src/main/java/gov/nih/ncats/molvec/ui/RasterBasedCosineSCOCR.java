@@ -16,22 +16,25 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
 
+import gov.nih.ncats.molvec.Parallelism;
 import gov.nih.ncats.molvec.internal.image.Bitmap;
 import gov.nih.ncats.molvec.internal.image.Bitmap.BitmapScaled;
 import gov.nih.ncats.molvec.internal.util.CachedSupplier;
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
 import gov.nih.ncats.molvec.internal.algo.Tuple;
 
 public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	Set<Character> _alphabet;
 	Map<Character, List<RasterChar>> charVal = new HashMap<Character, List<RasterChar>>();
+	private volatile PackedTemplates packed;
 	//Map<Character, Rectangle2D> WH_RATIO = new HashMap<Character, Rectangle2D>();
 
 	static int DEF_WIDTH = 20;
@@ -330,7 +333,113 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 				       .add(rc);
 			});
 		}
+		packed = PackedTemplates.of(_alphabet, charVal);
+	}
+	
+	/**
+	 * All of the templates for the current alphabet packed into contiguous
+	 * primitive arrays, so that scoring a glyph against the whole alphabet is
+	 * a single pass over flat memory rather than a walk over jagged
+	 * int[][] arrays per template.
+	 * 
+	 * Templates are grouped by character: the templates for the i-th character
+	 * of {@link #chars} are those in [start[i], start[i+1]).
+	 * Each template takes {@link #CELLS} consecutive entries in {@link #data}
+	 * (and {@link #dataSq}, which holds the squared values), laid out the same way as 
+	 * {@link BitmapScaled#onCount}.
+	 */
+	static final class PackedTemplates{
+		static final int CELLS = DEF_WIDTH*DEF_HEIGHT;
+		
+		final char[] chars;
+		final int[] start;
+		final int[] data;
+		final int[] dataSq;
+		final double[] aspect;
 		
+		private PackedTemplates(char[] chars, int[] start, int[] data, int[] dataSq, double[] aspect){
+			this.chars=chars;
+			this.start=start;
+			this.data=data;
+			this.dataSq=dataSq;
+			this.aspect=aspect;
+		}
+		
+		static PackedTemplates of(Set<Character> alphabet, Map<Character, List<RasterChar>> charVal){
+			char[] chars = new char[alphabet.size()];
+			int[] start = new int[alphabet.size()+1];
+			int ntemplates=0;
+			int ci=0;
+			for(Character c: alphabet){
+				chars[ci]=c;
+				start[ci]=ntemplates;
+				List<RasterChar> rcl = charVal.get(c);
+				if(rcl!=null){
+					ntemplates+=rcl.size();
+				}
+				ci++;
+			}
+			start[ci]=ntemplates;
+			
+			int[] data = new int[ntemplates*CELLS];
+			int[] dataSq = new int[ntemplates*CELLS];
+			double[] aspect = new double[ntemplates];
+			int t=0;
+			for(char c: chars){
+				List<RasterChar> rcl = charVal.get(c);
+				if(rcl==null)continue;
+				for(RasterChar rc: rcl){
+					int off=t*CELLS;
+					for(int i=0;i<DEF_WIDTH;i++){
+						for(int j=0;j<DEF_HEIGHT;j++){
+							int val=rc.data[i][j];
+							data[off+i*DEF_HEIGHT+j]=val;
+							dataSq[off+i*DEF_HEIGHT+j]=val*val;
+						}
+					}
+					aspect[t]=rc.rect.getWidth()/rc.rect.getHeight();
+					t++;
+				}
+			}
+			return new PackedTemplates(chars,start,data,dataSq,aspect);
+		}
+		
+		/**
+		 * Compute the best cosine-like score of the given scaled bitmap against every
+		 * template of the character at the given index of {@link #chars}.
+		 */
+		double score(BitmapScaled bms, int ci){
+			int from=start[ci];
+			int to=start[ci+1];
+			if(from==to){
+				return 0;
+			}
+			int[] on = bms.onCount;
+			int[] area = bms.cellCount;
+			double sqrtTotal = Math.sqrt(bms.tcount);
+			double qrat = (double) bms.twidth / (double) bms.theight;
+			
+			double maxCor = Double.MIN_VALUE;
+			for(int t=from;t<to;t++){
+				int off=t*CELLS;
+				int cor=0;
+				int sum=0;
+				for(int k=0;k<CELLS;k++){
+					cor+=data[off+k]*on[k];
+					sum+=dataSq[off+k]*area[k];
+				}
+				
+				double whrat = aspect[t] / qrat;
+				if (whrat > 1) {
+					whrat = 1 / whrat;
+				}
+				whrat = 1 - Math.pow(1 - whrat, 2);
+				
+				double tcor = whrat * cor / (sqrtTotal * Math.sqrt(sum));
+				maxCor = Math.max(tcor, maxCor);
+			}
+			return maxCor;
+		}
 	}
 
 	@Override
@@ -355,11 +464,25 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 
 	@Override
 	public Map<Character, Number> getRanking(Bitmap r) {
+		return getRanking(r, (Executor) null);
+	}
+
+	@Override
+	public Map<Character, Number> getRanking(Bitmap r, Executor executor) {
+		return getScores(r, executor).toMap();
+	}
+
+	@Override
+	public Scores getScores(Bitmap r, Executor executor) {
 		BitmapScaled bms=r.getScaled(DEF_WIDTH, DEF_HEIGHT);
+		PackedTemplates pt = packed;
+		ExecutionPolicy policy = executor==null?ExecutionPolicy.SEQUENTIAL:ExecutionPolicy.of(Parallelism.PER_TEMPLATE, executor);
 		
-		return _alphabet
-				.parallelStream()
-				.collect(Collectors.toMap(Function.identity(), c2->correlation(bms, c2)));
+		double[] scores = new double[pt.chars.length];
+		policy.forEachIndex(Parallelism.PER_TEMPLATE, pt.chars.length, ci->{
+			scores[ci]=pt.score(bms, ci);
+		});
+		return new Scores(pt.chars, scores);
 	}
 
 	public static void debugPrintBmap(int[][] test) {
@@ -377,49 +500,6 @@ public abstract class RasterBasedCosineSCOCR implements SCOCR{
 	
 	
 	
-	private double correlation(BitmapScaled bms, Character c){
-
-		List<RasterChar> rcl = charVal.get(c);
-		if(rcl==null){
-			return 0;
-		}
-		List<int[]> xys = bms.xys;
-		int[][] ccount = bms.ccount;
-		int total = bms.tcount;
-		int twidth = bms.twidth;
-		int theight = bms.theight;
-
-		double maxCor = Double.MIN_VALUE;
-		for (RasterChar rc: rcl) {
-			int[][] cM = rc.data;
-			double cor = 0;
-			int sum=0;
-			for(int[] xy : xys){
-				cor +=cM[xy[0]][xy[1]]*xy[2];
-			}
-
-			
-			for(int i=0;i<DEF_WIDTH;i++){
-				for(int j=0;j<DEF_HEIGHT;j++){
-					int val=cM[i][j];
-					sum+=val*val*ccount[i][j];
-				}
-			}
-			int totalC=sum;
-			
-			double whrat = (double) twidth / (double) theight;
-			whrat = (rc.rect.getWidth()/rc.rect.getHeight()) / whrat;
-			if (whrat > 1) {
-				whrat = 1 / whrat;
-			}
-			whrat = 1 - Math.pow(1 - whrat, 2);
-
-			double tcor = whrat * cor / (Math.sqrt(total) * Math.sqrt(totalC));
-			maxCor = Math.max(tcor, maxCor);
-		}
-		return maxCor;
-	}
-
 //	public double correlation(Bitmap test, Character c) {
 //		int twidth = test.width();
 //		int theight = test.height();
@@ -1,6 +1,8 @@
 package gov.nih.ncats.molvec.ui;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -9,6 +11,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 import gov.nih.ncats.molvec.internal.image.Bitmap;
@@ -132,6 +135,119 @@ public interface SCOCR {
 		return ranks;
 	}
 
+	/**
+	 * The score of each character of an alphabet, as parallel primitive arrays,
+	 * so an OCR can be cascaded and its best matches picked without boxing every
+	 * score into a map.
+	 */
+	public static final class Scores {
+		/**
+		 * No characters at all.
+		 */
+		public static final Scores EMPTY = new Scores(new char[0], new double[0]);
+
+		final char[] chars;
+		final double[] values;
+
+		/**
+		 * @param chars the characters, which may be shared between Scores and so must not be changed.
+		 * @param values the score of each character.
+		 */
+		public Scores(char[] chars, double[] values) {
+			this.chars = chars;
+			this.values = values;
+		}
+
+		static Scores of(Map<Character, Number> ranking) {
+			char[] chars = new char[ranking.size()];
+			double[] values = new double[ranking.size()];
+			int i = 0;
+			for (Entry<Character, Number> e : ranking.entrySet()) {
+				chars[i] = e.getKey();
+				values[i] = e.getValue().doubleValue();
+				i++;
+			}
+			return new Scores(chars, values);
+		}
+
+		/**
+		 * Does any character score over the cutoff.
+		 */
+		public boolean anyOver(double cutoff) {
+			for (double v : values) {
+				if (v > cutoff) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * The best score of each character over this and the given scores,
+		 * like {@link SCOCR#bestOf(Map...)}.
+		 * @return new Scores for the characters of this one.
+		 */
+		public Scores bestOf(Scores other) {
+			double[] best = values.clone();
+			if (Arrays.equals(chars, other.chars)) {
+				for (int i = 0; i < best.length; i++) {
+					best[i] = Math.max(best[i], other.values[i]);
+				}
+			} else {
+				for (int i = 0; i < chars.length; i++) {
+					for (int j = 0; j < other.chars.length; j++) {
+						if (other.chars[j] == chars[i]) {
+							best[i] = Math.max(best[i], other.values[j]);
+							break;
+						}
+					}
+				}
+			}
+			return new Scores(chars, best);
+		}
+
+		/**
+		 * The n best scoring characters, best first; characters that score the
+		 * same are in character order, as they come out of {@link SCOCR#sortMap(Map)}.
+		 * Only the n best are kept as the scores are read, rather than sorting them all.
+		 */
+		public List<Entry<Character, Number>> top(int n) {
+			n = Math.min(n, chars.length);
+			int[] best = new int[n];
+			int kept = 0;
+			for (int i = 0; i < chars.length; i++) {
+				int at = kept;
+				while (at > 0 && isBetter(i, best[at - 1])) {
+					at--;
+				}
+				if (at == n) {
+					continue;
+				}
+				System.arraycopy(best, at, best, at + 1, Math.min(kept, n - 1) - at);
+				best[at] = i;
+				kept = Math.min(kept + 1, n);
+			}
+			List<Entry<Character, Number>> top = new ArrayList<>(n);
+			for (int i = 0; i < kept; i++) {
+				top.add(new AbstractMap.SimpleImmutableEntry<Character, Number>(chars[best[i]], values[best[i]]));
+			}
+			return top;
+		}
+
+		private boolean isBetter(int i, int j) {
+			int c = Double.compare(values[i], values[j]);
+			return c > 0 || (c == 0 && chars[i] < chars[j]);
+		}
+
+		public Map<Character, Number> toMap() {
+			Map<Character, Number> ranking = new HashMap<>(chars.length * 2);
+			for (int i = 0; i < chars.length; i++) {
+				ranking.put(chars[i], values[i]);
+			}
+			return ranking;
+		}
+	}
+
 	//Setters:
 	public void setAlphabet(Set<Character> charSet);
 	public default void setAlphabet(String alphaString) {
@@ -145,13 +261,35 @@ public interface SCOCR {
 	//Getters:
 	public Set<Character> getAlphabet();
 	public Map<Character, Number> getRanking(Bitmap r);
+	/**
+	 * Same as {@link #getRanking(Bitmap)}, but allowed to split the scoring
+	 * across threads of the given executor.
+	 * @param executor the executor to help score the characters on; if null,
+	 * all of the scoring is done on the calling thread.
+	 */
+	public default Map<Character, Number> getRanking(Bitmap r, Executor executor) {
+		return getRanking(r);
+	}
+	/**
+	 * Same as {@link #getRanking(Bitmap, Executor)}, but as primitive arrays.
+	 */
+	public default Scores getScores(Bitmap r, Executor executor) {
+		return Scores.of(getRanking(r, executor));
+	}
 	public default Entry<Character, Number> getBestMatch(Bitmap... r) {
 		return getNBestMatches(1, r).get(0);
 	}
 	public default List<Entry<Character, Number>> getNBestMatches(int n, Bitmap... r) {
+		return getNBestMatches(n, (Executor) null, r);
+	}
+	/**
+	 * Same as {@link #getNBestMatches(int, Bitmap...)}, but allowed to split the scoring
+	 * across threads of the given executor, which can be null.
+	 */
+	public default List<Entry<Character, Number>> getNBestMatches(int n, Executor executor, Bitmap... r) {
 		Map[] g = new Map[r.length];
 		for (int i = 0; i < r.length; i++) {
-			g[i] = getRanking(r[i]);
+			g[i] = getRanking(r[i], executor);
 		}
 		List<Entry<Character, Number>> retRanks = new ArrayList<Entry<Character, Number>>();
 		List<Entry<Character, Number>> ranks = sortMap(bestOf(g));
@@ -161,6 +299,10 @@ public interface SCOCR {
 		return retRanks;
 	}
 	
+	/**
+	 * A cascade of OCRs: each is only tried if none of the characters scored by
+	 * the ones before it clear the cutoff, and the scores of the last one tried are used.
+	 */
 	public static class OrElseSCOCR implements SCOCR{
 		private double keepCutoff =0.6;
 		
@@ -189,18 +331,36 @@ public interface SCOCR {
 
 		@Override
 		public Map<Character, Number> getRanking(Bitmap r) {
-			Map<Character, Number> res=new HashMap<>();
+			return getRanking(r, (Executor) null);
+		}
+
+		@Override
+		public Map<Character, Number> getRanking(Bitmap r, Executor executor) {
+			return getScores(r, executor).toMap();
+		}
+
+		@Override
+		public Scores getScores(Bitmap r, Executor executor) {
+			Scores res=Scores.EMPTY;
 			for(SCOCR s:scocrList){
-				res=s.getRanking(r);
-				boolean pres=res.values()
-				   .stream()
-				   .filter(n->n.doubleValue()>this.keepCutoff)
-				   .findAny()
-				   .isPresent();
-				if(pres)return res;
+				res=s.getScores(r, executor);
+				if(res.anyOver(keepCutoff))return res;
 			}
 			return res;
 		}
+
+		@Override
+		public List<Entry<Character, Number>> getNBestMatches(int n, Executor executor, Bitmap... r) {
+			Scores best=null;
+			for(Bitmap b:r){
+				Scores s=getScores(b, executor);
+				best= best==null?s:best.bestOf(s);
+			}
+			if(best==null){
+				return new ArrayList<>();
+			}
+			return best.top(n);
+		}
 	}
 	
 	public default OrElseSCOCR orElse(SCOCR backup, double cut){
@@ -227,7 +387,12 @@ public interface SCOCR {
 
 			@Override
 			public Map<Character, Number> getRanking(Bitmap r) {
-				Map<Character, Number> map = _this.getRanking(r);
+				return getRanking(r, (Executor) null);
+			}
+
+			@Override
+			public Map<Character, Number> getRanking(Bitmap r, Executor executor) {
+				Map<Character, Number> map = _this.getRanking(r, executor);
 				
 				return map.entrySet()
 				   .stream()
@@ -235,6 +400,19 @@ public interface SCOCR {
 				   .map(transform)
 				   .collect(Tuple.toMap());
 			}
+
+			@Override
+			public Scores getScores(Bitmap r, Executor executor) {
+				Scores scores = _this.getScores(r, executor);
+				char[] chars = new char[scores.chars.length];
+				double[] values = new double[scores.chars.length];
+				for (int i = 0; i < chars.length; i++) {
+					Tuple<Character,Number> t = transform.apply(Tuple.of(scores.chars[i], (Number) scores.values[i]));
+					chars[i] = t.k();
+					values[i] = t.v().doubleValue();
+				}
+				return new Scores(chars, values);
+			}
 			
 		};
 	}
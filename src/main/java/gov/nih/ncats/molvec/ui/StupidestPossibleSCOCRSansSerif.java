@@ -1,13 +1,17 @@
 package gov.nih.ncats.molvec.ui;
 
-import java.nio.charset.Charset;
-import java.util.Base64;
 import java.util.function.BiConsumer;
-import java.util.regex.Pattern;
 
 public class StupidestPossibleSCOCRSansSerif extends AbstractStupidestPossibleSCOCR{
 
-	private static String[] raw=new String[]{"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
+	/**
+	 * The templates as Base64 encoded text rasters.  These are only read when
+	 * generating the binary template resource at build time, or as a fallback
+	 * if that resource is missing, so they are kept out of the outer class's
+	 * initializer.
+	 */
+	static final class Source{
+		static final String[] RAW=new String[]{"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
 			"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
 			"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
 			"+	MjB4MjAKMy44NTkzNzV4My44NzUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==", 
@@ -467,20 +471,10 @@ public class StupidestPossibleSCOCRSansSerif extends AbstractStupidestPossibleSC
 			")	MjB4MjAKMTEuMHgzNi4wCjIsMiwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDMsMwo0LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwyLDQsNiw2LDYKMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzCjUsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDYsNgoyLDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzLDMKNCw2LDQsMiwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNSw2LDUsNCwzCjIsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMAozLDUsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDIsNCw2LDUsMywxLDAKMiw0LDYsNiw1LDMsMSwwLDAsMCwwLDEsMiw0LDUsNiw0LDIsMCwwCjIsNCw2LDYsNSwzLDEsMCwwLDAsMCwxLDIsNCw1LDYsNCwyLDAsMAoxLDMsNSw2LDYsNSw0LDMsMywzLDMsNCw1LDYsNiw1LDMsMSwwLDAKMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwCjAsMSwyLDQsNSw2LDYsNiw2LDYsNiw2LDYsNiw1LDMsMSwwLDAsMAowLDAsMCwxLDIsMywzLDMsMywzLDMsMywzLDMsMiwxLDAsMCwwLDAKMCwwLDAsMSwzLDUsNiw2LDYsNiw2LDYsNSw0LDIsMSwwLDAsMCwwCjAsMCwwLDAsMSwyLDMsMywzLDMsMywzLDIsMSwwLDAsMCwwLDAsMAowLDAsMCwwLDEsMiw0LDUsNiw2LDUsNCwyLDEsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMSwyLDMsMywyLDEsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDEsMiwzLDMsMiwxLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA="
 	
 	};
-
-private static final Pattern PREPROCESS_PATTERN = Pattern.compile("\t");
+	}
 
 	@Override
-	protected void loadRasters(BiConsumer<String, RasterChar> consumer) {
-		Charset  cs = Charset.defaultCharset();
-
-		for(String s : raw) {
-			String l[] = PREPROCESS_PATTERN.split(s);
-			consumer.accept(l[0],RasterChar.parseFromString(new String(Base64.getDecoder().decode(l[1]), cs)));
-		}
+	protected void loadSourceRasters(BiConsumer<String, RasterChar> consumer) {
+		parseBase64Rasters(Source.RAW, consumer);
 	}
-
-	
-	
-	
 }
@@ -1,13 +1,17 @@
 package gov.nih.ncats.molvec.ui;
 
-import java.nio.charset.Charset;
-import java.util.Base64;
 import java.util.function.BiConsumer;
-import java.util.regex.Pattern;
 
 public class StupidestPossibleSCOCRSerif extends AbstractStupidestPossibleSCOCR{
 	
-	private static String[] raw= new String[]{
+	/**
+	 * The templates as Base64 encoded text rasters.  These are only read when
+	 * generating the binary template resource at build time, or as a fallback
+	 * if that resource is missing, so they are kept out of the outer class's
+	 * initializer.
+	 */
+	static final class Source{
+		static final String[] RAW=new String[]{
 			"+	MjB4MjAKNS4wMTU2MjV4NS4wMTU2MjUKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjMsMywzLDMsMywzLDMsNSw3LDksNyw1LDMsMywzLDMsMywzLDMsMwo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjYsNiw2LDYsNiw2LDYsNyw4LDksOCw3LDYsNiw2LDYsNiw2LDYsNgozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMA==",
 			"+	MjB4MjAKNS4wMTU2MjV4NS4wCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAozLDMsMywzLDMsMywzLDUsNyw5LDcsNSwzLDMsMywzLDMsMywzLDMKNiw2LDYsNiw2LDYsNiw3LDgsOSw4LDcsNiw2LDYsNiw2LDYsNiw2CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo2LDYsNiw2LDYsNiw2LDcsOCw5LDgsNyw2LDYsNiw2LDYsNiw2LDYKMywzLDMsMywzLDMsMyw1LDcsOSw3LDUsMywzLDMsMywzLDMsMywzCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDAKMCwwLDAsMCwwLDAsMCwzLDYsOSw2LDMsMCwwLDAsMCwwLDAsMCwwCjAsMCwwLDAsMCwwLDAsMyw2LDksNiwzLDAsMCwwLDAsMCwwLDAsMAowLDAsMCwwLDAsMCwwLDMsNiw5LDYsMywwLDAsMCwwLDAsMCwwLDA=", 
 			"-	MjB4MjAKMi4weDAuNjA5Mzc1CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDkKOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5CjksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOQo5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDksOSw5LDk=", 
@@ -126,20 +130,10 @@ public class StupidestPossibleSCOCRSerif extends AbstractStupidestPossibleSCOCR{
 			"v	MjB4MjAKNC45ODQzNzV4NC4xNTYyNQo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw3LDUsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksOCw3LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDksOSw5LDgsNyw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw5LDksOSw5LDksOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwCjksOSw5LDksOSw5LDksOSw5LDksOCw3LDYsNSw0LDMsMiwxLDAsMAo5LDgsOCw4LDksOSw5LDksOSw5LDksOSw5LDgsNyw2LDUsNCwzLDMKOSw3LDYsNSw2LDcsOCw5LDksOSw5LDksOSw5LDksOSw4LDcsNiw2CjYsNCwzLDIsMyw0LDUsNiw3LDgsOSw5LDksOSw5LDksOSw5LDksOQozLDIsMSwwLDAsMSwyLDMsNCw1LDYsNyw4LDksOSw5LDksOSw5LDkKMCwwLDAsMCwwLDAsMCwwLDEsMiwzLDQsNSw3LDgsOSw5LDksOSw5CjAsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDYsNgozLDIsMSwwLDAsMCwwLDEsMiwzLDQsNSw2LDYsNiw2LDUsNCwzLDMKNiw0LDIsMCwxLDIsMyw0LDUsNiw2LDYsNiw1LDQsMywyLDEsMCwwCjksNyw1LDMsNCw1LDYsNiw2LDYsNSw0LDMsMiwxLDAsMCwwLDAsMAo5LDgsNyw2LDYsNiw2LDUsNCwzLDIsMSwwLDAsMCwwLDAsMCwwLDAKOSw4LDcsNiw1LDQsMywyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjksNyw1LDMsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo5LDYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOSw2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCww", 
 			"y	MjB4MjAKNC41MzEyNXg1LjkzNzUKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMSwyLDMsMywzCjcsNSwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDEsMyw1LDYsNgo4LDcsNSwzLDEsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDMsNiw4LDkKOSw5LDgsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwxLDQsNyw5CjgsOCw4LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwzLDYsOQo3LDYsNSw3LDgsOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDEsNCw3LDkKNiw0LDIsNCw1LDcsOCw4LDcsNSw0LDIsMSwwLDAsMSwzLDYsOCw5CjQsMiwwLDEsMiw0LDYsOCw5LDgsNyw1LDQsMywzLDQsNiw3LDcsNgoyLDEsMCwwLDAsMSwzLDUsNyw4LDksOCw3LDYsNiw2LDYsNSw0LDMKMCwwLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw4LDcsNSw0LDIsMSwwCjAsMCwwLDAsMCwwLDAsMSwzLDYsOCw4LDcsNSw0LDIsMSwwLDAsMAowLDAsMCwwLDAsMSwyLDQsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAKMiwxLDAsMSwyLDQsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwCjQsMiwxLDMsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsNCw2LDcsNiw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKOCw3LDYsNiw1LDMsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNiwzLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMA==", 
 			"y	MjB4MjAKNC45NTMxMjV4NS45Mzc1CjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo3LDUsMiwxLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwxLDIsMywzLDMKOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDAsMCwwLDAsMSwzLDUsNiw2CjksOSw4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDEsMyw2LDgsOQo5LDksOSw5LDgsNyw1LDQsMiwxLDAsMCwwLDAsMCwwLDEsNCw3LDkKOSw5LDksOSw5LDksOCw3LDUsNCwyLDEsMCwwLDAsMCwwLDMsNiw5CjgsOCw4LDksOSw5LDksOSw4LDcsNSw0LDIsMSwwLDAsMSw0LDcsOQo3LDYsNSw3LDgsOSw5LDksOSw5LDgsNyw1LDQsMiwyLDMsNiw4LDkKNCwzLDIsNCw1LDcsOCw5LDksOSw5LDksOCw3LDUsNSw2LDcsNyw2CjIsMSwwLDEsMiw0LDUsNyw4LDksOSw5LDksOSw4LDcsNiw1LDQsMwowLDAsMCwwLDAsMSwyLDQsNiw4LDksOSw5LDgsNyw1LDQsMiwxLDAKMCwwLDAsMCwwLDAsMSwzLDYsOCw5LDgsNyw1LDQsMiwxLDAsMCwwCjIsMSwwLDAsMSwyLDQsNSw2LDYsNiw1LDQsMiwxLDAsMCwwLDAsMAo0LDIsMSwyLDQsNSw2LDYsNSw0LDMsMiwxLDAsMCwwLDAsMCwwLDAKNyw1LDQsNSw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwCjgsNyw2LDYsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo4LDcsNSw0LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAKNyw1LDIsMSwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwCjYsMywwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMAo2LDMsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDAsMCwwLDA="};
-
-
-	private static final Pattern PREPROCESS_PATTERN = Pattern.compile("\t");
+	}
 
 	@Override
-	protected void loadRasters(BiConsumer<String, RasterChar> consumer) {
-		Charset  cs = Charset.defaultCharset();
-
-		for(String s : raw) {
-			String l[] = PREPROCESS_PATTERN.split(s);
-			consumer.accept(l[0],RasterChar.parseFromString(new String(Base64.getDecoder().decode(l[1]), cs)));
-		}
+	protected void loadSourceRasters(BiConsumer<String, RasterChar> consumer) {
+		parseBase64Rasters(Source.RAW, consumer);
 	}
-
-
-	
 }
@@ -0,0 +1,171 @@
+package gov.nih.ncats.molvec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class BatchRecognizerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private MolvecEngine engine = MolvecEngine.builder().parallelism(Parallelism.PER_IMAGE).build();
+
+    private Path imageDir() throws IOException {
+        Path dir = tmp.newFolder("images").toPath();
+        Files.copy(new File(getClass().getResource("/moleculeTest/circleAromatic.png").getFile()).toPath(), dir.resolve("circleAromatic.png"));
+        Path sub = Files.createDirectory(dir.resolve("sub"));
+        Files.write(sub.resolve("broken.png"), "not an image".getBytes());
+        Files.write(dir.resolve("notes.txt"), "not an image either".getBytes());
+        return dir;
+    }
+
+    private BatchRecognizer.Summary run(Path dir, Writer out, BatchRecognizer.Checkpoint checkpoint) throws Exception {
+        try (Stream<Path> inputs = BatchRecognizer.walk(dir)) {
+            return new BatchRecognizer(engine, 2, BatchRecognizer.Format.JSONL).run(inputs.iterator(), out, checkpoint);
+        }
+    }
+
+    @Test
+    public void recordForEveryImageInSubdirectories() throws Exception {
+        Path dir = imageDir();
+        StringWriter out = new StringWriter();
+        BatchRecognizer.Summary summary = run(dir, out, BatchRecognizer.Checkpoint.NONE);
+        assertEquals(1, summary.recognized);
+        assertEquals(1, summary.failed);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        String good = lines[0].contains("circleAromatic") ? lines[0] : lines[1];
+        String bad = lines[0].contains("broken") ? lines[0] : lines[1];
+        assertTrue(good, good.contains("\"error\":null") && good.contains(" 13 14  0"));
+        assertTrue(bad, bad.contains("\"molfile\":null") && bad.contains("\"error\":\"No reader found"));
+        assertTrue(bad.contains("\"source\":\"" + dir.resolve("sub").resolve("broken.png").toAbsolutePath().toString().replace("\\", "\\\\") + "\""));
+    }
+
+    @Test
+    public void checkpointSkipsImagesAlreadyWritten() throws Exception {
+        Path dir = imageDir();
+        Path done = tmp.getRoot().toPath().resolve("done.txt");
+
+        BatchRecognizer.Checkpoint checkpoint = BatchRecognizer.Checkpoint.open(done);
+        run(dir, new StringWriter(), checkpoint);
+        checkpoint.close();
+        assertEquals(2, Files.readAllLines(done).size());
+
+        checkpoint = BatchRecognizer.Checkpoint.open(done);
+        assertTrue(checkpoint.isResumed());
+        StringWriter out = new StringWriter();
+        BatchRecognizer.Summary summary = run(dir, out, checkpoint);
+        checkpoint.close();
+        assertEquals(0, summary.recognized + summary.failed);
+        assertEquals(2, summary.skipped);
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void checkpointDropsLineCutShort() throws Exception {
+        Path done = tmp.getRoot().toPath().resolve("done.txt");
+        Files.write(done, "/a.png\n/b.pn".getBytes(StandardCharsets.UTF_8));
+
+        BatchRecognizer.Checkpoint checkpoint = BatchRecognizer.Checkpoint.open(done);
+        assertTrue(checkpoint.isDone("/a.png"));
+        assertFalse(checkpoint.isDone("/b.pn"));
+        checkpoint.done("/c.png");
+        checkpoint.close();
+        assertEquals(Arrays.asList("/a.png", "/c.png"), Files.readAllLines(done));
+    }
+
+    @Test
+    public void unreadableSubdirectorySkipped() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path dir = imageDir();
+        Path locked = Files.createDirectory(dir.resolve("locked"));
+        Files.write(locked.resolve("hidden.png"), "never read".getBytes());
+        Files.setPosixFilePermissions(locked, Collections.emptySet());
+        try {
+            assumeFalse("the directory can still be read, as by root", Files.isReadable(locked));
+            BatchRecognizer.Summary summary = run(dir, new StringWriter(), BatchRecognizer.Checkpoint.NONE);
+            assertEquals(1, summary.recognized);
+            assertEquals(1, summary.failed);
+        } finally {
+            Files.setPosixFilePermissions(locked, PosixFilePermissions.fromString("rwx------"));
+        }
+    }
+
+    @Test
+    public void inputsOnlyReadAsFastAsRecordsAreWritten() throws Exception {
+        Path missing = tmp.getRoot().toPath().resolve("missing");
+        List<Path> paths = IntStream.range(0, 50)
+                .mapToObj(i -> missing.resolve(i + ".png"))
+                .collect(Collectors.toList());
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger mostAhead = new AtomicInteger();
+        Iterator<Path> it = paths.iterator();
+        Iterator<Path> counting = new Iterator<Path>() {
+            int read;
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            @Override
+            public Path next() {
+                read++;
+                mostAhead.accumulateAndGet(read - written.get(), Math::max);
+                return it.next();
+            }
+        };
+        Writer out = new StringWriter() {
+            @Override
+            public void write(String str) {
+                super.write(str);
+                written.incrementAndGet();
+            }
+        };
+        int workers = 3;
+        BatchRecognizer.Summary summary = new BatchRecognizer(engine, workers, BatchRecognizer.Format.SDF)
+                .run(counting, out, BatchRecognizer.Checkpoint.NONE);
+        assertEquals(50, summary.failed);
+        assertEquals(50, written.get());
+        //the records in flight, and the one just read that is waiting for room
+        assertTrue("read ahead " + mostAhead.get(), mostAhead.get() <= 2 * workers + 1);
+    }
+
+    @Test
+    public void sdfRecordHasDataItems() {
+        String record = BatchRecognizer.toSdf("a.png", null, 12, false, "bad\nimage");
+        assertTrue(record, record.contains("M  END\n> <SOURCE>\na.png\n\n> <ELAPSED_MS>\n12\n\n> <TIMED_OUT>\nfalse\n\n> <ERROR>\nbad image\n\n$$$$\n"));
+
+        String ok = BatchRecognizer.toSdf("b.png", "\n  Molvec\n\n  0  0  0  0  0  0  0  0  0  0999 V2000\nM  END", 3, true, null);
+        assertFalse(ok.contains("ERROR"));
+        assertTrue(ok, ok.endsWith("M  END\n> <SOURCE>\nb.png\n\n> <ELAPSED_MS>\n3\n\n> <TIMED_OUT>\ntrue\n\n$$$$\n"));
+    }
+
+    @Test
+    public void jsonStringsEscaped() {
+        assertEquals("{\"source\":\"a \\\"b\\\"\\\\c\",\"elapsedMs\":1,\"timedOut\":false,\"molfile\":\"x\\ny\\u0001\",\"error\":null}\n",
+                BatchRecognizer.toJson("a \"b\"\\c", "x\ny\u0001", 1, false, null));
+    }
+}
@@ -0,0 +1,507 @@
+package gov.nih.ncats.molvec;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.image.ImageSizing;
+import gov.nih.ncats.molvec.internal.image.ImageUtil;
+
+import static org.junit.Assert.*;
+
+public class MolvecEngineTest {
+
+    private byte[] readResource(String path) throws IOException {
+        return Files.readAllBytes(new File(getClass().getResource(path).getFile()).toPath());
+    }
+
+    @Test
+    public void byteBufferSameAsByteArray() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        MolvecEngine engine = new MolvecEngine();
+
+        String expected = engine.recognize(data).getMolfile();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+        direct.position(10);
+        direct.put(data);
+        direct.position(10);
+
+        assertEquals(timeless(expected), timeless(engine.recognize(direct).getMolfile()));
+        assertEquals(10, direct.position());
+    }
+
+    @Test
+    public void sharedEngineAcrossThreads() throws Exception {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        MolvecEngine engine = new MolvecEngine();
+        String expected = engine.recognize(data).getMolfile();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<MolvecResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> engine.recognize(ByteBuffer.wrap(data))));
+            }
+            for (Future<MolvecResult> f : futures) {
+                assertEquals(timeless(expected), timeless(f.get().getMolfile()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void everyParallelismGivesSameResult() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        String expected = new MolvecEngine().recognize(data).getMolfile();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (Parallelism p : Parallelism.values()) {
+                MolvecEngine engine = MolvecEngine.builder()
+                        .parallelism(p)
+                        .executor(executor)
+                        .build();
+                assertEquals(p.name(), timeless(expected), timeless(engine.recognize(data).getMolfile()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void listenerSeesEveryStageWithoutChangingResult() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        String expected = new MolvecEngine().recognize(data).getMolfile();
+
+        List<StageMetrics> stages = Collections.synchronizedList(new ArrayList<>());
+        MolvecEngine engine = MolvecEngine.builder()
+                .listener(stages::add)
+                .build();
+        assertEquals(timeless(expected), timeless(engine.recognize(data).getMolfile()));
+
+        assertEquals("binarize (default)", stages.get(0).getName());
+        assertTrue(stages.stream().anyMatch(s -> s.getName().equals("thin")));
+        assertTrue(stages.stream().anyMatch(s -> s.getName().equals("ocr")));
+
+        StageMetrics last = stages.get(stages.size() - 1);
+        assertEquals(57, last.getStep());
+        assertTrue(last.getCounts().get("nodes") > 0);
+        for (StageMetrics s : stages) {
+            assertTrue(s.toString(), s.getElapsedTime(java.util.concurrent.TimeUnit.NANOSECONDS) >= 0);
+        }
+    }
+
+    @Test
+    public void listenerSeesBinarizationRetries() throws IOException {
+        byte[] data = readResource("/moleculeTest/smallImage.png");
+
+        List<StageMetrics> stages = Collections.synchronizedList(new ArrayList<>());
+        List<String> retries = Collections.synchronizedList(new ArrayList<>());
+        MolvecEngine engine = MolvecEngine.builder()
+                .listener(new StageListener() {
+                    @Override
+                    public void onStage(StageMetrics stage) {
+                        stages.add(stage);
+                    }
+
+                    @Override
+                    public void onRetry(int attempt, String reason) {
+                        retries.add(attempt + ":" + reason);
+                    }
+                })
+                .build();
+        engine.recognize(data);
+
+        assertEquals(Collections.singletonList("0:image too small"), retries);
+        assertTrue(stages.stream().anyMatch(s -> s.getAttempt() == 0 && s.getName().startsWith("abandoned")));
+        assertTrue(stages.stream().anyMatch(s -> s.getAttempt() == 1 && s.getName().equals("binarize (resized)")));
+    }
+
+    @Test
+    public void generousTimeoutGivesSameResult() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        String expected = new MolvecEngine().recognize(data).getMolfile();
+
+        MolvecEngine engine = MolvecEngine.builder()
+                .timeout(10, TimeUnit.MINUTES)
+                .build();
+        MolvecResult result = engine.recognize(data);
+        assertFalse(result.isTimedOut());
+        assertEquals(timeless(expected), timeless(result.getMolfile()));
+    }
+
+    @Test
+    public void expiredTimeoutStillReturnsResult() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+
+        MolvecEngine engine = MolvecEngine.builder()
+                .timeout(1, TimeUnit.NANOSECONDS)
+                .build();
+        MolvecResult result = engine.recognize(data);
+        assertTrue(result.isTimedOut());
+        assertNotNull(result.getMolfile());
+    }
+
+    @Test
+    public void timeoutKeepsConnectionTableFoundSoFar() throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(readResource("/moleculeTest/circleAromatic.png")));
+
+        long[] now = {0};
+        Deadline deadline = Deadline.after(1, TimeUnit.SECONDS, () -> now[0]);
+        List<StageMetrics> stages = new ArrayList<>();
+        StructureImageExtractor sie = StructureImageExtractor.createFromImage(image, ExecutionPolicy.SEQUENTIAL, stage -> {
+            stages.add(stage);
+            if (stage.getStep() == 1) {
+                //use up the rest of the time once the first connection table exists
+                now[0] = TimeUnit.SECONDS.toNanos(2);
+            }
+        }, deadline);
+
+        assertTrue(sie.isTimedOut());
+        assertEquals("deadline expired", stages.get(stages.size() - 1).getName());
+        assertTrue(stages.stream().noneMatch(s -> s.getStep() > 1));
+        String molfile = sie.getCtab().toMol();
+        assertTrue(molfile, molfile.contains(" C "));
+    }
+
+    @Test
+    public void lowDeadlineSkipsOptionalStepsButFinishes() throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(readResource("/moleculeTest/circleAromatic.png")));
+
+        //a tenth of the budget left, and the clock never moves
+        long[] now = {0};
+        Deadline deadline = Deadline.after(10, TimeUnit.SECONDS, () -> now[0]);
+        now[0] = TimeUnit.SECONDS.toNanos(9);
+        assertTrue(deadline.isLow());
+
+        List<StageMetrics> stages = new ArrayList<>();
+        StructureImageExtractor sie = StructureImageExtractor.createFromImage(image, ExecutionPolicy.SEQUENTIAL, stages::add, deadline);
+
+        assertFalse(sie.isTimedOut());
+        assertTrue(stages.stream().noneMatch(s -> s.getName().equals("deadline expired")));
+        String molfile = sie.getCtab().toMol();
+        assertTrue(molfile, molfile.contains(" C "));
+    }
+
+    @Test
+    public void deadlineNoneNeverExpires() {
+        assertFalse(Deadline.NONE.isExpired());
+        assertFalse(Deadline.NONE.isLow());
+        assertTrue(Deadline.after(0, TimeUnit.SECONDS).isExpired());
+        assertTrue(Deadline.after(0, TimeUnit.SECONDS).isLow());
+
+        Deadline d = Deadline.after(1, TimeUnit.HOURS);
+        assertFalse(d.isExpired());
+        assertFalse(d.isLow());
+        assertTrue(d.remaining(TimeUnit.MINUTES) > 50);
+    }
+
+    @Test
+    public void speculativeBinarizationGivesSameResult() throws Exception {
+        //plain, too spotty (retried with the washed out binarization), and too small (retried resized)
+        String[] paths = {"/moleculeTest/circleAromatic.png", "/moleculeTest/azt.png", "/moleculeTest/smallImage.png"};
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            MolvecEngine engine = MolvecEngine.builder()
+                    .executor(executor)
+                    .speculativeBinarization(true)
+                    .build();
+            for (String path : paths) {
+                byte[] data = readResource(path);
+                String expected = new MolvecEngine().recognize(data).getMolfile();
+                assertEquals(path, timeless(expected), timeless(engine.recognize(data).getMolfile()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * a molfile without the timestamp in its header, which changes
+     * if the minute turns over between the recognitions being compared
+     */
+    private static String timeless(String molfile) {
+        return molfile.replaceFirst("Molvec(\\d\\d)\\d{10}2D", "Molvec$12D");
+    }
+
+    /*
+     * the counts line of a molfile, which the timestamp in its header doesn't change
+     */
+    private static String counts(String molfile) {
+        return molfile.split("\n")[3];
+    }
+
+    private static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage onPage(BufferedImage drawing, int scale, int pageWidth, int pageHeight) {
+        BufferedImage page = new BufferedImage(pageWidth, pageHeight, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, pageWidth, pageHeight);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.drawImage(drawing, pageWidth / 4, pageHeight / 4, drawing.getWidth() * scale, drawing.getHeight() * scale, null);
+        g.dispose();
+        return page;
+    }
+
+    @Test
+    public void oversizedImageRejectedFromItsHeader() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        //only the header is left, so decoding it would fail
+        byte[] header = Arrays.copyOf(data, 64);
+        MolvecEngine engine = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.reject(10_000))
+                .build();
+        try {
+            engine.recognize(header);
+            fail("should have been rejected");
+        } catch (ImageTooLargeException expected) {
+        }
+    }
+
+    @Test
+    public void imageWithinSizePolicyGivesSameResult() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        String expected = new MolvecEngine().recognize(data).getMolfile();
+        for (ImageSizePolicy policy : new ImageSizePolicy[]{ImageSizePolicy.reject(1_000_000),
+                ImageSizePolicy.downscale(1_000_000), ImageSizePolicy.tile(1_000_000).maxInkFraction(0.5)}) {
+            MolvecEngine engine = MolvecEngine.builder().imageSizePolicy(policy).build();
+            assertEquals(policy.toString(), timeless(expected), timeless(engine.recognize(data).getMolfile()));
+        }
+    }
+
+    @Test
+    public void inkyImageRejected() throws IOException {
+        //about 4.5% of circleAromatic is ink
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        MolvecEngine engine = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.downscale(Long.MAX_VALUE).maxInkFraction(0.01))
+                .build();
+        try {
+            engine.recognize(data);
+            fail("should have been rejected");
+        } catch (ImageTooLargeException expected) {
+        }
+    }
+
+    @Test
+    public void imageRejectedIfShrinkingMakesStrokesTooThin() throws IOException {
+        //circleAromatic's strokes are about 2 pixels wide
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        MolvecEngine engine = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.downscale(10_000).minStrokeWidth(1.5))
+                .build();
+        try {
+            engine.recognize(data);
+            fail("should have been rejected");
+        } catch (ImageTooLargeException expected) {
+        }
+    }
+
+    @Test
+    public void enlargedImageDownscaledGivesSameStructure() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        String expected = counts(new MolvecEngine().recognize(data).getMolfile());
+        BufferedImage drawing = ImageIO.read(new ByteArrayInputStream(data));
+        byte[] scan = png(onPage(drawing, 4, drawing.getWidth() * 8, drawing.getHeight() * 6));
+
+        MolvecEngine engine = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.downscale(1_000_000).targetStrokeWidth(3))
+                .build();
+        assertEquals(expected, counts(engine.recognize(scan).getMolfile()));
+    }
+
+    @Test
+    public void rejectPolicyNeverShrinksToTargetStroke() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        BufferedImage drawing = ImageIO.read(new ByteArrayInputStream(data));
+        Raster scan = ImageUtil.grayscale(png(onPage(drawing, 4, drawing.getWidth() * 8, drawing.getHeight() * 6))).getRaster();
+
+        assertSame(scan, ImageSizing.fit(scan, ImageSizePolicy.reject(100_000_000).targetStrokeWidth(3)));
+        //where the same stroke width does shrink it when downscaling
+        assertTrue(ImageSizing.fit(scan, ImageSizePolicy.downscale(100_000_000).targetStrokeWidth(3)).getWidth() < scan.getWidth());
+    }
+
+    @Test
+    public void tiledPageFindsStructure() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        String expected = counts(new MolvecEngine().recognize(data).getMolfile());
+        BufferedImage page = onPage(ImageIO.read(new ByteArrayInputStream(data)), 2, 2000, 2400);
+        //a stray mark far from the structure, that ends up as a piece of its own
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(1800, 2200, 40, 6);
+        g.dispose();
+
+        MolvecEngine engine = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.tile(200_000))
+                .build();
+        List<LocatedResult> results = engine.recognizePage(png(page));
+        assertTrue(results.toString(), results.stream()
+                .anyMatch(r -> r.getError() == null && expected.equals(counts(r.getResult().getMolfile()))
+                        && r.getBounds().contains(500 + 234, 600 + 290)));
+    }
+
+    @Test
+    public void tiledImageRecognizedWholeLikeDownscaled() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        byte[] scan = png(onPage(ImageIO.read(new ByteArrayInputStream(data)), 2, 2000, 2400));
+
+        String downscaled = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.downscale(500_000))
+                .build().recognize(scan).getMolfile();
+        String tiled = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.tile(500_000))
+                .build().recognize(scan).getMolfile();
+        assertEquals(timeless(downscaled), timeless(tiled));
+    }
+
+    @Test
+    public void sameImageAnsweredFromCache() throws IOException {
+        byte[] data = readResource("/moleculeTest/circleAromatic.png");
+        //encoded differently, but the same pixels
+        byte[] reencoded = png(ImageIO.read(new ByteArrayInputStream(data)));
+        assertFalse(Arrays.equals(data, reencoded));
+
+        List<String> misses = Collections.synchronizedList(new ArrayList<>());
+        ResultCache memory = ResultCache.inMemory(10);
+        ResultCache counting = new ResultCache() {
+            @Override
+            public String get(String key) {
+                String molfile = memory.get(key);
+                if (molfile == null) {
+                    misses.add(key);
+                }
+                return molfile;
+            }
+
+            @Override
+            public void put(String key, String molfile) {
+                memory.put(key, molfile);
+            }
+        };
+        MolvecEngine engine = MolvecEngine.builder().resultCache(counting).build();
+        String first = engine.recognize(data).getMolfile();
+        assertEquals(first, engine.recognize(reencoded).getMolfile());
+        assertEquals(first, engine.recognize(data).getMolfile());
+        assertEquals(1, misses.size());
+
+        //already decoded, with no size policy; converted to grayscale its own way, so it has its own entry
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(data));
+        String fromDecoded = engine.recognize(decoded).getMolfile();
+        assertEquals(fromDecoded, engine.recognize(decoded).getMolfile());
+        assertEquals(2, misses.size());
+
+        //a different size policy can give a different result, so it doesn't share the entry
+        MolvecEngine.builder().resultCache(counting).imageSizePolicy(ImageSizePolicy.downscale(1_000_000))
+                .build().recognize(data);
+        MolvecEngine.builder().resultCache(counting).imageSizePolicy(ImageSizePolicy.downscale(1_000_000).targetStrokeWidth(3))
+                .build().recognize(data);
+        assertEquals(4, misses.size());
+        assertEquals(4, misses.stream().distinct().count());
+        for (String key : misses) {
+            assertTrue(key, key.matches("[A-Za-z0-9-]+"));
+        }
+    }
+
+    @Test
+    public void pageWithSeveralStructuresFindsEach() throws IOException {
+        String[] paths = {"/moleculeTest/circleAromatic.png", "/moleculeTest/azt.png"};
+        BufferedImage page = new BufferedImage(1200, 1400, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, page.getWidth(), page.getHeight());
+        List<String> expected = new ArrayList<>();
+        int y = 100;
+        for (String path : paths) {
+            byte[] data = readResource(path);
+            expected.add(counts(new MolvecEngine().recognize(data).getMolfile()));
+            BufferedImage drawing = ImageIO.read(new ByteArrayInputStream(data));
+            g.drawImage(drawing, 300, y, null);
+            y += drawing.getHeight() + 200;
+        }
+        //a caption, which isn't a structure
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SERIF, Font.PLAIN, 36));
+        g.drawString("Figure 1. Compounds of the invention", 100, y);
+        g.dispose();
+
+        MolvecEngine engine = MolvecEngine.builder().parallelism(Parallelism.PER_REGION).build();
+        List<LocatedResult> results = engine.recognizePage(png(page));
+        assertEquals(results.toString(), 2, results.size());
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(expected.get(i), counts(results.get(i).getResult().getMolfile()));
+        }
+        //circleAromatic is 234x290
+        assertTrue(results.get(0).getBounds().toString(), results.get(0).getBounds().contains(300 + 117, 100 + 145));
+        assertTrue(results.get(0).getBounds().getMaxY() < results.get(1).getBounds().getMinY());
+    }
+
+    @Test
+    public void failedRegionReportedWithItsError() throws IOException {
+        String[] paths = {"/moleculeTest/circleAromatic.png", "/moleculeTest/azt.png"};
+        BufferedImage page = new BufferedImage(800, 500, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, page.getWidth(), page.getHeight());
+        int x = 100;
+        for (String path : paths) {
+            BufferedImage drawing = ImageIO.read(new ByteArrayInputStream(readResource(path)));
+            g.drawImage(drawing, x, 100, null);
+            x += drawing.getWidth() + 100;
+        }
+        g.dispose();
+
+        //circleAromatic is 234x290, too big for the policy, azt 204x170 isn't
+        MolvecEngine engine = MolvecEngine.builder()
+                .imageSizePolicy(ImageSizePolicy.reject(50_000))
+                .build();
+        List<LocatedResult> results = engine.recognizePage(png(page));
+        assertEquals(results.toString(), 2, results.size());
+        assertNull(results.get(0).getResult());
+        assertTrue(results.get(0).getError() instanceof ImageTooLargeException);
+        assertTrue(results.get(0).getBounds().contains(100 + 117, 100 + 145));
+        assertNull(results.get(1).getError());
+        assertEquals(counts(new MolvecEngine().recognize(readResource(paths[1])).getMolfile()),
+                counts(results.get(1).getResult().getMolfile()));
+    }
+
+    @Test
+    public void blankPageHasNoStructures() throws IOException {
+        BufferedImage page = new BufferedImage(300, 200, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = page.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 300, 200);
+        g.dispose();
+        assertTrue(new MolvecEngine().recognizePage(png(page)).isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+package gov.nih.ncats.molvec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RecognitionServerTest {
+
+    private RecognitionServer server;
+
+    @Before
+    public void start() throws IOException {
+        server = new RecognitionServer(MolvecEngine.builder().parallelism(Parallelism.PER_IMAGE).build(),
+                0, 1, 2, 100_000, BatchRecognizer.Format.JSONL);
+        server.start();
+    }
+
+    @After
+    public void stop() throws InterruptedException {
+        server.stop();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    private HttpURLConnection post(String path, byte[] body) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        try (InputStream stream = in) {
+            int n;
+            while ((n = stream.read(buf)) > 0) {
+                body.write(buf, 0, n);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] image() throws IOException {
+        return Files.readAllBytes(new File(getClass().getResource("/moleculeTest/circleAromatic.png").getFile()).toPath());
+    }
+
+    @Test
+    public void postedImageRecognized() throws IOException {
+        HttpURLConnection connection = post("/recognize?name=ring%201", image());
+        String record = read(connection);
+        assertEquals(record, 200, connection.getResponseCode());
+        assertTrue(record, record.startsWith("{\"source\":\"ring 1\"") && record.contains(" 13 14  0"));
+    }
+
+    @Test
+    public void formatCanBeAskedFor() throws IOException {
+        HttpURLConnection connection = post("/recognize?format=sdf", image());
+        String record = read(connection);
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(record, record.contains("> <SOURCE>\nrequest-1\n") && record.endsWith("$$$$\n"));
+
+        assertEquals(400, post("/recognize?format=xml", image()).getResponseCode());
+    }
+
+    @Test
+    public void unreadableImageFails() throws IOException {
+        HttpURLConnection connection = post("/recognize", "not an image".getBytes(StandardCharsets.UTF_8));
+        String record = read(connection);
+        assertEquals(422, connection.getResponseCode());
+        assertTrue(record, record.contains("\"molfile\":null"));
+    }
+
+    @Test
+    public void oversizedBodyTurnedAway() throws IOException {
+        HttpURLConnection connection = post("/recognize", new byte[100_001]);
+        String message = read(connection);
+        assertEquals(413, connection.getResponseCode());
+        assertTrue(message, message.contains("limit of 100000 bytes"));
+
+        //without a length up front, it's only found out while reading
+        connection = open("/recognize");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(1024);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(new byte[200_000]);
+        }
+        assertEquals(413, connection.getResponseCode());
+
+        assertTrue(server.metrics(), server.metrics().contains("\"tooLarge\":2,"));
+        assertEquals(200, post("/recognize", image()).getResponseCode());
+    }
+
+    @Test
+    public void metricsCountRequests() throws IOException {
+        read(post("/recognize", image()));
+        read(post("/recognize", new byte[0]));
+
+        HttpURLConnection connection = open("/metrics");
+        String metrics = read(connection);
+        assertEquals(200, connection.getResponseCode());
+        //the worker may not have finished the last task yet when its response is read
+        assertTrue(metrics, metrics.startsWith("{\"workers\":1,"));
+        assertTrue(metrics, metrics.contains(",\"queueDepth\":0,\"queueCapacity\":2,"
+                + "\"received\":2,\"recognized\":1,\"failed\":1,\"rejected\":0,\"tooLarge\":0,\"queuedMs\":{\"count\":2,"));
+        assertTrue(metrics, metrics.contains("\"recognizingMs\":{\"count\":2,"));
+    }
+
+    @Test
+    public void latencyPercentilesOfRecentRequests() {
+        RecognitionServer.Latencies latencies = new RecognitionServer.Latencies(10);
+        assertEquals(0, latencies.percentile(50), 0);
+        for (int i = 1; i <= 20; i++) {
+            latencies.add(i * 1_000_000L);
+        }
+        //only the last 10 are kept
+        assertEquals(11, latencies.percentile(0), 0);
+        assertEquals(15, latencies.percentile(50), 0);
+        assertEquals(19, latencies.percentile(90), 0);
+        assertEquals(20, latencies.percentile(100), 0);
+    }
+}
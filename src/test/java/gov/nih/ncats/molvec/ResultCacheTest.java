@@ -0,0 +1,100 @@
+package gov.nih.ncats.molvec;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void memoryCacheDropsLeastRecentlyUsed() {
+        ResultCache cache = ResultCache.inMemory(2);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C");
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+    }
+
+    @Test
+    public void diskCacheDeletesLeastRecentlyUsedWhenOverSize() throws IOException {
+        Path dir = tmp.newFolder("cache").toPath();
+        DiskResultCache cache = new DiskResultCache(dir, 25);
+        cache.put("a", "0123456789");
+        cache.put("b", "0123456789");
+        assertEquals("0123456789", cache.get("a"));
+        cache.put("c", "0123456789");
+        assertEquals(20, cache.size());
+        assertNull(cache.get("b"));
+        assertFalse(Files.exists(dir.resolve("b.mol")));
+        assertEquals("0123456789", cache.get("a"));
+        assertEquals("0123456789", cache.get("c"));
+    }
+
+    @Test
+    public void diskCacheReopenedKeepsResultsInOrderOfUse() throws IOException {
+        Path dir = tmp.newFolder("cache").toPath();
+        ResultCache cache = ResultCache.onDisk(dir, 1000);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        //used long ago
+        Files.setLastModifiedTime(dir.resolve("b.mol"), FileTime.fromMillis(0));
+
+        DiskResultCache reopened = new DiskResultCache(dir, 2);
+        assertEquals("A", reopened.get("a"));
+        reopened.put("c", "C");
+        assertNull(reopened.get("b"));
+        assertEquals("A", reopened.get("a"));
+        assertEquals("C", reopened.get("c"));
+    }
+
+    @Test
+    public void diskCacheForgetsDeletedFiles() throws IOException {
+        Path dir = tmp.newFolder("cache").toPath();
+        DiskResultCache cache = new DiskResultCache(dir, 1000);
+        cache.put("a", "A");
+        Files.delete(dir.resolve("a.mol"));
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void diskCacheDeletesUnfinishedWritesWhenOpened() throws IOException {
+        Path dir = tmp.newFolder("cache").toPath();
+        Files.write(dir.resolve("a.mol"), "A".getBytes());
+        //as left by a put cut short by a crash
+        Path unfinished = Files.write(dir.resolve("b123.tmp"), "half a molf".getBytes());
+
+        DiskResultCache cache = new DiskResultCache(dir, 1000);
+        assertFalse(Files.exists(unfinished));
+        assertEquals("A", cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void tieredCacheCopiesSlowHitsIntoFastCache() {
+        MemoryResultCache fast = new MemoryResultCache(10);
+        MemoryResultCache slow = new MemoryResultCache(10);
+        ResultCache cache = ResultCache.tiered(fast, slow);
+        slow.put("a", "A");
+        assertEquals("A", cache.get("a"));
+        assertEquals("A", fast.get("a"));
+
+        cache.put("b", "B");
+        assertEquals("B", fast.get("b"));
+        assertEquals("B", slow.get("b"));
+        assertNull(cache.get("c"));
+    }
+}
@@ -0,0 +1,67 @@
+package gov.nih.ncats.molvec.internal.algo;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.Parallelism;
+
+public class ExecutionPolicyTest {
+
+	/*
+	 * takes the first helper, then fails with the given exception
+	 */
+	private static ForkJoinPool failingAfterOne(RuntimeException failure){
+		AtomicInteger submitted = new AtomicInteger();
+		return new ForkJoinPool(4){
+			@Override
+			public void execute(Runnable task){
+				if(submitted.getAndIncrement()>0){
+					throw failure;
+				}
+				super.execute(task);
+			}
+		};
+	}
+
+	@Test
+	public void rejectedHelpersLeaveTheWorkToTheCaller(){
+		ForkJoinPool pool = failingAfterOne(new RejectedExecutionException());
+		try{
+			AtomicIntegerArray done = new AtomicIntegerArray(200);
+			ExecutionPolicy.of(Parallelism.PER_GLYPH, pool).forEachIndex(Parallelism.PER_GLYPH, 200, i->done.incrementAndGet(i));
+			for(int i=0;i<200;i++){
+				assertEquals(1, done.get(i));
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void failingExecutorStillWaitsForHelpersAlreadyRunning(){
+		ForkJoinPool pool = failingAfterOne(new IllegalStateException("broken"));
+		try{
+			AtomicIntegerArray done = new AtomicIntegerArray(200);
+			try{
+				ExecutionPolicy.of(Parallelism.PER_GLYPH, pool).forEachIndex(Parallelism.PER_GLYPH, 200, i->{
+					done.incrementAndGet(i);
+				});
+				fail("should have thrown");
+			}catch(IllegalStateException e){
+				assertEquals("broken", e.getMessage());
+			}
+			//nothing still running once it has returned
+			for(int i=0;i<200;i++){
+				assertEquals(1, done.get(i));
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+}
@@ -30,4 +30,17 @@ public class UtilTest {
 		
 		
 	}
+
+	@Test
+	public void unionFindComponentsGroupedByRootNotParent(){
+		UnionFind uf = new UnionFind(5);
+		uf.union(0, 1);
+		uf.union(2, 3);
+		//3's parent is still 2, which is no longer a root
+		uf.union(1, 3);
+		int[][] comps = uf.getComponents();
+		assertEquals(2, comps.length);
+		assertEquals("[0, 1, 2, 3]", Arrays.toString(comps[0]));
+		assertEquals("[4]", Arrays.toString(comps[1]));
+	}
 }
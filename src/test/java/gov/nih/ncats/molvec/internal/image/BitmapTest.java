@@ -0,0 +1,354 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import static org.junit.Assert.*;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.Parallelism;
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+
+public class BitmapTest {
+
+	private Bitmap binarize(String path) throws IOException{
+		File f = new File(getClass().getResource(path).getFile());
+		return Bitmap.createBitmap(ImageUtil.grayscale(f).getRaster(), StructureImageExtractor.DEF_BINARIZATION).clean();
+	}
+
+	/*
+	 * the original pixel at a time thinning, to compare against
+	 */
+	private static Bitmap thinOnePixelAtATime(Bitmap bm){
+		Bitmap thin = new Bitmap(bm);
+		Bitmap next = new Bitmap(bm);
+		int parity = 1;
+		boolean changed;
+		do{
+			changed = false;
+			parity = 1 - parity;
+			for(int y=0; y<thin.height(); y++){
+				for(int x=0; x<thin.width(); x++){
+					if(thin.get(x, y) && thin.shouldThin(thin.neighbor8Index(x, y), parity)){
+						next.set(x, y, false);
+						changed = true;
+					}
+				}
+			}
+			thin = new Bitmap(next);
+		}while(changed);
+		return thin;
+	}
+
+	private static void assertSamePixels(Bitmap expected, Bitmap actual){
+		assertEquals(expected.width(), actual.width());
+		assertEquals(expected.height(), actual.height());
+		for(int y=0; y<expected.height(); y++){
+			for(int x=0; x<expected.width(); x++){
+				assertEquals(x + "," + y, expected.get(x, y), actual.get(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void thinMaskMatchesLookupTableForEveryNeighborhood(){
+		for(int parity=0; parity<2; parity++){
+			for(int base=0; base<256; base+=64){
+				long[] n = new long[8];
+				for(int lane=0; lane<64; lane++){
+					int index = base + lane;
+					for(int i=0; i<8; i++){
+						if((index & (1<<i)) !=0){
+							n[i] |= 1L << lane;
+						}
+					}
+				}
+				long mask = Bitmap.thinMask(n[0], n[1], n[2], n[3], n[4], n[5], n[6], n[7], parity);
+				for(int lane=0; lane<64; lane++){
+					boolean expected = new Bitmap(1,1).shouldThin(base + lane, parity);
+					assertEquals("index " + (base + lane) + " parity " + parity, expected, (mask & (1L << lane)) !=0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void thinMatchesPixelAtATimeThinning() throws IOException{
+		for(String path : new String[]{"/moleculeTest/circleAromatic.png", "/moleculeTest/azt.png", "/moleculeTest/cagedStructure.png"}){
+			Bitmap bm = binarize(path);
+			Bitmap thin = bm.thin();
+			Bitmap expected = thinOnePixelAtATime(bm);
+			assertSamePixels(expected, thin);
+			//the grid of on pixels has to be kept up to date too
+			assertEquals(path, expected.getXYOnPoints().count(), thin.getXYOnPoints().count());
+		}
+	}
+
+	@Test
+	public void thinHandlesPixelsOnEveryWordAndImageEdge(){
+		//a width that isn't a multiple of 8 or 64, with thick lines crossing the word boundaries
+		Bitmap bm = new Bitmap(131, 40);
+		for(int y=0; y<40; y++){
+			for(int x=0; x<131; x++){
+				boolean bar = (y >= 10 && y < 16) || (x >= 60 && x < 70) || (x >= 125) || (y < 3);
+				if(bar){
+					bm.set(x, y, true);
+				}
+			}
+		}
+		assertSamePixels(thinOnePixelAtATime(bm), bm.thin());
+	}
+
+	/*
+	 * flood fill 8-connected components, numbered in raster order of their first pixel
+	 */
+	private static int[] floodFillLabels(Bitmap bm){
+		int w = bm.width();
+		int h = bm.height();
+		int[] labels = new int[w*h];
+		int next = 0;
+		ArrayDeque<int[]> queue = new ArrayDeque<>();
+		for(int y=0; y<h; y++){
+			for(int x=0; x<w; x++){
+				if(!bm.get(x, y) || labels[y*w + x] !=0){
+					continue;
+				}
+				int l = ++next;
+				labels[y*w + x] = l;
+				queue.add(new int[]{x, y});
+				while(!queue.isEmpty()){
+					int[] p = queue.poll();
+					for(int dy=-1; dy<=1; dy++){
+						for(int dx=-1; dx<=1; dx++){
+							int nx = p[0] + dx;
+							int ny = p[1] + dy;
+							if(bm.get(nx, ny) && labels[ny*w + nx] ==0){
+								labels[ny*w + nx] = l;
+								queue.add(new int[]{nx, ny});
+							}
+						}
+					}
+				}
+			}
+		}
+		return labels;
+	}
+
+	/*
+	 * what connectedComponents did before ComponentLabels: short labels over the on
+	 * pixels in raster order, with an equivalence table, then numbered in raster order
+	 * of the first pixel of each class
+	 */
+	private static int[] equivalenceTableLabels(Bitmap bm){
+		int w = bm.width();
+		int h = bm.height();
+		short[][] labels = new short[h][w + 1];
+		short[] eqvtab = new short[500];
+		short[] L = new short[4];
+		short label = 0;
+		for(int[] xy : (Iterable<int[]>) bm.getXYOnPoints()::iterator){
+			int x = xy[0];
+			int y = xy[1];
+			if(y == 0 && x == 0){
+				labels[y][x] = ++label;
+			}else if(y == 0){
+				short l1 = labels[y][x - 1];
+				labels[y][x] = (l1 == 0) ? ++label : l1;
+			}else if(x == 0){
+				int l1 = labels[y - 1][x];
+				int l2 = labels[y - 1][x + 1];
+				if(l1 != 0 && l2 != 0){
+					l1 = Math.min(l1, l2);
+				}else if(l1 == 0 && l2 == 0){
+					l1 = ++label;
+				}else{
+					l1 = Math.max(l1, l2);
+				}
+				labels[y][x] = (short) l1;
+			}else if(labels[y][x - 1] == 0 && labels[y - 1][x] == 0 && labels[y - 1][x - 1] == 0 && labels[y - 1][x + 1] == 0){
+				labels[y][x] = ++label;
+			}else{
+				L[0] = labels[y - 1][x - 1];
+				L[1] = labels[y - 1][x];
+				L[2] = labels[y - 1][x + 1];
+				L[3] = labels[y][x - 1];
+				Arrays.sort(L);
+				int n = 0;
+				while(L[n] == 0){
+					n++;
+				}
+				labels[y][x] = L[n];
+				for(int i = n; i < 4; ++i){
+					for(int j = i + 1; j < 4; ++j){
+						union(eqvtab, L[i], L[j]);
+					}
+				}
+			}
+			assertTrue("too many labels for the old labelling", label < Short.MAX_VALUE);
+			if(label >= eqvtab.length){
+				eqvtab = Arrays.copyOf(eqvtab, label + 100);
+			}
+		}
+
+		int[] plane = new int[w*h];
+		Map<Short,Integer> numbers = new HashMap<>();
+		for(int y=0; y<h; y++){
+			for(int x=0; x<w; x++){
+				short l = labels[y][x];
+				if(l != 0){
+					while(eqvtab[l] > 0){
+						l = eqvtab[l];
+					}
+					plane[y*w + x] = numbers.computeIfAbsent(l, k->numbers.size() + 1);
+				}
+			}
+		}
+		return plane;
+	}
+
+	private static void union(short[] eqvtab, short cls1, short cls2){
+		short i = cls1, j = cls2, k;
+		while(eqvtab[i] > 0) i = eqvtab[i];
+		while(eqvtab[j] > 0) j = eqvtab[j];
+		while(eqvtab[cls1] > 0){
+			k = cls1;
+			cls1 = eqvtab[cls1];
+			eqvtab[k] = i;
+		}
+		while(eqvtab[cls2] > 0){
+			k = cls2;
+			cls2 = eqvtab[cls2];
+			eqvtab[k] = j;
+		}
+		if(i != j){
+			if(eqvtab[j] < eqvtab[i]){
+				eqvtab[j] += eqvtab[i] - 1;
+				eqvtab[i] = j;
+			}else{
+				eqvtab[i] += eqvtab[j] - 1;
+				eqvtab[j] = i;
+			}
+		}
+	}
+
+	private static Bitmap noise(int w, int h, double density, long seed){
+		Random r = new Random(seed);
+		Bitmap bm = new Bitmap(w, h);
+		for(int y=0; y<h; y++){
+			for(int x=0; x<w; x++){
+				if(r.nextDouble() < density){
+					bm.set(x, y, true);
+				}
+			}
+		}
+		return bm;
+	}
+
+	@Test
+	public void componentLabelsMatchFloodFill() throws IOException{
+		for(Bitmap bm : new Bitmap[]{binarize("/moleculeTest/azt.png"), binarize("/moleculeTest/cagedStructure.png"), noise(203, 157, 0.45, 1)}){
+			assertArrayEquals(floodFillLabels(bm), bm.labelComponents(ExecutionPolicy.SEQUENTIAL).labels);
+		}
+	}
+
+	@Test
+	public void componentLabelsSameAsEquivalenceTable() throws IOException{
+		for(String image : new String[]{"/moleculeTest/azt.png", "/moleculeTest/cagedStructure.png", "/moleculeTest/cagedStructure4.png",
+				"/moleculeTest/circleAromatic.png", "/fragmentTest/bromineContaining.png"}){
+			Bitmap bm = binarize(image);
+			assertArrayEquals(image, equivalenceTableLabels(bm), bm.labelComponents(ExecutionPolicy.SEQUENTIAL).labels);
+		}
+		Bitmap bm = noise(203, 157, 0.45, 1);
+		assertArrayEquals(equivalenceTableLabels(bm), bm.labelComponents(ExecutionPolicy.SEQUENTIAL).labels);
+	}
+
+	@Test
+	public void largeCropSeesPixelsSetAfterComponentsFound(){
+		Bitmap bm = noise(64, 64, 0.3, 4);
+		bm.connectedComponents(Bitmap.Bbox.DoublePolygon);
+		bm.getXYOnPoints().count();
+		Bitmap pasted = new Bitmap(bm);
+		for(int x=10; x<50; x++){
+			bm.set(x, 30, true);
+			pasted.set(x, 30, true);
+		}
+		//big enough to be cropped from the list of on pixels
+		Rectangle area = new Rectangle(5, 5, 50, 50);
+		assertSamePixels(pasted.crop(area), bm.crop(area));
+		assertTrue(bm.crop(area).get(20, 25));
+	}
+
+	@Test
+	public void componentLabelsInStripsMatchOneStrip(){
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try{
+			ExecutionPolicy parallel = ExecutionPolicy.of(Parallelism.PER_GLYPH, executor);
+			Bitmap bm = noise(517, 613, 0.45, 2);
+			ComponentLabels expected = bm.labelComponents(1, ExecutionPolicy.SEQUENTIAL);
+			for(int strips : new int[]{2, 7, 64, 613}){
+				ComponentLabels actual = bm.labelComponents(strips, parallel);
+				assertEquals(expected.count, actual.count);
+				assertArrayEquals("strips " + strips, expected.labels, actual.labels);
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void manyComponentsAreNotTruncated(){
+		//one isolated pixel in every 2x2 cell, far more than Short.MAX_VALUE components
+		Bitmap bm = new Bitmap(600, 600);
+		for(int y=0; y<600; y+=2){
+			for(int x=0; x<600; x+=2){
+				bm.set(x, y, true);
+			}
+		}
+		assertEquals(300*300, bm.labelComponents(ExecutionPolicy.SEQUENTIAL).count);
+		assertEquals(300*300, bm.connectedComponents(Bitmap.Bbox.Rectangular).size());
+	}
+
+	/*
+	 * every segment of a shape, with its coordinates
+	 */
+	private static List<String> segmentsOf(Shape s){
+		List<String> segments = new ArrayList<>();
+		double[] c = new double[6];
+		for(PathIterator it = s.getPathIterator(null); !it.isDone(); it.next()){
+			int type = it.currentSegment(c);
+			segments.add(type + ":" + c[0] + "," + c[1]);
+		}
+		return segments;
+	}
+
+	@Test
+	public void hullsFromRowEndsSameAsFromEveryPixel() throws IOException{
+		for(Bitmap bm : new Bitmap[]{binarize("/moleculeTest/azt.png"), binarize("/moleculeTest/cagedStructure.png"), noise(203, 157, 0.45, 1), noise(97, 89, 0.7, 3)}){
+			ComponentLabels labels = bm.labelComponents(ExecutionPolicy.SEQUENTIAL);
+
+			List<Shape> expected = Bitmap.Bbox.legacyPolygons(labels);
+			List<Shape> actual = Bitmap.Bbox.Polygon.computeConnectedComponentShapes(labels);
+			List<Shape> expectedDouble = Bitmap.Bbox.legacyDoublePolygons(labels);
+			List<Shape> actualDouble = Bitmap.Bbox.DoublePolygon.computeConnectedComponentShapes(labels);
+			assertEquals(expected.size(), actual.size());
+			for(int i=0; i<expected.size(); i++){
+				assertEquals(segmentsOf(expected.get(i)), segmentsOf(actual.get(i)));
+				assertEquals(segmentsOf(expectedDouble.get(i)), segmentsOf(actualDouble.get(i)));
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package gov.nih.ncats.molvec.internal.image;
+
+import static org.junit.Assert.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RescaleOp;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.image.binarization.Binarization;
+import gov.nih.ncats.molvec.internal.image.binarization.ImageStats;
+
+public class ImageUtilTest {
+
+	/*
+	 * the original decode, which rescaled whole copies of the image
+	 * before grayscaling them
+	 */
+	private static Raster decodeByCopying(BufferedImage bi){
+		Raster raster = bi.getData();
+		int max = 0;
+		int min = Integer.MAX_VALUE;
+		int[] pix = new int[raster.getWidth()];
+		for(int y=0; y<raster.getHeight(); y++){
+			for(int b=0; b<raster.getNumBands(); b++){
+				raster.getSamples(0, y, raster.getWidth(), 1, b, pix);
+				for(int p : pix){
+					max = Math.max(max, p);
+					min = Math.min(min, p);
+				}
+			}
+		}
+		double scale = Math.max(256./(max-min+1),1);
+		Raster scaled = new RescaleOp((float)scale, -(float)scale*min, null).filter(raster, null);
+		return new Grayscale(new RescaleOp(-1, 255, null).filter(scaled, null)).getRaster();
+	}
+
+	/*
+	 * the original upscale, which drew the image scaled, inverted it one
+	 * Color at a time and wrote it out as a PNG to be read back in
+	 */
+	private static Raster resampleThroughPng(Raster raster, double scale) throws IOException{
+		BufferedImage gray = new BufferedImage(raster.getWidth(), raster.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+		gray.setData(Raster.createRaster(raster.getSampleModel(), raster.getDataBuffer(), null));
+		BufferedImage outputImage = new BufferedImage((int)(raster.getWidth()*scale), (int)(raster.getHeight()*scale), ColorModel.BITMASK);
+		Graphics2D g2d = outputImage.createGraphics();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		g2d.scale(scale, scale);
+		g2d.drawImage(gray, 0, 0, null);
+		g2d.dispose();
+		for(int x=0; x<outputImage.getWidth(); x++){
+			for(int y=0; y<outputImage.getHeight(); y++){
+				Color col = new Color(outputImage.getRGB(x, y), true);
+				col = new Color(255 - col.getRed(), 255 - col.getGreen(), 255 - col.getBlue());
+				outputImage.setRGB(x, y, col.getRGB());
+			}
+		}
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(outputImage, "png", png);
+		return ImageUtil.decodeRaster(ImageIO.read(new ByteArrayInputStream(png.toByteArray())));
+	}
+
+	private static BufferedImage noise(int type, long seed){
+		BufferedImage bi = new BufferedImage(97, 61, type);
+		WritableRaster raster = bi.getRaster();
+		int[] sizes = raster.getSampleModel().getSampleSize();
+		Random r = new Random(seed);
+		for(int y=0; y<raster.getHeight(); y++){
+			for(int x=0; x<raster.getWidth(); x++){
+				for(int b=0; b<sizes.length; b++){
+					//a narrow range, so the stretch actually does something
+					int range = Math.max(2, (1 << sizes[b]) / 3);
+					raster.setSample(x, y, b, 5 + r.nextInt(range));
+				}
+			}
+		}
+		return bi;
+	}
+
+	private static void assertSameSamples(Raster expected, Raster actual){
+		assertEquals(expected.getWidth(), actual.getWidth());
+		assertEquals(expected.getHeight(), actual.getHeight());
+		int w = expected.getWidth();
+		int h = expected.getHeight();
+		assertArrayEquals(expected.getSamples(0, 0, w, h, 0, (int[])null), actual.getSamples(0, 0, w, h, 0, (int[])null));
+	}
+
+	@Test
+	public void decodeMatchesRescalingCopiesForEveryKindOfImage(){
+		int[] types = {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY, BufferedImage.TYPE_3BYTE_BGR,
+				BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_4BYTE_ABGR,
+				BufferedImage.TYPE_USHORT_565_RGB};
+		for(int type : types){
+			BufferedImage bi = noise(type, type);
+			assertSameSamples(decodeByCopying(bi), ImageUtil.decodeRaster(bi));
+		}
+	}
+
+	@Test
+	public void decodeMatchesRescalingCopiesForTestImages() throws IOException{
+		for(String path : new String[]{"/moleculeTest/azt.png", "/moleculeTest/circleAromatic.png", "/moleculeTest/cagedStructure.png"}){
+			BufferedImage bi = ImageIO.read(new File(getClass().getResource(path).getFile()));
+			assertSameSamples(decodeByCopying(bi), ImageUtil.decodeRaster(bi));
+		}
+	}
+
+	@Test
+	public void statsFromHistogramMatchPassOverPixels(){
+		GrayscaleRaster decoded = ImageUtil.decodeRaster(noise(BufferedImage.TYPE_INT_RGB, 3));
+		//a plain raster over the same pixels, which has to be read pixel by pixel
+		Raster plain = Raster.createRaster(decoded.getSampleModel(), decoded.getDataBuffer(), null);
+
+		ImageStats expected = Binarization.computeImageStats(plain);
+		ImageStats actual = Binarization.computeImageStats(decoded);
+		assertEquals(expected.min, actual.min, 0);
+		assertEquals(expected.max, actual.max, 0);
+		assertEquals(expected.mean, actual.mean, 0);
+		assertEquals(expected.stdev, actual.stdev, 0);
+		assertEquals(expected.count, actual.count, 0);
+		assertEquals(expected.threshold, actual.threshold, 0);
+		assertArrayEquals(expected.histogram, actual.histogram);
+		assertArrayEquals(expected.histogramRaw, actual.histogramRaw);
+	}
+
+	@Test
+	public void rasterHashOnlyDependsOnTheSamples(){
+		GrayscaleRaster decoded = ImageUtil.decodeRaster(noise(BufferedImage.TYPE_INT_RGB, 7));
+		Raster plain = Raster.createRaster(decoded.getSampleModel(), decoded.getDataBuffer(), null);
+		String hash = RasterHash.of(decoded);
+		assertEquals(32, hash.length());
+		assertEquals(hash, RasterHash.of(plain));
+
+		WritableRaster changed = plain.createCompatibleWritableRaster();
+		changed.setRect(plain);
+		changed.setSample(50, 30, 0, changed.getSample(50, 30, 0) ^ 1);
+		assertNotEquals(hash, RasterHash.of(changed));
+
+		//same samples, different shape
+		Raster sideways = Raster.createRaster(new PixelInterleavedSampleModel(
+				DataBuffer.TYPE_BYTE, plain.getHeight(), plain.getWidth(), 1, plain.getHeight(), new int[]{0}),
+				decoded.getDataBuffer(), null);
+		assertNotEquals(hash, RasterHash.of(sideways));
+	}
+
+	@Test
+	public void viewSharesPixelsOfTheRaster(){
+		GrayscaleRaster decoded = ImageUtil.decodeRaster(noise(BufferedImage.TYPE_BYTE_GRAY, 11));
+		Raster view = ImageUtil.view(decoded, 10, 5, 40, 30);
+		assertEquals(0, view.getMinX());
+		assertEquals(0, view.getMinY());
+		assertSame(decoded.getDataBuffer(), view.getDataBuffer());
+		assertSameSamples(ImageUtil.crop(decoded, 10, 5, 40, 30), view);
+		assertSameSamples(ImageUtil.resample(ImageUtil.crop(decoded, 10, 5, 40, 30), 1.7), ImageUtil.resample(view, 1.7));
+	}
+
+	@Test
+	public void decodedRasterCanBeResampled(){
+		GrayscaleRaster decoded = ImageUtil.decodeRaster(noise(BufferedImage.TYPE_BYTE_GRAY, 5));
+		Raster plain = Raster.createRaster(decoded.getSampleModel(), decoded.getDataBuffer(), null);
+		assertSameSamples(ImageUtil.resample(plain, 1.7), ImageUtil.resample(decoded, 1.7));
+	}
+
+	@Test
+	public void resampleMatchesDrawingThroughPng() throws IOException{
+		for(String path : new String[]{"/moleculeTest/azt.png", "/fragmentTest/bromineContaining.png"}){
+			GrayscaleRaster decoded = ImageUtil.decodeRaster(ImageIO.read(new File(getClass().getResource(path).getFile())));
+			assertSameSamples(resampleThroughPng(decoded, 3), ImageUtil.resample(decoded, 3));
+		}
+		//nothing near white, so the stretch actually does something
+		GrayscaleRaster dim = ImageUtil.decodeRaster(noise(BufferedImage.TYPE_BYTE_GRAY, 8));
+		WritableRaster darker = dim.createCompatibleWritableRaster();
+		for(int y=0; y<dim.getHeight(); y++){
+			for(int x=0; x<dim.getWidth(); x++){
+				darker.setSample(x, y, 0, 30 + dim.getSample(x, y, 0) / 2);
+			}
+		}
+		assertSameSamples(resampleThroughPng(darker, 3), ImageUtil.resample(darker, 3));
+	}
+
+	@Test
+	public void setRowMatchesSettingEachPixel(){
+		Random r = new Random(4);
+		int w = 131;
+		int h = 9;
+		Bitmap expected = new Bitmap(w, h);
+		Bitmap actual = new Bitmap(w, h);
+		double[] row = new double[w];
+		//set every row twice, so pixels get turned off as well as on
+		for(int pass=0; pass<2; pass++){
+			for(int y=0; y<h; y++){
+				for(int x=0; x<w; x++){
+					row[x] = r.nextInt(256);
+					expected.set(x, y, row[x] >= 128);
+				}
+				actual.setRow(y, row, 128);
+			}
+		}
+		for(int y=0; y<h; y++){
+			for(int x=0; x<w; x++){
+				assertEquals(x + "," + y, expected.get(x, y), actual.get(x, y));
+			}
+		}
+		assertEquals(expected.fractionPixelsOn(), actual.fractionPixelsOn(), 0);
+		assertEquals(expected.getXYOnPoints().count(), actual.getXYOnPoints().count());
+	}
+
+	@Test
+	public void shrinkAveragesBlocksOfPixels(){
+		GrayscaleRaster decoded = ImageUtil.decodeRaster(noise(BufferedImage.TYPE_BYTE_GRAY, 6));
+		Raster shrunk = ImageUtil.shrink(decoded, 1/3.);
+		assertEquals(97/3, shrunk.getWidth());
+		assertEquals(61/3, shrunk.getHeight());
+		for(int y=0; y<shrunk.getHeight(); y++){
+			for(int x=0; x<shrunk.getWidth(); x++){
+				int sum = 0;
+				for(int j=0; j<3; j++){
+					for(int i=0; i<3; i++){
+						sum += decoded.getSample(3*x + i, 3*y + j, 0);
+					}
+				}
+				assertEquals(x + "," + y, (sum + 4) / 9, shrunk.getSample(x, y, 0));
+			}
+		}
+		//the histogram is counted as it's shrunk
+		ImageStats expected = Binarization.computeImageStats(Raster.createRaster(shrunk.getSampleModel(), shrunk.getDataBuffer(), null));
+		assertArrayEquals(expected.histogramRaw, Binarization.computeImageStats(shrunk).histogramRaw);
+
+		assertSame(decoded, ImageUtil.shrink(decoded, 1));
+		Raster other = ImageUtil.shrink(decoded, 0.4);
+		assertEquals((int)(97 * 0.4), other.getWidth(), 1);
+		assertEquals((int)(61 * 0.4), other.getHeight(), 1);
+	}
+
+	@Test
+	public void inkEstimateFindsStrokeWidth(){
+		BufferedImage bi = new BufferedImage(400, 300, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = bi.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, 400, 300);
+		g.setColor(Color.BLACK);
+		g.setStroke(new BasicStroke(5));
+		g.drawRect(50, 50, 300, 200);
+		g.drawLine(50, 50, 350, 250);
+		g.dispose();
+
+		InkEstimate ink = InkEstimate.of(ImageUtil.decodeRaster(bi));
+		assertEquals(5, ink.getStrokeWidth(), 1);
+		assertTrue(ink.toString(), ink.getInkFraction() > 0.02 && ink.getInkFraction() < 0.1);
+
+		InkEstimate blank = InkEstimate.of(ImageUtil.decodeRaster(new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_GRAY)));
+		assertEquals(0, blank.getStrokeWidth(), 0);
+		assertEquals(0, blank.getInkFraction(), 0);
+	}
+
+	@Test
+	public void sizeReadFromHeader() throws IOException{
+		File file = new File(getClass().getResource("/moleculeTest/azt.png").getFile());
+		BufferedImage bi = ImageIO.read(file);
+		byte[] data = Files.readAllBytes(file.toPath());
+		assertEquals(new Dimension(bi.getWidth(), bi.getHeight()), ImageUtil.readSize(file));
+		assertEquals(new Dimension(bi.getWidth(), bi.getHeight()), ImageUtil.readSize(data, 0, data.length));
+	}
+}
@@ -0,0 +1,136 @@
+package gov.nih.ncats.molvec.internal.image.binarization;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.Parallelism;
+import gov.nih.ncats.molvec.internal.algo.ExecutionPolicy;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+public class WindowSumsTest {
+
+	private static Raster noise(int width, int height, long seed){
+		BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		WritableRaster raster = bi.getRaster();
+		Random r = new Random(seed);
+		for(int y=0; y<height; y++){
+			for(int x=0; x<width; x++){
+				//mostly background with some dark strokes, like a drawing
+				raster.setSample(x, y, 0, r.nextInt(10) == 0 ? 150 + r.nextInt(106) : r.nextInt(60));
+			}
+		}
+		return raster;
+	}
+
+	/*
+	 * every pixel whose window sum is odd is on, so the bitmap
+	 * shows whether each sum was right
+	 */
+	private static Bitmap oddSums(WindowSums windows, int strips, ExecutionPolicy policy){
+		return windows.threshold((y, row, sums, squares, counts, bits, offset)->{
+			for(int x=0; x<row.length; x++){
+				if(((sums[x] + squares[x] + counts[x]) & 1) == 1){
+					bits[offset + (x >> 3)] |= 0x80 >>> (x & 7);
+				}
+			}
+		}, strips, policy);
+	}
+
+	private static Bitmap oddSumsByBruteForce(Raster raster, int left, int right, int up, int down){
+		Bitmap bm = new Bitmap(raster.getWidth(), raster.getHeight());
+		for(int y=0; y<raster.getHeight(); y++){
+			for(int x=0; x<raster.getWidth(); x++){
+				long sum = 0;
+				for(int j=Math.max(0, y-up); j<=Math.min(raster.getHeight()-1, y+down); j++){
+					for(int i=Math.max(0, x-left); i<=Math.min(raster.getWidth()-1, x+right); i++){
+						long v = raster.getSample(i, j, 0);
+						sum += v + v*v + 1;
+					}
+				}
+				bm.set(x, y, (sum & 1) == 1);
+			}
+		}
+		return bm;
+	}
+
+	private static void assertSameBits(Bitmap expected, Bitmap actual){
+		assertEquals(expected.width(), actual.width());
+		assertEquals(expected.height(), actual.height());
+		for(int y=0; y<expected.height(); y++){
+			for(int x=0; x<expected.width(); x++){
+				assertEquals(x + "," + y, expected.get(x, y), actual.get(x, y));
+			}
+		}
+		assertEquals(expected.fractionPixelsOn(), actual.fractionPixelsOn(), 0);
+	}
+
+	@Test
+	public void sumsMatchAddingUpEachWindow(){
+		Raster raster = noise(53, 41, 1);
+		int[][] windows = {{0, 0, 0, 0}, {3, 3, 3, 3}, {4, 3, 4, 3}, {1, 6, 5, 0}, {60, 60, 60, 60}};
+		for(int[] w : windows){
+			Bitmap expected = oddSumsByBruteForce(raster, w[0], w[1], w[2], w[3]);
+			WindowSums sums = new WindowSums(raster, w[0], w[1], w[2], w[3]);
+			assertSameBits(expected, oddSums(sums, 1, ExecutionPolicy.SEQUENTIAL));
+			assertSameBits(expected, oddSums(sums, 7, ExecutionPolicy.SEQUENTIAL));
+		}
+	}
+
+	@Test
+	public void stripsInParallelMatchOneStrip(){
+		Raster raster = noise(300, 257, 2);
+		WindowSums sums = new WindowSums(raster, 9, 9, 9, 9);
+		Bitmap expected = oddSums(sums, 1, ExecutionPolicy.SEQUENTIAL);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try{
+			ExecutionPolicy parallel = ExecutionPolicy.of(Parallelism.PER_GLYPH, executor);
+			for(int strips : new int[]{2, 3, 5, 257, 1000}){
+				assertSameBits(expected, oddSums(sums, strips, parallel));
+			}
+		}finally{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void adaptiveThresholdMatchesWindowMeanAndDeviation(){
+		Raster raster = noise(120, 90, 3);
+		ImageStats stats = Binarization.computeImageStats(raster);
+		int r = 5;
+		AdaptiveThreshold adaptive = new AdaptiveThreshold(r);
+		Bitmap actual = adaptive.binarize(raster, stats, s->{});
+
+		double range = stats.max - stats.min;
+		Bitmap expected = new Bitmap(raster.getWidth(), raster.getHeight());
+		for(int y=0; y<raster.getHeight(); y++){
+			for(int x=0; x<raster.getWidth(); x++){
+				long sum = 0;
+				long squares = 0;
+				int count = 0;
+				for(int j=Math.max(0, y-r); j<=Math.min(raster.getHeight()-1, y+r); j++){
+					for(int i=Math.max(0, x-r); i<=Math.min(raster.getWidth()-1, x+r); i++){
+						long v = raster.getSample(i, j, 0);
+						sum += v;
+						squares += v*v;
+						count++;
+					}
+				}
+				double mean = (double) sum / count;
+				double stdDEV = Math.sqrt(Math.abs((double) squares / count - mean * mean));
+				double threshold = Math.min(mean + stdDEV * AdaptiveThreshold.DEFAULT_SIGMA_THRESHOLD,
+						stats.min + range * AdaptiveThreshold.DEFAULT_ADAPTIVE_MAX_THRESHOLD_RATIO);
+				threshold = Math.max(threshold, stats.min + range * AdaptiveThreshold.DEFAULT_ADAPTIVE_MIN_THRESHOLD_RATIO);
+				expected.set(x, y, raster.getSample(x, y, 0) > threshold);
+			}
+		}
+		assertSameBits(expected, actual);
+	}
+}
@@ -0,0 +1,480 @@
+package gov.nih.ncats.molvec.internal.util;
+
+import static org.junit.Assert.*;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.Deadline;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable.Edge;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable.Node;
+import gov.nih.ncats.molvec.internal.util.ConnectionTable.Ring;
+
+public class ConnectionTableTest {
+
+	private static final String[] SYMBOLS = {"C","C","N","O"};
+
+	/*
+	 * nodes in small clumps, so there is plenty to merge, with random edges
+	 */
+	private static ConnectionTable randomTable(long seed, int n){
+		Random r = new Random(seed);
+		ConnectionTable ct = new ConnectionTable();
+		Point2D center = new Point2D.Double();
+		for(int i=0;i<n;i++){
+			if(i%4==0){
+				center = new Point2D.Double(r.nextDouble()*100, r.nextDouble()*100);
+			}
+			ct.addNode(new Point2D.Double(center.getX()+r.nextGaussian()*2, center.getY()+r.nextGaussian()*2))
+			  .setSymbol(SYMBOLS[r.nextInt(SYMBOLS.length)]);
+		}
+		for(int i=0;i<n;i++){
+			ct.addEdge(r.nextInt(n), r.nextInt(n), 1+r.nextInt(2));
+		}
+		return ct;
+	}
+
+	/*
+	 * what mergeFilteredNodesCloserThan did before it used a grid: start over after every merge
+	 */
+	private static void mergeByRescanning(ConnectionTable ct, double maxDistance, Predicate<Node> includeNode){
+		List<Node> nodes = ct.getNodes();
+		boolean mergedOne = true;
+		while(mergedOne){
+			mergedOne=false;
+			for(int i=0;i<nodes.size() && !mergedOne;i++){
+				if(!includeNode.test(nodes.get(i)))continue;
+				for(int j=i+1;j<nodes.size();j++){
+					if(!includeNode.test(nodes.get(j)))continue;
+					if(nodes.get(i).getPoint().distance(nodes.get(j).getPoint())<maxDistance){
+						ct.mergeNodesAverage(i,j);
+						mergedOne=true;
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static void assertSameTable(ConnectionTable expected, ConnectionTable actual){
+		assertEquals(expected.getNodes().size(), actual.getNodes().size());
+		for(int i=0;i<expected.getNodes().size();i++){
+			Node e = expected.getNodes().get(i);
+			Node a = actual.getNodes().get(i);
+			assertEquals(e.getPoint(), a.getPoint());
+			assertEquals(e.getSymbol(), a.getSymbol());
+		}
+		assertEquals(edgesOf(expected), edgesOf(actual));
+	}
+
+	private static List<String> edgesOf(ConnectionTable ct){
+		return ct.getEdges().stream().map(e->e.n1+"-"+e.n2+":"+e.getOrder()).collect(Collectors.toList());
+	}
+
+	@Test
+	public void mergingCloseNodesSameAsRescanningAfterEachMerge(){
+		for(long seed=0;seed<20;seed++){
+			for(Predicate<Node> include : Arrays.<Predicate<Node>>asList(n->true, n->!n.getSymbol().equals("O"))){
+				ConnectionTable expected = randomTable(seed, 80);
+				ConnectionTable actual = randomTable(seed, 80);
+
+				mergeByRescanning(expected, 3, include);
+				actual.mergeFilteredNodesCloserThan(3, include);
+
+				assertSameTable(expected, actual);
+			}
+		}
+	}
+
+	@Test
+	public void mergingCloseNodesAgainWhenMergesChangeWhatIsIncluded(){
+		ConnectionTable ct = new ConnectionTable();
+		ct.addNode(new Point2D.Double(0, 0));
+		ct.addNode(new Point2D.Double(1, 0));
+		ct.addNode(new Point2D.Double(50, 0));
+		ct.addNode(new Point2D.Double(51, 0));
+		//the first node is only included once the far pair has merged
+		Predicate<Node> include = n->n.getPoint().getX()>0 || ct.getNodes().size()<4;
+
+		ConnectionTable expected = new ConnectionTable();
+		ct.getNodes().forEach(n->expected.addNode(n.getPoint()));
+		mergeByRescanning(expected, 3, n->n.getPoint().getX()>0 || expected.getNodes().size()<4);
+		ct.mergeFilteredNodesCloserThan(3, include);
+
+		assertEquals(2, ct.getNodes().size());
+		assertSameTable(expected, ct);
+	}
+
+	@Test
+	public void mergingListOfNodesSameAsMergingEachPair(){
+		for(long seed=0;seed<20;seed++){
+			ConnectionTable expected = randomTable(seed, 30);
+			ConnectionTable actual = randomTable(seed, 30);
+			Point2D p = new Point2D.Double(50, 50);
+
+			expected.mergeNodes(20, 12, (p1,p2)->p);
+			expected.mergeNodes(12, 7, (p1,p2)->p);
+			expected.mergeNodes(7, 3, (p1,p2)->p);
+			actual.mergeNodes(Arrays.asList(12, 3, 20, 7), pl->p);
+
+			assertSameTable(expected, actual);
+			assertEquals(27, actual.getNodes().size());
+		}
+	}
+
+	@Test
+	public void mergingGroupsOfCloseNodesSameAsGroupingEveryPair(){
+		Function<List<Node>, Point2D> first = nl->nl.get(0).getPoint();
+		for(long seed=0;seed<20;seed++){
+			ConnectionTable expected = randomTable(seed, 80);
+			ConnectionTable actual = randomTable(seed, 80);
+
+			GeomUtil.groupThings(expected.getNodes(), t->t.k().getPoint().distanceSq(t.v().getPoint())<3*3)
+					.stream()
+					.filter(nl->nl.size()>=2)
+					.forEach(nl->{
+						Point2D p = first.apply(nl);
+						expected.mergeNodes(nl.stream().map(n->n.getIndex()).collect(Collectors.toList()), pl->p);
+					});
+			actual.mergeNodesCloserThan(3, first);
+
+			assertSameTable(expected, actual);
+		}
+	}
+
+	/*
+	 * separate fused ring systems, so changing one leaves the others as they were
+	 */
+	private static ConnectionTable ringTable(int systems){
+		ConnectionTable ct = new ConnectionTable();
+		for(int s=0;s<systems;s++){
+			int first = ct.getNodes().size();
+			for(int i=0;i<10;i++){
+				ct.addNode(new Point2D.Double(s*100+i*10, i%2*10));
+			}
+			for(int i=0;i<4;i++){
+				ct.addEdge(first+i, first+i+1, 1);
+				ct.addEdge(first+i+5, first+i+6, 1);
+			}
+			ct.addEdge(first, first+5, 1);
+			ct.addEdge(first+2, first+7, 1);
+			ct.addEdge(first+4, first+9, 1);
+		}
+		return ct;
+	}
+
+	private static List<String> ringsOf(ConnectionTable ct){
+		List<String> rings = new ArrayList<>();
+		for(Ring r : ct.getRings()){
+			rings.add(r.getNodes().stream().map(n->n.getIndex()+"").collect(Collectors.joining(","))
+					+ "/" + r.getEdges().stream().map(e->e.n1+"-"+e.n2).collect(Collectors.joining(",")));
+		}
+		return rings;
+	}
+
+	private static List<String> adjacencyOf(ConnectionTable ct){
+		List<String> adjacency = new ArrayList<>();
+		for(int i=0;i<ct.getNodes().size();i++){
+			Node n = ct.getNodes().get(i);
+			assertEquals(i, n.getIndex());
+			adjacency.add(n.getEdges().stream().map(e->e.n1+"-"+e.n2).collect(Collectors.joining(",")));
+		}
+		return adjacency;
+	}
+
+	@Test
+	public void ringsAndEdgesAfterChangesSameAsFreshTable(){
+		List<Consumer<ConnectionTable>> changes = Arrays.asList(
+				ct->ct.addEdge(11, 16, 1),
+				ct->ct.removeEdge(ct.getEdges().get(0)),
+				ct->ct.addEdge(ct.addNode(new Point2D.Double(5, 5)).getIndex(), 3, 1),
+				ct->ct.addEdge(29, 29, 1),
+				ct->ct.removeEdge(ct.getEdges().get(ct.getEdges().size()-1)),
+				ct->ct.mergeNodesAverage(20, 25),
+				ct->ct.removeNodeAndEdges(ct.getNodes().get(12)));
+
+		ConnectionTable changed = ringTable(3);
+		for(int i=0;i<changes.size();i++){
+			ringsOf(changed);
+			adjacencyOf(changed);
+			changes.get(i).accept(changed);
+
+			ConnectionTable fresh = ringTable(3);
+			for(int j=0;j<=i;j++){
+				changes.get(j).accept(fresh);
+			}
+
+			assertEquals(adjacencyOf(fresh), adjacencyOf(changed));
+			assertEquals(ringsOf(fresh), ringsOf(changed));
+		}
+	}
+
+	@Test
+	public void edgesHandedOutAreNotChangedByLaterEdits(){
+		ConnectionTable ct = ringTable(1);
+		List<Edge> before = new ArrayList<>(ct.getNodes().get(0).getEdges());
+		List<Edge> handedOut = ct.getNodes().get(0).getEdges();
+
+		ct.addEdge(0, 3, 2);
+		ct.removeEdge(before.get(0));
+
+		assertEquals(before, handedOut);
+		assertEquals(2, ct.getNodes().get(0).getEdges().size());
+	}
+
+	private static ConnectionTable table(int nodes, int[][] edges){
+		ConnectionTable ct = new ConnectionTable();
+		for(int i=0;i<nodes;i++){
+			ct.addNode(new Point2D.Double(i, i*i));
+		}
+		for(int[] e : edges){
+			ct.addEdge(e[0], e[1], 1);
+		}
+		return ct;
+	}
+
+	private static List<Integer> ringSizes(List<Ring> rings){
+		return rings.stream().map(r->r.size()).collect(Collectors.toList());
+	}
+
+	/*
+	 * the edges of a ring, if it really is a ring of the table
+	 */
+	private static BitSet ringEdges(ConnectionTable ct, Ring r){
+		BitSet edges = new BitSet();
+		List<Node> nl = r.getNodes();
+		assertEquals(nl.size(), new HashSet<>(nl).size());
+		for(int i=0;i<nl.size();i++){
+			Node a = nl.get(i);
+			Node b = nl.get((i+1)%nl.size());
+			Edge e = a.getEdges().stream().filter(ed->ed.getOtherNode(a)==b).findFirst().orElse(null);
+			assertNotNull("not a ring", e);
+			edges.set(ct.getEdges().indexOf(e));
+		}
+		return edges;
+	}
+
+	/*
+	 * rank over GF(2), adding the vectors in order
+	 */
+	private static int rank(List<BitSet> vectors){
+		List<BitSet> basis = new ArrayList<>();
+		for(BitSet v : vectors){
+			BitSet r = (BitSet)v.clone();
+			for(BitSet b : basis){
+				if(r.get(b.nextSetBit(0))){
+					r.xor(b);
+				}
+			}
+			if(!r.isEmpty()){
+				basis.add(r);
+			}
+		}
+		return basis.size();
+	}
+
+	private static void allRings(ConnectionTable ct, List<Node> path, Set<Node> used, List<Ring> found){
+		Node last = path.get(path.size()-1);
+		for(Edge e : last.getEdges()){
+			Node next = e.getOtherNode(last);
+			if(next==path.get(0) && path.size()>2){
+				found.add(Ring.of(new ArrayList<>(path), ct));
+			}else if(!used.contains(next) && next.getIndex()>path.get(0).getIndex()){
+				path.add(next);
+				used.add(next);
+				allRings(ct, path, used, found);
+				used.remove(next);
+				path.remove(path.size()-1);
+			}
+		}
+	}
+
+	@Test
+	public void smallestSetOfSmallestRingsOfCagesAndFusedRings(){
+		//naphthalene
+		assertEquals(Arrays.asList(6,6), ringSizes(table(10, new int[][]{
+			{0,1},{1,2},{2,3},{3,4},{4,5},{5,0},{4,6},{6,7},{7,8},{8,9},{9,3}}).getSmallestSetOfSmallestRings()));
+		//norbornane
+		assertEquals(Arrays.asList(5,5), ringSizes(table(7, new int[][]{
+			{0,1},{1,2},{2,3},{3,4},{4,5},{5,0},{0,6},{6,3}}).getSmallestSetOfSmallestRings()));
+		//cubane
+		assertEquals(Arrays.asList(4,4,4,4,4), ringSizes(table(8, new int[][]{
+			{0,1},{1,2},{2,3},{3,0},{4,5},{5,6},{6,7},{7,4},{0,4},{1,5},{2,6},{3,7}}).getSmallestSetOfSmallestRings()));
+		//adamantane
+		assertEquals(Arrays.asList(6,6,6), ringSizes(table(10, new int[][]{
+			{0,4},{0,5},{0,6},{1,4},{1,7},{1,8},{2,5},{2,7},{2,9},{3,6},{3,8},{3,9}}).getSmallestSetOfSmallestRings()));
+		//cyclopropane and a chain, with a doubled edge and a loop which aren't rings
+		assertEquals(Arrays.asList(3), ringSizes(table(6, new int[][]{
+			{0,1},{1,2},{2,0},{3,4},{4,5},{3,4},{5,5}}).getSmallestSetOfSmallestRings()));
+	}
+
+	@Test
+	public void ringsOfCagesHaveEveryFace(){
+		//cubane, where the smallest set of smallest rings leaves out a face
+		assertEquals(Arrays.asList(4,4,4,4,4,4), ringSizes(table(8, new int[][]{
+			{0,1},{1,2},{2,3},{3,0},{4,5},{5,6},{6,7},{7,4},{0,4},{1,5},{2,6},{3,7}}).getRings()));
+		//adamantane
+		assertEquals(Arrays.asList(6,6,6,6), ringSizes(table(10, new int[][]{
+			{0,4},{0,5},{0,6},{1,4},{1,7},{1,8},{2,5},{2,7},{2,9},{3,6},{3,8},{3,9}}).getRings()));
+	}
+
+	@Test
+	public void largeFusedSystemHasEveryRing(){
+		ConnectionTable ct = new ConnectionTable();
+		int w = 12;
+		for(int i=0;i<w*w;i++){
+			ct.addNode(new Point2D.Double(i%w, i/w));
+		}
+		for(int i=0;i<w*w;i++){
+			if(i%w<w-1)ct.addEdge(i, i+1, 1);
+			if(i/w<w-1)ct.addEdge(i, i+w, 1);
+		}
+
+		assertEquals(121, ct.getRings().size());
+		assertTrue(ct.getRings().stream().allMatch(r->r.size()==4));
+	}
+
+	@Test
+	public void tooManyRelevantRingsFallsBackToSmallestSet(){
+		//a loop of 12 squares joined at their corners: the rings around the loop can
+		//go either way around each square, which is 4096 of them.  A cubane hangs off
+		//the loop, and the smallest set of smallest rings has only 5 of its 6 faces
+		int k = 12;
+		int[][] edges = new int[4*k+13][];
+		for(int i=0;i<k;i++){
+			int next = ((i+1)%k)*3;
+			edges[4*i] = new int[]{3*i, 3*i+1};
+			edges[4*i+1] = new int[]{3*i, 3*i+2};
+			edges[4*i+2] = new int[]{3*i+1, next};
+			edges[4*i+3] = new int[]{3*i+2, next};
+		}
+		int c = 3*k;
+		int[][] cubane = {{0,1},{1,2},{2,3},{3,0},{4,5},{5,6},{6,7},{7,4},{0,4},{1,5},{2,6},{3,7}};
+		for(int i=0;i<cubane.length;i++){
+			edges[4*k+i] = new int[]{c+cubane[i][0], c+cubane[i][1]};
+		}
+		edges[4*k+12] = new int[]{0, c};
+		ConnectionTable ct = table(3*k+8, edges);
+
+		//and the ring around the loop is too big to be given
+		assertEquals(Collections.nCopies(k+5, 4), ringSizes(ct.getRings()));
+	}
+
+	@Test
+	public void ringsOfMoreThanTenNodesLeftOut(){
+		int[][] edges = new int[23][];
+		for(int i=0;i<11;i++){
+			edges[i] = new int[]{i, (i+1)%11};
+		}
+		for(int i=0;i<12;i++){
+			edges[11+i] = new int[]{11+i, 11+(i+1)%12};
+		}
+
+		assertEquals(Collections.emptyList(), table(23, edges).getRings());
+		//once the deadline has expired, only the smallest set of smallest rings is found
+		assertEquals(Collections.emptyList(), table(23, edges).setDeadline(Deadline.after(0, TimeUnit.SECONDS)).getRings());
+	}
+
+	@Test
+	public void ringsAreTheSmallestThroughEveryNode(){
+		Random r = new Random(2);
+		for(int t=0;t<200;t++){
+			int n = 4+r.nextInt(10);
+			ConnectionTable ct = new ConnectionTable();
+			for(int i=0;i<n;i++){
+				ct.addNode(new Point2D.Double(i, 0));
+			}
+			Set<String> seen = new HashSet<>();
+			int m = n+r.nextInt(8);
+			for(int i=0;i<m;i++){
+				int a = r.nextInt(n);
+				int b = r.nextInt(n);
+				if(a!=b && seen.add(Math.min(a,b)+"-"+Math.max(a,b))){
+					ct.addEdge(a, b, 1);
+				}
+			}
+
+			List<Ring> every = new ArrayList<>();
+			for(Node start : ct.getNodes()){
+				List<Node> path = new ArrayList<>(Arrays.asList(start));
+				allRings(ct, path, new HashSet<>(path), every);
+			}
+			Set<Set<Node>> expected = new HashSet<>();
+			for(Node node : ct.getNodes()){
+				int smallest = every.stream()
+						.filter(ring->ring.getNodes().contains(node))
+						.mapToInt(ring->ring.size())
+						.min()
+						.orElse(0);
+				every.stream()
+					.filter(ring->ring.size()==smallest && ring.size()<=10 && ring.getNodes().contains(node))
+					.forEach(ring->expected.add(new HashSet<>(ring.getNodes())));
+			}
+
+			List<Ring> rings = ct.getRings();
+			rings.forEach(ring->ringEdges(ct, ring));
+			Set<Set<Node>> actual = rings.stream().map(ring->new HashSet<>(ring.getNodes())).collect(Collectors.toSet());
+			assertEquals(rings.size(), actual.size());
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void smallestSetOfSmallestRingsSameSizesAsFromEveryRing(){
+		Random r = new Random(1);
+		for(int t=0;t<200;t++){
+			int n = 4+r.nextInt(8);
+			ConnectionTable ct = new ConnectionTable();
+			for(int i=0;i<n;i++){
+				ct.addNode(new Point2D.Double(i, 0));
+			}
+			Set<String> seen = new HashSet<>();
+			int m = n+r.nextInt(6);
+			for(int i=0;i<m;i++){
+				int a = r.nextInt(n);
+				int b = r.nextInt(n);
+				if(a!=b && seen.add(Math.min(a,b)+"-"+Math.max(a,b))){
+					ct.addEdge(a, b, 1);
+				}
+			}
+
+			List<Ring> every = new ArrayList<>();
+			for(Node start : ct.getNodes()){
+				List<Node> path = new ArrayList<>(Arrays.asList(start));
+				allRings(ct, path, new HashSet<>(path), every);
+			}
+			every.sort((a,b)->Integer.compare(a.size(), b.size()));
+			List<BitSet> everyEdges = every.stream().map(ring->ringEdges(ct, ring)).collect(Collectors.toList());
+			//greedy is best for a matroid, so this is the size of a minimum cycle basis
+			List<Integer> expected = new ArrayList<>();
+			List<BitSet> basis = new ArrayList<>();
+			for(int i=0;i<every.size();i++){
+				basis.add(everyEdges.get(i));
+				if(rank(basis)==basis.size()){
+					expected.add(every.get(i).size());
+				}else{
+					basis.remove(basis.size()-1);
+				}
+			}
+
+			List<Ring> sssr = ct.getSmallestSetOfSmallestRings();
+			List<BitSet> sssrEdges = sssr.stream().map(ring->ringEdges(ct, ring)).collect(Collectors.toList());
+			assertEquals(expected, ringSizes(sssr));
+			assertEquals(sssr.size(), rank(sssrEdges));
+		}
+	}
+}
@@ -638,6 +638,85 @@ public class GeomUtilTest {
     	}
     }
     
+    @Test
+    public void countContainedPairsMatchesComparingEveryPair(){
+    	Random r = new Random(42);
+    	List<Shape> shapes = new ArrayList<>();
+    	for(int i=0;i<300;i++){
+    		//a mix of big boxes, small triangles inside and around them, and some duplicates
+    		double x = r.nextInt(200);
+    		double y = r.nextInt(200);
+    		double w = 1 + r.nextInt(i%10==0?80:6);
+    		Shape s;
+    		if(i%3==0){
+    			s = new Rectangle2D.Double(x, y, w, w);
+    		}else{
+    			s = shapeFromVertices(new Point2D[]{new Point2D.Double(x,y),new Point2D.Double(x+w,y),new Point2D.Double(x,y+w)});
+    		}
+    		shapes.add(s);
+    		if(i%50==0){
+    			shapes.add(s);
+    		}
+    	}
+    	long expected = shapes.stream()
+    			.mapToLong(s->shapes.stream().filter(s2->GeomUtil.contains(s, s2)).count())
+    			.sum();
+    	assertTrue(expected > 0);
+    	assertEquals(expected, GeomUtil.countContainedPairs(shapes));
+    }
+    
+    @Test
+    public void spatialGridFindsEveryItemInsideRectangle(){
+    	Random r = new Random(7);
+    	SpatialGrid<Point2D> grid = new SpatialGrid<>(3.5);
+    	List<Point2D> pts = new ArrayList<>();
+    	for(int i=0;i<500;i++){
+    		Point2D p = new Point2D.Double(r.nextDouble()*100-50, r.nextDouble()*100-50);
+    		pts.add(p);
+    		grid.add(p.getX(), p.getY(), p);
+    	}
+    	assertTrue(grid.remove(pts.get(0).getX(), pts.get(0).getY(), pts.remove(0)));
+    	assertEquals(pts.size(), grid.size());
+    	for(Rectangle2D q : new Rectangle2D[]{new Rectangle2D.Double(-10, -3, 7, 12), new Rectangle2D.Double(-1000, -1000, 2000, 2000)}){
+    		List<Point2D> found = new ArrayList<>();
+    		grid.forEachNear(q.getMinX(), q.getMinY(), q.getMaxX(), q.getMaxY(), found::add);
+    		for(Point2D p : pts){
+    			boolean inside = p.getX()>=q.getMinX() && p.getX()<=q.getMaxX() && p.getY()>=q.getMinY() && p.getY()<=q.getMaxY();
+    			if(inside){
+    				assertTrue(p.toString(), found.contains(p));
+    			}
+    		}
+    	}
+    }
+
+    @Test
+    public void groupNearbyThingsSameAsTryingEveryPair(){
+    	Random r = new Random(11);
+    	List<Rectangle2D> boxes = new ArrayList<>();
+    	for(int i=0;i<400;i++){
+    		//mostly small boxes, a few points, and a few much bigger than the rest
+    		double w = i%7==0?0:1 + r.nextInt(i%40==0?150:4);
+    		double h = i%7==0?0:1 + r.nextInt(i%40==0?150:4);
+    		boxes.add(new Rectangle2D.Double(r.nextInt(300), r.nextInt(300), w, h));
+    	}
+    	double gap = 2.5;
+    	List<List<Rectangle2D>> expected = GeomUtil.groupThings(boxes, t->boxDistance(t.k(), t.v())<gap);
+
+    	List<List<Rectangle2D>> actual = GeomUtil.groupNearbyThings(boxes, b->b, gap, (b1,b2)->{
+    		assertTrue(boxes.indexOf(b1) < boxes.indexOf(b2));
+    		return boxDistance(b1, b2)<gap;
+    	});
+
+    	assertTrue(expected.size() < boxes.size());
+    	assertEquals(expected, actual);
+    	assertEquals(expected, boxes.stream().collect(GeomUtil.groupNearbyThings(b->b, gap, (b1,b2)->boxDistance(b1, b2)<gap)));
+    }
+
+    private static double boxDistance(Rectangle2D a, Rectangle2D b){
+    	double dx = Math.max(0, Math.max(a.getMinX()-b.getMaxX(), b.getMinX()-a.getMaxX()));
+    	double dy = Math.max(0, Math.max(a.getMinY()-b.getMaxY(), b.getMinY()-a.getMaxY()));
+    	return Math.sqrt(dx*dx+dy*dy);
+    }
     
     
     
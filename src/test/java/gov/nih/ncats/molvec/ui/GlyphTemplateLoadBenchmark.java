@@ -0,0 +1,60 @@
+package gov.nih.ncats.molvec.ui;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+/**
+ * Compares loading the OCR glyph templates from the precompiled binary
+ * resources against parsing the Base64 source, the way they used to be
+ * loaded.  Not a unit test, run it directly:
+ * <pre>
+ * java -cp ... gov.nih.ncats.molvec.ui.GlyphTemplateLoadBenchmark [iterations]
+ * </pre>
+ * The first iteration of each is reported on its own, since that is what a
+ * short lived process actually pays.
+ */
+public class GlyphTemplateLoadBenchmark {
+
+	private interface Loader{
+		void load(AbstractStupidestPossibleSCOCR ocr, BiConsumer<String, RasterChar> consumer) throws IOException;
+	}
+
+	private static final AbstractStupidestPossibleSCOCR[] OCRS = new AbstractStupidestPossibleSCOCR[]{
+			new StupidestPossibleSCOCRSansSerif(), new StupidestPossibleSCOCRSerif()};
+
+	private static long time(Loader loader) throws IOException{
+		int[] count = new int[1];
+		long start = System.nanoTime();
+		for(AbstractStupidestPossibleSCOCR ocr : OCRS){
+			loader.load(ocr, (c, rc)->count[0]++);
+		}
+		long t = System.nanoTime() - start;
+		if(count[0]==0){
+			throw new IllegalStateException("no templates loaded");
+		}
+		return t;
+	}
+
+	private static void run(String name, Loader loader, int iterations) throws IOException{
+		long first = time(loader);
+		long total = 0;
+		for(int i=0;i<iterations;i++){
+			total += time(loader);
+		}
+		System.out.printf("%-8s first: %8.2f ms   steady state: %8.3f ms/load%n",
+				name, first / 1e6, total / 1e6 / iterations);
+	}
+
+	public static void main(String[] args) throws IOException{
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		//binary first so that it doesn't benefit from the JIT warmup of the other
+		run("binary", (ocr, c)->{
+			if(!GlyphTemplates.read(ocr.getClass(), c)){
+				throw new IllegalStateException("missing template resource, build the project first");
+			}
+		}, iterations);
+		run("base64", AbstractStupidestPossibleSCOCR::loadSourceRasters, iterations);
+	}
+}
@@ -0,0 +1,67 @@
+package gov.nih.ncats.molvec.ui;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.algo.Tuple;
+import gov.nih.ncats.molvec.ui.RasterBasedCosineSCOCR.RasterChar;
+
+public class GlyphTemplatesTest {
+
+	private static List<Tuple<String,RasterChar>> fromSource(AbstractStupidestPossibleSCOCR ocr){
+		List<Tuple<String,RasterChar>> list = new ArrayList<>();
+		ocr.loadSourceRasters((c,rc)->list.add(Tuple.of(c,rc)));
+		return list;
+	}
+
+	private static void assertSameTemplates(List<Tuple<String,RasterChar>> expected, List<Tuple<String,RasterChar>> actual){
+		assertEquals(expected.size(), actual.size());
+		for(int i=0;i<expected.size();i++){
+			RasterChar e = expected.get(i).v();
+			RasterChar a = actual.get(i).v();
+			assertEquals(expected.get(i).k(), actual.get(i).k());
+			assertEquals(e.rect, a.rect);
+			assertEquals(e.data.length, a.data.length);
+			for(int x=0;x<e.data.length;x++){
+				assertArrayEquals(e.data[x], a.data[x]);
+			}
+		}
+	}
+
+	@Test
+	public void binaryRoundTripMatchesBase64Source() throws IOException{
+		for(AbstractStupidestPossibleSCOCR ocr : new AbstractStupidestPossibleSCOCR[]{
+				new StupidestPossibleSCOCRSansSerif(), new StupidestPossibleSCOCRSerif()}){
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			GlyphTemplates.write(ocr, out);
+
+			List<Tuple<String,RasterChar>> read = new ArrayList<>();
+			GlyphTemplates.read(ByteBuffer.wrap(out.toByteArray()), (c,rc)->read.add(Tuple.of(c,rc)));
+
+			assertSameTemplates(fromSource(ocr), read);
+		}
+	}
+
+	@Test
+	public void generatedResourcesMatchBase64Source() throws IOException{
+		for(AbstractStupidestPossibleSCOCR ocr : new AbstractStupidestPossibleSCOCR[]{
+				new StupidestPossibleSCOCRSansSerif(), new StupidestPossibleSCOCRSerif()}){
+			List<Tuple<String,RasterChar>> read = new ArrayList<>();
+			assertTrue(GlyphTemplates.read(ocr.getClass(), (c,rc)->read.add(Tuple.of(c,rc))));
+
+			assertSameTemplates(fromSource(ocr), read);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOtherData() throws IOException{
+		GlyphTemplates.read(ByteBuffer.wrap(new byte[]{1,2,3,4,5,6,7,8,9,10,11,12}), (c,rc)->{});
+	}
+}
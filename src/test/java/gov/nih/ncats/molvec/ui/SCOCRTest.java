@@ -0,0 +1,188 @@
+package gov.nih.ncats.molvec.ui;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import gov.nih.ncats.molvec.internal.algo.StructureImageExtractor;
+import gov.nih.ncats.molvec.internal.algo.Tuple;
+import gov.nih.ncats.molvec.internal.image.Bitmap;
+
+public class SCOCRTest {
+
+	private static Bitmap glyph(String s, int style){
+		return glyph(s, style, 40, 40, 28);
+	}
+
+	private static Bitmap glyph(String s, int style, int width, int height, int size){
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		Graphics2D g = img.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, width, height);
+		g.setColor(Color.BLACK);
+		g.setFont(new Font(Font.SANS_SERIF, style, size));
+		g.drawString(s, width/5, height*4/5);
+		g.dispose();
+		return Bitmap.read(img, StructureImageExtractor.DEF_BINARIZATION);
+	}
+
+	/*
+	 * the original correlation, over on pixels grouped into cells by string keys
+	 * and a count of every pixel in each cell
+	 */
+	private static double correlation(RasterBasedCosineSCOCR ocr, Bitmap bm, Character c){
+		int w = RasterBasedCosineSCOCR.DEF_WIDTH;
+		int h = RasterBasedCosineSCOCR.DEF_HEIGHT;
+		List<RasterBasedCosineSCOCR.RasterChar> rcl = ocr.charVal.get(c);
+		if(rcl==null){
+			return 0;
+		}
+		int twidth = bm.width();
+		int theight = bm.height();
+		List<int[]> xys = bm.getXYOnPoints()
+				.map(xy->new int[]{(xy[0] * w) / twidth, (xy[1] * h) / theight, 1})
+				.collect(Collectors.groupingBy(i->i[0]+","+i[1]))
+				.values()
+				.stream()
+				.map(il->{
+					int[] r1 = il.get(0);
+					r1[2] = il.size();
+					return r1;
+				})
+				.collect(Collectors.toList());
+		int total = xys.stream().mapToInt(r1->r1[2]).sum();
+		int[][] ccount = new int[w][h];
+		for(int i=0;i<twidth;i++){
+			for(int j=0;j<theight;j++){
+				ccount[(i * w) / twidth][(j * h) / theight]++;
+			}
+		}
+
+		double maxCor = Double.MIN_VALUE;
+		for(RasterBasedCosineSCOCR.RasterChar rc : rcl){
+			int[][] cM = rc.data;
+			double cor = 0;
+			int sum = 0;
+			for(int[] xy : xys){
+				cor += cM[xy[0]][xy[1]]*xy[2];
+			}
+			for(int i=0;i<w;i++){
+				for(int j=0;j<h;j++){
+					int val = cM[i][j];
+					sum += val*val*ccount[i][j];
+				}
+			}
+			double whrat = (double) twidth / (double) theight;
+			whrat = (rc.rect.getWidth()/rc.rect.getHeight()) / whrat;
+			if(whrat > 1){
+				whrat = 1 / whrat;
+			}
+			whrat = 1 - Math.pow(1 - whrat, 2);
+			double tcor = whrat * cor / (Math.sqrt(total) * Math.sqrt(sum));
+			maxCor = Math.max(tcor, maxCor);
+		}
+		return maxCor;
+	}
+
+	@Test
+	public void scoresSameAsCorrelatingEachTemplate(){
+		List<Bitmap> glyphs = new ArrayList<>();
+		for(String s : new String[]{"N", "O", "S", "H", "C", "Cl", "Br", "F", "P", "2", "3", "+", "l", "W"}){
+			glyphs.add(glyph(s, Font.PLAIN));
+			glyphs.add(glyph(s, Font.BOLD));
+			//narrow and wide, so the aspect ratio counts too
+			glyphs.add(glyph(s, Font.PLAIN, 17, 31, 20));
+			glyphs.add(glyph(s, Font.BOLD, 53, 23, 18));
+		}
+		for(RasterBasedCosineSCOCR ocr : new RasterBasedCosineSCOCR[]{
+				new StupidestPossibleSCOCRSansSerif(), new StupidestPossibleSCOCRSerif()}){
+			ocr.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+			for(Bitmap bm : glyphs){
+				Map<Character, Number> ranking = ocr.getRanking(bm);
+				Map<Character, Number> parallel = ocr.getRanking(bm, ForkJoinPool.commonPool());
+				assertEquals(ocr._alphabet, ranking.keySet());
+				for(Character c : ocr._alphabet){
+					double expected = correlation(ocr, bm, c);
+					assertEquals(c.toString(), expected, ranking.get(c).doubleValue(), 0);
+					assertEquals(c.toString(), expected, parallel.get(c).doubleValue(), 0);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void cascadeBestMatchesSameAsFromRankings(){
+		SCOCR sans = new StupidestPossibleSCOCRSansSerif();
+		SCOCR serif = new StupidestPossibleSCOCRSerif()
+				.adjustWeights(t->t.k()=='N'?Tuple.of(t.k(),(Number)(t.v().doubleValue()*0.9)):t);
+		sans.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+		serif.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+
+		//a cutoff nothing clears as well, so the backup is used
+		for(double cutoff : new double[]{0.65, 1.1}){
+			SCOCR ocr = sans.orElse(serif, cutoff);
+			for(String s : new String[]{"N", "O", "S", "H", "2"}){
+				Bitmap a = glyph(s, Font.PLAIN);
+				Bitmap b = glyph(s, Font.BOLD);
+
+				List<Entry<Character, Number>> expected = SCOCR.sortMap(SCOCR.bestOf(
+						ocr.getRanking(a), ocr.getRanking(b)));
+				List<Entry<Character, Number>> actual = ocr.getNBestMatches(4, a, b);
+
+				assertEquals(4, actual.size());
+				for(int i=0;i<4;i++){
+					assertEquals(expected.get(i).getKey(), actual.get(i).getKey());
+					assertEquals(expected.get(i).getValue().doubleValue(), actual.get(i).getValue().doubleValue(), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void topKeepsTiesInCharacterOrder(){
+		SCOCR.Scores scores = new SCOCR.Scores(new char[]{'c','a','b','d'}, new double[]{0.5, 0.5, 0.9, 0.1});
+		List<Entry<Character, Number>> top = scores.top(3);
+
+		assertEquals(3, top.size());
+		assertEquals(Character.valueOf('b'), top.get(0).getKey());
+		assertEquals(Character.valueOf('a'), top.get(1).getKey());
+		assertEquals(Character.valueOf('c'), top.get(2).getKey());
+
+		Map<Character, Number> map = scores.toMap();
+		assertEquals(4, map.size());
+		assertEquals(0.9, map.get('b').doubleValue(), 0);
+	}
+
+	@Test
+	public void emptyCascadeScoresNothing(){
+		SCOCR.OrElseSCOCR ocr = new SCOCR.OrElseSCOCR(new ArrayList<>(), 0.6);
+		Bitmap a = glyph("N", Font.PLAIN);
+
+		assertEquals(0, ocr.getScores(a, null).top(4).size());
+		assertTrue(ocr.getRanking(a).isEmpty());
+		assertTrue(ocr.getNBestMatches(4, a).isEmpty());
+	}
+
+	@Test
+	public void noBitmapsHaveNoBestMatches(){
+		SCOCR sans = new StupidestPossibleSCOCRSansSerif();
+		sans.setAlphabet(SCOCR.SET_COMMON_CHEM_ALL());
+		SCOCR ocr = sans.orElse(new StupidestPossibleSCOCRSerif(), 0.6);
+
+		assertTrue(ocr.getNBestMatches(4).isEmpty());
+		assertTrue(ocr.getNBestMatches(4, (Executor) null).isEmpty());
+	}
+}